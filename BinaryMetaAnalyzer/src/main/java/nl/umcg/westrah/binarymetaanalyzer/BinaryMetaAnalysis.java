@@ -8,6 +8,7 @@ package nl.umcg.westrah.binarymetaanalyzer;
 import gnu.trove.map.hash.TObjectIntHashMap;
 import org.apache.commons.io.FileUtils;
 import umcg.genetica.console.ProgressBar;
+import umcg.genetica.containers.BoundedResultHeap;
 import umcg.genetica.containers.Triple;
 import umcg.genetica.io.Gpio;
 import umcg.genetica.io.text.TextFile;
@@ -73,11 +74,7 @@ public class BinaryMetaAnalysis {
 	protected boolean usetmp;
 	protected String tempDir;
 
-	private QTL[] finalEQTLs;
-	private boolean bufferHasOverFlown;
-	private double maxSavedPvalue = -Double.MAX_VALUE;
-	private boolean sorted;
-	private int locationToStoreResult;
+	private BoundedResultHeap<QTL> finalEQTLs;
 	private MetaQTL4MetaTrait[][] snpprobeCombos;
 
 	protected TObjectIntHashMap<MetaQTL4MetaTrait> traitMap = null;
@@ -154,19 +151,7 @@ public class BinaryMetaAnalysis {
 		}
 
 
-		int maxResults = settings.getFinalEQTLBufferMaxLength();
-		int tmpbuffersize = (maxResults / 10);
-
-		if (tmpbuffersize == 0) {
-			tmpbuffersize = 10;
-		} else if (tmpbuffersize > 250000) {
-			tmpbuffersize = 250000;
-		}
-
-		finalEQTLs = new QTL[(maxResults + tmpbuffersize)];
-		maxSavedPvalue = -Double.MAX_VALUE;
-		locationToStoreResult = 0;
-		bufferHasOverFlown = false;
+		finalEQTLs = new BoundedResultHeap<QTL>(settings.getFinalEQTLBufferMaxLength());
 
 		System.out.println("Loading probe annotation from: " + settings.getProbetranslationfile());
 		loadProbeAnnotation();
@@ -262,10 +247,7 @@ public class BinaryMetaAnalysis {
 			ExecutorService threadPool = Executors.newFixedThreadPool(cores);
 			CompletionService<Triple<ArrayList<QTL>, String, String>> pool = new ExecutorCompletionService<Triple<ArrayList<QTL>, String, String>>(threadPool);
 
-			maxSavedPvalue = -Double.MAX_VALUE;
-			locationToStoreResult = 0;
-			bufferHasOverFlown = false;
-			System.out.println("Max P: " + maxSavedPvalue + "\tLocationToStoreResult: " + locationToStoreResult);
+			finalEQTLs.clear();
 
 
 			System.out.println("Starting meta-analysis");
@@ -355,7 +337,7 @@ public class BinaryMetaAnalysis {
 			}
 
 			System.out.println("Snps returned: " + returned + "\tNr of snps submitted: " + snpList.length + "\tNr of eQTLs evaluated: " + addcalled);
-			System.out.println("Max P: " + maxSavedPvalue + "\tLocationToStoreResult: " + locationToStoreResult);
+			System.out.println("Max P: " + finalEQTLs.getMaxPValue() + "\tResults in buffer: " + finalEQTLs.size());
 
 			if (settings.isMakezscoretable()) {
 				zscoreTableTf.close();
@@ -807,45 +789,7 @@ public class BinaryMetaAnalysis {
 	}
 
 	private void addEQTL(QTL q) {
-
-		double pval = q.getPvalue();
-
-//		// sort every 1E7 results
-//		if (locationToStoreResult > 1E7 && locationToStoreResult % 1E7 == 0) {
-////			System.out.println("Sorting intermediate output.");
-//			Arrays.parallelSort(finalEQTLs, 0, locationToStoreResult);
-////			System.out.println("Done sorting...");
-//		}
-
-		if (bufferHasOverFlown) {
-			if (pval <= maxSavedPvalue) {
-
-				sorted = false;
-
-				finalEQTLs[locationToStoreResult] = q;
-				locationToStoreResult++;
-
-				if (locationToStoreResult == finalEQTLs.length) { // note that finalEQTLs has size: QTL[settings.getFinalEQTLBufferMaxLength()+tmpbuffersize]
-
-					Arrays.parallelSort(finalEQTLs);
-					sorted = true;
-					locationToStoreResult = settings.getFinalEQTLBufferMaxLength();
-					maxSavedPvalue = finalEQTLs[(settings.getFinalEQTLBufferMaxLength() - 1)].getPvalue();
-				}
-			}
-
-		} else {
-			if (pval > maxSavedPvalue) {
-				maxSavedPvalue = pval;
-			}
-
-			finalEQTLs[locationToStoreResult] = q;
-			locationToStoreResult++;
-
-			if (locationToStoreResult == settings.getFinalEQTLBufferMaxLength()) {
-				bufferHasOverFlown = true;
-			}
-		}
+		finalEQTLs.offer(q.getPvalue(), (float) q.getZscore(), q.getSNPId(), traitMap.get(q.getMetaTrait()), q);
 	}
 
 	public enum FileFormat {
@@ -855,10 +799,8 @@ public class BinaryMetaAnalysis {
 
 	private void writeBuffer(String outdir, int permutation) throws IOException {
 
-		// sort the finalbuffer for a last time
-		if (locationToStoreResult != 0) {
-			Arrays.parallelSort(finalEQTLs, 0, locationToStoreResult);
-		}
+		// sort the buffer once, this also empties it for the next permutation
+		ArrayList<QTL> sortedEQTLs = finalEQTLs.removeSorted();
 
 		String outfilename = outdir + "eQTLs.txt.gz";
 		FileFormat outformat = FileFormat.LARGE;
@@ -905,27 +847,16 @@ public class BinaryMetaAnalysis {
 		DecimalFormat pformat = new DecimalFormat("###.########", new DecimalFormatSymbols(Locale.US));
 		DecimalFormat smallpFormat = new DecimalFormat("0.####E0", new DecimalFormatSymbols(Locale.US));
 
-		int ctr = 0;
-		for (int i = 0; i < settings.getFinalEQTLBufferMaxLength(); i++) {
-			if (finalEQTLs[i] != null) {
-				ctr++;
-			}
-		}
-		int totalctr = 0;
-		for (int i = 0; i < finalEQTLs.length; i++) {
-			if (finalEQTLs[i] != null) {
-				totalctr++;
-			}
-		}
-		System.out.println("There are " + ctr + " results in the buffer to write. " + totalctr + " QTLs are in memory at the moment.");
+		int ctr = sortedEQTLs.size();
+		System.out.println("There are " + ctr + " results in the buffer to write.");
 		ProgressBar pb = new ProgressBar(ctr, "Writing: " + outfilename);
 
 		String cistr = "Cis";
 		String transtr = "Trans";
 		String greyz = "Greyzone";
 
-		for (int i = 0; i < settings.getFinalEQTLBufferMaxLength(); i++) {
-			QTL q = finalEQTLs[i];
+		for (int i = 0; i < sortedEQTLs.size(); i++) {
+			QTL q = sortedEQTLs.get(i);
 			if (q != null) {
 //				StringBuilder sb = new StringBuilder(4096);
 				if (outformat.equals(FileFormat.LARGE)) {
@@ -1028,12 +959,11 @@ public class BinaryMetaAnalysis {
 
 				pb.iterate();
 			}
-			finalEQTLs[i] = null; // trash it immediately
+			sortedEQTLs.set(i, null); // trash it immediately
 		}
 
 		pb.close();
 		output.close();
-		finalEQTLs = null; // ditch the whole resultset
 
 		if (usetmp) {
 
@@ -13,10 +13,10 @@ import umcg.genetica.util.Primitives;
 
 import java.io.IOException;
 import java.io.RandomAccessFile;
-import java.nio.ByteBuffer;
-import java.nio.MappedByteBuffer;
+import java.nio.FloatBuffer;
 import java.nio.channels.FileChannel;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -45,7 +45,10 @@ public class BinaryMetaAnalysisDataset {
     private String[] snps;
     private final MetaQTL4TraitAnnotation probeAnnotation;
     private final int platformId;
-    private RandomAccessFile raf;
+    private static final long MAX_SEGMENT_BYTES = Integer.MAX_VALUE;
+    private int[] segmentFirstSnp;
+    private long[] segmentStart;
+    private FloatBuffer[] segments;
     private HashMap<String, Double> featureOccuranceScaleMap = null;
 
     private String name = null;
@@ -89,8 +92,6 @@ public class BinaryMetaAnalysisDataset {
             throw new IOException("Could not find file: " + snpFile);
         }
 
-        // TODO: if dataset is < 2gb, then just buffer the whole thing in memory.
-
         this.permutation = permutation;
         BinaryFile f = new BinaryFile(matrix, BinaryFile.R);
         int firstInt = f.readInt();
@@ -122,21 +123,53 @@ public class BinaryMetaAnalysisDataset {
             }
         }
 
-        raf = new RandomAccessFile(matrix, "r");
-        long nrBytesPerBuffer = 1048576 * 2024; // 2Gb
-        if (nrBytesPerBuffer > raf.length()) {
-            nrBytesPerBuffer = raf.length();
+        mapZScores(matrix);
+    }
+
+    /**
+     * Maps the whole z-score matrix read-only. A single mapping is limited to
+     * 2GB, so larger files are mapped in multiple segments, each holding the
+     * z-scores of a range of whole SNPs.
+     */
+    private void mapZScores(String matrix) throws IOException {
+
+        int nrSnps = snps.length;
+        ArrayList<Integer> firstSnps = new ArrayList<>();
+        ArrayList<Long> starts = new ArrayList<>();
+        ArrayList<FloatBuffer> buffers = new ArrayList<>();
+        long fileLength;
+
+        try (RandomAccessFile raf = new RandomAccessFile(matrix, "r");
+             FileChannel channel = raf.getChannel()) {
+
+            fileLength = raf.length();
+            if (snpBytes[nrSnps] > fileLength) {
+                throw new IOException("Matrix at: " + matrix + " is " + fileLength + " bytes, expected " + snpBytes[nrSnps] + " bytes");
+            }
+
+            // the mappings stay valid after the channel is closed
+            int firstSnp = 0;
+            while (firstSnp < nrSnps) {
+                long start = snpBytes[firstSnp];
+                int endSnp = firstSnp;
+                while (endSnp < nrSnps && snpBytes[endSnp + 1] - start <= MAX_SEGMENT_BYTES) {
+                    endSnp++;
+                }
+                if (endSnp == firstSnp) {
+                    throw new IOException("Z-scores of SNP " + snps[firstSnp] + " in matrix at: " + matrix + " are too large to map");
+                }
+                firstSnps.add(firstSnp);
+                starts.add(start);
+                buffers.add(channel.map(FileChannel.MapMode.READ_ONLY, start, snpBytes[endSnp] - start).asFloatBuffer());
+                firstSnp = endSnp;
+            }
         }
 
-        mappedzscorehandle = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, nrBytesPerBuffer);
-        mappedzscorehandle.load();
-        bZs = new byte[(int) nrBytesPerBuffer];
-        mappedzscorehandle.get(bZs);
+        segmentFirstSnp = Primitives.toPrimitiveArr(firstSnps.toArray(new Integer[0]));
+        segmentStart = Primitives.toPrimitiveArr(starts.toArray(new Long[0]));
+        segments = buffers.toArray(new FloatBuffer[0]);
 
-        currentmapstart = 0;
-        currentmapend = currentmapstart + nrBytesPerBuffer;
-        System.out.println(name+"\tPermutation: " + permutation + "\t" + "File size: " + raf.length() + "\tNew buffer: " + bZs.length + "\tsta: " + currentmapstart + "\tsto: " + currentmapend +
-                "\tlen: " + (currentmapend - currentmapstart) + "\tnrbytes: " + nrBytesPerBuffer);
+        System.out.println(name + "\tPermutation: " + permutation + "\t" + "File size: " + fileLength + "\tMapped segments: " + segments.length);
     }
 
     private void loadSNPs(String snpFile, boolean loadstats) throws IOException {
@@ -302,66 +335,32 @@ public class BinaryMetaAnalysisDataset {
     }
 
 
-    private MappedByteBuffer mappedzscorehandle = null;
-    long currentmapend;
-    byte[] bZs = null;
-    long currentmapstart;
-
-    public synchronized float[] getZScores(int snp) throws IOException {
-        long snpBytePos = snpBytes[snp];
-
-        long snpByteNextPos = 0;
-        if (snp == snpBytes.length - 1) {
-            snpByteNextPos = raf.length();
-        } else {
-            snpByteNextPos = snpBytes[snp + 1];
-        }
-
-        int readlen = (int) (snpByteNextPos - snpBytePos);
-
-//		System.out.println("snp pos: " + snpBytePos);
-
-        if (mappedzscorehandle == null || snpBytePos > currentmapend || snpByteNextPos > currentmapend || snpBytePos < currentmapstart) {
-
-            long nrBytesPerBuffer = 1048576 * 10; // 256 mb
+    public int getNrZScores(int snp) {
+        return (int) ((snpBytes[snp + 1] - snpBytes[snp]) / 4);
+    }
 
-            if (snpBytePos + nrBytesPerBuffer > raf.length()) {
-                nrBytesPerBuffer = raf.length() - snpBytePos;
-            }
-            mappedzscorehandle = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, snpBytePos, nrBytesPerBuffer);
-            mappedzscorehandle.load();
-            bZs = new byte[(int) nrBytesPerBuffer];
-            mappedzscorehandle.get(bZs);
-
-            currentmapstart = snpBytePos;
-            currentmapend = currentmapstart + nrBytesPerBuffer;
-            System.out.println(name+"\tNew buffer: " + bZs.length + "\tsta: " + currentmapstart + "\tsto: " + currentmapend +
-                    "\tlen: " + (currentmapend - currentmapstart) + "\tnrbytes: " + nrBytesPerBuffer);
+    /**
+     * Reads directly from the mapped matrix, can be called from multiple
+     * threads at the same time.
+     *
+     * @param snp
+     * @param dest array of at least {@link #getNrZScores(int)} floats
+     * @return dest
+     */
+    public float[] getZScores(int snp, float[] dest) {
+        int segment = Arrays.binarySearch(segmentFirstSnp, snp);
+        if (segment < 0) {
+            segment = -segment - 2;
         }
+        // duplicate to get a position that is not shared with other threads
+        FloatBuffer zScores = segments[segment].duplicate();
+        zScores.position((int) ((snpBytes[snp] - segmentStart[segment]) / 4));
+        zScores.get(dest, 0, getNrZScores(snp));
+        return dest;
+    }
 
-        int offset = (int) (snpBytePos - currentmapstart);
-//		System.out.println("byte pos: " + snpBytePos + "\toffset " + offset + "\tlen " + readlen);
-        byte[] bytesToRead = new byte[readlen];
-
-        System.arraycopy(bZs, offset, bytesToRead, 0, readlen);
-//
-////
-////        if (snpCisProbeMap != null) {
-////            nrZ = snpCisProbeMap[snp].length;
-////        }
-////        System.out.println(snp + "\t" + snpBytePos + "\t" + snpByteNextPos);
-//		raf.seek(snpBytePos);
-//
-
-//		raf.read(bytesToRead);
-        ByteBuffer bytebuffer = ByteBuffer.wrap(bytesToRead);
-        float[] output = new float[readlen / 4];
-        for (int i = 0; i < output.length; i++) {
-            output[i] = bytebuffer.getFloat();
-        }
-        
-        
-        return output;
+    public float[] getZScores(int snp) throws IOException {
+        return getZScores(snp, new float[getNrZScores(snp)]);
     }
 
     public String[] getSNPs() {
@@ -389,9 +388,11 @@ public class BinaryMetaAnalysisDataset {
         return isCisDataset;
     }
 
+    /**
+     * The mapped segments are released when they are garbage collected
+     */
     public void close() throws IOException {
-        raf.close();
-
+        segments = null;
     }
 
     public String getName() {
@@ -28,6 +28,8 @@ public class BinaryMetaAnalysisTask implements Callable<Triple<ArrayList<QTL>, S
 	private final int snp;
 	private final boolean debug;
 	private final boolean fulloutput;
+	// reused for the z-scores of each dataset, may be longer than the number of z-scores of a dataset
+	private float[] zScoreBuffer = new float[0];
 
 	public BinaryMetaAnalysisTask(BinaryMetaAnalysisSettings settings,
 								  MetaQTL4TraitAnnotation probeAnnotation,
@@ -169,7 +171,7 @@ public class BinaryMetaAnalysisTask implements Callable<Triple<ArrayList<QTL>, S
 							if (datasetSNPId != -9) { // -9 means: snp not available
 
 								// TODO: for faster disk access, we should wrap this into a buffer of some sort
-								float[] datasetZScores = datasets[d].getZScores(datasetSNPId);
+								float[] datasetZScores = getZScores(datasets[d], datasetSNPId);
 
 								if (debug) {
 									String str = "";
@@ -328,7 +330,7 @@ public class BinaryMetaAnalysisTask implements Callable<Triple<ArrayList<QTL>, S
 					} else {
 						int datasetSNPId = snpIndex[snp][d];
 						boolean print = false;
-						float[] datasetZScores = datasets[d].getZScores(datasetSNPId);
+						float[] datasetZScores = getZScores(datasets[d], datasetSNPId);
 						if (debug) {
 							String snpStr = datasets[d].getSNPs()[datasetSNPId];
 							if (snpStr.equals("rs4900109")) {
@@ -504,4 +506,13 @@ public class BinaryMetaAnalysisTask implements Callable<Triple<ArrayList<QTL>, S
 		}
 		return null;
 	}
+
+	private float[] getZScores(BinaryMetaAnalysisDataset dataset, int datasetSNPId) {
+		int nrZScores = dataset.getNrZScores(datasetSNPId);
+		if (zScoreBuffer.length < nrZScores) {
+			zScoreBuffer = new float[nrZScores];
+		}
+		return dataset.getZScores(datasetSNPId, zScoreBuffer);
+	}
+
 }
@@ -233,15 +233,32 @@ public class InternalMetaAnalysisDataset {
 	private long currentEndSeekLoc;
 	private byte[] mappedBuffer;
 	
-	public synchronized float[] getZScores(int snp) throws IOException {
-		
-		long snpBytePos = snpBytes[snp];
-		long snpByteNextPos = 0;
+	public float[] getZScores(int snp) throws IOException {
+		return getZScores(snp, new float[getNrZScores(snp)]);
+	}
+	
+	public int getNrZScores(int snp) throws IOException {
+		return (int) ((getSnpByteNextPos(snp) - snpBytes[snp]) / 4);
+	}
+	
+	private long getSnpByteNextPos(int snp) throws IOException {
 		if (snp == snpBytes.length - 1) {
-			snpByteNextPos = raf.length();
+			return raf.length();
 		} else {
-			snpByteNextPos = snpBytes[snp + 1];
+			return snpBytes[snp + 1];
 		}
+	}
+	
+	/**
+	 * @param snp
+	 * @param dest array of at least {@link #getNrZScores(int)} floats
+	 * @return dest
+	 * @throws IOException
+	 */
+	public synchronized float[] getZScores(int snp, float[] dest) throws IOException {
+		
+		long snpBytePos = snpBytes[snp];
+		long snpByteNextPos = getSnpByteNextPos(snp);
 		boolean outOfBounds = false;
 		if (snpBytePos >= currentEndSeekLoc || snpBytePos < currentSeekLoc || snpByteNextPos > currentEndSeekLoc) {
 			outOfBounds = true;
@@ -271,18 +288,13 @@ public class InternalMetaAnalysisDataset {
 			mappedRAF.get(mappedBuffer);
 		}
 		int readlen = (int) (snpByteNextPos - snpBytePos);
-		byte[] bytesToRead = new byte[readlen];
 		int relativeSeekPos = (int) (snpBytePos - currentSeekLoc);
 //		System.out.println(Thread.currentThread().getName() + "\tsnp: " + snp + "\tseek: " + snpBytePos + "\trelative: " + relativeSeekPos + "\tlen: " + readlen + "\tbufSta: " + currentSeekLoc + "\tbufEnd: " + currentEndSeekLoc);
-		System.arraycopy(mappedBuffer, relativeSeekPos, bytesToRead, 0, readlen);
 		
-		ByteBuffer bytebuffer = ByteBuffer.wrap(bytesToRead);
-		float[] output = new float[readlen / 4];
-		for (int i = 0; i < output.length; i++) {
-			output[i] = bytebuffer.getFloat();
-		}
+		// read the floats straight from the mapped buffer
+		ByteBuffer.wrap(mappedBuffer, relativeSeekPos, readlen).asFloatBuffer().get(dest, 0, readlen / 4);
 		
-		return output;
+		return dest;
 	}
 	
 	public String[] getSNPs() {
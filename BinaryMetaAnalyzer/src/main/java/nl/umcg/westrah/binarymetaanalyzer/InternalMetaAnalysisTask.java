@@ -36,6 +36,8 @@ public class InternalMetaAnalysisTask implements Runnable {
 	private BinaryFile zScoreBinaryFile;
 	int permutation;
 	String outdir;
+	// reused for the z-scores of each SNP, may be longer than the number of z-scores of a SNP
+	private float[] zScoreBuffer = new float[0];
 	
 	public InternalMetaAnalysisTask(
 			InternalMetaAnalysisSettings settings,
@@ -157,8 +159,13 @@ public class InternalMetaAnalysisTask implements Runnable {
 		
 		if (datasetSNPId != -9) { // -9 means: snp not available
 			float[] datasetZScores = null;
+			int nrZScores = 0;
 			try {
-				datasetZScores = dataset.getZScores(datasetSNPId);
+				nrZScores = dataset.getNrZScores(datasetSNPId);
+				if (zScoreBuffer.length < nrZScores) {
+					zScoreBuffer = new float[nrZScores];
+				}
+				datasetZScores = dataset.getZScores(datasetSNPId, zScoreBuffer);
 			} catch (IOException e) {
 				e.printStackTrace();
 			}
@@ -170,15 +177,15 @@ public class InternalMetaAnalysisTask implements Runnable {
 			// count NaNs
 			
 			
-			if (datasetZScores != null && datasetZScores.length > 0) {
+			if (datasetZScores != null && nrZScores > 0) {
 				int nrNaN = 0;
-				for (int c = 0; c < datasetZScores.length; c++) {
+				for (int c = 0; c < nrZScores; c++) {
 					if (Float.isNaN(datasetZScores[c])) {
 						nrNaN++;
 					}
 				}
 				// no need to run analysis on a snp that has no data associated with it.
-				if (nrNaN != datasetZScores.length) {
+				if (nrNaN != nrZScores) {
 					if (dataset.getIsCisDataset()) {
 						// this requires us to retrieve the z-scores differently
 						// we need to figure out which probes match up, but their orders might be different
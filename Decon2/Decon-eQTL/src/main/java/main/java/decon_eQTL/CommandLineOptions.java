@@ -34,6 +34,7 @@ public class CommandLineOptions {
 	private String genotypeConfigurationType = "one";
 	private String programVersion;
 	private Boolean useOLS = false;
+	private int numberOfThreads = 1;
 
 	/**
 	 * Standard command line parsing.
@@ -67,6 +68,8 @@ public class CommandLineOptions {
 		Option minimumSamplesPerGenotype = Option.builder("m").required(false).hasArg().longOpt("minimum_samples_per_genotype")
 				.desc("The minimum amount of samples need for each genotype of a QTL for the QTL to be included in the results")
 				.argName("int").build();
+		Option threadsOption = Option.builder("nt").required(false).hasArg().longOpt("threads")
+				.desc("Number of threads used to deconvolute the gene-SNP pairs (default 1)").argName("int").build();
 		Option noConsoleOption = Option.builder("no").required(false).longOpt("no_console")
 				.desc("Do not output logging info to the console").build();
 		Option outfolder = Option.builder("o").required(true).hasArg().longOpt("outfolder").desc("Path to folder to write output to")
@@ -106,6 +109,7 @@ public class CommandLineOptions {
 		options.addOption(genotypeConfigurationTypeOption);
 		options.addOption(version);
 		options.addOption(useOlsOption); 
+		options.addOption(threadsOption);
 
 		CommandLineParser cmdLineParser = new DefaultParser();
 		try{
@@ -192,6 +196,17 @@ public class CommandLineOptions {
 		if (cmdLine.hasOption("use_OLS")){
 			useOLS = !useOLS;
 		}
+
+		if (cmdLine.hasOption("threads")){
+			try {
+				numberOfThreads = Integer.parseInt(cmdLine.getOptionValue("threads"));
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("threads should be an integer, not "+cmdLine.getOptionValue("threads"));
+			}
+			if (numberOfThreads < 1) {
+				throw new IllegalArgumentException("threads should be at least 1, not "+numberOfThreads);
+			}
+		}
 	}
 	
 
@@ -233,6 +248,7 @@ public class CommandLineOptions {
 		DeconvolutionLogger.log.info(String.format("Genotype configuration to use (-gc): %s", genotypeConfigurationType));
 		DeconvolutionLogger.log.info(String.format("Add genotype term (-a): %s", addGenotypeTerm));
 		DeconvolutionLogger.log.info(String.format("Use OLS(-uo): %s", useOLS));
+		DeconvolutionLogger.log.info(String.format("Number of threads (-nt): %d", numberOfThreads));
 		DeconvolutionLogger.log.info("=================================================");
 	}
 	public String getExpressionFile(){
@@ -289,6 +305,10 @@ public class CommandLineOptions {
 	public Boolean getUseOLS(){
 		return(useOLS);
 	}
+
+	public int getNumberOfThreads(){
+		return numberOfThreads;
+	}
 }
 
 
@@ -1,5 +1,6 @@
 package main.java.decon_eQTL;
 
+import java.io.BufferedWriter;
 import java.io.IOException;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
@@ -15,7 +16,13 @@ import org.apache.commons.math3.stat.correlation.SpearmansCorrelation;
 import main.java.decon_eQTL.CellCount;
 
 public class Deconvolution {
+	// number of gene-SNP pairs deconvoluted per task when running multithreaded
+	private static final int PAIRS_PER_TASK = 50;
+	// number of tasks per thread that can be waiting to be written, bounds the memory use
+	private static final int PENDING_TASKS_PER_THREAD = 4;
 	private int QTLsFiltered = 0;
+	private int processedPairs = 0;
+	private long startTime;
 	private String outputFolder;
 	public CellCount cellCounts;
 	public ExpressionData expressionData;
@@ -60,51 +67,160 @@ public class Deconvolution {
 	/**
 	 * For each of the gene-SNP pair in the SnpsToTestFile run deconvolution
 	 *
-	 * @param commandLineOptions commandLineOptions to run it with
 	 * @return Deconvolution results
 	 * @throws RuntimeException
 	 * @throws IllegalAccessException
 	 * @throws IOException
 	 */
 	public List<DeconvolutionResult> runDeconPerGeneSnpPair() throws RuntimeException, IllegalAccessException, IOException {
-		int whileIndex = 0;
-		long time = System.currentTimeMillis();
-		List<DeconvolutionResult> deconvolutionResults = new ArrayList<DeconvolutionResult>();
+		final List<DeconvolutionResult> deconvolutionResults = new ArrayList<DeconvolutionResult>();
+		runDeconPerGeneSnpPair(new OrderedTaskRunner.ResultConsumer<DeconvolutionResult>() {
+			@Override
+			public void accept(DeconvolutionResult deconvolutionResult) {
+				deconvolutionResults.add(deconvolutionResult);
+			}
+		});
+		return deconvolutionResults;
+	}
+
+	/**
+	 * For each of the gene-SNP pair in the SnpsToTestFile run deconvolution and write the results
+	 * directly after they are finished, in the same order as {@link #writeDeconvolutionResults(List)}.
+	 * Only the results that are not yet written are kept in memory, so the memory use does not depend on
+	 * the number of gene-SNP pairs.
+	 *
+	 * @throws RuntimeException
+	 * @throws IllegalAccessException
+	 * @throws IOException
+	 */
+	public void runAndWriteDeconPerGeneSnpPair() throws RuntimeException, IllegalAccessException, IOException {
+		Path file = Paths.get(outputFolder + "/" + commandLineOptions.getOutfile());
+		Path predictedExpressionFile = Paths.get(outputFolder + "predictedExpressionLevels.txt");
+		final boolean writePredictedExpression = commandLineOptions.getOutputPredictedExpression();
+
+		try (final BufferedWriter writer = Files.newBufferedWriter(file, Charset.forName("UTF-8"));
+			 final BufferedWriter predictedExpressionWriter = writePredictedExpression ? Files.newBufferedWriter(predictedExpressionFile, Charset.forName("UTF-8")) : null) {
+			runDeconPerGeneSnpPair(new OrderedTaskRunner.ResultConsumer<DeconvolutionResult>() {
+				private boolean headerWritten = false;
+
+				@Override
+				public void accept(DeconvolutionResult deconvolutionResult) throws IllegalAccessException, IOException {
+					if (!headerWritten) {
+						writeLine(writer, getResultsHeader(deconvolutionResult));
+						if (writePredictedExpression) {
+							writeLine(predictedExpressionWriter, getPredictedExpressionHeader(deconvolutionResult));
+						}
+						headerWritten = true;
+					}
+					writeLine(writer, getResultsLine(deconvolutionResult));
+					if (writePredictedExpression) {
+						writeLine(predictedExpressionWriter, getPredictedExpressionLine(deconvolutionResult));
+					}
+				}
+			});
+		}
+
+		if (writePredictedExpression) {
+			DeconvolutionLogger.log.info(String.format("predicted expression written to %s", predictedExpressionFile.toAbsolutePath()));
+		}
+		DeconvolutionLogger.log.info(String.format("Deconvolution output written to %s", file.toAbsolutePath()));
+		DeconvolutionLogger.log.info(String.format("Files with additional info in  %s", outputFolder));
+	}
+
+	private static void writeLine(BufferedWriter writer, String line) throws IOException {
+		writer.write(line);
+		writer.newLine();
+	}
+
+	/*
+	 * Deconvolutes all gene-SNP pairs and gives the results to the consumer in the order of the gene-SNP pairs.
+	 * With more than one thread the pairs are deconvoluted in tasks of PAIRS_PER_TASK pairs by an
+	 * OrderedTaskRunner. Every thread reuses the working storage of one NNLS solver.
+	 */
+	private void runDeconPerGeneSnpPair(final OrderedTaskRunner.ResultConsumer<DeconvolutionResult> consumer) throws RuntimeException, IllegalAccessException, IOException {
+		startTime = System.currentTimeMillis();
+		processedPairs = 0;
 		int QTLsTotal = 0;
 		HashMap<String, double[]> geneExpressionLevels = expressionData.getGeneExpression();
 		int skippedGenotypeGeneCombinations = 0;
-		for (String gene : geneSnpPairs.keySet()) {
-			for (String genotype : geneSnpPairs.get(gene)) {
-				if (commandLineOptions.getTestRun() && whileIndex == 100) {
-					break;
-				}
-				if (whileIndex % 500 == 0) {
-					long completedIn = System.currentTimeMillis() - time;
-					DeconvolutionLogger.log.info(String.format("Processed %d gene-SNP pairs - %s - skipped %d gene-SNP combinations", whileIndex, DurationFormatUtils.formatDuration(completedIn, "HH:mm:ss:SS"), skippedGenotypeGeneCombinations));
-				}
-				++whileIndex;
-				String qtlName = gene + '_' + genotype;
-				++QTLsTotal;
-				double[] dosages = genotypeData.getGenotypes().get(genotype);
-				if(dosages == null){
-					DeconvolutionLogger.log.info(String.format("Error: Genotype %s included in gene/snp combinations to test, but not available in the genotype file!",genotype));
-					throw new RuntimeException(String.format("Error: Genotype %s included in gene/snp combinations to test, but not available in the genotype file!",genotype));
-				}
-				double[] expressionLevels = geneExpressionLevels.get(gene);
-
-				if (expressionLevels == null) {
-					DeconvolutionLogger.log.info(String.format("Error: Gene %s included in gene/snp combinations to test, but not available in the expression file!", gene));
-					throw new RuntimeException(String.format("Gene %s included in gene/snp combinations to test, but not available in the expression file!", gene));
+		int numberOfThreads = commandLineOptions.getNumberOfThreads();
 
+		final ThreadLocal<NonNegativeLeastSquares> nnlsPerThread = new ThreadLocal<NonNegativeLeastSquares>() {
+			@Override
+			protected NonNegativeLeastSquares initialValue() {
+				return new NonNegativeLeastSquares();
+			}
+		};
+		OrderedTaskRunner<DeconvolutionResult> taskRunner = new OrderedTaskRunner<DeconvolutionResult>(numberOfThreads,
+				numberOfThreads * PENDING_TASKS_PER_THREAD, new OrderedTaskRunner.ResultConsumer<DeconvolutionResult>() {
+			@Override
+			public void accept(DeconvolutionResult deconvolutionResult) throws IllegalAccessException, IOException {
+				if (processedPairs % 500 == 0) {
+					long completedIn = System.currentTimeMillis() - startTime;
+					DeconvolutionLogger.log.info(String.format("Processed %d gene-SNP pairs - %s", processedPairs, DurationFormatUtils.formatDuration(completedIn, "HH:mm:ss:SS")));
+				}
+				consumer.accept(deconvolutionResult);
+				++processedPairs;
+			}
+		});
+		int pairsPerTask = numberOfThreads > 1 ? PAIRS_PER_TASK : 1;
+
+		try {
+			List<String[]> taskPairs = new ArrayList<String[]>(pairsPerTask);
+			pairLoop:
+			for (String gene : geneSnpPairs.keySet()) {
+				for (String genotype : geneSnpPairs.get(gene)) {
+					if (commandLineOptions.getTestRun() && QTLsTotal == 100) {
+						break pairLoop;
+					}
+					++QTLsTotal;
+					double[] dosages = genotypeData.getGenotypes().get(genotype);
+					if(dosages == null){
+						DeconvolutionLogger.log.info(String.format("Error: Genotype %s included in gene/snp combinations to test, but not available in the genotype file!",genotype));
+						throw new RuntimeException(String.format("Error: Genotype %s included in gene/snp combinations to test, but not available in the genotype file!",genotype));
+					}
+					double[] expressionLevels = geneExpressionLevels.get(gene);
+
+					if (expressionLevels == null) {
+						DeconvolutionLogger.log.info(String.format("Error: Gene %s included in gene/snp combinations to test, but not available in the expression file!", gene));
+						throw new RuntimeException(String.format("Gene %s included in gene/snp combinations to test, but not available in the expression file!", gene));
+
+					}
+
+					taskPairs.add(new String[]{gene, genotype});
+					if (taskPairs.size() == pairsPerTask) {
+						submitPairs(taskPairs, taskRunner, nnlsPerThread);
+						taskPairs = new ArrayList<String[]>(pairsPerTask);
+					}
 				}
-				DeconvolutionResult deconResult = deconvolution(expressionLevels, dosages, qtlName);
-				deconvolutionResults.add(deconResult);
 			}
+			if (!taskPairs.isEmpty()) {
+				submitPairs(taskPairs, taskRunner, nnlsPerThread);
+			}
+			taskRunner.finish();
+		} finally {
+			taskRunner.shutdown();
 		}
+
 		DeconvolutionLogger.log.info(String.format("Skipped %d gene-SNP combinations (because genotype in SNP-pair file but not in genotype file)", skippedGenotypeGeneCombinations));
 		DeconvolutionLogger.log.info(String.format("QTLs passed: %d", QTLsTotal - (QTLsFiltered + skippedGenotypeGeneCombinations)));
 		DeconvolutionLogger.log.info(String.format("QTLs filtered: %d", QTLsFiltered));
 		DeconvolutionLogger.log.info(String.format("Total: %d", QTLsTotal - skippedGenotypeGeneCombinations));
+	}
+
+	private void submitPairs(final List<String[]> taskPairs, OrderedTaskRunner<DeconvolutionResult> taskRunner,
+							 final ThreadLocal<NonNegativeLeastSquares> nnlsPerThread) throws IllegalAccessException, IOException {
+		taskRunner.submit(() -> deconvolutionPerPair(taskPairs, nnlsPerThread.get()));
+	}
+
+	private List<DeconvolutionResult> deconvolutionPerPair(List<String[]> pairs, NonNegativeLeastSquares nnls) throws IllegalAccessException, IOException {
+		List<DeconvolutionResult> deconvolutionResults = new ArrayList<DeconvolutionResult>(pairs.size());
+		for (String[] pair : pairs) {
+			String gene = pair[0];
+			String genotype = pair[1];
+			deconvolutionResults.add(deconvolution(expressionData.getGeneExpression().get(gene),
+					genotypeData.getGenotypes().get(genotype), gene + '_' + genotype, nnls));
+		}
 		return deconvolutionResults;
 	}
 
@@ -114,12 +230,35 @@ public class Deconvolution {
 	 * @param deconvolutionResults The deconvolution result
 	 */
 	public void writeDeconvolutionResults(List<DeconvolutionResult> deconvolutionResults) throws IllegalAccessException, IOException {
+		List<String> output = new ArrayList<String>();
+		output.add(getResultsHeader(deconvolutionResults.get(0)));
+		for (DeconvolutionResult deconvolutionResult : deconvolutionResults) {
+			output.add(getResultsLine(deconvolutionResult));
+		}
+
+		Path file = Paths.get(outputFolder + "/" + commandLineOptions.getOutfile());
+		Files.write(file, output, Charset.forName("UTF-8"));
+
+		Boolean writePredictedExpression = commandLineOptions.getOutputPredictedExpression();
+		if (writePredictedExpression) {
+			writePredictedExpression(deconvolutionResults);
+		}
+		DeconvolutionLogger.log.info(String.format("Deconvolution output written to %s", file.toAbsolutePath()));
+		DeconvolutionLogger.log.info(String.format("Files with additional info in  %s", outputFolder));
+	}
+
+	/*
+	 * Header of the deconvolution results file
+	 *
+	 * @param firstDeconvolutionResult Deconvolution result used to get the names of the independent variables
+	 */
+	private String getResultsHeader(DeconvolutionResult firstDeconvolutionResult) throws IllegalAccessException {
 		List<String> celltypes = cellCounts.getAllCelltypes();
 		String header = "\t" + Utils.listToTabSeparatedString(celltypes, "_pvalue");
 
 		DeconvolutionLogger.log.info("Getting decon result with full model info for writing the header");
 		// celltypes.size()*2 because there are twice as many betas as celltypes (CC% & CC%:GT)
-		InteractionModelCollection firstInteractionModelCollection = deconvolutionResults.get(0).getInteractionModelCollection();
+		InteractionModelCollection firstInteractionModelCollection = firstDeconvolutionResult.getInteractionModelCollection();
 		InteractionModel bestFullModelForHeaderOnly = firstInteractionModelCollection.getBestFullModel();
 
 		for (int i = 1; i < cellCounts.getNumberOfCelltypes() * 2 + 1; ++i) {
@@ -139,68 +278,61 @@ public class Deconvolution {
 
 
 		//header += "\tStandardError";
-		List<String> output = new ArrayList<String>();
-		output.add(header);
-		for (DeconvolutionResult deconvolutionResult : deconvolutionResults) {
-			InteractionModelCollection interactionModelCollection = deconvolutionResult.getInteractionModelCollection();
-
-			String results = "";
-			results += deconvolutionResult.getQtlName() + "\t" + Utils.listToTabSeparatedString(deconvolutionResult.getPvalues());
-			InteractionModel bestFullModel = null;
+		return header;
+	}
 
-			bestFullModel = interactionModelCollection.getBestFullModel();
+	/*
+	 * Line of the deconvolution results file for one QTL
+	 */
+	private String getResultsLine(DeconvolutionResult deconvolutionResult) throws IllegalAccessException {
+		InteractionModelCollection interactionModelCollection = deconvolutionResult.getInteractionModelCollection();
 
+		String results = "";
+		results += deconvolutionResult.getQtlName() + "\t" + Utils.listToTabSeparatedString(deconvolutionResult.getPvalues());
+		InteractionModel bestFullModel = null;
 
-			double[] estimateRegressionParameters = bestFullModel.getEstimateRegressionParameters();
+		bestFullModel = interactionModelCollection.getBestFullModel();
 
-			// check what the genotype configuration is and the beta of the interaction term. 
-			// If genotype configuration == 0 and beta == positive, dosage2 effect = positive
-			// If genotype configuration == 1 and beta == negative, dosage2 effect = positive
-			// else is negative
-			int numberOfCelltypes = cellCounts.getNumberOfCelltypes();
-			// first write out the beta of the cell proportion term
-			for (int i = 0; i < numberOfCelltypes; ++i) {
-				results += "\t" + estimateRegressionParameters[i];
-			}
 
-			// then write out cell proportion-genotype interaction term with correct sign
-			for (int i = 0; i < numberOfCelltypes; ++i) {
-				char genotypeConfiguration = 0;
-				genotypeConfiguration = bestFullModel.getGenotypeConfiguration().charAt(i);
-				double interactionTermCurrentCelltype = estimateRegressionParameters[i + numberOfCelltypes];
-				if (genotypeConfiguration == '0' || interactionTermCurrentCelltype == 0) {
-					results += "\t" + interactionTermCurrentCelltype;
-				} else if (genotypeConfiguration == '1') {
-					results += "\t-" + interactionTermCurrentCelltype;
-				} else {
-					throw new RuntimeException(String.format("Genotype configuration should be 0 or 1, not %s", genotypeConfiguration));
-				}
+		double[] estimateRegressionParameters = bestFullModel.getEstimateRegressionParameters();
 
-			}
+		// check what the genotype configuration is and the beta of the interaction term. 
+		// If genotype configuration == 0 and beta == positive, dosage2 effect = positive
+		// If genotype configuration == 1 and beta == negative, dosage2 effect = positive
+		// else is negative
+		int numberOfCelltypes = cellCounts.getNumberOfCelltypes();
+		// first write out the beta of the cell proportion term
+		for (int i = 0; i < numberOfCelltypes; ++i) {
+			results += "\t" + estimateRegressionParameters[i];
+		}
 
-			//results += "\t"+bestFullModel.getGenotypeConfiguration();
-			//for(String celltype : cellCounts.getAllCelltypes()){
-			//	InteractionModel bestCtModel = deconvolutionResult.getInteractionModelCollection().getBestCtModel(celltype); 
-			//	results += "\t"+bestCtModel.getGenotypeConfiguration();
-			//}
-			if (commandLineOptions.getWholeBloodQTL()) {
-				results += "\t" + deconvolutionResult.getWholeBloodQTL();
-				results += "\t" + deconvolutionResult.getWholeBloodQTLpvalue();
+		// then write out cell proportion-genotype interaction term with correct sign
+		for (int i = 0; i < numberOfCelltypes; ++i) {
+			char genotypeConfiguration = 0;
+			genotypeConfiguration = bestFullModel.getGenotypeConfiguration().charAt(i);
+			double interactionTermCurrentCelltype = estimateRegressionParameters[i + numberOfCelltypes];
+			if (genotypeConfiguration == '0' || interactionTermCurrentCelltype == 0) {
+				results += "\t" + interactionTermCurrentCelltype;
+			} else if (genotypeConfiguration == '1') {
+				results += "\t-" + interactionTermCurrentCelltype;
+			} else {
+				throw new RuntimeException(String.format("Genotype configuration should be 0 or 1, not %s", genotypeConfiguration));
 			}
 
-			//results += "\t"+bestFullModel.getEstimatedStandardError();
-			output.add(results);
 		}
 
-		Path file = Paths.get(outputFolder + "/" + commandLineOptions.getOutfile());
-		Files.write(file, output, Charset.forName("UTF-8"));
-
-		Boolean writePredictedExpression = commandLineOptions.getOutputPredictedExpression();
-		if (writePredictedExpression) {
-			writePredictedExpression(deconvolutionResults);
+		//results += "\t"+bestFullModel.getGenotypeConfiguration();
+		//for(String celltype : cellCounts.getAllCelltypes()){
+		//	InteractionModel bestCtModel = deconvolutionResult.getInteractionModelCollection().getBestCtModel(celltype); 
+		//	results += "\t"+bestCtModel.getGenotypeConfiguration();
+		//}
+		if (commandLineOptions.getWholeBloodQTL()) {
+			results += "\t" + deconvolutionResult.getWholeBloodQTL();
+			results += "\t" + deconvolutionResult.getWholeBloodQTLpvalue();
 		}
-		DeconvolutionLogger.log.info(String.format("Deconvolution output written to %s", file.toAbsolutePath()));
-		DeconvolutionLogger.log.info(String.format("Files with additional info in  %s", outputFolder));
+
+		//results += "\t"+bestFullModel.getEstimatedStandardError();
+		return results;
 	}
 
 	/*
@@ -209,23 +341,11 @@ public class Deconvolution {
 	 * @param deconvolutionResult The deconvolutionresult
 	 */
 	private void writePredictedExpression(List<DeconvolutionResult> deconvolutionResults) throws IOException, IllegalAccessException {
-		DeconvolutionResult deconResult = deconvolutionResults.get(0);
-		String header = "";
-		for (String sampleName : deconResult.getInteractionModelCollection().getSampleNames()) {
-			// counts.get(0) is the sample name
-			header += "\t" + sampleName;
-
-		}
-
 		List<String> output = new ArrayList<String>();
-		output.add(header);
+		output.add(getPredictedExpressionHeader(deconvolutionResults.get(0)));
 
 		for (DeconvolutionResult deconvolutionResult : deconvolutionResults) {
-
-			String results = "";
-			InteractionModel bestFullModel = deconvolutionResult.getInteractionModelCollection().getBestFullModel();
-			results += deconvolutionResult.getQtlName() + "\t" + Utils.listToTabSeparatedString(bestFullModel.getPredictedValues());
-			output.add(results);
+			output.add(getPredictedExpressionLine(deconvolutionResult));
 		}
 
 
@@ -234,6 +354,21 @@ public class Deconvolution {
 		DeconvolutionLogger.log.info(String.format("predicted expression written to %s", file.toAbsolutePath()));
 	}
 
+	private String getPredictedExpressionHeader(DeconvolutionResult deconResult) throws IllegalAccessException {
+		String header = "";
+		for (String sampleName : deconResult.getInteractionModelCollection().getSampleNames()) {
+			// counts.get(0) is the sample name
+			header += "\t" + sampleName;
+
+		}
+		return header;
+	}
+
+	private String getPredictedExpressionLine(DeconvolutionResult deconvolutionResult) throws IllegalAccessException {
+		InteractionModel bestFullModel = deconvolutionResult.getInteractionModelCollection().getBestFullModel();
+		return deconvolutionResult.getQtlName() + "\t" + Utils.listToTabSeparatedString(bestFullModel.getPredictedValues());
+	}
+
 
 	/**
 	 * Make the linear regression models and then do an Anova of the sum of
@@ -253,15 +388,18 @@ public class Deconvolution {
 	 * @param genotypes  A vector with the expression levels of all
 	 *                   samples for *one* eQTL-gene pair. This should include qtl names as in first column, and sample names in first row
 	 * @param qtlName    Name of the QTL (usaully snp name + gene name)
+	 * @param nnls       NNLS solver of the current thread
 	 * @return A list with for each celltype a p-value for the celltype
 	 * specific eQTL for one eQTL
 	 */
-	private DeconvolutionResult deconvolution(double[] expression, double[] genotypes, String qtlName) throws RuntimeException, IllegalAccessException,
-			IOException {
+	private DeconvolutionResult deconvolution(double[] expression, double[] genotypes, String qtlName, NonNegativeLeastSquares nnls)
+			throws RuntimeException, IllegalAccessException, IOException {
 		/**
 		 * If roundDosage option is selected on the command line, round of the dosage to closest integer -> 0.49 = 0, 0.51 = 1, 1.51 = 2. 
+		 * Rounded on a copy because the genotypes can be used by other threads at the same time.
 		 */
 		if (commandLineOptions.getRoundDosage()) {
+			genotypes = genotypes.clone();
 			for (int i = 0; i < genotypes.length; ++i) {
 				if (commandLineOptions.getRoundDosage()) {
 					genotypes[i] = Math.round(genotypes[i]);
@@ -292,7 +430,8 @@ public class Deconvolution {
 		InteractionModelCollection interactionModelCollection = new InteractionModelCollection(
 				cellCounts,
 				commandLineOptions.getGenotypeConfigurationType(),
-				commandLineOptions.getUseOLS());
+				commandLineOptions.getUseOLS(),
+				nnls);
 		interactionModelCollection.setQtlName(qtlName);
 		interactionModelCollection.setGenotypes(genotypes);
 		interactionModelCollection.setExpressionValues(expression);
@@ -196,8 +196,20 @@ public class InteractionModel {
 	 * @throws IllegalAccessException	Exception thrown when observed values can't be retrieved	
 	 */
 	public void calculateSumOfSquaresNNLS(double[] expressionValues) throws IllegalAccessException {
-		NonNegativeLeastSquares nnls = new NonNegativeLeastSquares();
-		
+		calculateSumOfSquaresNNLS(expressionValues, new NonNegativeLeastSquares());
+	}
+	
+	/**
+	 * Calculate the sum of squares, using Non-Negative Linear Regression, reusing the working storage
+	 * of nnls. See {@link #calculateSumOfSquaresNNLS(double[])}
+	 * 
+	 * @param expressionValues	Vector of expression values
+	 * 
+	 * @param nnls	NNLS solver to reuse, can not be used by other threads at the same time
+	 * 
+	 * @throws IllegalAccessException	Exception thrown when observed values can't be retrieved	
+	 */
+	public void calculateSumOfSquaresNNLS(double[] expressionValues, NonNegativeLeastSquares nnls) throws IllegalAccessException {
 		try{
 			nnls.newSampleData(expressionValues, this.getObservedValues());
 		}
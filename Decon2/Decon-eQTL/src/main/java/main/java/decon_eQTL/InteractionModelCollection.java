@@ -33,15 +33,26 @@ public class InteractionModelCollection {
 	private List<String> celltypes = new ArrayList<String>();
 	private List<String> sampleNames = new ArrayList<String>();
 	private Boolean useOLS;
+	private NonNegativeLeastSquares nnls;
 
 
 	/*
 	 * Have to initialize instance with if NNLS or OLS will be used, and for that we need cellCounts
 	 */
 	public InteractionModelCollection(CellCount cellCount, String genotypeConfigurationType, Boolean useOLS) throws IllegalAccessException {
+		this(cellCount, genotypeConfigurationType, useOLS, new NonNegativeLeastSquares());
+	}
+
+	/*
+	 * Same as above, but all NNLS models are solved using the working storage of nnls. nnls can be reused by the
+	 * next collection of the same thread
+	 */
+	public InteractionModelCollection(CellCount cellCount, String genotypeConfigurationType, Boolean useOLS,
+									  NonNegativeLeastSquares nnls) throws IllegalAccessException {
 		setCellCount(cellCount);
 		makeConfigurations(genotypeConfigurationType);
 		this.useOLS = useOLS;
+		this.nnls = nnls;
 
 	}
 
@@ -193,29 +204,14 @@ public class InteractionModelCollection {
 	public void findBestFullModel() throws IllegalAccessException, IOException {
 		// set to -1 so that first loop can be initialised
 		double sumOfSquares = -1;
+		double[] actualExpression = getExpressionValuesWithGenotypes();
 		for (String modelName : getFullModelNames()) {
 			InteractionModel fullModel = getInteractionModel(modelName);
 
-			int nrSamplesWithGenotypes = 0;
-			for (int d = 0; d < genotypes.length; d++) {
-				if (genotypes[d] != -1) {
-					nrSamplesWithGenotypes++;
-				}
-			}
-
-			double[] actualExpression = new double[nrSamplesWithGenotypes];
-			int sctr = 0;
-			for (int d = 0; d < genotypes.length; d++) {
-				if (genotypes[d] != -1) {
-					actualExpression[sctr] = expressionValues[d];
-					sctr++;
-				}
-			}
-
 			if (useOLS) {
 				fullModel.calculateSumOfSquaresOLS(actualExpression);
 			} else {
-				fullModel.calculateSumOfSquaresNNLS(actualExpression);
+				fullModel.calculateSumOfSquaresNNLS(actualExpression, nnls);
 			}
 
 			if (sumOfSquares == -1) {
@@ -236,6 +232,7 @@ public class InteractionModelCollection {
 	 * TODO: merge with findBestFullModel()
 	 */
 	public void findBestCtModel() throws IllegalAccessException, IOException {
+		double[] actualExpression = getExpressionValuesWithGenotypes();
 		// set to -1 so that first loop can be initialised
 		for (String celltype : celltypes) {
 			double sumOfSquares = -1;
@@ -243,26 +240,10 @@ public class InteractionModelCollection {
 				InteractionModel ctModel = getInteractionModel(modelName);
 				modelCelltype.put(modelName, celltype);
 
-				int nrSamplesWithGenotypes = 0;
-				for (int d = 0; d < genotypes.length; d++) {
-					if (genotypes[d] != -1) {
-						nrSamplesWithGenotypes++;
-					}
-				}
-
-				double[] actualExpression = new double[nrSamplesWithGenotypes];
-				int sctr = 0;
-				for (int d = 0; d < genotypes.length; d++) {
-					if (genotypes[d] != -1) {
-						actualExpression[sctr] = expressionValues[d];
-						sctr++;
-					}
-				}
-
 				if (useOLS) {
 					ctModel.calculateSumOfSquaresOLS(actualExpression);
 				} else {
-					ctModel.calculateSumOfSquaresNNLS(actualExpression);
+					ctModel.calculateSumOfSquaresNNLS(actualExpression, nnls);
 				}
 
 				if (sumOfSquares == -1) {
@@ -281,6 +262,28 @@ public class InteractionModelCollection {
 		}
 	}
 
+	/*
+	 * Expression values of the samples with a genotype, the same for all models
+	 */
+	private double[] getExpressionValuesWithGenotypes() {
+		int nrSamplesWithGenotypes = 0;
+		for (int d = 0; d < genotypes.length; d++) {
+			if (genotypes[d] != -1) {
+				nrSamplesWithGenotypes++;
+			}
+		}
+
+		double[] actualExpression = new double[nrSamplesWithGenotypes];
+		int sctr = 0;
+		for (int d = 0; d < genotypes.length; d++) {
+			if (genotypes[d] != -1) {
+				actualExpression[sctr] = expressionValues[d];
+				sctr++;
+			}
+		}
+		return actualExpression;
+	}
+
 	/*
 	 * Make the genotype configurations that will be used for the interaction terms
 	 */
@@ -588,6 +591,7 @@ public class InteractionModelCollection {
 		this.genotypeConfigurationsCtModel = null;
 		this.genotypeConfigurationsFullModel = null;
 		this.cellCount = null;
+		this.nnls = null;
 	}
 
 	public List<String> getSampleNames() {
@@ -1,7 +1,6 @@
 package main.java.decon_eQTL;
 
 import java.io.IOException;
-import java.util.List;
 
 import org.apache.commons.cli.ParseException;
 
@@ -22,8 +21,7 @@ public class Main {
 		commandLineOptions.parseCommandLine(args);
 		Deconvolution deconvolution = new Deconvolution(commandLineOptions);
 		deconvolution.readInputData();
-		List<DeconvolutionResult> deconvolutionResults = deconvolution.runDeconPerGeneSnpPair();
-		deconvolution.writeDeconvolutionResults(deconvolutionResults);
+		deconvolution.runAndWriteDeconPerGeneSnpPair();
 
 	}
 
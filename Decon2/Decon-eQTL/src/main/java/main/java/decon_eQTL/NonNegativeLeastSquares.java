@@ -156,6 +156,10 @@ public class NonNegativeLeastSquares
 
 	/**
      * Loads model x and y sample data, overriding any previous sample.
+     * The working storage of the previous sample is reused if it has the same
+     * dimensions, so one instance can be reused for all models of a thread.
+     * The estimated regression parameters and predicted values are always
+     * new arrays.
      *
      * @param y the [n,1] array representing the y sample
      * @param x the [n,k] array representing the x sample
@@ -163,45 +167,48 @@ public class NonNegativeLeastSquares
      *             compatible for the regression
      */
     public void newSampleData(double[] y, double[][] x) throws MathIllegalArgumentException {
-    	this.measuredValues = y;
-    	this.observedValues = x;
-		// cloning y and x so that those values are kept for later use
-    	try{
-    		b = y.clone();
-		}
-		catch (NullPointerException e){
+    	if (y == null){
 			DeconvolutionLogger.log.info("ERROR: Expression values are not read in correctly, check if input files are correct.");
-			throw(e);
+			throw new NullPointerException();
 		}
-		a = new double[x.length][];
-		for(int z = 0; z < x.length; ++z)
-			a[z] = x[z].clone();
 
 		//Number of rows (input data points) in the least squares problem.
 		int M = x.length;
-		// Number of columns (output parameters) in the least squares problem.
-		int N = x[0].length;
 		if (M <= 0)
 		{
 			throw new IllegalArgumentException
 			("NonNegativeLeastSquares(): M = " + M + " illegal");
 		}
+		// Number of columns (output parameters) in the least squares problem.
+		int N = x[0].length;
 		if (N <= 0)
 		{
 			throw new IllegalArgumentException
 			("NonNegativeLeastSquares(): N = " + N + " illegal");
 		}
 
+    	this.measuredValues = y;
+    	this.observedValues = x;
+    	this.predictedValues = null;
+
+		if (a == null || this.M != M || this.N != N || b.length != y.length)
+		{
+			a = new double [M] [N];
+			b = new double [y.length];
+			this.index = new int [N];
+			this.w = new double [N];
+			this.zz = new double [M];
+			this.terms = new double [2];
+		}
+
+		// copying y and x so that those values are kept for later use
+		System.arraycopy(y, 0, b, 0, y.length);
+		for(int z = 0; z < M; ++z)
+			System.arraycopy(x[z], 0, a[z], 0, N);
+
 		this.M = M;
 		this.N = N;
-		//this.a = new double [M] [N];
-		//this.b = new double [M];
 		this.x = new double [N];
-		this.index = new int [N];
-
-		this.w = new double [N];
-		this.zz = new double [M];
-		this.terms = new double [2];
 		this.itmax = 3*N;
 		
 		solve();
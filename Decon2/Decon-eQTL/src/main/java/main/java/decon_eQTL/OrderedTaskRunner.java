@@ -0,0 +1,102 @@
+package main.java.decon_eQTL;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/*
+ * Runs tasks on a fixed thread pool and gives their results to a consumer in the order the tasks were submitted.
+ * When maxPendingTasks tasks are waiting for the consumer the oldest task is consumed before a new one is
+ * submitted, so the number of results kept in memory does not depend on the number of tasks. With one thread
+ * the tasks are run directly on the calling thread.
+ *
+ * Exceptions of a task are thrown unwrapped by the submit or finish call that consumes it.
+ */
+public class OrderedTaskRunner<T> {
+	private final ExecutorService executor;
+	private final int maxPendingTasks;
+	private final ResultConsumer<T> consumer;
+	private final ArrayDeque<Future<List<T>>> pendingTasks = new ArrayDeque<Future<List<T>>>();
+
+	public interface Task<T> {
+		List<T> call() throws IllegalAccessException, IOException;
+	}
+
+	public interface ResultConsumer<T> {
+		void accept(T result) throws IllegalAccessException, IOException;
+	}
+
+	public OrderedTaskRunner(int numberOfThreads, int maxPendingTasks, ResultConsumer<T> consumer) {
+		if (maxPendingTasks < 1) {
+			throw new IllegalArgumentException("maxPendingTasks should be at least 1, not " + maxPendingTasks);
+		}
+		this.executor = numberOfThreads > 1 ? Executors.newFixedThreadPool(numberOfThreads) : null;
+		this.maxPendingTasks = maxPendingTasks;
+		this.consumer = consumer;
+	}
+
+	/*
+	 * Run the task on the calling thread if there is only one thread, otherwise submit it. If there are too many
+	 * pending tasks wait for the oldest and give its results to the consumer first.
+	 */
+	public void submit(final Task<T> task) throws IllegalAccessException, IOException {
+		if (executor == null) {
+			consumeResults(task.call());
+			return;
+		}
+		while (pendingTasks.size() >= maxPendingTasks) {
+			consumeResults(getTaskResults(pendingTasks.poll()));
+		}
+		pendingTasks.add(executor.submit(() -> task.call()));
+	}
+
+	/*
+	 * Wait for all submitted tasks and give their results to the consumer
+	 */
+	public void finish() throws IllegalAccessException, IOException {
+		while (!pendingTasks.isEmpty()) {
+			consumeResults(getTaskResults(pendingTasks.poll()));
+		}
+	}
+
+	/*
+	 * Stop the threads, tasks that did not finish are interrupted
+	 */
+	public void shutdown() {
+		if (executor != null) {
+			executor.shutdownNow();
+		}
+		pendingTasks.clear();
+	}
+
+	private void consumeResults(List<T> results) throws IllegalAccessException, IOException {
+		for (T result : results) {
+			consumer.accept(result);
+		}
+	}
+
+	private static <T> List<T> getTaskResults(Future<List<T>> task) throws IllegalAccessException, IOException {
+		try {
+			return task.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			} else if (cause instanceof Error) {
+				throw (Error) cause;
+			} else if (cause instanceof IllegalAccessException) {
+				throw (IllegalAccessException) cause;
+			} else if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			throw new RuntimeException(cause);
+		}
+	}
+}
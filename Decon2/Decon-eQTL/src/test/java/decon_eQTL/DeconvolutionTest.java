@@ -109,6 +109,26 @@ public class DeconvolutionTest {
 		assertEquals("100 example lines written", lineCount, 101);
 	}
 
+	/*
+	 * Multithreaded deconvolution writes the same output files as single threaded deconvolution
+	 */
+	@Test
+	public void multithreadedSameOutputTest() throws Exception {
+		File geneSnpListFile = new File("src/test/resources/gene_snp_list_files/gene_snp_list_long.txt");
+		for (String threads : new String[]{"1", "3"}) {
+			String[] args = {"-o",outputDir+"deconvolutionThreads"+threads,"-c",counts,
+							 "-e",expression, "-g",genotypes, "-sn", geneSnpListFile.getAbsolutePath(),
+							 "-oe", "-nt", threads};
+			Main.main(args);
+		}
+		for (String outputFile : new String[]{"deconvolutionResults.csv", "predictedExpressionLevels.txt"}) {
+			List<String> singleThreaded = Files.readAllLines(Paths.get(outputDir+"deconvolutionThreads1/"+outputFile));
+			List<String> multithreaded = Files.readAllLines(Paths.get(outputDir+"deconvolutionThreads3/"+outputFile));
+			assertEquals("header and all 354 gene-SNP pairs written", 355, singleThreaded.size());
+			assertEquals(outputFile+" the same", singleThreaded, multithreaded);
+		}
+	}
+
 	@Test
 	public void runDeconPerGeneSnpPairNotExistingGenotypeTest() throws Exception {
 		File geneSnpList = new File("src/test/resources/gene_snp_list_files/gene_snp_list_non_existing_genotype.txt");
@@ -0,0 +1,45 @@
+package test.java.decon_eQTL;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import main.java.decon_eQTL.NonNegativeLeastSquares;
+
+public class NonNegativeLeastSquaresTest {
+
+	/*
+	 * A solver that is reused for problems of different and equal dimensions gives the same results as a new
+	 * solver for each problem
+	 */
+	@Test
+	public void reuseTest() throws Exception {
+		Random random = new Random(1);
+		int[][] dimensions = {{30, 4}, {30, 4}, {25, 4}, {30, 6}, {30, 6}, {30, 4}, {12, 8}, {30, 4}};
+		NonNegativeLeastSquares reusedNnls = new NonNegativeLeastSquares();
+
+		for (int[] dimension : dimensions) {
+			int m = dimension[0];
+			int n = dimension[1];
+			double[][] x = new double[m][n];
+			double[] y = new double[m];
+			for (int i = 0; i < m; ++i) {
+				for (int j = 0; j < n; ++j) {
+					x[i][j] = random.nextDouble();
+				}
+				y[i] = random.nextGaussian() + x[i][0] - x[i][1];
+			}
+
+			NonNegativeLeastSquares newNnls = new NonNegativeLeastSquares();
+			newNnls.newSampleData(y, x);
+			reusedNnls.newSampleData(y, x);
+
+			String message = "Dimensions " + m + "x" + n;
+			assertArrayEquals(message, newNnls.estimateRegressionParameters(), reusedNnls.estimateRegressionParameters(), 0);
+			assertArrayEquals(message, newNnls.getPredictedExpressionValues(), reusedNnls.getPredictedExpressionValues(), 0);
+			assertArrayEquals(message, newNnls.estimateResiduals(), reusedNnls.estimateResiduals(), 0);
+		}
+	}
+}
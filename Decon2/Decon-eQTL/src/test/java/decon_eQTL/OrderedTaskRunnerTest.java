@@ -0,0 +1,131 @@
+package test.java.decon_eQTL;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import main.java.decon_eQTL.OrderedTaskRunner;
+
+public class OrderedTaskRunnerTest {
+
+	/*
+	 * Tasks that finish in random order are consumed in the order they were submitted
+	 */
+	@Test
+	public void orderedDrainingTest() throws Exception {
+		for (int numberOfThreads : new int[]{1, 3}) {
+			final List<Integer> consumed = new ArrayList<Integer>();
+			OrderedTaskRunner<Integer> taskRunner = new OrderedTaskRunner<Integer>(numberOfThreads, 4,
+					new OrderedTaskRunner.ResultConsumer<Integer>() {
+				@Override
+				public void accept(Integer result) {
+					consumed.add(result);
+				}
+			});
+			Random random = new Random(1);
+			List<Integer> expected = new ArrayList<Integer>();
+			try {
+				for (int i = 0; i < 40; ++i) {
+					final int first = i * 3;
+					final long sleep = random.nextInt(10);
+					taskRunner.submit(() -> {
+						try {
+							Thread.sleep(sleep);
+						} catch (InterruptedException e) {
+							throw new RuntimeException(e);
+						}
+						return Arrays.asList(first, first + 1, first + 2);
+					});
+					expected.addAll(Arrays.asList(first, first + 1, first + 2));
+				}
+				taskRunner.finish();
+			} finally {
+				taskRunner.shutdown();
+			}
+			assertEquals("Threads " + numberOfThreads, expected, consumed);
+		}
+	}
+
+	/*
+	 * No task is submitted while maxPendingTasks tasks are waiting to be consumed
+	 */
+	@Test
+	public void backPressureTest() throws Exception {
+		final int maxPendingTasks = 2;
+		final AtomicInteger consumedTasks = new AtomicInteger();
+		final AtomicInteger startedTasks = new AtomicInteger();
+		OrderedTaskRunner<Integer> taskRunner = new OrderedTaskRunner<Integer>(4, maxPendingTasks,
+				new OrderedTaskRunner.ResultConsumer<Integer>() {
+			@Override
+			public void accept(Integer result) {
+				consumedTasks.incrementAndGet();
+			}
+		});
+		try {
+			for (int i = 0; i < 20; ++i) {
+				taskRunner.submit(() -> {
+					startedTasks.incrementAndGet();
+					return Collections.singletonList(0);
+				});
+				assertTrue((i + 1) - consumedTasks.get() <= maxPendingTasks);
+			}
+			// even with 4 threads only maxPendingTasks can have been started ahead of the consumer
+			assertTrue(startedTasks.get() - consumedTasks.get() <= maxPendingTasks);
+			taskRunner.finish();
+		} finally {
+			taskRunner.shutdown();
+		}
+		assertEquals(20, consumedTasks.get());
+	}
+
+	/*
+	 * Checked and unchecked exceptions of a task are thrown without the ExecutionException wrapper
+	 */
+	@Test
+	public void exceptionUnwrappingTest() throws Exception {
+		final IOException ioException = new IOException("io");
+		final IllegalAccessException illegalAccessException = new IllegalAccessException("access");
+		final IllegalStateException runtimeException = new IllegalStateException("runtime");
+		List<Exception> exceptions = Arrays.asList(ioException, illegalAccessException, runtimeException);
+
+		for (int numberOfThreads : new int[]{1, 3}) {
+			for (final Exception exception : exceptions) {
+				OrderedTaskRunner<Integer> taskRunner = new OrderedTaskRunner<Integer>(numberOfThreads, 2,
+						new OrderedTaskRunner.ResultConsumer<Integer>() {
+					@Override
+					public void accept(Integer result) {
+					}
+				});
+				try {
+					taskRunner.submit(() -> Collections.singletonList(0));
+					taskRunner.submit(() -> {
+						if (exception instanceof IOException) {
+							throw (IOException) exception;
+						} else if (exception instanceof IllegalAccessException) {
+							throw (IllegalAccessException) exception;
+						}
+						throw (RuntimeException) exception;
+					});
+					taskRunner.submit(() -> Collections.singletonList(0));
+					taskRunner.finish();
+					fail("Exception of the task was not thrown");
+				} catch (Exception e) {
+					assertSame(exception, e);
+				} finally {
+					taskRunner.shutdown();
+				}
+			}
+		}
+	}
+}
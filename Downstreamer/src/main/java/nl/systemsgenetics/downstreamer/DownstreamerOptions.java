@@ -76,6 +76,7 @@ public class DownstreamerOptions {
 	private final File variantFilterFile;
 	private boolean saveOuputAsExcelFiles;
 	private final File variantGeneLinkingFile;
+	private final File geneLdCacheFolder;
 	private final boolean saveUsedVariantsPerGene;
 	private final double mafFilter;
 	private final boolean quantileNormalizePermutations;
@@ -335,6 +336,12 @@ public class DownstreamerOptions {
 		OptionBuilder.withLongOpt("saveUsedVariantsPerGene");
 		OPTIONS.addOption(OptionBuilder.create("uvg"));
 
+		OptionBuilder.withArgName("path");
+		OptionBuilder.hasArg();
+		OptionBuilder.withDescription("Folder to cache the pruned variants and eigenvalues per gene. Reusing this folder for runs with the same reference genotypes skips the variant correlation and eigenvalue decomposition (optional)");
+		OptionBuilder.withLongOpt("geneLdCache");
+		OPTIONS.addOption(OptionBuilder.create("ldc"));
+
 		OptionBuilder.withArgName("strings");
 		OptionBuilder.hasArgs();
 		OptionBuilder.withDescription("Column names to extract when running --mode CONVERT_BIN or CONVERT_EXP");
@@ -434,6 +441,7 @@ public class DownstreamerOptions {
 		normalizeEigenvectors = commandLine.hasOption("ne");
 		saveOuputAsExcelFiles = commandLine.hasOption("se");
 		saveUsedVariantsPerGene = commandLine.hasOption("uvg");
+		geneLdCacheFolder = commandLine.hasOption("ldc") ? new File(commandLine.getOptionValue("ldc")) : null;
 		quantileNormalizePermutations = commandLine.hasOption("qn");
 		regressGeneLengths = commandLine.hasOption("rgl");
 		run1BasePath = commandLine.hasOption("soo") ? new File(commandLine.getOptionValue("soo")) : outputBasePath;
@@ -1369,6 +1377,9 @@ public class DownstreamerOptions {
 				LOGGER.info(" * Max correlation between variants: " + maxRBetweenVariants);
 				LOGGER.info(" * Correcting for lambda inflation: " + (correctForLambdaInflation ? "on" : "off"));
 				LOGGER.info(" * Save which variants that are used per gene to calculate the gene p-value: " + (saveUsedVariantsPerGene ? "on" : "off"));
+				if (geneLdCacheFolder != null) {
+					LOGGER.info(" * Gene LD cache folder: " + geneLdCacheFolder.getAbsolutePath());
+				}
 				if (variantFilterFile != null) {
 					LOGGER.info(" * Confining analysis to variants in this file: " + variantFilterFile.getAbsolutePath());
 				}
@@ -1565,6 +1576,10 @@ public class DownstreamerOptions {
 		return saveUsedVariantsPerGene;
 	}
 
+	public File getGeneLdCacheFolder() {
+		return geneLdCacheFolder;
+	}
+
 	public double getMafFilter() {
 		return mafFilter;
 	}
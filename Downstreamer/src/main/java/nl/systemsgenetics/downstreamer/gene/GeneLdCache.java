@@ -0,0 +1,266 @@
+package nl.systemsgenetics.downstreamer.gene;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import org.apache.log4j.Logger;
+
+/**
+ * Persistent cache of the pruned variants and the eigenvalues of their
+ * correlation matrix per gene. Both only depend on the reference genotypes,
+ * the variants selected for a gene and the max correlation between variants,
+ * so repeated runs on the same reference panel can skip the correlation,
+ * pruning and eigenvalue decomposition.
+ * <p>
+ * The run wide settings are described by a key, every key has its own cache
+ * file in the cache folder. Per gene the variants that were selected before
+ * pruning are stored as a hash, an entry is only used if the same variants
+ * are selected again. This covers a different window, variant gene mapping or
+ * GWAS variant overlap.
+ * <p>
+ * Lookups and additions are thread safe, new entries are only written to disk
+ * by {@link #save()}.
+ */
+public class GeneLdCache {
+
+	private static final Logger LOGGER = Logger.getLogger(GeneLdCache.class);
+
+	private final File cacheFile;
+	private final String key;
+	private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+	private final AtomicInteger newEntries = new AtomicInteger(0);
+	private final AtomicInteger hits = new AtomicInteger(0);
+
+	/**
+	 *
+	 * @param cacheFolder folder with the cache files, created if needed
+	 * @param key description of all settings that influence the pruning and
+	 * eigenvalues other than the variants of a gene
+	 * @throws IOException
+	 */
+	public GeneLdCache(File cacheFolder, String key) throws IOException {
+
+		if (!cacheFolder.exists() && !cacheFolder.mkdirs()) {
+			throw new IOException("Unable to create gene LD cache folder: " + cacheFolder.getAbsolutePath());
+		}
+
+		this.key = key;
+		this.cacheFile = new File(cacheFolder, "geneLd_" + hash(key) + ".txt.gz");
+
+		if (cacheFile.exists()) {
+			load();
+			LOGGER.info("Loaded " + entries.size() + " genes from gene LD cache: " + cacheFile.getAbsolutePath());
+		} else {
+			LOGGER.info("Creating new gene LD cache: " + cacheFile.getAbsolutePath());
+		}
+
+	}
+
+	/**
+	 *
+	 * @param gene
+	 * @param variants variants of this gene before pruning in the order used
+	 * for pruning
+	 * @return null if there is no entry for this gene or if it was created
+	 * using other variants
+	 */
+	public Entry get(String gene, List<String> variants) {
+
+		Entry entry = entries.get(gene);
+		if (entry == null || !entry.variantsHash.equals(hash(variants))) {
+			return null;
+		}
+
+		hits.incrementAndGet();
+		return entry;
+
+	}
+
+	/**
+	 *
+	 * @param gene
+	 * @param variants variants of this gene before pruning in the order used
+	 * for pruning
+	 * @param prunedVariants
+	 * @param lambdas eigenvalues used for the gene p-value, null if less than
+	 * 2 pruned variants
+	 */
+	public void put(String gene, List<String> variants, Collection<String> prunedVariants, double[] lambdas) {
+
+		entries.put(gene, new Entry(hash(variants), new LinkedHashSet<>(prunedVariants), lambdas == null ? null : lambdas.clone()));
+		newEntries.incrementAndGet();
+
+	}
+
+	/**
+	 * Writes the cache file if genes have been added. All entries are first
+	 * written to a temporary file so an interrupted run does not corrupt the
+	 * cache.
+	 *
+	 * @throws IOException
+	 */
+	public void save() throws IOException {
+
+		LOGGER.info("Gene LD cache hits: " + hits.get() + ", new entries: " + newEntries.get());
+
+		if (newEntries.get() == 0) {
+			return;
+		}
+
+		File tmpFile = new File(cacheFile.getAbsolutePath() + ".tmp");
+
+		try (BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new GZIPOutputStream(new FileOutputStream(tmpFile)), StandardCharsets.UTF_8))) {
+
+			writer.write('#');
+			writer.write(key);
+			writer.write('\n');
+
+			StringBuilder line = new StringBuilder();
+			for (Map.Entry<String, Entry> geneEntry : entries.entrySet()) {
+
+				Entry entry = geneEntry.getValue();
+
+				line.setLength(0);
+				line.append(geneEntry.getKey());
+				line.append('\t');
+				line.append(entry.variantsHash);
+				line.append('\t');
+				line.append(String.join(";", entry.prunedVariants));
+				line.append('\t');
+				if (entry.lambdas != null) {
+					for (int i = 0; i < entry.lambdas.length; ++i) {
+						if (i > 0) {
+							line.append(';');
+						}
+						line.append(entry.lambdas[i]);
+					}
+				}
+				line.append('\n');
+				writer.append(line);
+
+			}
+
+		}
+
+		Files.move(tmpFile.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		newEntries.set(0);
+
+		LOGGER.info("Saved " + entries.size() + " genes to gene LD cache: " + cacheFile.getAbsolutePath());
+
+	}
+
+	private void load() throws IOException {
+
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(new GZIPInputStream(new FileInputStream(cacheFile)), StandardCharsets.UTF_8))) {
+
+			String line = reader.readLine();
+			if (line == null || !line.equals('#' + key)) {
+				LOGGER.warn("Gene LD cache " + cacheFile.getAbsolutePath() + " was created with other settings, it will be overwritten");
+				return;
+			}
+
+			while ((line = reader.readLine()) != null) {
+
+				String[] elements = line.split("\t", -1);
+				if (elements.length != 4) {
+					throw new IOException("Gene LD cache is corrupt, delete to recreate: " + cacheFile.getAbsolutePath());
+				}
+
+				LinkedHashSet<String> prunedVariants = new LinkedHashSet<>();
+				if (!elements[2].isEmpty()) {
+					for (String variant : elements[2].split(";")) {
+						prunedVariants.add(variant);
+					}
+				}
+
+				final double[] lambdas;
+				if (elements[3].isEmpty()) {
+					lambdas = null;
+				} else {
+					String[] lambdaStrings = elements[3].split(";");
+					lambdas = new double[lambdaStrings.length];
+					for (int i = 0; i < lambdaStrings.length; ++i) {
+						lambdas[i] = Double.parseDouble(lambdaStrings[i]);
+					}
+				}
+
+				entries.put(elements[0], new Entry(elements[1], prunedVariants, lambdas));
+
+			}
+
+		}
+
+	}
+
+	private static String hash(String value) {
+		return hash(Collections.singletonList(value));
+	}
+
+	private static String hash(List<String> values) {
+
+		final MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException ex) {
+			throw new RuntimeException(ex);
+		}
+
+		for (String value : values) {
+			digest.update(value.getBytes(StandardCharsets.UTF_8));
+			digest.update((byte) 0);
+		}
+
+		StringBuilder hex = new StringBuilder(64);
+		for (byte b : digest.digest()) {
+			hex.append(Character.forDigit((b >> 4) & 0xF, 16));
+			hex.append(Character.forDigit(b & 0xF, 16));
+		}
+		return hex.toString();
+
+	}
+
+	public static class Entry {
+
+		private final String variantsHash;
+		private final LinkedHashSet<String> prunedVariants;
+		private final double[] lambdas;
+
+		private Entry(String variantsHash, LinkedHashSet<String> prunedVariants, double[] lambdas) {
+			this.variantsHash = variantsHash;
+			this.prunedVariants = prunedVariants;
+			this.lambdas = lambdas;
+		}
+
+		public LinkedHashSet<String> getPrunedVariants() {
+			return prunedVariants;
+		}
+
+		/**
+		 * @return null if less than 2 pruned variants
+		 */
+		public double[] getLambdas() {
+			return lambdas;
+		}
+
+	}
+
+}
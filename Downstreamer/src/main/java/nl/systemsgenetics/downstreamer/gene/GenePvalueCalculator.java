@@ -23,6 +23,7 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -58,6 +59,7 @@ import umcg.genetica.math.stats.ZScores;
 public class GenePvalueCalculator {
 
 	public static final int MAX_ROUND_1_RESCUE = 10000000;
+	public static final int MAX_CACHED_ROUND_2_RESCUE = 1000000;
 
 	private static final Logger LOGGER = Logger.getLogger(GenePvalueCalculator.class);
 	private static final DoubleMatrixDataset<String, String> EMPTY_DATASET = new DoubleMatrixDataset<>(0, 0);
@@ -122,6 +124,7 @@ public class GenePvalueCalculator {
 	private final HashMap<String, HashSet<String>> variantGeneMapping;
 	private final CSVWriter variantPerGeneWriter;
 	private final String[] variantPerGeneOutputLine;
+	private final GeneLdCache geneLdCache;
 
 	/**
 	 *
@@ -139,10 +142,12 @@ public class GenePvalueCalculator {
 	 * @param correctForLambdaInflation
 	 * @param nrSampleToUseForCorrelation
 	 * @param nrSamplesToUseForNullBetas
+	 * @param geneLdCache cache with pruned variants and eigenvalues per gene,
+	 * can be null. New genes are added and saved to disk.
 	 * @throws java.io.IOException
 	 */
 	@SuppressWarnings("CallToThreadStartDuringObjectConstruction")
-	public GenePvalueCalculator(String variantPhenotypeZscoreMatrixPath, RandomAccessGenotypeData referenceGenotypes, List<Gene> genes, int windowExtend, double maxR, int nrPermutations, long nrRescuePermutation, String outputBasePath, double[] randomChi2, boolean correctForLambdaInflation, final int nrSampleToUseForCorrelation, final int nrSamplesToUseForNullBetas, final File debugFolder, final File variantGeneMappingFile, final File usedVariantsPerGeneFile) throws IOException, Exception {
+	public GenePvalueCalculator(String variantPhenotypeZscoreMatrixPath, RandomAccessGenotypeData referenceGenotypes, List<Gene> genes, int windowExtend, double maxR, int nrPermutations, long nrRescuePermutation, String outputBasePath, double[] randomChi2, boolean correctForLambdaInflation, final int nrSampleToUseForCorrelation, final int nrSamplesToUseForNullBetas, final File debugFolder, final File variantGeneMappingFile, final File usedVariantsPerGeneFile, final GeneLdCache geneLdCache) throws IOException, Exception {
 
 		this.referenceGenotypes = referenceGenotypes;
 		this.genes = genes;
@@ -152,6 +157,7 @@ public class GenePvalueCalculator {
 		this.maxNrPermutationsRescue1 = nrRescuePermutation < MAX_ROUND_1_RESCUE ? (int) nrRescuePermutation : MAX_ROUND_1_RESCUE;
 		this.maxNrPermutationsRescue2 = nrRescuePermutation;
 		this.debugFolder = debugFolder;
+		this.geneLdCache = geneLdCache;
 
 //		this.minPvaluePermutations = 0.5 / (this.maxNrPermutations2 + 1);
 //		this.minPvaluePermutations2 = 0.5 / (this.maxNrPermutations2 + 1);
@@ -309,6 +315,9 @@ public class GenePvalueCalculator {
 		if (variantPerGeneWriter != null) {
 			variantPerGeneWriter.close();
 		}
+		if (geneLdCache != null) {
+			geneLdCache.save();
+		}
 
 		LOGGER.info("countRanPermutationsForGene: " + countRanPermutationsForGene);
 		LOGGER.info("countBasedPvalueOnPermutations: " + countBasedPvalueOnPermutations);
@@ -377,7 +386,7 @@ public class GenePvalueCalculator {
 		return geneRuntime;
 	}
 
-	private void runGene(int geneI, final double[] geneChi2SumNull) throws IOException, Exception {
+	private void runGene(int geneI, final double[] geneChi2SumNull, final WeightedChi2NullSampler nullSampler) throws IOException, Exception {
 
 		long geneTimeStart = System.currentTimeMillis();
 
@@ -389,8 +398,11 @@ public class GenePvalueCalculator {
 		//Rows: samples, cols: variants
 		final DoubleMatrixDataset<String, String> variantScaledDosages;
 		final DoubleMatrixDataset<String, String> variantScaledDosagesPruned;
-		final DoubleMatrixDataset<String, String> variantCorrelationsPruned;
+		final DoubleMatrixDataset<String, String> variantCorrelationsPruned;//null if pruned variants are from cache
+		final Collection<String> variantsPruned;
 		final int variantCorrelationsPrunedRows;
+		final ArrayList<String> variantsBeforePruning;
+		final GeneLdCache.Entry cachedLd;
 
 		{
 
@@ -450,17 +462,6 @@ public class GenePvalueCalculator {
 
 			}
 
-			timeStart = System.currentTimeMillis();
-			final DoubleMatrixDataset<String, String> variantCorrelations = variantScaledDosages.calculateCorrelationMatrixOnNormalizedColumns();
-			timeStop = System.currentTimeMillis();
-			timeInCreatingGenotypeCorrelationMatrix += (timeStop - timeStart);
-
-			if (LOGGER.isDebugEnabled() & variantCorrelations.rows() > 1) {
-
-				variantCorrelations.save(new File(debugFolder, gene.getGene() + "_variantCorMatrix.txt"));
-
-			}
-
 			if (variantPerGeneWriter != null) {
 				int c;
 
@@ -476,13 +477,35 @@ public class GenePvalueCalculator {
 
 			}
 
-			timeStart = System.currentTimeMillis();
-			variantCorrelationsPruned = pruneCorrelationMatrix(variantCorrelations, maxR);
-			variantCorrelationsPrunedRows = variantCorrelationsPruned.rows();
-			timeStop = System.currentTimeMillis();
-			timeInPruningGenotypeCorrelationMatrix += (timeStop - timeStart);
+			variantsBeforePruning = variantScaledDosages.getColObjects();
+			cachedLd = geneLdCache == null ? null : geneLdCache.get(gene.getGene(), variantsBeforePruning);
+
+			if (cachedLd == null) {
 
-			variantScaledDosagesPruned = variantScaledDosages.viewColSelection(variantCorrelationsPruned.getHashCols().keySet());
+				timeStart = System.currentTimeMillis();
+				final DoubleMatrixDataset<String, String> variantCorrelations = variantScaledDosages.calculateCorrelationMatrixOnNormalizedColumns();
+				timeStop = System.currentTimeMillis();
+				timeInCreatingGenotypeCorrelationMatrix += (timeStop - timeStart);
+
+				if (LOGGER.isDebugEnabled() & variantCorrelations.rows() > 1) {
+
+					variantCorrelations.save(new File(debugFolder, gene.getGene() + "_variantCorMatrix.txt"));
+
+				}
+
+				timeStart = System.currentTimeMillis();
+				variantCorrelationsPruned = pruneCorrelationMatrix(variantCorrelations, maxR);
+				variantsPruned = variantCorrelationsPruned.getHashCols().keySet();
+				timeStop = System.currentTimeMillis();
+				timeInPruningGenotypeCorrelationMatrix += (timeStop - timeStart);
+
+			} else {
+				variantCorrelationsPruned = null;
+				variantsPruned = cachedLd.getPrunedVariants();
+			}
+
+			variantCorrelationsPrunedRows = variantsPruned.size();
+			variantScaledDosagesPruned = variantScaledDosages.viewColSelection(variantsPruned);
 
 		}
 
@@ -495,7 +518,7 @@ public class GenePvalueCalculator {
 			nullGwasZscores = EMPTY_DATASET;
 		}
 
-		if (LOGGER.isDebugEnabled() & variantCorrelationsPrunedRows > 1) {
+		if (LOGGER.isDebugEnabled() & variantCorrelationsPrunedRows > 1 & variantCorrelationsPruned != null) {
 
 			variantCorrelationsPruned.save(new File(debugFolder, gene.getGene() + "_variantCorMatrixPruned.txt"));
 
@@ -514,35 +537,41 @@ public class GenePvalueCalculator {
 
 			timeStart = System.currentTimeMillis();
 
-			final DenseDoubleEigenvalueDecomposition eig = new DenseDoubleEigenvalueDecomposition(variantCorrelationsPruned.getMatrix());
-			//final Jama.EigenvalueDecomposition eig = eigenValueDecomposition(variantCorrelationsPruned.getMatrixAs2dDoubleArray());
-			final DoubleMatrix1D eigenValues = eig.getRealEigenvalues().viewFlip();
-			final long eigenValuesLenght = eigenValues.size();
-
-			//Method below if from PASCAL to select relevant eigen values
-			double sumPosEigen = 0;
-			for (int i = 0; i < eigenValuesLenght; i++) {
-				double e = eigenValues.getQuick(i);
-				if (e > 0) {
-					sumPosEigen += e;
+			if (cachedLd == null) {
+
+				final DenseDoubleEigenvalueDecomposition eig = new DenseDoubleEigenvalueDecomposition(variantCorrelationsPruned.getMatrix());
+				//final Jama.EigenvalueDecomposition eig = eigenValueDecomposition(variantCorrelationsPruned.getMatrixAs2dDoubleArray());
+				final DoubleMatrix1D eigenValues = eig.getRealEigenvalues().viewFlip();
+				final long eigenValuesLenght = eigenValues.size();
+
+				//Method below if from PASCAL to select relevant eigen values
+				double sumPosEigen = 0;
+				for (int i = 0; i < eigenValuesLenght; i++) {
+					double e = eigenValues.getQuick(i);
+					if (e > 0) {
+						sumPosEigen += e;
+					}
 				}
-			}
 
-			final double cutoff = sumPosEigen / 10000;//Only use components that explain significant part of variantion
+				final double cutoff = sumPosEigen / 10000;//Only use components that explain significant part of variantion
 
-			int eigenValuesToUse = 0;
+				int eigenValuesToUse = 0;
 
-			for (int i = 0; i < eigenValuesLenght; i++) {
-				sumPosEigen -= eigenValues.getQuick(i);
-				eigenValuesToUse++;
+				for (int i = 0; i < eigenValuesLenght; i++) {
+					sumPosEigen -= eigenValues.getQuick(i);
+					eigenValuesToUse++;
 
-				if (sumPosEigen < cutoff) {
-					break;
+					if (sumPosEigen < cutoff) {
+						break;
+					}
 				}
-			}
 
-			lambdas = eigenValues.viewPart(0, eigenValuesToUse).toArray();
-			lambdasLength = eigenValuesToUse;
+				lambdas = eigenValues.viewPart(0, eigenValuesToUse).toArray();
+
+			} else {
+				lambdas = cachedLd.getLambdas();
+			}
+			lambdasLength = lambdas.length;
 
 			if (LOGGER.isDebugEnabled()) {
 
@@ -569,12 +598,16 @@ public class GenePvalueCalculator {
 			currentNumberPermutationsCalculated = 0;
 		}
 
+		if (geneLdCache != null && cachedLd == null) {
+			geneLdCache.put(gene.getGene(), variantsBeforePruning, variantsPruned, lambdas);
+		}
+
 		timeStart = System.currentTimeMillis();
 
 		//load current variants from variantPhenotypeMatrix
 		final DoubleMatrixDataset<String, String> geneVariantPhenotypeMatrix;
 		synchronized (this) {
-			geneVariantPhenotypeMatrix = geneVariantPhenotypeMatrixRowLoader.loadSubsetOfRowsBinaryDoubleData(variantCorrelationsPruned.getHashRows().keySet());
+			geneVariantPhenotypeMatrix = geneVariantPhenotypeMatrixRowLoader.loadSubsetOfRowsBinaryDoubleData(variantsPruned);
 		}
 
 		if (LOGGER.isDebugEnabled()) {
@@ -687,35 +720,10 @@ public class GenePvalueCalculator {
 
 						LOGGER.debug("Done first rescue permutation for:\t" + gene.getGene() + "\tphenoI:\t" + phenoI + "\tcountNullLargerChi2ThanReal:\t" + countNullLargerChi2ThanReal + "\tused permutations:\t" + currentNumberPermutationsForThisPhenoGeneCombo);
 
-						//Fall back to slower purmtations that are not saved
-						while (countNullLargerChi2ThanReal < 5 && currentNumberPermutationsForThisPhenoGeneCombo < maxNrPermutationsRescue2) {
-							double weightedChi2Perm = 0;
-							for (int g = -1; ++g < lambdasLength;) {
-								//double randomZ = rnd.nextGaussian();
-
-								//Hopefully more efficient nextGaussian because no need to save second value from pair as double object
-								double v1, v2, s;
-								do {
-									v1 = 2 * rnd.nextDouble() - 1; // between -1 and 1
-									v2 = 2 * rnd.nextDouble() - 1; // between -1 and 1
-									s = v1 * v1 + v2 * v2;
-								} while (s >= 1 || s == 0);
-								double multiplier = StrictMath.sqrt(-2 * StrictMath.log(s) / s);
-								double randomZ = v1 * multiplier;
-								weightedChi2Perm += lambdas[g] * (randomZ * randomZ);
-
-								if (++g < lambdasLength) {
-									randomZ = v2 * multiplier;
-									weightedChi2Perm += lambdas[g] * (randomZ * randomZ);
-								} else {
-									break;//Will happen automaticly but would require second check
-								}
-
-							}
-							if (geneChi2Sum < weightedChi2Perm) {
-								countNullLargerChi2ThanReal++;
-							}
-							currentNumberPermutationsForThisPhenoGeneCombo++;
+						//Fall back to the null sampler, its null values are reused for the other phenotypes of this gene
+						if (countNullLargerChi2ThanReal < 5 && currentNumberPermutationsForThisPhenoGeneCombo < maxNrPermutationsRescue2) {
+							countNullLargerChi2ThanReal += nullSampler.countLarger(lambdas, geneChi2Sum, 5 - countNullLargerChi2ThanReal, maxNrPermutationsRescue2 - currentNumberPermutationsForThisPhenoGeneCombo);
+							currentNumberPermutationsForThisPhenoGeneCombo += nullSampler.getLastNumberOfDraws();
 						}
 						p = (countNullLargerChi2ThanReal + 0.5) / (double) (currentNumberPermutationsForThisPhenoGeneCombo + 1);
 						countBasedPvalueOnPermutationsAfterFailedFarebrother++;
@@ -855,35 +863,10 @@ public class GenePvalueCalculator {
 							++nullUsingRescue2;
 						}
 
-						//Fall back to slower purmtations that are not saved
-						while (countNullLargerChi2ThanReal < 5 && currentNumberPermutationsForThisPhenoGeneCombo < maxNrPermutationsRescue2) {
-							double weightedChi2Perm = 0;
-							for (int g = -1; ++g < lambdasLength;) {
-								//double randomZ = rnd.nextGaussian();
-
-								//Hopefully more efficient nextGaussian because no need to save second value from pair as double object
-								double v1, v2, s;
-								do {
-									v1 = 2 * rnd.nextDouble() - 1; // between -1 and 1
-									v2 = 2 * rnd.nextDouble() - 1; // between -1 and 1
-									s = v1 * v1 + v2 * v2;
-								} while (s >= 1 || s == 0);
-								double multiplier = StrictMath.sqrt(-2 * StrictMath.log(s) / s);
-								double randomZ = v1 * multiplier;
-								weightedChi2Perm += lambdas[g] * (randomZ * randomZ);
-
-								if (++g < lambdasLength) {
-									randomZ = v2 * multiplier;
-									weightedChi2Perm += lambdas[g] * (randomZ * randomZ);
-								} else {
-									break;//Will happen automaticly but would require second check
-								}
-
-							}
-							if (geneChi2Sum < weightedChi2Perm) {
-								countNullLargerChi2ThanReal++;
-							}
-							currentNumberPermutationsForThisPhenoGeneCombo++;
+						//Fall back to the null sampler, its null values are reused for the other phenotypes of this gene
+						if (countNullLargerChi2ThanReal < 5 && currentNumberPermutationsForThisPhenoGeneCombo < maxNrPermutationsRescue2) {
+							countNullLargerChi2ThanReal += nullSampler.countLarger(lambdas, geneChi2Sum, 5 - countNullLargerChi2ThanReal, maxNrPermutationsRescue2 - currentNumberPermutationsForThisPhenoGeneCombo);
+							currentNumberPermutationsForThisPhenoGeneCombo += nullSampler.getLastNumberOfDraws();
 						}
 						p = (countNullLargerChi2ThanReal + 0.5) / (double) (currentNumberPermutationsForThisPhenoGeneCombo + 1);
 						//countBasedPvalueOnPermutationsAfterFailedFarebrother++;
@@ -1208,10 +1191,11 @@ public class GenePvalueCalculator {
 		public void run() {
 
 			int i;
+			final WeightedChi2NullSampler nullSampler = new WeightedChi2NullSampler((int) Math.max(0, Math.min(MAX_CACHED_ROUND_2_RESCUE, maxNrPermutationsRescue2 - maxNrPermutationsRescue1)));
 			while ((i = counter.getAndIncrement()) < genes.size()) {
 				try {
 					final double[] geneChi2SumNull = new double[maxNrPermutationsRescue1];//The array will be recyceld. But the content will be overwritten
-					runGene(i, geneChi2SumNull);
+					runGene(i, geneChi2SumNull, nullSampler);
 					pb.step();
 				} catch (Exception ex) {
 					throw new RuntimeException(ex);
@@ -0,0 +1,248 @@
+package nl.systemsgenetics.downstreamer.gene;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * Samples the null distribution of a gene statistic: the sum over the
+ * eigenvalues of lambda * z^2 with z standard normal. Used for the rescue
+ * permutations when Farebrother fails.
+ * <p>
+ * The normal values are drawn with the ziggurat method (the ZIGNOR variant of
+ * Doornik, using independent bits for the layer and the value) from a
+ * SplittableRandom. The null values are generated per block and kept in a
+ * cache that is sorted once it has doubled in size, so the other phenotypes of
+ * a gene count the null values larger than their statistic using a binary
+ * search instead of new draws. The cache is released as soon as the
+ * eigenvalues change, so a sampler only keeps the null values of one gene.
+ * <p>
+ * Not thread safe, use one sampler per thread.
+ */
+public class WeightedChi2NullSampler {
+
+	private static final int BLOCK_SIZE = 65536;
+	private static final double[] EMPTY_CACHE = new double[0];
+	private static final int ZIGGURAT_LAYERS = 128;
+	private static final double ZIGGURAT_R = 3.442619855899;
+	private static final double ZIGGURAT_V = 9.91256303526217e-3;
+	private static final double[] ZIGGURAT_X = new double[ZIGGURAT_LAYERS + 1];
+	private static final double[] ZIGGURAT_RATIO = new double[ZIGGURAT_LAYERS];
+
+	static {
+		double f = Math.exp(-0.5 * ZIGGURAT_R * ZIGGURAT_R);
+		ZIGGURAT_X[0] = ZIGGURAT_V / f;//Bottom layer including the tail
+		ZIGGURAT_X[1] = ZIGGURAT_R;
+		ZIGGURAT_X[ZIGGURAT_LAYERS] = 0;
+		for (int i = 2; i < ZIGGURAT_LAYERS; ++i) {
+			ZIGGURAT_X[i] = Math.sqrt(-2 * Math.log(ZIGGURAT_V / ZIGGURAT_X[i - 1] + f));
+			f = Math.exp(-0.5 * ZIGGURAT_X[i] * ZIGGURAT_X[i]);
+		}
+		for (int i = 0; i < ZIGGURAT_LAYERS; ++i) {
+			ZIGGURAT_RATIO[i] = ZIGGURAT_X[i + 1] / ZIGGURAT_X[i];
+		}
+	}
+
+	private final SplittableRandom random;
+	private final int maxCachedDraws;
+	private final double[] block = new double[BLOCK_SIZE];
+	private double[] eigenValues = null;
+	private double[] cache = EMPTY_CACHE;
+	private int cacheSortedSize = 0;//cache[0, cacheSortedSize) is sorted
+	private int cacheSize = 0;
+	private long lastNumberOfDraws = 0;
+
+	/**
+	 *
+	 * @param maxCachedDraws max number of null values to keep per set of
+	 * eigenvalues
+	 */
+	public WeightedChi2NullSampler(int maxCachedDraws) {
+		this(maxCachedDraws, new SplittableRandom());
+	}
+
+	public WeightedChi2NullSampler(int maxCachedDraws, long seed) {
+		this(maxCachedDraws, new SplittableRandom(seed));
+	}
+
+	private WeightedChi2NullSampler(int maxCachedDraws, SplittableRandom random) {
+		this.maxCachedDraws = maxCachedDraws;
+		this.random = random;
+	}
+
+	/**
+	 * Counts the null values that are larger than chi2. First all cached null
+	 * values are used, then new null values are drawn until minCount null
+	 * values are larger or maxDraws is reached. This sequential stopping keeps
+	 * the relative error of the p-value bounded without spending draws on genes
+	 * that are clearly not significant. The count is checked per block, so
+	 * more than minCount null values can be larger. The cache is not used if
+	 * it holds more than maxDraws null values.
+	 *
+	 * @param eigenValues eigenvalues of the gene, the cache is released if these
+	 * differ from the previous call
+	 * @param chi2 sum of the chi2 values of the gene
+	 * @param minCount
+	 * @param maxDraws
+	 * @return number of null values larger than chi2, see
+	 * {@link #getLastNumberOfDraws()} for the number of null values used
+	 */
+	public int countLarger(final double[] eigenValues, final double chi2, final int minCount, final long maxDraws) {
+
+		if (!Arrays.equals(this.eigenValues, eigenValues)) {
+			this.eigenValues = eigenValues.clone();
+			cache = EMPTY_CACHE;
+			cacheSortedSize = 0;
+			cacheSize = 0;
+		}
+
+		int count = 0;
+		long draws = 0;
+
+		if (cacheSize > 0 && cacheSize <= maxDraws) {
+
+			//Index of first value larger than chi2
+			int low = 0;
+			int high = cacheSortedSize;
+			while (low < high) {
+				int mid = (low + high) >>> 1;
+				if (cache[mid] > chi2) {
+					high = mid;
+				} else {
+					low = mid + 1;
+				}
+			}
+			count += cacheSortedSize - low;
+
+			for (int i = cacheSortedSize; i < cacheSize; ++i) {
+				if (chi2 < cache[i]) {
+					++count;
+				}
+			}
+
+			draws = cacheSize;
+
+		}
+
+		while (count < minCount && draws < maxDraws) {
+
+			final int blockSize = (int) Math.min(BLOCK_SIZE, maxDraws - draws);
+			fill(block, blockSize);
+
+			for (int i = 0; i < blockSize; ++i) {
+				if (chi2 < block[i]) {
+					++count;
+				}
+			}
+			draws += blockSize;
+
+			addToCache(block, blockSize);
+
+		}
+
+		lastNumberOfDraws = draws;
+		return count;
+
+	}
+
+	/**
+	 * @return number of null values used by the last call to
+	 * {@link #countLarger(double[], double, int, long)}
+	 */
+	public long getLastNumberOfDraws() {
+		return lastNumberOfDraws;
+	}
+
+	/**
+	 * @return number of cached null values for the current eigenvalues
+	 */
+	int getCacheSize() {
+		return cacheSize;
+	}
+
+	/**
+	 * Fills the buffer with null values for the current eigenvalues
+	 *
+	 * @param buffer
+	 * @param length
+	 */
+	private void fill(final double[] buffer, final int length) {
+
+		final double[] lambdas = eigenValues;
+		final int lambdasLength = lambdas.length;
+
+		for (int i = 0; i < length; ++i) {
+			double weightedChi2 = 0;
+			for (int g = 0; g < lambdasLength; ++g) {
+				final double z = nextGaussian();
+				weightedChi2 += lambdas[g] * (z * z);
+			}
+			buffer[i] = weightedChi2;
+		}
+
+	}
+
+	private void addToCache(final double[] values, final int length) {
+
+		if (cacheSize + length > maxCachedDraws) {
+			return;
+		}
+
+		if (cacheSize + length > cache.length) {
+			cache = Arrays.copyOf(cache, Math.min(maxCachedDraws, Math.max(cacheSize + length, cache.length * 2)));
+		}
+
+		System.arraycopy(values, 0, cache, cacheSize, length);
+		cacheSize += length;
+
+		//Sorting each time the unsorted part is as large as the sorted part keeps the total sorting costs at O(n log n)
+		if (cacheSize - cacheSortedSize >= cacheSortedSize) {
+			Arrays.sort(cache, 0, cacheSize);
+			cacheSortedSize = cacheSize;
+		}
+
+	}
+
+	/**
+	 * @return standard normal value using the ziggurat method
+	 */
+	double nextGaussian() {
+
+		while (true) {
+
+			//Low 7 bits for the layer, high 53 bits for the value
+			final long bits = random.nextLong();
+			final int layer = (int) (bits & 0x7F);
+			final double u = 2 * ((bits >>> 11) * 0x1.0p-53) - 1;
+
+			if (Math.abs(u) < ZIGGURAT_RATIO[layer]) {
+				return u * ZIGGURAT_X[layer];
+			}
+
+			if (layer == 0) {
+				return nextGaussianTail(u < 0);
+			}
+
+			final double x = u * ZIGGURAT_X[layer];
+			final double f0 = Math.exp(-0.5 * (ZIGGURAT_X[layer] * ZIGGURAT_X[layer] - x * x));
+			final double f1 = Math.exp(-0.5 * (ZIGGURAT_X[layer + 1] * ZIGGURAT_X[layer + 1] - x * x));
+			if (f1 + random.nextDouble() * (f0 - f1) < 1.0) {
+				return x;
+			}
+
+		}
+
+	}
+
+	private double nextGaussianTail(final boolean negative) {
+
+		double x, y;
+		do {
+			x = Math.log(1 - random.nextDouble()) / ZIGGURAT_R;
+			y = Math.log(1 - random.nextDouble());
+		} while (-2 * y < x * x);
+
+		return negative ? x - ZIGGURAT_R : ZIGGURAT_R - x;
+
+	}
+
+}
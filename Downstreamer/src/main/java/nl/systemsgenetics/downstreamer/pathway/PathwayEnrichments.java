@@ -792,37 +792,49 @@ public class PathwayEnrichments {
 		return qValues;
 	}
 
-	private static void glsStep1(DoubleMatrixDataset<String, String> geneZscoresSubset, DoubleMatrix2D geneInvCorMatrix, DoubleMatrixDataset<String, String> genePathwayZscoresSubset, DoubleMatrixDataset<String, String> b1, DoubleMatrixDataset<String, String> b2) {
+	/**
+	 * Calculates b1 and b2 of the GLS for all traits at once. The gene
+	 * z-scores of all traits are multiplied with the inverse gene correlation
+	 * matrix and the result with the pathway z-scores, both as a single matrix
+	 * multiplication that colt spreads over the threads. Every element is the
+	 * same dot product as when doing this per trait, so the results are
+	 * identical.
+	 *
+	 * @param geneZscoresSubset rows: genes, cols: traits
+	 * @param geneInvCorMatrix
+	 * @param genePathwayZscoresSubset rows: genes, cols: pathways
+	 * @param b1 rows: traits, cols: 1
+	 * @param b2 rows: traits, cols: pathways
+	 */
+	static void glsStep1(DoubleMatrixDataset<String, String> geneZscoresSubset, DoubleMatrix2D geneInvCorMatrix, DoubleMatrixDataset<String, String> genePathwayZscoresSubset, DoubleMatrixDataset<String, String> b1, DoubleMatrixDataset<String, String> b2) {
 
 		final int numberOfGenes = geneZscoresSubset.rows();
 		final int numberTraits = geneZscoresSubset.columns();
 		final int numberOfPathways = genePathwayZscoresSubset.columns();
-		//final DoubleMatrix2D geneInvCorMatrix = geneInvCorMatrixSubset.getMatrix();
+		final DoubleMatrix2D geneZscoresMatrix = geneZscoresSubset.getMatrix();
 		final DoubleMatrix2D genePathwayZscoresMatrix = genePathwayZscoresSubset.getMatrix();
 
-		// Result of transpose geneZscoresTrait times inv correlation matrix
-		DoubleMatrix2D A = geneZscoresSubset.getMatrix().like(1, numberOfGenes);
-
-		// Trait = gwas
-		for (int traitI = 0; traitI < numberTraits; ++traitI) {
-			try {
+		try {
 
-				DoubleMatrix2D geneZscoresTrait = geneZscoresSubset.viewColAsMmatrix(traitI);
-				geneZscoresTrait.zMult(geneInvCorMatrix, A, 1, 0, true, false);
-				final double x = A.viewRow(0).zDotProduct(geneZscoresTrait.viewColumn(0));
+			// Result of transpose geneZscores times inv correlation matrix, rows: traits cols: genes
+			final DoubleMatrix2D A = geneZscoresMatrix.like(numberTraits, numberOfGenes);
+			geneZscoresMatrix.zMult(geneInvCorMatrix, A, 1, 0, true, false);
 
+			// Trait = gwas
+			for (int traitI = 0; traitI < numberTraits; ++traitI) {
+				final double x = A.viewRow(traitI).zDotProduct(geneZscoresMatrix.viewColumn(traitI));
 				// Col order should be the same
-				b1.setElementQuick(0, traitI, x + b1.getElementQuick(0, traitI));
-				DoubleMatrix2D b2Row = b2.viewRowAsMmatrix(traitI);
-				A.zMult(genePathwayZscoresMatrix, b2Row, 1, 0, false, false);
-
-			} catch (Exception e) {
-				LOGGER.fatal("Number of pathways: " + numberOfPathways);
-				LOGGER.fatal("Current trait index: " + traitI);
-				LOGGER.fatal("Dim genePathwayZscores: " + genePathwayZscoresSubset.rows() + "x" + genePathwayZscoresSubset.columns());
-				LOGGER.fatal("Dim genePathwayZscores internal: " + genePathwayZscoresSubset.getMatrix().rows() + "x" + genePathwayZscoresSubset.getMatrix().columns());
-				throw (e);
+				b1.setElementQuick(traitI, 0, x + b1.getElementQuick(traitI, 0));
 			}
+
+			A.zMult(genePathwayZscoresMatrix, b2.getMatrix(), 1, 0, false, false);
+
+		} catch (Exception e) {
+			LOGGER.fatal("Number of pathways: " + numberOfPathways);
+			LOGGER.fatal("Number of traits: " + numberTraits);
+			LOGGER.fatal("Dim genePathwayZscores: " + genePathwayZscoresSubset.rows() + "x" + genePathwayZscoresSubset.columns());
+			LOGGER.fatal("Dim genePathwayZscores internal: " + genePathwayZscoresMatrix.rows() + "x" + genePathwayZscoresMatrix.columns());
+			throw (e);
 		}
 
 	}
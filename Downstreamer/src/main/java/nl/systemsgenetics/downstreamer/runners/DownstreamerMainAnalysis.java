@@ -9,6 +9,7 @@ import nl.systemsgenetics.downstreamer.DownstreamerOptions;
 import cern.colt.matrix.tdouble.DoubleMatrix2D;
 import htsjdk.samtools.util.IntervalTreeMap;
 import nl.systemsgenetics.downstreamer.gene.Gene;
+import nl.systemsgenetics.downstreamer.gene.GeneLdCache;
 import nl.systemsgenetics.downstreamer.gene.GenePvalueCalculator;
 import nl.systemsgenetics.downstreamer.io.IoUtils;
 import nl.systemsgenetics.downstreamer.pathway.PathwayDatabase;
@@ -62,6 +63,21 @@ public class DownstreamerMainAnalysis {
 
 		File usedVariantsPerGeneFile = options.isSaveUsedVariantsPerGene() ? new File(options.getOutputBasePath() + "_usedVariantsPerGene.txt") : null;
 
+		//The variants per gene are checked by the cache itself, the key only needs to cover the genotypes and pruning
+		final GeneLdCache geneLdCache;
+		if (options.getGeneLdCacheFolder() != null) {
+			StringBuilder geneLdCacheKey = new StringBuilder();
+			for (String path : options.getGenotypeBasePath()) {
+				geneLdCacheKey.append(new File(path).getAbsolutePath()).append('\t');
+			}
+			geneLdCacheKey.append(options.getGenotypeType().getName());
+			geneLdCacheKey.append("\tmaxR=").append(options.getMaxRBetweenVariants());
+			geneLdCacheKey.append("\tsamples=").append(String.join(",", referenceGenotypeData.getSampleNames()));
+			geneLdCache = new GeneLdCache(options.getGeneLdCacheFolder(), geneLdCacheKey.toString());
+		} else {
+			geneLdCache = null;
+		}
+
 		GenePvalueCalculator gpc = new GenePvalueCalculator(options.getGwasZscoreMatrixPath(),
 				referenceGenotypeData,
 				genes,
@@ -76,7 +92,8 @@ public class DownstreamerMainAnalysis {
 				options.getPermutationPathwayEnrichment() + options.getPermutationFDR(),
 				options.getDebugFolder(),
 				options.getVariantGeneLinkingFile(),
-				usedVariantsPerGeneFile);
+				usedVariantsPerGeneFile,
+				geneLdCache);
 
 		DoubleMatrixDataset<String, String> genePvalues = gpc.getGenePvalues();
 		DoubleMatrixDataset<String, String> genePvaluesNullGwas = gpc.getGenePvaluesNullGwas();
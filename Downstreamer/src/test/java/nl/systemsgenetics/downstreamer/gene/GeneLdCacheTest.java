@@ -0,0 +1,184 @@
+package nl.systemsgenetics.downstreamer.gene;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.*;
+
+public class GeneLdCacheTest {
+
+	private static final String KEY = "reference.vcf.gz\tVCF\tmaxR=0.95";
+
+	private File cacheFolder;
+
+	public GeneLdCacheTest() {
+	}
+
+	@BeforeMethod
+	public void setUpMethod() throws Exception {
+		cacheFolder = Files.createTempDirectory("GeneLdCacheTest").toFile();
+	}
+
+	@AfterMethod
+	public void tearDownMethod() throws Exception {
+		for (File file : cacheFolder.listFiles()) {
+			file.delete();
+		}
+		cacheFolder.delete();
+	}
+
+	@Test
+	public void testSaveLoad() throws Exception {
+
+		List<String> variantsA = Arrays.asList("rs5", "rs1", "rs3", "rs2", "rs4");
+		List<String> variantsB = Arrays.asList("rs10", "rs11");
+		List<String> variantsC = Arrays.asList("rs20");
+		//Values that need all digits to be restored exactly
+		double[] lambdasA = {0.1 + 0.2, Math.PI / 3, 1e-300, Double.MIN_VALUE, 12345.678901234567};
+
+		GeneLdCache cache = new GeneLdCache(cacheFolder, KEY);
+		assertNull(cache.get("GeneA", variantsA));
+		//Pruned variants not in sorted order
+		cache.put("GeneA", variantsA, Arrays.asList("rs5", "rs3", "rs1", "rs4"), lambdasA);
+		cache.put("GeneB", variantsB, Arrays.asList("rs11"), null);
+		cache.put("GeneC", variantsC, new ArrayList<String>(), null);
+		cache.save();
+
+		GeneLdCache loaded = new GeneLdCache(cacheFolder, KEY);
+
+		GeneLdCache.Entry entryA = loaded.get("GeneA", variantsA);
+		assertNotNull(entryA);
+		assertEquals(new ArrayList<>(entryA.getPrunedVariants()), Arrays.asList("rs5", "rs3", "rs1", "rs4"));
+		assertEquals(entryA.getLambdas().length, lambdasA.length);
+		for (int i = 0; i < lambdasA.length; ++i) {
+			assertEquals(entryA.getLambdas()[i], lambdasA[i], 0d);
+		}
+
+		GeneLdCache.Entry entryB = loaded.get("GeneB", variantsB);
+		assertNotNull(entryB);
+		assertEquals(new ArrayList<>(entryB.getPrunedVariants()), Arrays.asList("rs11"));
+		assertNull(entryB.getLambdas());
+
+		GeneLdCache.Entry entryC = loaded.get("GeneC", variantsC);
+		assertNotNull(entryC);
+		assertTrue(entryC.getPrunedVariants().isEmpty());
+		assertNull(entryC.getLambdas());
+
+		assertNull(loaded.get("GeneD", variantsC));
+
+	}
+
+	@Test
+	public void testChangedVariants() throws Exception {
+
+		List<String> variantsA = Arrays.asList("rs1", "rs2", "rs3");
+		List<String> variantsB = Arrays.asList("rs10", "rs11", "rs12");
+
+		GeneLdCache cache = new GeneLdCache(cacheFolder, KEY);
+		cache.put("GeneA", variantsA, Arrays.asList("rs1", "rs3"), new double[]{1.5, 0.5});
+		cache.put("GeneB", variantsB, Arrays.asList("rs10", "rs12"), new double[]{1.2, 0.8});
+		cache.save();
+
+		GeneLdCache loaded = new GeneLdCache(cacheFolder, KEY);
+
+		//Other variants or other order of the variants invalidate only that gene
+		assertNull(loaded.get("GeneA", Arrays.asList("rs1", "rs2", "rs3", "rs4")));
+		assertNull(loaded.get("GeneA", Arrays.asList("rs3", "rs2", "rs1")));
+		assertNull(loaded.get("GeneA", Arrays.asList("rs1", "rs2")));
+		assertNotNull(loaded.get("GeneB", variantsB));
+		assertNotNull(loaded.get("GeneA", variantsA));
+
+		loaded.put("GeneA", Arrays.asList("rs1", "rs2", "rs3", "rs4"), Arrays.asList("rs4"), null);
+		loaded.save();
+
+		GeneLdCache reloaded = new GeneLdCache(cacheFolder, KEY);
+		assertNull(reloaded.get("GeneA", variantsA));
+		GeneLdCache.Entry entryA = reloaded.get("GeneA", Arrays.asList("rs1", "rs2", "rs3", "rs4"));
+		assertEquals(new ArrayList<>(entryA.getPrunedVariants()), Arrays.asList("rs4"));
+		assertNull(entryA.getLambdas());
+		GeneLdCache.Entry entryB = reloaded.get("GeneB", variantsB);
+		assertEquals(new ArrayList<>(entryB.getPrunedVariants()), Arrays.asList("rs10", "rs12"));
+		assertEquals(entryB.getLambdas()[0], 1.2, 0d);
+		assertEquals(entryB.getLambdas()[1], 0.8, 0d);
+
+	}
+
+	@Test
+	public void testKeyMismatch() throws Exception {
+
+		List<String> variantsA = Arrays.asList("rs1", "rs2");
+
+		GeneLdCache cache = new GeneLdCache(cacheFolder, KEY);
+		cache.put("GeneA", variantsA, variantsA, new double[]{1.9, 0.1});
+		cache.save();
+
+		File[] cacheFiles = cacheFolder.listFiles();
+		assertEquals(cacheFiles.length, 1);
+		File cacheFile = cacheFiles[0];
+
+		//Same file name but created with other settings
+		List<String> lines = readLines(cacheFile);
+		assertEquals(lines.get(0), '#' + KEY);
+		lines.set(0, "#other.vcf.gz\tVCF\tmaxR=0.95");
+		writeLines(cacheFile, lines);
+
+		GeneLdCache mismatch = new GeneLdCache(cacheFolder, KEY);
+		assertNull(mismatch.get("GeneA", variantsA));
+
+		//Nothing new, the file is left as is
+		mismatch.save();
+		assertEquals(readLines(cacheFile), lines);
+
+		mismatch.put("GeneB", Arrays.asList("rs3"), Arrays.asList("rs3"), null);
+		mismatch.save();
+
+		List<String> overwritten = readLines(cacheFile);
+		assertEquals(overwritten.size(), 2);
+		assertEquals(overwritten.get(0), '#' + KEY);
+
+		GeneLdCache reloaded = new GeneLdCache(cacheFolder, KEY);
+		assertNull(reloaded.get("GeneA", variantsA));
+		assertNotNull(reloaded.get("GeneB", Arrays.asList("rs3")));
+
+		//Other key is another file
+		GeneLdCache otherKey = new GeneLdCache(cacheFolder, "other");
+		assertNull(otherKey.get("GeneB", Arrays.asList("rs3")));
+
+	}
+
+	private static List<String> readLines(File file) throws Exception {
+		ArrayList<String> lines = new ArrayList<>();
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(new GZIPInputStream(new FileInputStream(file)), StandardCharsets.UTF_8))) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				lines.add(line);
+			}
+		}
+		return lines;
+	}
+
+	private static void writeLines(File file, List<String> lines) throws Exception {
+		try (BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new GZIPOutputStream(new FileOutputStream(file)), StandardCharsets.UTF_8))) {
+			for (String line : lines) {
+				writer.write(line);
+				writer.write('\n');
+			}
+		}
+	}
+
+}
@@ -0,0 +1,100 @@
+package nl.systemsgenetics.downstreamer.gene;
+
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.*;
+
+public class WeightedChi2NullSamplerTest {
+
+	public WeightedChi2NullSamplerTest() {
+	}
+
+	@Test
+	public void testNextGaussian() {
+
+		WeightedChi2NullSampler sampler = new WeightedChi2NullSampler(0, 1);
+
+		final int n = 2000000;
+		double sum = 0;
+		double sumSquares = 0;
+		double sumFourth = 0;
+		int largerThan3 = 0;
+		int inTail = 0;
+		for (int i = 0; i < n; ++i) {
+			double z = sampler.nextGaussian();
+			sum += z;
+			sumSquares += z * z;
+			sumFourth += z * z * z * z;
+			if (Math.abs(z) > 3) {
+				++largerThan3;
+			}
+			//Values from the tail of the bottom layer
+			if (Math.abs(z) > 3.442619855899) {
+				++inTail;
+			}
+		}
+
+		double mean = sum / n;
+		double variance = sumSquares / n - mean * mean;
+		assertEquals(mean, 0, 0.005);
+		assertEquals(variance, 1, 0.005);
+		assertEquals(sumFourth / n, 3, 0.03);
+		assertEquals(largerThan3 / (double) n, 0.0026997960632601913, 2e-4);
+		assertEquals(inTail / (double) n, 0.0005761085123916405, 1e-4);
+
+	}
+
+	@Test
+	public void testCountLargerChi2OneDf() {
+
+		WeightedChi2NullSampler sampler = new WeightedChi2NullSampler(0, 2);
+		double[] eigenValues = {1};
+
+		int count = sampler.countLarger(eigenValues, 3.841458820694124, Integer.MAX_VALUE, 1000000);
+		assertEquals(sampler.getLastNumberOfDraws(), 1000000);
+		assertEquals(count / 1000000d, 0.05, 0.0015);
+
+		count = sampler.countLarger(eigenValues, 10.827566170662733, Integer.MAX_VALUE, 1000000);
+		assertEquals(count / 1000000d, 0.001, 1.5e-4);
+
+	}
+
+	@Test
+	public void testCacheReuse() {
+
+		WeightedChi2NullSampler sampler = new WeightedChi2NullSampler(300000, 3);
+
+		int count = sampler.countLarger(new double[]{2, 1, 0.5}, 5, Integer.MAX_VALUE, 200000);
+		assertEquals(sampler.getLastNumberOfDraws(), 200000);
+		assertEquals(sampler.getCacheSize(), 200000);
+
+		//Equal eigenvalues in a new array use the cached values without new draws
+		assertEquals(sampler.countLarger(new double[]{2, 1, 0.5}, 5, Integer.MAX_VALUE, 200000), count);
+		assertEquals(sampler.getLastNumberOfDraws(), 200000);
+		assertEquals(sampler.getCacheSize(), 200000);
+
+		//Another statistic of the same gene is counted on the cached values
+		int countLow = sampler.countLarger(new double[]{2, 1, 0.5}, 1, 0, 200000);
+		assertEquals(sampler.getLastNumberOfDraws(), 200000);
+		assertTrue(countLow > count);
+
+		//More draws extend the cache up to its maximum
+		sampler.countLarger(new double[]{2, 1, 0.5}, 5, Integer.MAX_VALUE, 400000);
+		assertEquals(sampler.getLastNumberOfDraws(), 400000);
+		assertTrue(sampler.getCacheSize() <= 300000);
+		assertTrue(sampler.getCacheSize() > 200000);
+
+		//Other eigenvalues release the cache
+		sampler.countLarger(new double[]{1}, 5, 0, 200000);
+		assertEquals(sampler.getLastNumberOfDraws(), 0);
+		assertEquals(sampler.getCacheSize(), 0);
+
+		//The cache is not used if it holds more values than requested
+		sampler.countLarger(new double[]{1}, 5, Integer.MAX_VALUE, 131072);
+		assertEquals(sampler.getCacheSize(), 131072);
+		sampler.countLarger(new double[]{1}, 5, Integer.MAX_VALUE, 65536);
+		assertEquals(sampler.getLastNumberOfDraws(), 65536);
+
+	}
+
+}
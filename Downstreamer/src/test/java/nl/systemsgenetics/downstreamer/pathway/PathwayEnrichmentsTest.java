@@ -5,6 +5,7 @@
  */
 package nl.systemsgenetics.downstreamer.pathway;
 
+import cern.colt.matrix.tdouble.DoubleMatrix2D;
 import java.io.File;
 import java.net.URISyntaxException;
 import java.text.DateFormat;
@@ -13,6 +14,8 @@ import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Random;
 import nl.systemsgenetics.downstreamer.gene.Gene;
 import nl.systemsgenetics.downstreamer.pathway.PathwayEnrichments.MetaGene;
 import org.testng.Assert;
@@ -72,6 +75,110 @@ public class PathwayEnrichmentsTest {
 	public void tearDownMethod() throws Exception {
 	}
 
+	/**
+	 * glsStep1 calculates b1 and b2 for all traits with one matrix product,
+	 * this must give the same as the product per trait
+	 */
+	@Test
+	public void testGlsStep1() throws Exception {
+
+		Random random = new Random(1);
+
+		final int numberOfGenes = 12;
+		final int numberOfTraits = 5;
+		final int numberOfPathways = 4;
+
+		ArrayList<String> genes = new ArrayList<>();
+		ArrayList<String> traits = new ArrayList<>();
+		ArrayList<String> pathways = new ArrayList<>();
+		for (int g = 0; g < numberOfGenes; ++g) {
+			genes.add("Gene" + g);
+		}
+		for (int t = 0; t < numberOfTraits; ++t) {
+			traits.add("Trait" + t);
+		}
+		for (int p = 0; p < numberOfPathways; ++p) {
+			pathways.add("Pathway" + p);
+		}
+
+		DoubleMatrixDataset<String, String> geneZscores = new DoubleMatrixDataset<>(genes, traits);
+		DoubleMatrixDataset<String, String> genePathwayZscores = new DoubleMatrixDataset<>(genes, pathways);
+		for (int g = 0; g < numberOfGenes; ++g) {
+			for (int t = 0; t < numberOfTraits; ++t) {
+				geneZscores.setElementQuick(g, t, random.nextGaussian());
+			}
+			for (int p = 0; p < numberOfPathways; ++p) {
+				genePathwayZscores.setElementQuick(g, p, random.nextGaussian());
+			}
+		}
+
+		//Arm with a subset of the genes in another order, same as the real analysis
+		ArrayList<String> armGenes = new ArrayList<>();
+		for (int g = numberOfGenes - 1; g >= 0; g -= 2) {
+			armGenes.add("Gene" + g);
+		}
+		armGenes.add("Gene0");
+		final int numberOfArmGenes = armGenes.size();
+		DoubleMatrixDataset<String, String> geneZscoresArm = geneZscores.viewRowSelection(armGenes);
+		DoubleMatrixDataset<String, String> genePathwayZscoresArm = genePathwayZscores.viewRowSelection(armGenes);
+
+		//Symmetric like the inverse of a correlation matrix
+		DoubleMatrixDataset<String, String> geneInvCor = new DoubleMatrixDataset<>(armGenes, armGenes);
+		for (int i = 0; i < numberOfArmGenes; ++i) {
+			geneInvCor.setElementQuick(i, i, 1 + random.nextDouble());
+			for (int j = 0; j < i; ++j) {
+				double x = random.nextDouble() * 0.2 - 0.1;
+				geneInvCor.setElementQuick(i, j, x);
+				geneInvCor.setElementQuick(j, i, x);
+			}
+		}
+		DoubleMatrix2D geneInvCorMatrix = geneInvCor.getMatrix();
+
+		LinkedHashMap<String, Integer> singleColMap = new LinkedHashMap<>(1);
+		singleColMap.put("B1", 0);
+		DoubleMatrixDataset<String, String> b1 = new DoubleMatrixDataset<>(geneZscores.getHashCols(), singleColMap);
+		DoubleMatrixDataset<String, String> b2 = new DoubleMatrixDataset<>(geneZscores.getHashCols(), genePathwayZscores.getHashCols());
+		DoubleMatrixDataset<String, String> expectedB1 = new DoubleMatrixDataset<>(geneZscores.getHashCols(), singleColMap);
+		DoubleMatrixDataset<String, String> expectedB2 = new DoubleMatrixDataset<>(geneZscores.getHashCols(), genePathwayZscores.getHashCols());
+
+		//b1 is summed over the arms
+		double[] previousArms = new double[numberOfTraits];
+		for (int t = 0; t < numberOfTraits; ++t) {
+			previousArms[t] = random.nextDouble();
+			b1.setElementQuick(t, 0, previousArms[t]);
+			expectedB1.setElementQuick(t, 0, previousArms[t]);
+		}
+
+		PathwayEnrichments.glsStep1(geneZscoresArm, geneInvCorMatrix, genePathwayZscoresArm, b1, b2);
+
+		//Per trait
+		DoubleMatrix2D a = geneZscoresArm.getMatrix().like(1, numberOfArmGenes);
+		for (int t = 0; t < numberOfTraits; ++t) {
+			DoubleMatrix2D geneZscoresTrait = geneZscoresArm.viewColAsMmatrix(t);
+			geneZscoresTrait.zMult(geneInvCorMatrix, a, 1, 0, true, false);
+			expectedB1.setElementQuick(t, 0, expectedB1.getElementQuick(t, 0) + a.viewRow(0).zDotProduct(geneZscoresTrait.viewColumn(0)));
+			a.zMult(genePathwayZscoresArm.getMatrix(), expectedB2.viewRowAsMmatrix(t), 1, 0, false, false);
+		}
+
+		compareTwoMatrices(b1, expectedB1, 1e-12);
+		compareTwoMatrices(b2, expectedB2, 1e-12);
+
+		//Independent check of the first trait and pathway
+		double b1Trait0 = 0;
+		double b2Trait0Pathway0 = 0;
+		for (int i = 0; i < numberOfArmGenes; ++i) {
+			double zInvCor = 0;
+			for (int j = 0; j < numberOfArmGenes; ++j) {
+				zInvCor += geneZscoresArm.getElementQuick(j, 0) * geneInvCorMatrix.getQuick(j, i);
+			}
+			b1Trait0 += zInvCor * geneZscoresArm.getElementQuick(i, 0);
+			b2Trait0Pathway0 += zInvCor * genePathwayZscoresArm.getElementQuick(i, 0);
+		}
+		assertEquals(b1.getElementQuick(0, 0), previousArms[0] + b1Trait0, 1e-10);
+		assertEquals(b2.getElementQuick(0, 0), b2Trait0Pathway0, 1e-10);
+
+	}
+
 	/**
 	 * Test of createColumnForceNormalDuplicate method, of class
 	 * PathwayEnrichments.
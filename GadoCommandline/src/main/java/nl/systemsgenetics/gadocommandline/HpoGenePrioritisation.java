@@ -27,10 +27,13 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.stream.IntStream;
 import org.apache.log4j.Logger;
 import org.biojava.nbio.ontology.Term;
 import umcg.genetica.math.matrix2.DoubleMatrixDataset;
+import umcg.genetica.math.matrix2.MemoryMappedDoubleMatrix2D;
 
 /**
  *
@@ -39,6 +42,8 @@ import umcg.genetica.math.matrix2.DoubleMatrixDataset;
 public class HpoGenePrioritisation {
 
 	private static final NumberFormat Z_FORMAT = new DecimalFormat("#0.0##");
+	private static final int CASE_BATCH_SIZE = 1000;
+	private static final int GENE_BLOCK_SIZE = 256;
 	private static final Logger LOGGER = Logger.getLogger(HpoGenePrioritisation.class);
 
 	public static void prioritize(GadoOptions options) throws IOException, ParseException, Exception {
@@ -58,85 +63,172 @@ public class HpoGenePrioritisation {
 
 		//HpoOntology hpoOntology = new HpoOntology(hpoOboFile);
 
-		DoubleMatrixDataset<String, String> hpoPredictionMatrix = DoubleMatrixDataset.loadDoubleBinaryData(hpoPredictionMatrixFile.getAbsolutePath());
+		DoubleMatrixDataset<String, String> hpoPredictionMatrix = DoubleMatrixDataset.loadDoubleBinaryDataMemoryMapped(hpoPredictionMatrixFile.getAbsolutePath());
 		ArrayList<String> genes = hpoPredictionMatrix.getRowObjects();
 
 		LOGGER.info("Loaded HPO prediction matrix");
 
-		BufferedWriter sampleFileWriter = new BufferedWriter(new FileWriter(new File(outputFolder, "samples.txt")));
-
-		for (Map.Entry<String, LinkedHashSet<String>> caseHpoEntry : caseHpo.entrySet()) {
+		ArrayList<String> cases = new ArrayList<>(caseHpo.keySet());
 
-			String caseId = caseHpoEntry.getKey();
-			LinkedHashSet<String> hpo = caseHpoEntry.getValue();
+		BufferedWriter sampleFileWriter = new BufferedWriter(new FileWriter(new File(outputFolder, "samples.txt")));
+		for (String caseId : cases) {
 
 			sampleFileWriter.append(caseId);
 			sampleFileWriter.append('\n');
 
-			for (String term : hpo) {
+			for (String term : caseHpo.get(caseId)) {
 				if (!hpoPredictionMatrix.containsCol(term)) {
 					throw new RuntimeException("Missing HPO: " + term);
 				}
 			}
 
-			DoubleMatrixDataset<String, String> predictionCaseTerms = hpoPredictionMatrix.viewColSelection(hpo);
-			DoubleMatrix2D predictionCaseTermsMatrix = predictionCaseTerms.getMatrix();
-			GenePrioritisationResult[] geneResults = new GenePrioritisationResult[genes.size()];
+		}
+		sampleFileWriter.close();
+
+		for (int batchStart = 0; batchStart < cases.size(); batchStart += CASE_BATCH_SIZE) {
 
-			double denominator = Math.sqrt(hpo.size());
+			final List<String> batchCases = cases.subList(batchStart, Math.min(cases.size(), batchStart + CASE_BATCH_SIZE));
+			final double[][] geneScores = calculateGeneScores(hpoPredictionMatrix, batchCases, caseHpo);
 
-			for (int g = 0; g < predictionCaseTermsMatrix.rows(); ++g) {
-				String gene = genes.get(g);
-				String symbol = ensgSymbolMapping.get(gene);
-				if (symbol == null) {
-					symbol = "";
+			IntStream.range(0, batchCases.size()).parallel().forEach(c -> {
+				String caseId = batchCases.get(c);
+				try {
+					writeCaseResults(outputFolder, caseId, caseHpo.get(caseId), geneScores[c], genes, ensgSymbolMapping, hpoPredictionMatrix);
+				} catch (IOException ex) {
+					throw new RuntimeException(ex);
 				}
-				double geneScore = predictionCaseTermsMatrix.viewRow(g).zSum() / denominator;
+				LOGGER.info("Finished gene prioritization for " + caseId);
+			});
 
-				geneResults[g] = new GenePrioritisationResult(gene, symbol, geneScore);
+		}
 
-			}
+	}
 
-			Arrays.sort(geneResults);
+	/**
+	 * The gene scores of all cases are calculated in one pass over the
+	 * prediction matrix. The HPO terms of the cases are stored per term as the
+	 * list of cases with that term, so every row of the prediction matrix is
+	 * read once and only the values of the used terms are added to the
+	 * scores of the cases.
+	 *
+	 * @return score per case per gene, the sum of the Z-scores of the HPO terms
+	 * of the case divided by the square root of the number of terms
+	 */
+	private static double[][] calculateGeneScores(DoubleMatrixDataset<String, String> hpoPredictionMatrix, List<String> batchCases, HashMap<String, LinkedHashSet<String>> caseHpo) {
+
+		final int nrGenes = hpoPredictionMatrix.rows();
+		final int nrTerms = hpoPredictionMatrix.columns();
+		final int nrCases = batchCases.size();
+		final Map<String, Integer> termIndex = hpoPredictionMatrix.getHashCols();
+
+		// cases per term, stored consecutively for all terms
+		final int[] termStart = new int[nrTerms + 1];
+		for (String caseId : batchCases) {
+			for (String term : caseHpo.get(caseId)) {
+				termStart[termIndex.get(term) + 1]++;
+			}
+		}
+		for (int t = 0; t < nrTerms; ++t) {
+			termStart[t + 1] += termStart[t];
+		}
+		final int[] termCases = new int[termStart[nrTerms]];
+		final int[] termFill = Arrays.copyOf(termStart, nrTerms);
+		for (int c = 0; c < nrCases; ++c) {
+			for (String term : caseHpo.get(batchCases.get(c))) {
+				termCases[termFill[termIndex.get(term)]++] = c;
+			}
+		}
 
-			CSVWriter writer = new CSVWriter(new FileWriter(new File(outputFolder, caseId + ".txt")), '\t', '\0', '\0', "\n");
+		final int[] usedTerms = IntStream.range(0, nrTerms).filter(t -> termStart[t + 1] > termStart[t]).toArray();
+
+		final double[][] geneScores = new double[nrCases][nrGenes];
+		final MemoryMappedDoubleMatrix2D predictionMatrix = (MemoryMappedDoubleMatrix2D) hpoPredictionMatrix.getMatrix();
+
+		final int nrGeneBlocks = (nrGenes + GENE_BLOCK_SIZE - 1) / GENE_BLOCK_SIZE;
+		IntStream.range(0, nrGeneBlocks).parallel().forEach(block -> {
+			final double[] geneZs = new double[nrTerms];
+			final int end = Math.min(nrGenes, (block + 1) * GENE_BLOCK_SIZE);
+			for (int g = block * GENE_BLOCK_SIZE; g < end; ++g) {
+				predictionMatrix.copyRow(g, geneZs);
+				for (int t : usedTerms) {
+					final double z = geneZs[t];
+					for (int i = termStart[t]; i < termStart[t + 1]; ++i) {
+						geneScores[termCases[i]][g] += z;
+					}
+				}
+			}
+		});
 
-			String[] outputLine = new String[4 + hpo.size()];
-			int c = 0;
-			outputLine[c++] = "Ensg";
-			outputLine[c++] = "Hgnc";
-			outputLine[c++] = "Rank";
-			outputLine[c++] = "Zscore";
-			for (String term : hpo) {
-				outputLine[c++] = term;
+		for (int c = 0; c < nrCases; ++c) {
+			final double denominator = Math.sqrt(caseHpo.get(batchCases.get(c)).size());
+			final double[] caseScores = geneScores[c];
+			for (int g = 0; g < nrGenes; ++g) {
+				caseScores[g] /= denominator;
 			}
-			//outputLine[c++] = "PossibleAdditionalHpos";
-			writer.writeNext(outputLine);
+		}
 
-			int rank = 1;
-			for (GenePrioritisationResult geneResult : geneResults) {
-				c = 0;
-				outputLine[c++] = geneResult.getEnsg();
-				outputLine[c++] = geneResult.getSymbol();
-				outputLine[c++] = String.valueOf(rank++);
-				outputLine[c++] = Z_FORMAT.format(geneResult.getGeneScore());
-				DoubleMatrix1D geneZs = predictionCaseTerms.viewRow(geneResult.getEnsg());
-				for (int i = 0; i < hpo.size(); i++) {
-					outputLine[c++] = Z_FORMAT.format(geneZs.getQuick(i));
-				}
+		return geneScores;
 
-				//outputLine[c++] = getOtherPossibleHpoTerms(geneResult.getEnsg(), hpo, hpoPredictionMatrixSignificant, minZscoreOtherCandidates, hpoOntology);
+	}
+
+	private static void writeCaseResults(File outputFolder, String caseId, LinkedHashSet<String> hpo, double[] geneScores, ArrayList<String> genes, Map<String, String> ensgSymbolMapping, DoubleMatrixDataset<String, String> hpoPredictionMatrix) throws IOException {
 
-				writer.writeNext(outputLine);
+		GenePrioritisationResult[] geneResults = new GenePrioritisationResult[genes.size()];
+
+		for (int g = 0; g < geneResults.length; ++g) {
+			String gene = genes.get(g);
+			String symbol = ensgSymbolMapping.get(gene);
+			if (symbol == null) {
+				symbol = "";
 			}
+			geneResults[g] = new GenePrioritisationResult(gene, symbol, geneScores[g]);
+		}
 
-			writer.close();
-			
-			LOGGER.info("Finished gene prioritization for " + caseId);
+		Arrays.sort(geneResults);
 
+		final Map<String, Integer> geneIndex = hpoPredictionMatrix.getHashRows();
+		final Map<String, Integer> termIndex = hpoPredictionMatrix.getHashCols();
+		final int[] caseTerms = new int[hpo.size()];
+		int t = 0;
+		for (String term : hpo) {
+			caseTerms[t++] = termIndex.get(term);
 		}
+		final DoubleMatrix2D predictionMatrix = hpoPredictionMatrix.getMatrix();
+		// DecimalFormat is not thread safe
+		final NumberFormat zFormat = (NumberFormat) Z_FORMAT.clone();
+
+		CSVWriter writer = new CSVWriter(new FileWriter(new File(outputFolder, caseId + ".txt")), '\t', '\0', '\0', "\n");
+
+		String[] outputLine = new String[4 + hpo.size()];
+		int c = 0;
+		outputLine[c++] = "Ensg";
+		outputLine[c++] = "Hgnc";
+		outputLine[c++] = "Rank";
+		outputLine[c++] = "Zscore";
+		for (String term : hpo) {
+			outputLine[c++] = term;
+		}
+		//outputLine[c++] = "PossibleAdditionalHpos";
+		writer.writeNext(outputLine);
+
+		int rank = 1;
+		for (GenePrioritisationResult geneResult : geneResults) {
+			c = 0;
+			outputLine[c++] = geneResult.getEnsg();
+			outputLine[c++] = geneResult.getSymbol();
+			outputLine[c++] = String.valueOf(rank++);
+			outputLine[c++] = zFormat.format(geneResult.getGeneScore());
+			int g = geneIndex.get(geneResult.getEnsg());
+			for (int i = 0; i < caseTerms.length; i++) {
+				outputLine[c++] = zFormat.format(predictionMatrix.getQuick(g, caseTerms[i]));
+			}
 
-		sampleFileWriter.close();
+			//outputLine[c++] = getOtherPossibleHpoTerms(geneResult.getEnsg(), hpo, hpoPredictionMatrixSignificant, minZscoreOtherCandidates, hpoOntology);
+
+			writer.writeNext(outputLine);
+		}
+
+		writer.close();
 
 	}
 
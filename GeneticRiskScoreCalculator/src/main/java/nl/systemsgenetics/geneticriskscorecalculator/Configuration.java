@@ -1,6 +1,7 @@
 package nl.systemsgenetics.geneticriskscorecalculator;
 
 import java.io.File;
+import java.util.Arrays;
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.HelpFormatter;
 import org.apache.commons.cli.OptionBuilder;
@@ -25,7 +26,7 @@ public class Configuration {
 	private final File risksnpsFile;
         private final String onlyCount;
         private final String harmonizedData;
-        private final double inclusionThreshold;
+        private final double[] inclusionThresholds;
         
 	static {
 
@@ -80,7 +81,7 @@ public class Configuration {
 		OptionBuilder.withArgName("threshold");
 		OptionBuilder.hasArgs();                
 		OptionBuilder.isRequired();
-                OptionBuilder.withDescription("P value threshold for SNP inclusion");
+                OptionBuilder.withDescription("P value threshold for SNP inclusion. Multiple thresholds can be specified to calculate a risk score per threshold");
 		OptionBuilder.withLongOpt("thres");
 		OPTIONS.addOption(OptionBuilder.create("t"));
 
@@ -118,7 +119,15 @@ public class Configuration {
 		risksnpsFile = new File(commandLine.getOptionValue('r'));
 		onlyCount = commandLine.getOptionValue('c');	
                 harmonizedData = commandLine.getOptionValue('h');
-		inclusionThreshold = Double.valueOf(commandLine.getOptionValue('t'));		
+		String[] inclusionThresholdValues = commandLine.getOptionValues('t');
+		inclusionThresholds = new double[inclusionThresholdValues.length];
+		try {
+			for (int i = 0; i < inclusionThresholdValues.length; ++i) {
+				inclusionThresholds[i] = Double.parseDouble(inclusionThresholdValues[i]);
+			}
+		} catch (NumberFormatException e) {
+			throw new ParseException("Error parsing --thres \"" + Arrays.toString(inclusionThresholdValues) + "\" is not a valid list of p-values");
+		}		
 	}
 
 	public void printOptions() {
@@ -172,8 +181,8 @@ public class Configuration {
 	public String getHarmonizedData() {
 		return harmonizedData;
 	}
-        public double getInclusionThreshold() {
-		return inclusionThreshold;
+        public double[] getInclusionThresholds() {
+		return inclusionThresholds;
 	}
 
 }
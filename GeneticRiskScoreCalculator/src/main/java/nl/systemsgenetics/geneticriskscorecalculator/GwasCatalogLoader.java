@@ -1,7 +1,10 @@
 package nl.systemsgenetics.geneticriskscorecalculator;
 
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Set;
 import umcg.genetica.io.text.TextFile;
 import java.util.regex.Pattern;
 import java.io.File;
@@ -19,6 +22,59 @@ public class GwasCatalogLoader {
 
         List<GeneticRiskScoreCalculator> geneticRiskScoreCalculators = new ArrayList<GeneticRiskScoreCalculator>();
 
+        // the risk SNPs of all phenotypes are read in one pass over the file
+        final LinkedHashMap<String, SimpleGeneticRiskScoreCalculator> calculators = new LinkedHashMap<String, SimpleGeneticRiskScoreCalculator>();
+        for (String currentPhenotype : getPhenotypes()) {
+            SimpleGeneticRiskScoreCalculator calculator = new SimpleGeneticRiskScoreCalculator();
+            calculator.setPhenotype(currentPhenotype);
+            calculators.put(currentPhenotype, calculator);
+        }
+
+        readRiskSnps(myFile, calculators.keySet(), new RiskSnpHandler() {
+            @Override
+            public void riskSnp(String phenotype, int chr, int pos, String rsid, String riskAllele, String otherAllele, double pvalue, double ororbeta) {
+                SimpleGeneticRiskScoreCalculator calculator = calculators.get(phenotype);
+                calculator.addChr(chr);
+                calculator.addPos(pos);
+                calculator.addRsid(rsid);
+                calculator.addRiskallele(riskAllele);
+                calculator.addOtherallele(otherAllele);
+                calculator.addPvalue(pvalue);
+                calculator.addOrorbeta(ororbeta);
+            }
+        });
+
+        geneticRiskScoreCalculators.addAll(calculators.values());
+        return geneticRiskScoreCalculators;
+    }
+
+    /**
+     * Adds the risk SNPs of the phenotypes directly to a calculator that
+     * scores all phenotypes in one pass over the genotype data.
+     *
+     * @param myFile
+     * @param multiTraitCalculator
+     * @return the phenotypes
+     */
+    public List<String> loadRiskSnps(String myFile, final MultiTraitRiskScoreCalculator multiTraitCalculator) {
+
+        List<String> phenotypes = getPhenotypes();
+        for (String currentPhenotype : phenotypes) {
+            multiTraitCalculator.addPhenotype(currentPhenotype);
+        }
+
+        readRiskSnps(myFile, new HashSet<String>(phenotypes), new RiskSnpHandler() {
+            @Override
+            public void riskSnp(String phenotype, int chr, int pos, String rsid, String riskAllele, String otherAllele, double pvalue, double ororbeta) {
+                multiTraitCalculator.addRiskSnp(phenotype, String.valueOf(chr), pos, riskAllele, otherAllele, pvalue, ororbeta);
+            }
+        });
+
+        return phenotypes;
+    }
+
+    private static List<String> getPhenotypes() {
+
         List<String> phenotypes = new ArrayList<String>();
         //phenotypes.add("Height");
         phenotypes.add("CD");
@@ -29,80 +85,63 @@ public class GwasCatalogLoader {
         //phenotypes.add("Crohns disease");
         //phenotypes.add("Obesity");
        // phenotypes.add("Body mass index");
-        
 
-        
-         
-        for (String currentPhenotype : phenotypes) {
+        return phenotypes;
+    }
+
+    private static void readRiskSnps(String myFile, Set<String> phenotypes, RiskSnpHandler handler) {
+
+        String fileLine;
+        String[] fileLineData;
+        TextFile riskSnpsFile;
+
+        try {
+            riskSnpsFile = new TextFile(myFile, false);
+            riskSnpsFile.readLine(); // reading the header
+            while ((fileLine = riskSnpsFile.readLine()) != null) {
+                fileLineData = TAB_PATTERN.split(fileLine);
 
-            SimpleGeneticRiskScoreCalculator firstCalculator = new SimpleGeneticRiskScoreCalculator();
-
-            firstCalculator.setPhenotype(currentPhenotype);
-
-            String fileLine;
-            String[] fileLineData;
-            TextFile riskSnpsFile;
-
-            int index = 0;
-            try {
-                riskSnpsFile = new TextFile(myFile, false);
-                riskSnpsFile.readLine(); // reading the header
-                while ((fileLine = riskSnpsFile.readLine()) != null) {
-                    fileLineData = TAB_PATTERN.split(fileLine);
-                    if (index < 5) {
-                        // System.out.println("--" + fileLineData[1] + "--" + fileLineData[2] + "--" + fileLineData[3]);
-                    }
-                    if (index < 5) {
-                        // System.out.println("RiskAllele: " + fileLineData[4]);
-                    }
-
-                    try {
-
-                        if (fileLineData[0].equals(currentPhenotype)) {
-                            
-                            
-                            firstCalculator.addChr(Integer.valueOf(fileLineData[1]));  // like this or via setter?
-                            firstCalculator.addPos(Integer.valueOf(fileLineData[2]));
-                            firstCalculator.addRsid(fileLineData[3]);
-                            firstCalculator.addRiskallele(fileLineData[4]);
-                            firstCalculator.addOtherallele(fileLineData[5]);
-                            firstCalculator.addPvalue(Double.valueOf(fileLineData[7]));
-                        }
-
-                    } catch (NumberFormatException e) {
-                        System.err.println("no integer in chr or pos field");
-
-                    }
-                    
-                    // try to read in OR or beta separately
-                    try {
-
-                        if (fileLineData[0].equals(currentPhenotype)) {
-                            firstCalculator.addOrorbeta(Double.valueOf(fileLineData[8]));
-                        }
-
-                    } catch (NumberFormatException e) {
-                        firstCalculator.addOrorbeta(Double.valueOf("0"));
-                        System.err.println("effect size missing: set to zero");
-
-                    }                   
-                    
-                    
-                    
-                    index++;
+                if (!phenotypes.contains(fileLineData[0])) {
+                    continue;
+                }
+
+                int chr;
+                int pos;
+                double pvalue;
+                try {
+                    chr = Integer.parseInt(fileLineData[1]);
+                    pos = Integer.parseInt(fileLineData[2]);
+                    pvalue = Double.parseDouble(fileLineData[7]);
+                } catch (NumberFormatException e) {
+                    System.err.println("no integer in chr or pos field");
+                    continue;
                 }
-                riskSnpsFile.close();
-            } catch (IOException ex) {
-                System.err.println("Unable to load risk snps file.");
-                //   LOGGER.fatal("Unable to load risk snps file.", ex);
-                System.exit(1);
-                //  return;
-            }
 
-            geneticRiskScoreCalculators.add(firstCalculator);
+                // try to read in OR or beta separately
+                double ororbeta;
+                try {
+                    ororbeta = Double.parseDouble(fileLineData[8]);
+                } catch (NumberFormatException e) {
+                    ororbeta = 0;
+                    System.err.println("effect size missing: set to zero");
+                }
 
+                handler.riskSnp(fileLineData[0], chr, pos, fileLineData[3], fileLineData[4], fileLineData[5], pvalue, ororbeta);
+
+            }
+            riskSnpsFile.close();
+        } catch (IOException ex) {
+            System.err.println("Unable to load risk snps file.");
+            //   LOGGER.fatal("Unable to load risk snps file.", ex);
+            System.exit(1);
+            //  return;
         }
-        return geneticRiskScoreCalculators;
+    }
+
+    private interface RiskSnpHandler {
+
+        void riskSnp(String phenotype, int chr, int pos, String rsid, String riskAllele, String otherAllele, double pvalue, double ororbeta);
+
     }
 
 }
@@ -1,11 +1,10 @@
 package nl.systemsgenetics.geneticriskscorecalculator;
 
-import gnu.trove.map.hash.TObjectDoubleHashMap;
 import java.io.File;
 import java.io.IOException;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
 import java.util.regex.Pattern;
@@ -130,39 +129,35 @@ public class Main {
         
         final String onlyCount = configuration.getOnlyCount();
         final String harmonizedData = configuration.getHarmonizedData();
-        final double inclusionThreshold = configuration.getInclusionThreshold();
+        final double[] inclusionThresholds = configuration.getInclusionThresholds();
         
 
 
 
 
+        // all phenotypes and thresholds are scored in one pass over the genotypes
+        MultiTraitRiskScoreCalculator multiTraitCalculator = new MultiTraitRiskScoreCalculator(inclusionThresholds, onlyCount != null, harmonizedData != null);
         GwasCatalogLoader gwasCatalogLoader = new GwasCatalogLoader();
-        List<GeneticRiskScoreCalculator> geneticRiskScoreCalculators = gwasCatalogLoader.getGeneticRiskScoreCalculators(configuration.getRisksnpsFile().toString());
-
-        List<String> phenotypes = new ArrayList<String>();
-        for (GeneticRiskScoreCalculator calculator : geneticRiskScoreCalculators) {
-            phenotypes.add(calculator.getPhenotype());
-            System.out.println("USING PHENOTYPE: **" + calculator.getPhenotype() + "**");
+        List<String> phenotypes = gwasCatalogLoader.loadRiskSnps(configuration.getRisksnpsFile().toString(), multiTraitCalculator);
+        for (String phenotype : phenotypes) {
+            System.out.println("USING PHENOTYPE: **" + phenotype + "**");
         }
+        System.out.println("risk snp inclusion thresholds are:  " + Arrays.toString(inclusionThresholds));
 
         // List<String> phenotypes = Arrays.asList("Height", "Migraine"); // fixed size list
           
-        RiskScoreMatrix riskScoreMatrix = new RiskScoreMatrix(inputGenotypes.getSampleNames(), phenotypes);
+        RiskScoreMatrix riskScoreMatrix = multiTraitCalculator.calculateRiskScores(inputGenotypes);
         
-        for (GeneticRiskScoreCalculator calculator : geneticRiskScoreCalculators) {
-            TObjectDoubleHashMap<String> riskScores = calculator.calculateRiskScores(inputGenotypes, onlyCount, harmonizedData, inclusionThreshold);
-            index = 0;
-            for (String sample : inputGenotypes.getSampleNames()) {
-                riskScoreMatrix.setRiskScore(sample, calculator.getPhenotype(), riskScores.get(sample));
-                if (index < 3) {
+        index = 0;
+        for (String sample : inputGenotypes.getSampleNames()) {
+            if (index < 3) {
+                for (String scoreName : multiTraitCalculator.getScoreNames()) {
                     System.out.println("sample:" + sample);
-                    System.out.println("phenotype:" + calculator.getPhenotype());
-                    System.out.println("score:" + riskScores.get(sample));
+                    System.out.println("phenotype:" + scoreName);
+                    System.out.println("score:" + riskScoreMatrix.getRiskScore(sample, scoreName));
                 }
-                index++;
-                 //System.out.println("sample:" + calculator.getPhenotype());
             }
-            
+            index++;
         }
         
       //  System.out.println("GET A SCORE: " + riskScoreMatrix.getRiskScore("LLDeep_1094", "Height"));
@@ -0,0 +1,310 @@
+package nl.systemsgenetics.geneticriskscorecalculator;
+
+import gnu.trove.list.array.TDoubleArrayList;
+import gnu.trove.list.array.TIntArrayList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.IntStream;
+import org.apache.log4j.Logger;
+import org.molgenis.genotype.Alleles;
+import org.molgenis.genotype.RandomAccessGenotypeData;
+import org.molgenis.genotype.variant.GeneticVariant;
+
+/**
+ * Calculates the risk scores of many phenotypes and p-value thresholds in one
+ * pass over the genotype data. The risk SNPs of all phenotypes are merged into
+ * a sparse weight matrix sorted on chromosome and position, so every variant
+ * is read and decoded once, no matter how many phenotypes share it.
+ * <p>
+ * A phenotype is scored once per p-value threshold. A risk SNP is counted for
+ * all thresholds above its p-value, so it is only added to the score of the
+ * lowest threshold it passes and the scores are summed over the thresholds at
+ * the end. The dosages are read in batches of variants that are then added to
+ * the samples by score on all available processors, each thread scoring its
+ * own block of samples.
+ * <p>
+ * The alleles are matched the same way as in
+ * {@link SimpleGeneticRiskScoreCalculator}. The genotype data is only accessed
+ * from the calling thread.
+ */
+public class MultiTraitRiskScoreCalculator {
+
+    private static final Logger LOGGER = Logger.getLogger(MultiTraitRiskScoreCalculator.class);
+    private static final int VARIANT_BATCH_SIZE = 256;
+    private static final int SAMPLE_BLOCK_SIZE = 64;
+
+    private final double[] pValueThresholds;
+    private final boolean onlyCount;
+    private final boolean harmonizedData;
+    private final LinkedHashMap<String, Integer> phenotypeIndex = new LinkedHashMap<String, Integer>();
+    private final TreeMap<String, TreeMap<Integer, List<RiskSnp>>> riskSnps = new TreeMap<String, TreeMap<Integer, List<RiskSnp>>>();
+    private int riskSnpCount = 0;
+
+    /**
+     * @param pValueThresholds a score is calculated for every threshold, a
+     * risk SNP is included if its p-value is below the threshold
+     * @param onlyCount only count the risk alleles instead of adding the
+     * effect sizes
+     * @param harmonizedData genotype data and risk alleles are on the same
+     * strand
+     */
+    public MultiTraitRiskScoreCalculator(double[] pValueThresholds, boolean onlyCount, boolean harmonizedData) {
+        if (pValueThresholds.length == 0) {
+            throw new IllegalArgumentException("At least one p-value threshold is required");
+        }
+        this.pValueThresholds = pValueThresholds.clone();
+        Arrays.sort(this.pValueThresholds);
+        this.onlyCount = onlyCount;
+        this.harmonizedData = harmonizedData;
+    }
+
+    /**
+     * Adds a phenotype without adding risk SNPs, so it is scored even if none
+     * of its risk SNPs pass the thresholds.
+     *
+     * @param phenotype
+     * @return the index of the phenotype in the score columns
+     */
+    public int addPhenotype(String phenotype) {
+        Integer phenotypeId = phenotypeIndex.get(phenotype);
+        if (phenotypeId == null) {
+            phenotypeId = phenotypeIndex.size();
+            phenotypeIndex.put(phenotype, phenotypeId);
+        }
+        return phenotypeId;
+    }
+
+    /**
+     * Risk SNPs with a p-value that does not pass any of the thresholds are
+     * ignored. A phenotype without any included risk SNP still gets a score
+     * of 0.
+     *
+     * @param phenotype
+     * @param chr
+     * @param pos
+     * @param riskAllele
+     * @param otherAllele
+     * @param pValue
+     * @param orOrBeta if negative the other allele is used as risk allele
+     */
+    public void addRiskSnp(String phenotype, String chr, int pos, String riskAllele, String otherAllele, double pValue, double orOrBeta) {
+
+        int phenotypeId = addPhenotype(phenotype);
+
+        // lowest threshold that includes this SNP
+        int tier = 0;
+        while (tier < pValueThresholds.length && pValue >= pValueThresholds[tier]) {
+            ++tier;
+        }
+        if (tier == pValueThresholds.length) {
+            return;
+        }
+
+        String usedRiskAllele = orOrBeta < 0 ? otherAllele : riskAllele;
+        double weight = onlyCount ? 1 : Math.abs(orOrBeta);
+        int column = phenotypeId * pValueThresholds.length + tier;
+
+        TreeMap<Integer, List<RiskSnp>> chrRiskSnps = riskSnps.get(chr);
+        if (chrRiskSnps == null) {
+            chrRiskSnps = new TreeMap<Integer, List<RiskSnp>>();
+            riskSnps.put(chr, chrRiskSnps);
+        }
+        List<RiskSnp> posRiskSnps = chrRiskSnps.get(pos);
+        if (posRiskSnps == null) {
+            posRiskSnps = new ArrayList<RiskSnp>(1);
+            chrRiskSnps.put(pos, posRiskSnps);
+        }
+        posRiskSnps.add(new RiskSnp(column, usedRiskAllele, weight));
+        ++riskSnpCount;
+
+    }
+
+    /**
+     * @return the phenotypes, or phenotype_P{threshold} if there are multiple
+     * thresholds, in the column order of the scores
+     */
+    public List<String> getScoreNames() {
+        List<String> names = new ArrayList<String>(phenotypeIndex.size() * pValueThresholds.length);
+        for (String phenotype : phenotypeIndex.keySet()) {
+            if (pValueThresholds.length == 1) {
+                names.add(phenotype);
+            } else {
+                for (double threshold : pValueThresholds) {
+                    names.add(phenotype + "_P" + threshold);
+                }
+            }
+        }
+        return names;
+    }
+
+    public RiskScoreMatrix calculateRiskScores(RandomAccessGenotypeData genotypeData) {
+
+        final String[] samples = genotypeData.getSampleNames();
+        final int columnCount = phenotypeIndex.size() * pValueThresholds.length;
+        final double[][] scores = new double[samples.length][columnCount];
+        // the intercepts of the risk SNPs are the same for all samples
+        final double[] offsets = new double[columnCount];
+
+        LOGGER.info("Calculating " + columnCount + " risk scores using " + riskSnpCount + " risk SNPs");
+
+        final float[][] batchDosages = new float[VARIANT_BATCH_SIZE][];
+        final int[] batchEnd = new int[VARIANT_BATCH_SIZE];
+        final TIntArrayList batchColumns = new TIntArrayList();
+        final TDoubleArrayList batchSlopes = new TDoubleArrayList();
+        int batchSize = 0;
+
+        int positionCount = 0;
+        int missingCount = 0;
+        int excludedAtGcCount = 0;
+
+        for (Map.Entry<String, TreeMap<Integer, List<RiskSnp>>> chrEntry : riskSnps.entrySet()) {
+            for (Map.Entry<Integer, List<RiskSnp>> posEntry : chrEntry.getValue().entrySet()) {
+
+                ++positionCount;
+
+                GeneticVariant variant = genotypeData.getSnpVariantByPos(chrEntry.getKey(), posEntry.getKey());
+                if (variant == null) {
+                    ++missingCount;
+                    continue;
+                }
+
+                Alleles variantAlleles = variant.getVariantAlleles();
+                if (!harmonizedData && variantAlleles.isAtOrGcSnp()) {
+                    excludedAtGcCount += posEntry.getValue().size();
+                    continue;
+                }
+                String firstAllele = variantAlleles.get(0).toString();
+                String secondAllele = variantAlleles.get(1).toString();
+
+                // the dosage of the first allele is added for a match on the
+                // first allele, 2 - dosage for a match on the second allele
+                for (RiskSnp riskSnp : posEntry.getValue()) {
+                    int firstMatches = 0;
+                    int secondMatches = 0;
+                    if (riskSnp.riskAllele.equals(firstAllele)) {
+                        ++firstMatches;
+                    }
+                    if (riskSnp.riskAllele.equals(secondAllele)) {
+                        ++secondMatches;
+                    }
+                    if (!harmonizedData) {
+                        String complementRiskAllele = complement(riskSnp.riskAllele);
+                        if (complementRiskAllele != null && complementRiskAllele.equals(firstAllele)) {
+                            ++firstMatches;
+                        }
+                        if (complementRiskAllele != null && complementRiskAllele.equals(secondAllele)) {
+                            ++secondMatches;
+                        }
+                    }
+                    if (firstMatches == 0 && secondMatches == 0) {
+                        continue;
+                    }
+                    batchColumns.add(riskSnp.column);
+                    batchSlopes.add(riskSnp.weight * (firstMatches - secondMatches));
+                    offsets[riskSnp.column] += 2 * riskSnp.weight * secondMatches;
+                }
+
+                if (batchColumns.size() == (batchSize == 0 ? 0 : batchEnd[batchSize - 1])) {
+                    // none of the risk alleles match the alleles of the variant
+                    continue;
+                }
+                batchDosages[batchSize] = variant.getSampleDosages();
+                batchEnd[batchSize] = batchColumns.size();
+                ++batchSize;
+
+                if (batchSize == VARIANT_BATCH_SIZE) {
+                    addBatch(scores, batchDosages, batchEnd, batchSize, batchColumns.toArray(), batchSlopes.toArray());
+                    batchSize = 0;
+                    batchColumns.resetQuick();
+                    batchSlopes.resetQuick();
+                }
+
+            }
+        }
+        addBatch(scores, batchDosages, batchEnd, batchSize, batchColumns.toArray(), batchSlopes.toArray());
+
+        LOGGER.info("Risk SNP positions: " + positionCount + ", without genotype data: " + missingCount + ", risk SNPs excluded because non-harmonized data and SNP is a GC/AT snp: " + excludedAtGcCount);
+
+        final int thresholdCount = pValueThresholds.length;
+        List<String> scoreNames = getScoreNames();
+        RiskScoreMatrix riskScoreMatrix = new RiskScoreMatrix(samples, scoreNames);
+        for (int s = 0; s < samples.length; ++s) {
+            double[] sampleScores = scores[s];
+            for (int c = 0; c < columnCount; ++c) {
+                sampleScores[c] += offsets[c];
+                // a SNP included at a threshold is also included at all higher thresholds
+                if (c % thresholdCount > 0) {
+                    sampleScores[c] += sampleScores[c - 1];
+                }
+                riskScoreMatrix.setRiskScore(samples[s], scoreNames.get(c), sampleScores[c]);
+            }
+        }
+        return riskScoreMatrix;
+
+    }
+
+    private static void addBatch(final double[][] scores, final float[][] batchDosages, final int[] batchEnd, final int batchSize, final int[] columns, final double[] slopes) {
+
+        if (batchSize == 0) {
+            return;
+        }
+
+        final int sampleCount = scores.length;
+        final int blockCount = (sampleCount + SAMPLE_BLOCK_SIZE - 1) / SAMPLE_BLOCK_SIZE;
+        IntStream.range(0, blockCount).parallel().forEach(block -> {
+            int start = block * SAMPLE_BLOCK_SIZE;
+            int end = Math.min(sampleCount, start + SAMPLE_BLOCK_SIZE);
+            int entry = 0;
+            for (int v = 0; v < batchSize; ++v) {
+                float[] dosages = batchDosages[v];
+                int variantEnd = batchEnd[v];
+                for (int s = start; s < end; ++s) {
+                    double[] sampleScores = scores[s];
+                    double dosage = dosages[s];
+                    for (int e = entry; e < variantEnd; ++e) {
+                        sampleScores[columns[e]] += slopes[e] * dosage;
+                    }
+                }
+                entry = variantEnd;
+            }
+        });
+
+    }
+
+    /**
+     * @return null if the allele is not a single base
+     */
+    private static String complement(String allele) {
+        switch (allele) {
+            case "A":
+                return "T";
+            case "T":
+                return "A";
+            case "C":
+                return "G";
+            case "G":
+                return "C";
+            default:
+                return null;
+        }
+    }
+
+    private static class RiskSnp {
+
+        private final int column;
+        private final String riskAllele;
+        private final double weight;
+
+        public RiskSnp(int column, String riskAllele, double weight) {
+            this.column = column;
+            this.riskAllele = riskAllele;
+            this.weight = weight;
+        }
+
+    }
+
+}
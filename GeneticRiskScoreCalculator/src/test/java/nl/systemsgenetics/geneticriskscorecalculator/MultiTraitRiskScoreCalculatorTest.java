@@ -0,0 +1,206 @@
+package nl.systemsgenetics.geneticriskscorecalculator;
+
+import gnu.trove.map.hash.TObjectDoubleHashMap;
+import java.io.File;
+import java.util.Arrays;
+import org.molgenis.genotype.RandomAccessGenotypeData;
+import org.molgenis.genotype.plink.PedMapGenotypeData;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+
+public class MultiTraitRiskScoreCalculatorTest {
+
+    private static final String[] SAMPLES = {"S1", "S2", "S3", "S4", "S5"};
+    // genotypes of riskScoreTest.ped per sample for 1:100 A/G, 1:200 A/T, 1:300 C/T and 2:150 G/A
+    private static final String[][] GENOTYPES = {
+        {"AA", "AT", "CC", "GG"},
+        {"AG", "TT", "CT", "GA"},
+        {"GG", "AA", "TT", "AA"},
+        {"AG", "AT", "TC", "AG"},
+        {"GA", "TA", "CC", "GG"}
+    };
+
+    private RandomAccessGenotypeData genotypeData;
+
+    public MultiTraitRiskScoreCalculatorTest() {
+    }
+
+    @BeforeClass
+    public void setUpClass() throws Exception {
+        String basePath = new File(this.getClass().getResource("/riskScoreTest.ped").toURI()).getAbsolutePath();
+        genotypeData = new PedMapGenotypeData(basePath.substring(0, basePath.length() - 4));
+        assertEquals(genotypeData.getSampleNames(), SAMPLES);
+        // the tests of the second allele rely on this order
+        assertEquals(genotypeData.getSnpVariantByPos("1", 100).getVariantAlleles().get(1).toString(), "G");
+        assertEquals(genotypeData.getSnpVariantByPos("1", 300).getVariantAlleles().get(1).toString(), "T");
+        assertEquals(genotypeData.getSnpVariantByPos("2", 150).getVariantAlleles().get(1).toString(), "A");
+    }
+
+    /**
+     * A SNP is only included at thresholds its p-value is strictly below
+     */
+    @Test
+    public void testTierAssignment() {
+
+        MultiTraitRiskScoreCalculator calculator = new MultiTraitRiskScoreCalculator(new double[]{1e-3, 1e-5}, false, false);
+        calculator.addRiskSnp("P", "1", 100, "A", "G", 1e-5, 1);
+        calculator.addRiskSnp("P", "1", 300, "T", "C", 1e-8, 2);
+        calculator.addRiskSnp("P", "2", 150, "G", "A", 1e-3, 4);
+
+        assertEquals(calculator.getScoreNames(), Arrays.asList("P_P1.0E-5", "P_P0.001"));
+
+        RiskScoreMatrix scores = calculator.calculateRiskScores(genotypeData);
+        for (int s = 0; s < SAMPLES.length; ++s) {
+            assertEquals(scores.getRiskScore(SAMPLES[s], "P_P1.0E-5"), 2d * copies(s, 2, 'T'), 1e-6);
+            assertEquals(scores.getRiskScore(SAMPLES[s], "P_P0.001"), 2d * copies(s, 2, 'T') + copies(s, 0, 'A'), 1e-6);
+        }
+
+    }
+
+    /**
+     * The score of a threshold is the sum of the SNPs of that threshold and
+     * all lower thresholds, also when the thresholds are given unsorted
+     */
+    @Test
+    public void testCumulativeSum() {
+
+        MultiTraitRiskScoreCalculator calculator = new MultiTraitRiskScoreCalculator(new double[]{0.05, 1e-5, 1e-3}, false, false);
+        calculator.addRiskSnp("P", "1", 300, "T", "C", 1e-8, 2);
+        calculator.addRiskSnp("P", "1", 100, "A", "G", 1e-4, 1);
+        calculator.addRiskSnp("P", "2", 150, "A", "G", 0.01, 8);
+        calculator.addRiskSnp("P", "2", 150, "G", "A", 0.5, 16);
+        calculator.addRiskSnp("Q", "1", 100, "G", "A", 0.01, 3);
+        calculator.addPhenotype("Empty");
+
+        assertEquals(calculator.getScoreNames(), Arrays.asList(
+                "P_P1.0E-5", "P_P0.001", "P_P0.05",
+                "Q_P1.0E-5", "Q_P0.001", "Q_P0.05",
+                "Empty_P1.0E-5", "Empty_P0.001", "Empty_P0.05"));
+
+        RiskScoreMatrix scores = calculator.calculateRiskScores(genotypeData);
+        for (int s = 0; s < SAMPLES.length; ++s) {
+            double tier1 = 2d * copies(s, 2, 'T');
+            double tier2 = tier1 + copies(s, 0, 'A');
+            double tier3 = tier2 + 8d * copies(s, 3, 'A');
+            assertEquals(scores.getRiskScore(SAMPLES[s], "P_P1.0E-5"), tier1, 1e-6);
+            assertEquals(scores.getRiskScore(SAMPLES[s], "P_P0.001"), tier2, 1e-6);
+            assertEquals(scores.getRiskScore(SAMPLES[s], "P_P0.05"), tier3, 1e-6);
+            assertEquals(scores.getRiskScore(SAMPLES[s], "Q_P1.0E-5"), 0d, 1e-6);
+            assertEquals(scores.getRiskScore(SAMPLES[s], "Q_P0.001"), 0d, 1e-6);
+            assertEquals(scores.getRiskScore(SAMPLES[s], "Q_P0.05"), 3d * copies(s, 0, 'G'), 1e-6);
+            assertEquals(scores.getRiskScore(SAMPLES[s], "Empty_P0.05"), 0d, 1e-6);
+        }
+
+    }
+
+    /**
+     * Matches on the second allele and on the complement of the risk allele
+     * add 2 - dosage of the first allele
+     */
+    @Test
+    public void testSecondAlleleAndComplement() {
+
+        for (boolean onlyCount : new boolean[]{false, true}) {
+
+            MultiTraitRiskScoreCalculator calculator = new MultiTraitRiskScoreCalculator(new double[]{1}, onlyCount, false);
+            // second allele
+            calculator.addRiskSnp("Second", "1", 100, "G", "A", 0.01, 1.5);
+            // complement of the first allele
+            calculator.addRiskSnp("ComplementFirst", "1", 300, "G", "A", 0.01, 2);
+            // complement of the second allele
+            calculator.addRiskSnp("ComplementSecond", "1", 300, "A", "G", 0.01, 2.5);
+            calculator.addRiskSnp("ComplementSecond", "2", 150, "T", "C", 0.01, 0.5);
+            // negative effect, the other allele is the risk allele
+            calculator.addRiskSnp("Negative", "2", 150, "C", "A", 0.01, -3);
+
+            RiskScoreMatrix scores = calculator.calculateRiskScores(genotypeData);
+            for (int s = 0; s < SAMPLES.length; ++s) {
+                assertEquals(scores.getRiskScore(SAMPLES[s], "Second"), weight(onlyCount, 1.5) * copies(s, 0, 'G'), 1e-6);
+                assertEquals(scores.getRiskScore(SAMPLES[s], "ComplementFirst"), weight(onlyCount, 2) * copies(s, 2, 'C'), 1e-6);
+                assertEquals(scores.getRiskScore(SAMPLES[s], "ComplementSecond"), weight(onlyCount, 2.5) * copies(s, 2, 'T') + weight(onlyCount, 0.5) * copies(s, 3, 'A'), 1e-6);
+                assertEquals(scores.getRiskScore(SAMPLES[s], "Negative"), weight(onlyCount, 3) * copies(s, 3, 'A'), 1e-6);
+            }
+
+        }
+
+    }
+
+    /**
+     * AT and GC SNPs are excluded unless the data is harmonized
+     */
+    @Test
+    public void testAtGcExclusion() {
+
+        for (boolean harmonized : new boolean[]{false, true}) {
+
+            MultiTraitRiskScoreCalculator calculator = new MultiTraitRiskScoreCalculator(new double[]{1}, false, harmonized);
+            calculator.addRiskSnp("AT", "1", 200, "A", "T", 0.01, 1);
+            calculator.addRiskSnp("AG", "1", 100, "A", "G", 0.01, 1);
+
+            RiskScoreMatrix scores = calculator.calculateRiskScores(genotypeData);
+            for (int s = 0; s < SAMPLES.length; ++s) {
+                assertEquals(scores.getRiskScore(SAMPLES[s], "AT"), harmonized ? copies(s, 1, 'A') : 0d, 1e-6);
+                assertEquals(scores.getRiskScore(SAMPLES[s], "AG"), (double) copies(s, 0, 'A'), 1e-6);
+            }
+
+        }
+
+    }
+
+    @Test
+    public void testEquivalentToSimpleCalculator() {
+
+        String[] chrs = {"1", "1", "1", "1", "2", "2", "1", "3"};
+        int[] positions = {100, 100, 200, 300, 150, 150, 300, 500};
+        String[] riskAlleles = {"A", "T", "T", "G", "A", "C", "T", "A"};
+        String[] otherAlleles = {"G", "C", "A", "A", "G", "T", "C", "G"};
+        double[] pValues = {1e-8, 1e-3, 1e-4, 0.001, 0.5, 1e-6, 0.0099, 1e-9};
+        double[] effects = {0.5, -1.25, 2, 0.75, 4, -0.3, 1.1, 5};
+        double threshold = 0.01;
+
+        for (String onlyCount : new String[]{null, "count"}) {
+            for (String harmonizedData : new String[]{null, "harmonized"}) {
+
+                SimpleGeneticRiskScoreCalculator simpleCalculator = new SimpleGeneticRiskScoreCalculator();
+                simpleCalculator.setPhenotype("P");
+                MultiTraitRiskScoreCalculator multiTraitCalculator = new MultiTraitRiskScoreCalculator(new double[]{threshold}, onlyCount != null, harmonizedData != null);
+                for (int i = 0; i < chrs.length; ++i) {
+                    simpleCalculator.addChr(Integer.valueOf(chrs[i]));
+                    simpleCalculator.addPos(positions[i]);
+                    simpleCalculator.addRsid("rs" + i);
+                    simpleCalculator.addRiskallele(riskAlleles[i]);
+                    simpleCalculator.addOtherallele(otherAlleles[i]);
+                    simpleCalculator.addPvalue(pValues[i]);
+                    simpleCalculator.addOrorbeta(effects[i]);
+                    multiTraitCalculator.addRiskSnp("P", chrs[i], positions[i], riskAlleles[i], otherAlleles[i], pValues[i], effects[i]);
+                }
+
+                TObjectDoubleHashMap<String> expected = simpleCalculator.calculateRiskScores(genotypeData, onlyCount, harmonizedData, threshold);
+                RiskScoreMatrix scores = multiTraitCalculator.calculateRiskScores(genotypeData);
+                for (String sample : SAMPLES) {
+                    assertEquals(scores.getRiskScore(sample, "P"), expected.get(sample), 1e-6, sample + " onlyCount " + onlyCount + " harmonized " + harmonizedData);
+                }
+
+            }
+        }
+
+    }
+
+    private static double weight(boolean onlyCount, double effect) {
+        return onlyCount ? 1 : effect;
+    }
+
+    private static int copies(int sample, int variant, char allele) {
+        String genotype = GENOTYPES[sample][variant];
+        int count = 0;
+        for (int i = 0; i < genotype.length(); ++i) {
+            if (genotype.charAt(i) == allele) {
+                ++count;
+            }
+        }
+        return count;
+    }
+
+}
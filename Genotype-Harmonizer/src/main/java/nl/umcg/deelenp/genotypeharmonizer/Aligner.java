@@ -15,8 +15,6 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.TreeMap;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.stream.IntStream;
 
 import org.apache.log4j.Logger;
 import org.molgenis.genotype.RandomAccessGenotypeData;
@@ -24,7 +22,6 @@ import org.molgenis.genotype.modifiable.ModifiableGeneticVariant;
 import org.molgenis.genotype.modifiable.ModifiableGenotypeData;
 import org.molgenis.genotype.modifiable.ModifiableGenotypeDataInMemory;
 import org.molgenis.genotype.util.Ld;
-import org.molgenis.genotype.util.LdCalculator;
 import org.molgenis.genotype.util.LdCalculatorException;
 import org.molgenis.genotype.variant.GeneticVariant;
 
@@ -280,6 +277,9 @@ public class Aligner {
 
 			iterationCounter = 0;
 
+			LdWindow studyLdWindow = new LdWindow(studyVariantList, flankSnpsToConsider);
+			LdWindow refLdWindow = new LdWindow(refVariantList, flankSnpsToConsider);
+
 			//Optional second loop
 			for (int variantIndex = 0; variantIndex < studyVariantList.size(); ++variantIndex) {
 
@@ -298,8 +298,8 @@ public class Aligner {
 
 					//Correlate the haps with both these snps between study and ref
 					CorrelationResults hapCor = correlateHaplotypes(minLdToIncludeAlign,
-							flankSnpsToConsider, studyVariantList, refVariantList,
-							variantIndex, studyVariant, refVariant);
+							flankSnpsToConsider, studyVariantList, studyLdWindow, refLdWindow,
+							variantIndex, studyVariant);
 
 					//Use at least min number of snps before we can draw conclusion
 					if (hapCor.getTotalCor() < minSnpsToAlignOn) {
@@ -338,6 +338,11 @@ public class Aligner {
 		removedSnpsBasedOnLdCheck = 0;
 
 		start = Instant.now();
+
+		//The alleles of the non A/T and non G/C SNPs are fixed so the LD between them can be reused
+		LdWindow studyLdWindow = new LdWindow(studyVariantList, flankSnpsToConsider);
+		LdWindow refLdWindow = new LdWindow(refVariantList, flankSnpsToConsider);
+
 		//Third loop over the included variants. Now that the other variants are fixed we can focus on the GC and AT SNPs.
 		for (int variantIndex = 0; variantIndex < studyVariantList.size(); ++variantIndex) {
 
@@ -360,8 +365,8 @@ public class Aligner {
 
 				//Correlate the haps with both these snps between study and ref
 				CorrelationResults hapCor = correlateHaplotypes(minLdToIncludeAlign,
-						flankSnpsToConsider, studyVariantList, refVariantList,
-						variantIndex, studyVariant, refVariant);
+						flankSnpsToConsider, studyVariantList, studyLdWindow, refLdWindow,
+						variantIndex, studyVariant);
 
 				//Use at least min number of snps before we can draw conclusion, maybe use MA as backup
 				if ((hapCor.getTotalCor() < minSnpsToAlignOn || hapCor.getPosCor() == hapCor.getNegCor())
@@ -407,8 +412,8 @@ public class Aligner {
 
 						//Correlate the haps with both these snps between study and ref
 						CorrelationResults hapCorSwapped = correlateHaplotypes(minLdToIncludeAlign,
-								flankSnpsToConsider, studyVariantList, refVariantList,
-								variantIndex, studyVariant, refVariant);
+								flankSnpsToConsider, studyVariantList, studyLdWindow, refLdWindow,
+								variantIndex, studyVariant);
 
 						//No need to check the count. Already done when checking unswapped LD pattern.
 						if (hapCorSwapped.getPosCor() < hapCorSwapped.getNegCor()) {
@@ -459,107 +464,12 @@ public class Aligner {
 
 	}
 
-	boolean mt = true;
-
-	private synchronized Ld getLD(GeneticVariant a, GeneticVariant b) throws LdCalculatorException {
-		return LdCalculator.calculateLd(a, b);
-	}
-
-	private CorrelationResults correlateHaplotypesMT(double minLdToIncludeAlignBase,
-													 int flankSnpsToConsider,
-													 ArrayList<ModifiableGeneticVariant> studyVariantList,
-													 ArrayList<GeneticVariant> refVariantList,
-													 int variantIndex,
-													 GeneticVariant snpStudyVariant,
-													 GeneticVariant refVariant) {
-
-//		if(snpStudyVariant.getPrimaryVariantId().equals("rs1001945")){
-//		LOGGER.debug("Alignment of: " + snpStudyVariant.getPrimaryVariantId() +
-//				"\nstudy alleles: " + snpStudyVariant.getVariantAlleles() + " ref alleles: " + refVariant.getVariantAlleles() + "\n"
-//				+ "maf study: " + snpStudyVariant.getMinorAlleleFrequency() + "(" + snpStudyVariant.getMinorAllele() + ") maf ref: " + refVariant.getMinorAlleleFrequency() + "(" + refVariant.getMinorAllele() + ")");
-//		}
-
-		AtomicInteger posCor = new AtomicInteger(0);
-		AtomicInteger negCor = new AtomicInteger(0);
-
-		int windowlower = Math.max(0, variantIndex - flankSnpsToConsider);
-		int windowupper = Math.min(studyVariantList.size(), variantIndex + flankSnpsToConsider);
-
-		IntStream.range(windowlower, windowupper).parallel().forEach(i -> {
-			if (i != variantIndex) {
-				GeneticVariant otherSnpStudyVariant = studyVariantList.get(i);
-				//Only use variants on same chromosome
-				//Do not use other AT or GC for LD alignment
-				if (snpStudyVariant.getSequenceName().equals(otherSnpStudyVariant.getSequenceName())
-						&& !otherSnpStudyVariant.isAtOrGcSnp()) {
-
-					GeneticVariant otherRefVariant = refVariantList.get(i);
-					Ld ldStudy;
-					Ld ldRef;
-					try {
-
-						ldStudy = getLD(snpStudyVariant, otherSnpStudyVariant);
-						ldRef = getLD(refVariant, otherRefVariant);
-
-						//only use SNPs with min R2 in both study as ref
-						if (!Double.isNaN(ldStudy.getR2()) && !Double.isNaN(ldRef.getR2()) && ldStudy.getR2() >= minLdToIncludeAlignBase && ldRef.getR2() >= minLdToIncludeAlignBase) {
-
-							//Put in tree map to sort haplotypes. This can differ in the case of different reference allele
-							TreeMap<String, Double> studyHapFreq = new TreeMap<String, Double>(ldStudy.getHaplotypesFreq());
-							TreeMap<String, Double> refHapFreq = new TreeMap<String, Double>(ldRef.getHaplotypesFreq());
-
-							double[] studyHapFreqArray = createDoubleArrayFromCollection(studyHapFreq.values());
-							double[] refHapFreqArray = createDoubleArrayFromCollection(refHapFreq.values());
-
-							//Correlate study haplotypes to ref haplotypes.
-							//Note: igonore case of no variance in both that would be correlation of 1 since no added value here
-							double studyHapVar = JSci.maths.ArrayMath.variance(studyHapFreqArray);
-							double refHapVar = JSci.maths.ArrayMath.variance(refHapFreqArray);
-
-							double denom = Math.sqrt(studyHapVar * refHapVar);
-							if (denom != 0) {
-								double correlation = covariance(studyHapFreqArray, refHapFreqArray) / denom;
-
-								if (correlation < 0) {
-									negCor.getAndIncrement();
-								} else if (correlation > 0) {
-									posCor.getAndIncrement();
-								}
-
-							}
-
-						}
-
-					} catch (LdCalculatorException e) {
-						LOGGER.debug("Error in LD calculation, skipping this comparison when comparing haplotype structure. Following error occurred: " + e.getMessage());
-					}
-//					if (variantIndex == 30) {
-//						System.out.println(variantIndex + "\t" + i + "\t" + posCor.get() + "\t" + negCor.get());
-//					}
-				}
-
-			}
-		});
-//		if (variantIndex == 30) {
-//			System.out.println("VarID: " + variantIndex + "\t" + flankSnpsToConsider + "\t" + studyVariantList.size() + "\t+ " + posCor.get() + "\t - " + negCor.get());
-//		}
-		return new CorrelationResults(posCor.get(), negCor.get());
-	}
-
 	private CorrelationResults correlateHaplotypes(double minLdToIncludeAlignBase,
 												   int flankSnpsToConsider,
 												   ArrayList<ModifiableGeneticVariant> studyVariantList,
-												   ArrayList<GeneticVariant> refVariantList, int variantIndex,
-												   GeneticVariant snpStudyVariant, GeneticVariant refVariant) {
-
-		if (mt) {
-			return correlateHaplotypesMT(
-					minLdToIncludeAlignBase,
-					flankSnpsToConsider,
-					studyVariantList,
-					refVariantList, variantIndex,
-					snpStudyVariant, refVariant);
-		}
+												   LdWindow studyLdWindow, LdWindow refLdWindow, int variantIndex,
+												   GeneticVariant snpStudyVariant) {
+
 //		if(snpStudyVariant.getPrimaryVariantId().equals("rs1001945")){
 //		LOGGER.debug("Alignment of: " + snpStudyVariant.getPrimaryVariantId() + 
 //				"\nstudy alleles: " + snpStudyVariant.getVariantAlleles() + " ref alleles: " + refVariant.getVariantAlleles() + "\n"
@@ -591,14 +501,11 @@ public class Aligner {
 				continue otherVariantsLoop;
 			}
 
-
-			GeneticVariant otherRefVariant = refVariantList.get(otherVariantIndex);
-
 			Ld ldStudy;
 			Ld ldRef;
 			try {
-				ldStudy = LdCalculator.calculateLd(snpStudyVariant, otherSnpStudyVariant);
-				ldRef = LdCalculator.calculateLd(refVariant, otherRefVariant);
+				ldStudy = studyLdWindow.getLd(variantIndex, otherVariantIndex);
+				ldRef = refLdWindow.getLd(variantIndex, otherVariantIndex);
 			} catch (LdCalculatorException e) {
 				LOGGER.debug("Error in LD calculation, skipping this comparison when comparing haplotype structure. Following error occurred: " + e.getMessage());
 				continue;
@@ -634,13 +541,6 @@ public class Aligner {
 
 			}
 
-			if (variantIndex == 30) {
-				System.out.println(variantIndex + "\t" + otherVariantIndex + "\t" + posCor + "\t" + negCor);
-			}
-
-		}
-		if (variantIndex == 30) {
-			System.out.println("VarID: " + variantIndex + "\t" + flankSnpsToConsider + "\t" + studyVariantList.size() + "\t+ " + posCor + "\t - " + negCor);
 		}
 		return new CorrelationResults(posCor, negCor);
 	}
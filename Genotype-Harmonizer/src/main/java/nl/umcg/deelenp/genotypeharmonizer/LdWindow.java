@@ -0,0 +1,138 @@
+package nl.umcg.deelenp.genotypeharmonizer;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import org.molgenis.genotype.util.Ld;
+import org.molgenis.genotype.util.LdCalculator;
+import org.molgenis.genotype.util.LdCalculatorException;
+import org.molgenis.genotype.util.PackedGenotypes;
+import org.molgenis.genotype.variant.GeneticVariant;
+
+/**
+ * Caches the LD between the variants of a sorted variant list that are at most
+ * the flank size apart. The packed genotypes of the variants and the LD of the
+ * pairs are kept in ring buffers, so while the alignment slides over the list
+ * every variant is packed once and the LD of every pair is calculated once,
+ * instead of once from both ends of the pair.
+ * <p>
+ * The genotypes of a variant are packed the first time it is used; changing
+ * the order of the alleles of a variant afterwards is not supported. Allele
+ * names in the haplotypes are read when the LD is requested, so swapping the
+ * strand of a variant is reflected in the returned LD. Not thread safe.
+ */
+class LdWindow {
+
+	private static final int R2 = 0;
+	private static final int D_PRIME = 1;
+	// haplotype frequencies of the alleles of the first and second variant of
+	// a pair, in the order used by LdCalculator
+	private static final int ALT_ALT = 2;
+	private static final int ALT_REF = 3;
+	private static final int REF_ALT = 4;
+	private static final int REF_REF = 5;
+	private static final int VALUES_PER_PAIR = 6;
+
+	private final List<? extends GeneticVariant> variants;
+	private final int capacity;
+	private final PackedGenotypes[] packedGenotypes;
+	private final int[] packedVariantIndex;
+	private final double[] pairValues;
+	private final long[] pairKey;
+
+	/**
+	 * @param variants variants sorted on position
+	 * @param flankSnpsToConsider maximum distance, in variants, of the pairs
+	 */
+	LdWindow(List<? extends GeneticVariant> variants, int flankSnpsToConsider) {
+		this.variants = variants;
+		this.capacity = 2 * flankSnpsToConsider + 1;
+		this.packedGenotypes = new PackedGenotypes[capacity];
+		this.packedVariantIndex = new int[capacity];
+		Arrays.fill(packedVariantIndex, -1);
+		this.pairValues = new double[capacity * capacity * VALUES_PER_PAIR];
+		this.pairKey = new long[capacity * capacity];
+		Arrays.fill(pairKey, -1);
+	}
+
+	/**
+	 * @param variantIndex
+	 * @param otherVariantIndex
+	 * @return LD between the two variants, with the variant at variantIndex as
+	 * first variant
+	 * @throws LdCalculatorException
+	 */
+	Ld getLd(int variantIndex, int otherVariantIndex) throws LdCalculatorException {
+
+		// pairs are stored once, with the lowest index as first variant
+		int first = Math.min(variantIndex, otherVariantIndex);
+		int second = Math.max(variantIndex, otherVariantIndex);
+
+		if (second - first >= capacity) {
+			throw new IllegalArgumentException("Variants " + first + " and " + second + " are further apart than the LD window");
+		}
+
+		int pair = (first % capacity) * capacity + (second % capacity);
+		long key = ((long) first << 32) | second;
+		int offset = pair * VALUES_PER_PAIR;
+
+		if (pairKey[pair] != key) {
+			calculatePair(first, second, offset);
+			pairKey[pair] = key;
+		}
+
+		GeneticVariant variant1 = variants.get(variantIndex);
+		GeneticVariant variant2 = variants.get(otherVariantIndex);
+
+		String variant1Alt = variant1.getVariantAlleles().get(1).getAlleleAsString();
+		String variant1Ref = variant1.getVariantAlleles().get(0).getAlleleAsString();
+		String variant2Alt = variant2.getVariantAlleles().get(1).getAlleleAsString();
+		String variant2Ref = variant2.getVariantAlleles().get(0).getAlleleAsString();
+
+		LinkedHashMap<String, Double> haplotypesFreq = new LinkedHashMap<String, Double>(4);
+		haplotypesFreq.put(variant1Alt + "/" + variant2Alt, pairValues[offset + ALT_ALT]);
+		if (variantIndex == first) {
+			haplotypesFreq.put(variant1Alt + "/" + variant2Ref, pairValues[offset + ALT_REF]);
+			haplotypesFreq.put(variant1Ref + "/" + variant2Alt, pairValues[offset + REF_ALT]);
+		} else {
+			haplotypesFreq.put(variant1Alt + "/" + variant2Ref, pairValues[offset + REF_ALT]);
+			haplotypesFreq.put(variant1Ref + "/" + variant2Alt, pairValues[offset + ALT_REF]);
+		}
+		haplotypesFreq.put(variant1Ref + "/" + variant2Ref, pairValues[offset + REF_REF]);
+
+		return new Ld(variant1, variant2, pairValues[offset + R2], pairValues[offset + D_PRIME], haplotypesFreq);
+
+	}
+
+	private void calculatePair(int first, int second, int offset) throws LdCalculatorException {
+
+		GeneticVariant variant1 = variants.get(first);
+		GeneticVariant variant2 = variants.get(second);
+
+		Ld ld = LdCalculator.calculateLd(variant1, getPackedGenotypes(first), variant2, getPackedGenotypes(second));
+
+		String variant1Alt = variant1.getVariantAlleles().get(1).getAlleleAsString();
+		String variant1Ref = variant1.getVariantAlleles().get(0).getAlleleAsString();
+		String variant2Alt = variant2.getVariantAlleles().get(1).getAlleleAsString();
+		String variant2Ref = variant2.getVariantAlleles().get(0).getAlleleAsString();
+
+		pairValues[offset + R2] = ld.getR2();
+		pairValues[offset + D_PRIME] = ld.getDPrime();
+		pairValues[offset + ALT_ALT] = ld.getHaplotypesFreq().get(variant1Alt + "/" + variant2Alt);
+		pairValues[offset + ALT_REF] = ld.getHaplotypesFreq().get(variant1Alt + "/" + variant2Ref);
+		pairValues[offset + REF_ALT] = ld.getHaplotypesFreq().get(variant1Ref + "/" + variant2Alt);
+		pairValues[offset + REF_REF] = ld.getHaplotypesFreq().get(variant1Ref + "/" + variant2Ref);
+
+	}
+
+	private PackedGenotypes getPackedGenotypes(int variantIndex) {
+		int slot = variantIndex % capacity;
+		if (packedVariantIndex[slot] != variantIndex) {
+			packedGenotypes[slot] = PackedGenotypes.pack(variants.get(variantIndex));
+			packedVariantIndex[slot] = variantIndex;
+		}
+		return packedGenotypes[slot];
+	}
+
+}
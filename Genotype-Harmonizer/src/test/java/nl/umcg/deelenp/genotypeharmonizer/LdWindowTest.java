@@ -0,0 +1,134 @@
+package nl.umcg.deelenp.genotypeharmonizer;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Map;
+import org.molgenis.genotype.RandomAccessGenotypeData;
+import org.molgenis.genotype.plink.BedBimFamGenotypeData;
+import org.molgenis.genotype.util.Ld;
+import org.molgenis.genotype.util.LdCalculator;
+import org.molgenis.genotype.variant.GeneticVariant;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.*;
+
+public class LdWindowTest {
+
+	private static final int NUMBER_OF_VARIANTS = 60;
+
+	private final ArrayList<GeneticVariant> variants = new ArrayList<GeneticVariant>();
+
+	public LdWindowTest() {
+	}
+
+	@BeforeClass
+	public void setUpClass() throws Exception {
+		File testFilesFolder = new File(this.getClass().getResource("/").toURI());
+		RandomAccessGenotypeData genotypeData = new BedBimFamGenotypeData(testFilesFolder + File.separator + "hapmap3CeuChr20B37Mb6RandomStrand");
+		for (GeneticVariant variant : genotypeData) {
+			//Monomorphic variants have no LD
+			if (variant.isSnp() && variant.isBiallelic() && variant.getMinorAlleleFrequency() > 0) {
+				variants.add(variant);
+				if (variants.size() == NUMBER_OF_VARIANTS) {
+					break;
+				}
+			}
+		}
+		assertEquals(variants.size(), NUMBER_OF_VARIANTS);
+	}
+
+	/**
+	 * Slide over the variants the same way as the aligner, the window is much
+	 * smaller than the number of variants so the slots wrap around many times
+	 */
+	@Test
+	public void testSlidingWindow() throws Exception {
+
+		for (int flank : new int[]{1, 3, 10}) {
+
+			LdWindow ldWindow = new LdWindow(variants, flank);
+
+			for (int variantIndex = 0; variantIndex < variants.size(); ++variantIndex) {
+				int start = Math.max(0, variantIndex - flank);
+				int stop = Math.min(variants.size() - 1, variantIndex + flank);
+				for (int otherVariantIndex = start; otherVariantIndex <= stop; ++otherVariantIndex) {
+					if (otherVariantIndex != variantIndex) {
+						assertLd(ldWindow.getLd(variantIndex, otherVariantIndex), variantIndex, otherVariantIndex);
+					}
+				}
+			}
+
+		}
+
+	}
+
+	/**
+	 * A pair that maps to a slot used by a later pair is calculated again
+	 */
+	@Test
+	public void testSlotReuse() throws Exception {
+
+		int flank = 2;
+		int capacity = 2 * flank + 1;
+		LdWindow ldWindow = new LdWindow(variants, flank);
+
+		assertLd(ldWindow.getLd(0, 1), 0, 1);
+
+		//Same pair and variant slots, other variants
+		assertLd(ldWindow.getLd(capacity, capacity + 1), capacity, capacity + 1);
+		assertLd(ldWindow.getLd(2 * capacity + 1, 2 * capacity), 2 * capacity + 1, 2 * capacity);
+
+		//The evicted pair is not returned from the cache
+		assertLd(ldWindow.getLd(0, 1), 0, 1);
+		assertLd(ldWindow.getLd(1, 0), 1, 0);
+
+		//Only the second variant shares its slot with the previous pair
+		assertLd(ldWindow.getLd(0, capacity - 1), 0, capacity - 1);
+		assertLd(ldWindow.getLd(capacity + 1, 2 * capacity - 1), capacity + 1, 2 * capacity - 1);
+		assertLd(ldWindow.getLd(capacity - 1, 0), capacity - 1, 0);
+
+	}
+
+	/**
+	 * With the query variant as second variant of the stored pair the
+	 * haplotypes are swapped
+	 */
+	@Test
+	public void testQueryVariantNotFirst() throws Exception {
+
+		LdWindow ldWindow = new LdWindow(variants, 5);
+
+		for (int variantIndex = 5; variantIndex < 20; ++variantIndex) {
+			for (int otherVariantIndex = variantIndex - 5; otherVariantIndex < variantIndex; ++otherVariantIndex) {
+				//Store the pair with the other variant first
+				ldWindow.getLd(otherVariantIndex, variantIndex);
+				Ld ld = ldWindow.getLd(variantIndex, otherVariantIndex);
+				assertSame(ld.getVariant1(), variants.get(variantIndex));
+				assertSame(ld.getVariant2(), variants.get(otherVariantIndex));
+				assertLd(ld, variantIndex, otherVariantIndex);
+			}
+		}
+
+	}
+
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void testOutsideWindow() throws Exception {
+		new LdWindow(variants, 2).getLd(10, 15);
+	}
+
+	private void assertLd(Ld ld, int variantIndex, int otherVariantIndex) throws Exception {
+
+		Ld expected = LdCalculator.calculateLd(variants.get(variantIndex), variants.get(otherVariantIndex));
+		String pair = variantIndex + " - " + otherVariantIndex;
+
+		assertEquals(ld.getR2(), expected.getR2(), 1e-10, pair);
+		assertEquals(ld.getDPrime(), expected.getDPrime(), 1e-10, pair);
+		assertEquals(new ArrayList<String>(ld.getHaplotypesFreq().keySet()), new ArrayList<String>(expected.getHaplotypesFreq().keySet()), pair);
+		for (Map.Entry<String, Double> haplotype : expected.getHaplotypesFreq().entrySet()) {
+			assertEquals(ld.getHaplotypesFreq().get(haplotype.getKey()), haplotype.getValue(), 1e-10, pair + " " + haplotype.getKey());
+		}
+
+	}
+
+}
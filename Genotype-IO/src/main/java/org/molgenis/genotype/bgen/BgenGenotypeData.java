@@ -4,7 +4,8 @@
  */
 package org.molgenis.genotype.bgen;
 
-import com.github.luben.zstd.Zstd;
+import com.github.luben.zstd.ZstdDecompressCtx;
+import com.github.luben.zstd.ZstdException;
 import com.google.common.math.IntMath;
 //import io.airlift.compress.zstd.ZstdDecompressor;
 import org.apache.log4j.Logger;
@@ -25,13 +26,23 @@ import org.molgenis.genotype.variant.sampleProvider.SampleVariantProviderBgen;
 import org.molgenis.genotype.variant.sampleProvider.SampleVariantUniqueIdProvider;
 
 import java.io.*;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.zip.DataFormatException;
 import java.util.zip.Inflater;
 
 /**
+ * Reading variants is thread-safe. After the header is parsed, the BGEN file is
+ * only read at explicit positions of a shared file channel and every thread
+ * uses its own decompressors and buffers, so multiple threads can decode
+ * variants from the same instance at the same time. Use a cache size of 0 to
+ * prevent threads from contending on the cache.
+ *
  * @author Patrick Deelen
  */
 public class BgenGenotypeData extends AbstractRandomAccessGenotypeData implements SampleVariantProviderBgen {
@@ -61,11 +72,14 @@ public class BgenGenotypeData extends AbstractRandomAccessGenotypeData implement
 	private static final Charset CHARSET = StandardCharsets.UTF_8;
 
 	private final RandomAccessFile bgenFile;
-	private final byte[] byteArray4 = new byte[4]; //resuable 4 byte array
-	private final byte[] byteArray2 = new byte[2]; //resuable 2 byte array
+	private final FileChannel bgenFileChannel;
+	private final byte[] byteArray4 = new byte[4]; //resuable 4 byte array, only used while reading the header
+	private final byte[] byteArray2 = new byte[2]; //resuable 2 byte array, only used while reading the header
 	private final List<Sample> samples;
 	private final Map<String, SampleAnnotation> sampleAnnotations;
-	private final Inflater gzipInflater = new Inflater();
+	private final ThreadLocal<ReadContext> readContexts = ThreadLocal.withInitial(this::createReadContext);
+	//Weak references so the read context of a thread that has ended can be garbage collected, the finalizers of its decompressors then release their native memory
+	private final Queue<WeakReference<ReadContext>> createdReadContexts = new ConcurrentLinkedQueue<>();
 	private LinkedHashSet<String> sequenceNames = new LinkedHashSet<>();
 	private final BlockRepresentation snpBlockRepresentation;
 	private final Layout fileLayout;
@@ -73,6 +87,7 @@ public class BgenGenotypeData extends AbstractRandomAccessGenotypeData implement
 
 	private final SampleVariantProviderBgen sampleVariantProvider;
 	private final BgenixReader bgenixReader;
+	private final BgenixPositionIndex bgenixPositionIndex; //null if index could not be loaded, bgenix is then used for queries
 	private final double minimumPosteriorProbabilityToCall;
 	private final int sampleVariantProviderUniqueId;
 	private final int sampleCount;
@@ -134,6 +149,7 @@ public class BgenGenotypeData extends AbstractRandomAccessGenotypeData implement
 		this.minimumPosteriorProbabilityToCall = minimumPosteriorProbabilityToCall;
 		// Load the BGEN file in a random access file object
 		this.bgenFile = new RandomAccessFile(bgenFile, "r");
+		this.bgenFileChannel = this.bgenFile.getChannel();
 
 		// Chose to make the sample file optional when sample identifiers are present in the BGEN file
 		// since a particular other BGEN file reader also allows this.
@@ -250,6 +266,8 @@ public class BgenGenotypeData extends AbstractRandomAccessGenotypeData implement
 			sequenceNames = bgenixReader.getChromosomes();
 		}
 
+		bgenixPositionIndex = loadBgenixPositionIndex(bgenixFile);
+
 		sampleVariantProviderUniqueId = SampleVariantUniqueIdProvider.getNextUniqueId();
 		// If the specified cache size is greater than 0, construct a new SampleVariantProvider
 		if (cacheSize > 0) {
@@ -259,6 +277,23 @@ public class BgenGenotypeData extends AbstractRandomAccessGenotypeData implement
 		}
 	}
 
+	/**
+	 * Load the position index of the BGENIX file, creating it if needed. The
+	 * index is optional, if it can not be loaded the queries are done using the
+	 * BGENIX file.
+	 *
+	 * @param bgenixFile The BGENIX file.
+	 * @return the position index or null if it could not be loaded
+	 */
+	private BgenixPositionIndex loadBgenixPositionIndex(File bgenixFile) {
+		try {
+			return BgenixPositionIndex.loadOrCreate(bgenixFile, bgenixReader);
+		} catch (IOException | GenotypeDataException e) {
+			LOGGER.warn("Could not load bgenix position index, falling back to bgenix queries: " + e.getMessage());
+			return null;
+		}
+	}
+
 	/**
 	 * Method responsible for checking a BGENIX file. This BGENIX file stores
 	 * indexes of variants for quick random access to genotype data.
@@ -483,6 +518,7 @@ public class BgenGenotypeData extends AbstractRandomAccessGenotypeData implement
 			// Methods are dependent on the filepointer in the BGEN file.
 			// Read the variant identifying info, the size cannot be determined from this alone.
 			ReadOnlyGeneticVariantBgen variant = processVariantIdentifyingData(variantReadingPosition);
+			sequenceNames.add(variant.getSequenceName());
 			// Get the variantGenotypeBlockInfo,
 			// this holds variables for the length of the rest of the data for this variant.
 			VariantGenotypeBlockInfo variantGenotypeBlockInfo = extractVariantGenotypeDataBlockInfo();
@@ -512,6 +548,21 @@ public class BgenGenotypeData extends AbstractRandomAccessGenotypeData implement
 	 * @throws IOException if an I/O error has occurred.
 	 */
 	private ReadOnlyGeneticVariantBgen processVariantIdentifyingData(long variantStartPosition) throws IOException {
+		return processVariantIdentifyingData(variantStartPosition, sampleVariantProvider);
+	}
+
+	/**
+	 * Processes variant identifying data from the BGENIX file, using a the
+	 * variant start position to read from the right location.
+	 *
+	 * @param variantStartPosition The position to start reading the variant
+	 * from.
+	 * @param variantProvider The sample variant provider of the variant.
+	 * @return a genetic variant.
+	 * @throws IOException if an I/O error has occurred.
+	 */
+	private ReadOnlyGeneticVariantBgen processVariantIdentifyingData(long variantStartPosition,
+			SampleVariantProviderBgen variantProvider) throws IOException {
 		long filePointer = variantStartPosition;
 
 		// If layout is equal to 1 then the variant identifying data starts with 4 bytes describing the
@@ -522,12 +573,13 @@ public class BgenGenotypeData extends AbstractRandomAccessGenotypeData implement
 		}
 
 		// Go to the start of the variant to begin reading there.
-		this.bgenFile.seek(filePointer);
+		ReadContext readContext = readContexts.get();
+		readContext.seek(filePointer);
 
 		// Proposing not to do a buffer search here as the maximum number of possible bytes is very large
 		// (16 + 4K + Lid + Lrsid + Lchr + the sum of the allele lengths (maximum of 2^32 for every allele))
-		byte[] byteArray2 = new byte[2];
-		byte[] byteArray4 = new byte[4];
+		byte[] byteArray2 = readContext.byteArray2;
+		byte[] byteArray4 = readContext.byteArray4;
 
 //		if (snpInfoBufferSize < 20) {
 //			throw new GenotypeDataException("Error reading bgen snp data. File is corrupt");
@@ -535,8 +587,8 @@ public class BgenGenotypeData extends AbstractRandomAccessGenotypeData implement
 		// Need to check that it is correct with the block in front of the snp id.
 		// Read the variant identifiers
 		ArrayList<String> variantIds = new ArrayList<>();
-		String snpId = readVariantInfo(byteArray2);
-		String snpRsId = readVariantInfo(byteArray2);
+		String snpId = readVariantInfo(readContext);
+		String snpRsId = readVariantInfo(readContext);
 
 		// add the variant identifiers in the variantIds list so that the RSID is the primary variantID
 		variantIds.add(snpRsId);
@@ -545,25 +597,24 @@ public class BgenGenotypeData extends AbstractRandomAccessGenotypeData implement
 		}
 
 		// Read the sequence identifier
-		String seqName = readVariantInfo(byteArray2);
-		sequenceNames.add(seqName);
+		String seqName = readVariantInfo(readContext);
 
 		// Get the position of the variant.
-		bgenFile.read(byteArray4);
+		readContext.readFully(byteArray4);
 		int variantPosition = getVariantPosition(byteArray4);
 
 		// Get the alleles for this variant.
 		int numberOfAlleles = 2; // Default is two. (layout one)
 		if (fileLayout.equals(Layout.layOut_2)) {
-			bgenFile.read(byteArray2);
+			readContext.readFully(byteArray2);
 			numberOfAlleles = getUInt16(byteArray2, 0);
 		}
 
 		// Read the alleles
 		List<String> alleles = new ArrayList<>();
 		for (int i = 0; i < numberOfAlleles; i++) {
-			bgenFile.read(byteArray4);
-			readAllele(byteArray4, alleles);
+			readContext.readFully(byteArray4);
+			readAllele(readContext, byteArray4, alleles);
 		}
 
 		// Log this variant
@@ -573,19 +624,19 @@ public class BgenGenotypeData extends AbstractRandomAccessGenotypeData implement
 		}
 
 		return ReadOnlyGeneticVariantBgen.createVariant(
-				variantIds, variantPosition, seqName, sampleVariantProvider, alleles, variantStartPosition);
+				variantIds, variantPosition, seqName, variantProvider, alleles, variantStartPosition);
 		// Not providing first allele as a reference allele
 		// now in order to test against gen data.
 	}
 
-	private String readVariantInfo(byte[] byteArray2) throws IOException {
+	private String readVariantInfo(ReadContext readContext) throws IOException {
 		int fieldLength;
 		byte[] variableByteArray;
-		bgenFile.read(byteArray2);
-		fieldLength = getUInt16(byteArray2, 0);
+		readContext.readFully(readContext.byteArray2);
+		fieldLength = getUInt16(readContext.byteArray2, 0);
 
 		variableByteArray = new byte[fieldLength];
-		bgenFile.read(variableByteArray);
+		readContext.readFully(variableByteArray);
 		return new String(variableByteArray, CHARSET);
 	}
 
@@ -608,11 +659,13 @@ public class BgenGenotypeData extends AbstractRandomAccessGenotypeData implement
 	/**
 	 * Read an allele and add this to the list of alleles
 	 *
+	 * @param readContext The read context positioned at the start of the
+	 * allele.
 	 * @param snpInfoBuffer A byte array buffer starting from the start of the
 	 * variant block.
 	 * @param alleles A list of alleles.
 	 */
-	private void readAllele(byte[] snpInfoBuffer, List<String> alleles) throws IOException {
+	private void readAllele(ReadContext readContext, byte[] snpInfoBuffer, List<String> alleles) throws IOException {
 
 		// Length of the allele
 		long fieldLengthLong = getUInt32(snpInfoBuffer, 0);
@@ -624,7 +677,7 @@ public class BgenGenotypeData extends AbstractRandomAccessGenotypeData implement
 
 		// Create a new buffer with the correct size.
 		byte[] alleleByteArray = new byte[(int) fieldLengthLong];
-		bgenFile.read(alleleByteArray);
+		readContext.readFully(alleleByteArray);
 		// Get the allele from the buffer.
 		String allele = new String(alleleByteArray, CHARSET);
 		alleles.add(allele);
@@ -680,10 +733,8 @@ public class BgenGenotypeData extends AbstractRandomAccessGenotypeData implement
 			int maxPloidy = getUInt8(variantBlockData, blockBufferOffset);
 			blockBufferOffset += 1;
 
-			// Loop through every individual
-			List<Boolean> isMissing = new ArrayList<>();
-			List<Integer> ploidies = new ArrayList<>();
-			ReadPloidiesAndMissingnessByte(variantBlockData, blockBufferOffset, isMissing, ploidies);
+			// The ploidy and missingness of every individual are stored in one byte per individual
+			int ploidyAndMissingnessOffset = blockBufferOffset;
 			// Add the number of individuals to the buffer.
 			blockBufferOffset += sampleCount;
 
@@ -699,29 +750,244 @@ public class BgenGenotypeData extends AbstractRandomAccessGenotypeData implement
 						phased ? "phased" : "unphased", probabilitiesLengthInBits));
 			}
 
-			byte[] probabilitiesArray = Arrays.copyOfRange(
-					variantBlockData, blockBufferOffset,
-					variantBlockData.length);
-
 			if (phased) {
 				double[][][] haplotypeProbabilities = readHaplotypeProbabilities(
-						probabilitiesArray,
+						variantBlockData,
+						blockBufferOffset * 8,
 						probabilitiesLengthInBits,
 						numberOfAlleles,
-						isMissing, ploidies);
+						ploidyAndMissingnessOffset);
 				probabilities = ProbabilitiesConvertor.convertPhasedProbabilitiesToComplexProbabilities(
 						haplotypeProbabilities);
 			} else {
 				probabilities = readGenotypeProbabilities(
-						probabilitiesArray,
+						variantBlockData,
+						blockBufferOffset * 8,
 						probabilitiesLengthInBits,
 						numberOfAlleles,
-						isMissing, ploidies);
+						ploidyAndMissingnessOffset);
 			}
 		}
 		return probabilities;
 	}
 
+	/**
+	 * Method that decodes the genotype data of a biallelic variant straight
+	 * into flat dosage and / or probability buffers. The decompressed block is
+	 * read into the reusable buffers of this reader and probabilities are
+	 * decoded without creating arrays per sample. Probabilities stored in 8, 16
+	 * or 32 bits are byte aligned and are read without the generic bit
+	 * parsing.
+	 * <p>
+	 * The results are identical to converting the complex probabilities using
+	 * {@link ProbabilitiesConvertor#convertBiallelicComplexProbabilitiesToProbabilities(double[][])}
+	 * and {@link ProbabilitiesConvertor#convertProbabilitiesToDosage(float[][], double)}.
+	 *
+	 * @param variant The variant to get the genotype data for.
+	 * @param dosages Buffer for the dosages, can be null.
+	 * @param probabilities Flat buffer for the probabilities
+	 * [sample * 3 + {AA,AB,BB}], can be null.
+	 * @throws IOException If an I/O error has occured.
+	 */
+	private void readBiallelicGenotypeDataFromVariant(
+			ReadOnlyGeneticVariantBgen variant, float[] dosages, double[] probabilities) throws IOException {
+
+		if (!variant.isBiallelic()) {
+			storeAllMissing(dosages, probabilities);
+			return;
+		}
+
+		byte[] variantBlockData = readDecompressedBlockDataIntoBuffers(variant);
+
+		if (fileLayout == Layout.layOut_1) {
+			for (int sampleIndex = 0, byteIndex = 0; sampleIndex < sampleCount; sampleIndex++, byteIndex += 6) {
+				storeBiallelicProbabilities(sampleIndex,
+						getUInt16(variantBlockData, byteIndex) / 32768f,
+						getUInt16(variantBlockData, byteIndex + 2) / 32768f,
+						getUInt16(variantBlockData, byteIndex + 4) / 32768f,
+						dosages, probabilities);
+			}
+			return;
+		}
+
+		int blockBufferOffset = 0;
+		//must equal data before.
+		if ((int) getUInt32(variantBlockData, blockBufferOffset) != sampleCount) {
+			throw new GenotypeDataException(String.format(
+					"BGEN file format error. "
+					+ "The variant's sample count (%d) does not match with the header (%d).",
+					sampleCount, (int) getUInt32(variantBlockData, blockBufferOffset)));
+		}
+		blockBufferOffset += 4;
+
+		int numberOfAlleles = getUInt16(variantBlockData, blockBufferOffset);
+		blockBufferOffset += 2;
+
+		int minPloidy = getUInt8(variantBlockData, blockBufferOffset);
+		blockBufferOffset += 1;
+
+		int maxPloidy = getUInt8(variantBlockData, blockBufferOffset);
+		blockBufferOffset += 1;
+
+		int ploidyAndMissingnessOffset = blockBufferOffset;
+		blockBufferOffset += sampleCount;
+
+		boolean phased = isPhased(variantBlockData, blockBufferOffset);
+		blockBufferOffset += 1;
+
+		int probabilitiesLengthInBits = getUInt8(variantBlockData, blockBufferOffset);
+		blockBufferOffset += 1;
+
+		if (numberOfAlleles != 2) {
+			storeAllMissing(dosages, probabilities);
+			return;
+		}
+
+		if (phased) {
+			// Phased data is decoded through the haplotype probabilities
+			double[][] complexProbabilities = ProbabilitiesConvertor.convertPhasedProbabilitiesToComplexProbabilities(
+					readHaplotypeProbabilities(
+							variantBlockData,
+							blockBufferOffset * 8,
+							probabilitiesLengthInBits,
+							numberOfAlleles,
+							ploidyAndMissingnessOffset));
+			for (int sampleIndex = 0; sampleIndex < sampleCount; sampleIndex++) {
+				double[] sampleProbabilities = complexProbabilities[sampleIndex];
+				if (sampleProbabilities.length == 3) {
+					storeBiallelicProbabilities(sampleIndex,
+							sampleProbabilities[0], sampleProbabilities[1], sampleProbabilities[2],
+							dosages, probabilities);
+				} else {
+					storeMissing(sampleIndex, dosages, probabilities);
+				}
+			}
+			return;
+		}
+
+		// Calculate (2^B)-1 where B is the probabilities length in bits
+		double maxValue = Math.pow(2, probabilitiesLengthInBits) - 1;
+
+		if (minPloidy == 2 && maxPloidy == 2) {
+			// Every sample has two stored probabilities, use a dedicated loop per bit representation
+			int byteIndex = blockBufferOffset;
+			switch (probabilitiesLengthInBits) {
+				case 8:
+					for (int sampleIndex = 0; sampleIndex < sampleCount; sampleIndex++, byteIndex += 2) {
+						storeDiploidProbabilities(sampleIndex,
+								variantBlockData[ploidyAndMissingnessOffset + sampleIndex],
+								variantBlockData[byteIndex] & 0xFF,
+								variantBlockData[byteIndex + 1] & 0xFF,
+								maxValue, dosages, probabilities);
+					}
+					return;
+				case 16:
+					for (int sampleIndex = 0; sampleIndex < sampleCount; sampleIndex++, byteIndex += 4) {
+						storeDiploidProbabilities(sampleIndex,
+								variantBlockData[ploidyAndMissingnessOffset + sampleIndex],
+								getUInt16(variantBlockData, byteIndex),
+								getUInt16(variantBlockData, byteIndex + 2),
+								maxValue, dosages, probabilities);
+					}
+					return;
+				case 32:
+					for (int sampleIndex = 0; sampleIndex < sampleCount; sampleIndex++, byteIndex += 8) {
+						storeDiploidProbabilities(sampleIndex,
+								variantBlockData[ploidyAndMissingnessOffset + sampleIndex],
+								getUInt32(variantBlockData, byteIndex) & 0xFFFFFFFFL,
+								getUInt32(variantBlockData, byteIndex + 4) & 0xFFFFFFFFL,
+								maxValue, dosages, probabilities);
+					}
+					return;
+			}
+		}
+
+		// Generic bit parsing, also handles samples that are not diploid
+		int bitOffset = blockBufferOffset * 8;
+		for (int sampleIndex = 0; sampleIndex < sampleCount; sampleIndex++) {
+			byte ploidyAndMissingness = variantBlockData[ploidyAndMissingnessOffset + sampleIndex];
+			// For a biallelic variant the number of stored probabilities equals the ploidy
+			int ploidy = getPloidy(ploidyAndMissingness);
+			if (ploidy == 2) {
+				storeDiploidProbabilities(sampleIndex, ploidyAndMissingness,
+						readProbabilityValue(variantBlockData, bitOffset, probabilitiesLengthInBits),
+						readProbabilityValue(variantBlockData, bitOffset + probabilitiesLengthInBits, probabilitiesLengthInBits),
+						maxValue, dosages, probabilities);
+			} else {
+				storeMissing(sampleIndex, dosages, probabilities);
+			}
+			bitOffset += probabilitiesLengthInBits * ploidy;
+		}
+	}
+
+	/**
+	 * Converts the two stored values of a diploid sample to probabilities
+	 * and stores these in the buffers.
+	 */
+	private void storeDiploidProbabilities(int sampleIndex, byte ploidyAndMissingness,
+			long homozygousAValue, long heterozygousValue, double maxValue,
+			float[] dosages, double[] probabilities) {
+		if (isMissing(ploidyAndMissingness)) {
+			storeMissing(sampleIndex, dosages, probabilities);
+			return;
+		}
+		// Value b corresponds to probability b / ((2^B)-1), the last probability completes the sum to one
+		storeBiallelicProbabilities(sampleIndex,
+				homozygousAValue / maxValue,
+				heterozygousValue / maxValue,
+				(maxValue - (homozygousAValue + heterozygousValue)) / maxValue,
+				dosages, probabilities);
+	}
+
+	/**
+	 * Stores the probabilities of a sample in the flat probability buffer and
+	 * converts these to a dosage, exactly like
+	 * {@link ProbabilitiesConvertor#convertProbabilitiesToDosage(float[][], double)}.
+	 */
+	private static void storeBiallelicProbabilities(int sampleIndex,
+			double probabilityAA, double probabilityAB, double probabilityBB,
+			float[] dosages, double[] probabilities) {
+		if (probabilities != null) {
+			int probabilityIndex = sampleIndex * 3;
+			probabilities[probabilityIndex] = probabilityAA;
+			probabilities[probabilityIndex + 1] = probabilityAB;
+			probabilities[probabilityIndex + 2] = probabilityBB;
+		}
+		if (dosages != null) {
+			float floatProbabilityAA = (float) probabilityAA;
+			float floatProbabilityAB = (float) probabilityAB;
+			if (floatProbabilityAA >= DEFAULT_MINIMUM_POSTERIOR_PROBABILITY_TO_CALL
+					|| floatProbabilityAB >= DEFAULT_MINIMUM_POSTERIOR_PROBABILITY_TO_CALL
+					|| (float) probabilityBB >= DEFAULT_MINIMUM_POSTERIOR_PROBABILITY_TO_CALL) {
+				float dosage = (floatProbabilityAA * 2) + floatProbabilityAB;
+				dosages[sampleIndex] = dosage > 2 ? 2 : dosage;
+			} else {
+				dosages[sampleIndex] = -1;
+			}
+		}
+	}
+
+	private static void storeMissing(int sampleIndex, float[] dosages, double[] probabilities) {
+		if (probabilities != null) {
+			int probabilityIndex = sampleIndex * 3;
+			probabilities[probabilityIndex] = 0;
+			probabilities[probabilityIndex + 1] = 0;
+			probabilities[probabilityIndex + 2] = 0;
+		}
+		if (dosages != null) {
+			dosages[sampleIndex] = -1;
+		}
+	}
+
+	private void storeAllMissing(float[] dosages, double[] probabilities) {
+		if (probabilities != null) {
+			Arrays.fill(probabilities, 0, sampleCount * 3, 0);
+		}
+		if (dosages != null) {
+			Arrays.fill(dosages, 0, sampleCount, -1);
+		}
+	}
+
 	/**
 	 * Method that reads genotype data for the given variant and returns phased
 	 * probabilities if available. If no phased data is available an exception
@@ -761,10 +1027,8 @@ public class BgenGenotypeData extends AbstractRandomAccessGenotypeData implement
 		int maxPloidy = getUInt8(variantBlockData, blockBufferOffset);
 		blockBufferOffset += 1;
 
-		// Loop through every individual
-		List<Boolean> isMissing = new ArrayList<>();
-		List<Integer> ploidies = new ArrayList<>();
-		ReadPloidiesAndMissingnessByte(variantBlockData, blockBufferOffset, isMissing, ploidies);
+		// The ploidy and missingness of every individual are stored in one byte per individual
+		int ploidyAndMissingnessOffset = blockBufferOffset;
 		// Add the number of individuals to the buffer.
 		blockBufferOffset += sampleCount;
 
@@ -784,15 +1048,12 @@ public class BgenGenotypeData extends AbstractRandomAccessGenotypeData implement
 				variant.getPrimaryVariantId(), numberOfAlleles, minPloidy, maxPloidy,
 				"phased", probabilitiesLengthInBits));
 		}
-		byte[] probabilitiesArray = Arrays.copyOfRange(
-				variantBlockData, blockBufferOffset,
-				variantBlockData.length);
-
 		return readHaplotypeProbabilities(
-				probabilitiesArray,
+				variantBlockData,
+				blockBufferOffset * 8,
 				probabilitiesLengthInBits,
 				numberOfAlleles,
-				isMissing, ploidies);
+				ploidyAndMissingnessOffset);
 	}
 
 	/**
@@ -839,37 +1100,38 @@ public class BgenGenotypeData extends AbstractRandomAccessGenotypeData implement
 	 * specified length (in bits).
 	 *
 	 * @param probabilitiesArray The byte array containing probabilities.
+	 * @param bitOffset The bit in the byte array where the probabilities
+	 * start.
 	 * @param probabilitiesLengthInBits The number of bits that store a
 	 * probability.
 	 * @param numberOfAlleles The number of alleles for the variant that the
 	 * probabilities correspond to.
-	 * @param isMissing A list indicating missingness for every sample.
-	 * @param ploidies A list indicating the number of chromosomes (the ploidy)
-	 * for a sample's probabilities.
+	 * @param ploidyAndMissingnessOffset The position in the byte array of the
+	 * ploidy and missingness byte of the first sample.
 	 * @return A nested array with probabilities for all allele combinations,
 	 * for every sample.
 	 */
 	private double[][] readGenotypeProbabilities(
 			byte[] probabilitiesArray,
+			int bitOffset,
 			int probabilitiesLengthInBits,
-			int numberOfAlleles, List<Boolean> isMissing,
-			List<Integer> ploidies) {
-
-		// Get bit offset
-		int bitOffset = 0;
+			int numberOfAlleles,
+			int ploidyAndMissingnessOffset) {
 
 		// Initialize an array of probabilities.
 		double[][] probabilities = new double[getSamples().size()][];
 
 		for (int sampleIndex = 0; sampleIndex < sampleCount; sampleIndex++) {
 
+			byte ploidyAndMissingness = probabilitiesArray[ploidyAndMissingnessOffset + sampleIndex];
+
 			// Get the number of probabilities that are to be read here
 			int numberOfCombinations = numberOfProbabilitiesForPloidyAlleleCountCombination(
-					ploidies.get(sampleIndex), numberOfAlleles - 1); // -1 because formula requires n-1
+					getPloidy(ploidyAndMissingness), numberOfAlleles - 1); // -1 because formula requires n-1
 
 			// If the probabilities are missing for this sample, read zero and continue with the
 			// next sample.
-			if (isMissing.get(sampleIndex)) {
+			if (isMissing(ploidyAndMissingness)) {
 				// If this is missing, the probability is zero.
 				bitOffset += probabilitiesLengthInBits * (numberOfCombinations - 1);
 				probabilities[sampleIndex] = new double[numberOfCombinations];
@@ -892,36 +1154,37 @@ public class BgenGenotypeData extends AbstractRandomAccessGenotypeData implement
 	 * of a specified length (in bits).
 	 *
 	 * @param probabilitiesArray The byte array containing probabilities.
+	 * @param bitOffset The bit in the byte array where the probabilities
+	 * start.
 	 * @param probabilitiesLengthInBits The number of bits that store a
 	 * probability.
 	 * @param numberOfAlleles The number of alleles for the variant that the
 	 * probabilities correspond to.
-	 * @param isMissing A list indicating missingness for every sample.
-	 * @param haplotypeCounts A list indicating the number of haplotypes for
-	 * every sample.
+	 * @param ploidyAndMissingnessOffset The position in the byte array of the
+	 * ploidy and missingness byte of the first sample. The ploidy equals the
+	 * number of haplotypes.
 	 * @return A nested array with probabilities per allele, per haplotype, for
 	 * every sample.
 	 */
 	private double[][][] readHaplotypeProbabilities(
 			byte[] probabilitiesArray,
+			int bitOffset,
 			int probabilitiesLengthInBits,
-			int numberOfAlleles, List<Boolean> isMissing,
-			List<Integer> haplotypeCounts) {
+			int numberOfAlleles,
+			int ploidyAndMissingnessOffset) {
 
 		// Define an array consisting of an array of posterior probabilities for each genotype
 		double[][][] haplotypeProbabilities = new double[getSamples().size()][][];
 
-		// Get bit offset
-		int bitOffset = 0;
-
 		// Each probability is stored in B bits.
 		// Values are interpreted by linear interpolation between 0 and 1;
 		// value b corresponds to probability b / ((2^B)-1).
 		for (int sampleIndex = 0; sampleIndex < sampleCount; sampleIndex++) {
-			Integer haplotypeCount = haplotypeCounts.get(sampleIndex);
+			byte ploidyAndMissingness = probabilitiesArray[ploidyAndMissingnessOffset + sampleIndex];
+			int haplotypeCount = getPloidy(ploidyAndMissingness);
 			// If the probabilities are missing for this sample, read zero and continue with the
 			// next sample.
-			if (isMissing.get(sampleIndex)) {
+			if (isMissing(ploidyAndMissingness)) {
 				// If this is missing, the probability is zero.
 				bitOffset += probabilitiesLengthInBits * (haplotypeCount * (numberOfAlleles - 1));
 				haplotypeProbabilities[sampleIndex] = new double[haplotypeCount][numberOfAlleles];
@@ -985,34 +1248,27 @@ public class BgenGenotypeData extends AbstractRandomAccessGenotypeData implement
 	}
 
 	/**
-	 * Read the ploidity and missingness.
+	 * Read the missingness from the ploidy and missingness byte of a sample.
+	 * Missingness is encoded by the most significant bit (MSB); thus a value
+	 * of 1 for the most significant bit indicates that no probability data is
+	 * stored for this sample.
 	 *
-	 * @param snpBlockData The byte buffer array to read the genotype data.
-	 * @param byteOffset the byte number to start reading ploidies from within
-	 * the input byte array.
-	 * @param isMissing A list of booleans representing if the corresponding
-	 * sample has missing probabilities
-	 * @param ploidity A list representing the ploidy of corresponding samples.
+	 * @param ploidyAndMissingness The ploidy and missingness byte of a sample.
+	 * @return true if the sample has missing probabilities.
 	 */
-	private void ReadPloidiesAndMissingnessByte(
-			byte[] snpBlockData, int byteOffset,
-			List<Boolean> isMissing, List<Integer> ploidity) {
-
-		for (int i = byteOffset; i < sampleCount + byteOffset; i++) {
-			// Here we need to handle ploidity and missigness of prababilities.
-			// Missingness is encoded by the most significant bit (MSB);
-			// thus a value of 1 for the most significant bit
-			// indicates that no probability data is stored for this sample.
-			// Ploidity is encoded by the 6 least significant bits.
-
-			// Get the MSB and check if the result equals 128.
-			isMissing.add((snpBlockData[i] & 0x80) == 128);
-			// Get the 6 least significant bits.
-			ploidity.add(snpBlockData[i] & 0x3F);
+	private static boolean isMissing(byte ploidyAndMissingness) {
+		return (ploidyAndMissingness & 0x80) != 0;
+	}
 
-//			String s1 = String.format("%8s", Integer.toBinaryString(snpBlockData[i] & 0xFF)).replace(' ', '0');
-//			System.out.println("value = " + s1 + " | " + (snpBlockData[i] & 0x3F) + " | " + (snpBlockData[i] & 0x80));
-		}
+	/**
+	 * Read the ploidy from the ploidy and missingness byte of a sample. Ploidy
+	 * is encoded by the 6 least significant bits.
+	 *
+	 * @param ploidyAndMissingness The ploidy and missingness byte of a sample.
+	 * @return the ploidy of the sample.
+	 */
+	private static int getPloidy(byte ploidyAndMissingness) {
+		return ploidyAndMissingness & 0x3F;
 	}
 
 	/**
@@ -1045,6 +1301,20 @@ public class BgenGenotypeData extends AbstractRandomAccessGenotypeData implement
 	 * Method for obtaining decompressed data for layout 2.
 	 */
 	private byte[] getDecompressedBlockData(ReadOnlyGeneticVariantBgen variant) throws IOException {
+		VariantGenotypeBlockInfo variantGenotypeBlockInfo = getVariantGenotypeBlockInfo(variant);
+
+		// Initialize byte arrays.
+		byte[] compressedBlockData = new byte[(int) variantGenotypeBlockInfo.getBlockLength()];
+		byte[] decompressedBlockData = new byte[(int) variantGenotypeBlockInfo.getDecompressedBlockLength()];
+
+		return readDecompressedBlockData(variantGenotypeBlockInfo, compressedBlockData, decompressedBlockData);
+	}
+
+	/**
+	 * Method for obtaining the info on the genotype data block of a variant.
+	 * Also validates that the block lengths can be handled.
+	 */
+	private VariantGenotypeBlockInfo getVariantGenotypeBlockInfo(ReadOnlyGeneticVariantBgen variant) throws IOException {
 		// First extend the genetic variant with ids, alleles, etc.
 		// This makes sure the file pointer is in the correct location for the next step.
 		variant.extendWithAdditionalVariantData();
@@ -1055,7 +1325,6 @@ public class BgenGenotypeData extends AbstractRandomAccessGenotypeData implement
 
 		long decompressedVariantBlockLength = variantGenotypeBlockInfo.getDecompressedBlockLength();
 		long variantBlockLength = variantGenotypeBlockInfo.getBlockLength();
-		long variantProbabilitiesStartPosition = variantGenotypeBlockInfo.getVariantProbabilitiesStartPosition();
 
 		if (decompressedVariantBlockLength > Integer.MAX_VALUE - 5) {
 			throw new GenotypeDataException(String.format(
@@ -1067,55 +1336,80 @@ public class BgenGenotypeData extends AbstractRandomAccessGenotypeData implement
 			throw new GenotypeDataException(String.format(
 					"Length of compressed genotype data exceeds maximum supported value of (2^31)-6 (%d)", variantBlockLength));
 		}
+		return variantGenotypeBlockInfo;
+	}
 
-		// Initialize byte arrays.
-		byte[] compressedBlockData = new byte[(int) variantBlockLength];
-		byte[] decompressedBlockData = new byte[(int) decompressedVariantBlockLength];
+	/**
+	 * Reads the (compressed) genotype data block and decompresses it if
+	 * needed. The buffers can be larger than the block, only the first bytes
+	 * are used.
+	 *
+	 * @param variantGenotypeBlockInfo The info of the block to read.
+	 * @param compressedBlockData Buffer of at least the block length.
+	 * @param decompressedBlockData Buffer of at least the decompressed block
+	 * length.
+	 * @return The buffer that contains the decompressed data, this is the
+	 * compressed buffer if the data is not compressed.
+	 * @throws IOException if an I/O error has occurred.
+	 */
+	private byte[] readDecompressedBlockData(VariantGenotypeBlockInfo variantGenotypeBlockInfo,
+			byte[] compressedBlockData, byte[] decompressedBlockData) throws IOException {
 
-		// Read the compressed / uncompressed data starting from the correct location.
-		this.bgenFile.seek(variantProbabilitiesStartPosition);
-		this.bgenFile.read(compressedBlockData, 0, (int) variantBlockLength);
+		int variantBlockLength = (int) variantGenotypeBlockInfo.getBlockLength();
+		int decompressedVariantBlockLength = (int) variantGenotypeBlockInfo.getDecompressedBlockLength();
+
+		ReadContext readContext = readContexts.get();
+		long variantProbabilitiesStartPosition = variantGenotypeBlockInfo.getVariantProbabilitiesStartPosition();
 
 		switch (snpBlockRepresentation) {
 
 			case compression_1:
-				decompressVariantBlockGzip(
-						compressedBlockData,
-						decompressedBlockData);
-				break;
+				// Read the compressed data starting from the correct location.
+				readContext.seek(variantProbabilitiesStartPosition);
+				readContext.readFully(compressedBlockData, 0, variantBlockLength);
+				readContext.decompressVariantBlockGzip(
+						compressedBlockData, variantBlockLength,
+						decompressedBlockData, decompressedVariantBlockLength);
+				return decompressedBlockData;
 
 			case compression_2:
-				Zstd.decompress(
-						decompressedBlockData,
-						compressedBlockData);
-				break;
+				// The zstd data is read and decompressed using direct buffers
+				readContext.decompressVariantBlockZstd(
+						variantProbabilitiesStartPosition, variantBlockLength,
+						decompressedBlockData, decompressedVariantBlockLength);
+				return decompressedBlockData;
 
 			default:
-				decompressedBlockData = compressedBlockData;
-				break;
+				// Read the uncompressed data starting from the correct location.
+				readContext.seek(variantProbabilitiesStartPosition);
+				readContext.readFully(compressedBlockData, 0, variantBlockLength);
+				return compressedBlockData;
 		}
-		return decompressedBlockData;
 	}
 
 	/**
-	 * Method that decompresses data using the gzipInflater.
+	 * Reads the decompressed genotype data block of a variant into the
+	 * reusable block buffers of the read context of the current thread.
 	 *
-	 * @param compressedVariantDataBlock The input byte array to decompress.
-	 * @param outputVariantDataBlock The decompressed output byte array.
+	 * @return The buffer that contains the decompressed data.
 	 */
-	private void decompressVariantBlockGzip(
-			byte[] compressedVariantDataBlock, byte[] outputVariantDataBlock) {
+	private byte[] readDecompressedBlockDataIntoBuffers(ReadOnlyGeneticVariantBgen variant) throws IOException {
+		VariantGenotypeBlockInfo variantGenotypeBlockInfo = getVariantGenotypeBlockInfo(variant);
 
-		// Set the input for the gzip inflater.
-		gzipInflater.setInput(compressedVariantDataBlock);
+		int variantBlockLength = (int) variantGenotypeBlockInfo.getBlockLength();
+		int decompressedVariantBlockLength = (int) variantGenotypeBlockInfo.getDecompressedBlockLength();
 
-		// Try to decompress the data.
-		try {
-			gzipInflater.inflate(outputVariantDataBlock);
-		} catch (DataFormatException e) {
-			throw new GenotypeDataException("Error decompressing bgen data", e);
+		ReadContext readContext = readContexts.get();
+		if (readContext.compressedBlockBuffer.length < variantBlockLength) {
+			readContext.compressedBlockBuffer = new byte[variantBlockLength];
+		}
+		if (snpBlockRepresentation != BlockRepresentation.compression_0
+				&& readContext.decompressedBlockBuffer.length < decompressedVariantBlockLength) {
+			readContext.decompressedBlockBuffer = new byte[decompressedVariantBlockLength];
 		}
-		gzipInflater.reset();
+
+		return readDecompressedBlockData(variantGenotypeBlockInfo,
+				readContext.compressedBlockBuffer, readContext.decompressedBlockBuffer);
 	}
 
 	/**
@@ -1128,12 +1422,13 @@ public class BgenGenotypeData extends AbstractRandomAccessGenotypeData implement
 	 */
 	private VariantGenotypeBlockInfo extractVariantGenotypeDataBlockInfo() throws IOException {
 
-		// Get the file pointer (bgenFile.getFilePointer();)
-		long variantGenotypeStartPosition = this.bgenFile.getFilePointer();
+		// Get the file pointer of the read context of this thread
+		ReadContext readContext = readContexts.get();
+		long variantGenotypeStartPosition = readContext.getFilePointer();
 
 		// Not sure if we want to do the buffer search here. Or we might be able to take a smaller set.
 		byte[] snpInfoBuffer = new byte[8];
-		this.bgenFile.read(snpInfoBuffer, 0, snpInfoBuffer.length);
+		readContext.readFully(snpInfoBuffer, 0, snpInfoBuffer.length);
 		int snpInfoBufferPos = 0;
 
 		VariantGenotypeBlockInfo variantGenotypeBlockInfo = null;
@@ -1272,6 +1567,13 @@ public class BgenGenotypeData extends AbstractRandomAccessGenotypeData implement
 
 	@Override
 	public void close() throws IOException {
+		WeakReference<ReadContext> readContextReference;
+		while ((readContextReference = createdReadContexts.poll()) != null) {
+			ReadContext readContext = readContextReference.get();
+			if (readContext != null) {
+				readContext.close();
+			}
+		}
 		bgenFile.close();
 	}
 
@@ -1296,16 +1598,25 @@ public class BgenGenotypeData extends AbstractRandomAccessGenotypeData implement
 
 	@Override
 	public Iterable<GeneticVariant> getVariantsByPos(String seqName, int startPos) {
+		if (bgenixPositionIndex != null) {
+			return getGeneticVariants(bgenixPositionIndex.getFileStartPositionsPosition(seqName, startPos));
+		}
 		return getGeneticVariants(bgenixReader.getVariantsPostion(seqName, startPos));
 	}
 
 	@Override
 	public Iterable<GeneticVariant> getSequenceGeneticVariants(String seqName) {
+		if (bgenixPositionIndex != null) {
+			return getGeneticVariants(bgenixPositionIndex.getFileStartPositionsChromosome(seqName));
+		}
 		return getGeneticVariants(bgenixReader.getVariantsChromosome(seqName));
 	}
 
 	@Override
 	public Iterable<GeneticVariant> getVariantsByRange(String seqName, int rangeStart, int rangeEnd) {
+		if (bgenixPositionIndex != null) {
+			return getGeneticVariants(bgenixPositionIndex.getFileStartPositionsRange(seqName, rangeStart, rangeEnd));
+		}
 		return getGeneticVariants(bgenixReader.getVariantsRange(seqName, rangeStart, rangeEnd));
 	}
 
@@ -1376,18 +1687,46 @@ public class BgenGenotypeData extends AbstractRandomAccessGenotypeData implement
 
 	@Override
 	public float[] getSampleDosage(GeneticVariant variant) {
-		return ProbabilitiesConvertor.convertProbabilitiesToDosage(variant.getSampleGenotypeProbilities(), DEFAULT_MINIMUM_POSTERIOR_PROBABILITY_TO_CALL);
+		float[] dosages = new float[sampleCount];
+		readSampleDosages(getCastedBgenVariant(variant), dosages);
+		return dosages;
 	}
 
 	@Override
 	public float[][] getSampleProbilities(GeneticVariant variant) {
-		// Make sure that probabilities for other than biallelic variants return missingness
-		double[][] sampleGenotypeProbabilitiesBgen = getSampleProbabilitiesComplex(variant);
-		if (variant.isBiallelic()) {
-			return ProbabilitiesConvertor.convertBiallelicComplexProbabilitiesToProbabilities(
-					sampleGenotypeProbabilitiesBgen);
-		} else {
-			return new float[sampleGenotypeProbabilitiesBgen.length][3];
+		// Probabilities for other than biallelic variants return missingness
+		double[] flatProbabilities = new double[sampleCount * 3];
+		readSampleProbabilities(getCastedBgenVariant(variant), flatProbabilities);
+
+		float[][] probabilities = new float[sampleCount][3];
+		for (int sampleIndex = 0, probabilityIndex = 0; sampleIndex < sampleCount; sampleIndex++) {
+			float[] sampleProbabilities = probabilities[sampleIndex];
+			sampleProbabilities[0] = (float) flatProbabilities[probabilityIndex++];
+			sampleProbabilities[1] = (float) flatProbabilities[probabilityIndex++];
+			sampleProbabilities[2] = (float) flatProbabilities[probabilityIndex++];
+		}
+		return probabilities;
+	}
+
+	@Override
+	public void readSampleDosages(ReadOnlyGeneticVariantBgen variant, float[] dosages) {
+		try {
+			readBiallelicGenotypeDataFromVariant(variant, dosages, null);
+		} catch (IOException e) {
+			throw new GenotypeDataException(String.format(
+					"Could not read variant data %s at position %d%n",
+					variant.getPrimaryVariantId(), variant.getVariantReadingPosition()));
+		}
+	}
+
+	@Override
+	public void readSampleProbabilities(ReadOnlyGeneticVariantBgen variant, double[] probabilities) {
+		try {
+			readBiallelicGenotypeDataFromVariant(variant, null, probabilities);
+		} catch (IOException e) {
+			throw new GenotypeDataException(String.format(
+					"Could not read variant data %s at position %d%n",
+					variant.getPrimaryVariantId(), variant.getVariantReadingPosition()));
 		}
 	}
 
@@ -1423,6 +1762,35 @@ public class BgenGenotypeData extends AbstractRandomAccessGenotypeData implement
 		return (ReadOnlyGeneticVariantBgen) variant;
 	}
 
+	/**
+	 * Create the variants at the file start positions found with the bgenix
+	 * position index. The identifiers and alleles are read from the variant
+	 * header in the BGEN file instead of being stored in the index. Reading
+	 * the genotypes reads this header again and it is located directly before
+	 * the genotype data, so in practice the read is served from the same
+	 * pages. Reading the header costs a few microseconds per variant while a
+	 * bgenix query costs over a hundred, storing the identifiers and all
+	 * alleles would make the index size depend on the allele lengths for
+	 * little gain.
+	 *
+	 * @param fileStartPositions start positions of the variants in the BGEN
+	 * file
+	 * @return the variants
+	 */
+	private Iterable<GeneticVariant> getGeneticVariants(long[] fileStartPositions) {
+		GeneticVariantRange.GeneticVariantRangeCreate variantRangeFactory = GeneticVariantRange.createRangeFactory(fileStartPositions.length);
+
+		for (long fileStartPosition : fileStartPositions) {
+			try {
+				variantRangeFactory.addVariant(processVariantIdentifyingData(fileStartPosition, this));
+			} catch (IOException e) {
+				throw new GenotypeDataException(String.format(
+						"Could not read variant at position %d%n", fileStartPosition), e);
+			}
+		}
+		return variantRangeFactory.createRange();
+	}
+
 	private Iterable<GeneticVariant> getGeneticVariants(BgenixVariantQueryResult variantQueryResult) {
 		GeneticVariantRange.GeneticVariantRangeCreate variantRangeFactory = GeneticVariantRange.createRangeFactory();
 
@@ -1676,6 +2044,175 @@ public class BgenGenotypeData extends AbstractRandomAccessGenotypeData implement
 		}
 	}
 
+	private ReadContext createReadContext() {
+		ReadContext readContext = new ReadContext(bgenFileChannel);
+		//Forget the read contexts that have been garbage collected
+		createdReadContexts.removeIf(reference -> reference.get() == null);
+		createdReadContexts.add(new WeakReference<>(readContext));
+		return readContext;
+	}
+
+	/**
+	 * Holds the state needed to read variants from the BGEN file. Every thread
+	 * has its own read context. Reads are done at the position of the read
+	 * context without changing the position of the shared file channel, and
+	 * the decompressors and scratch buffers are not shared between threads.
+	 */
+	private static class ReadContext {
+
+		private static final int READ_AHEAD_BUFFER_SIZE = 4096;
+
+		private final FileChannel fileChannel;
+		private final byte[] byteArray4 = new byte[4]; //resuable 4 byte array
+		private final byte[] byteArray2 = new byte[2]; //resuable 2 byte array
+		private final Inflater gzipInflater = new Inflater();
+		private ZstdDecompressCtx zstdDecompressCtx = null; //created when first needed
+		private ByteBuffer zstdCompressedBuffer = ByteBuffer.allocateDirect(0);
+		private ByteBuffer zstdDecompressedBuffer = ByteBuffer.allocateDirect(0);
+		private byte[] compressedBlockBuffer = new byte[0]; //reusable buffer for the flat decoder, grows when needed
+		private byte[] decompressedBlockBuffer = new byte[0]; //reusable buffer for the flat decoder, grows when needed
+		private final byte[] readAheadBuffer = new byte[READ_AHEAD_BUFFER_SIZE];
+		private long readAheadStart = 0;
+		private int readAheadLength = 0;
+		private long filePointer = 0;
+
+		private ReadContext(FileChannel fileChannel) {
+			this.fileChannel = fileChannel;
+		}
+
+		private void seek(long position) {
+			filePointer = position;
+		}
+
+		private long getFilePointer() {
+			return filePointer;
+		}
+
+		private void readFully(byte[] bytes) throws IOException {
+			readFully(bytes, 0, bytes.length);
+		}
+
+		/**
+		 * Read bytes starting from the file pointer. Small reads, like the
+		 * fields of the variant identifying data, are served from the read
+		 * ahead buffer so a variant header is read with a single call to the
+		 * file channel.
+		 */
+		private void readFully(byte[] bytes, int offset, int length) throws IOException {
+			if (length > READ_AHEAD_BUFFER_SIZE) {
+				readFully(ByteBuffer.wrap(bytes, offset, length));
+				return;
+			}
+			if (filePointer < readAheadStart || filePointer + length > readAheadStart + readAheadLength) {
+				fillReadAheadBuffer(length);
+			}
+			System.arraycopy(readAheadBuffer, (int) (filePointer - readAheadStart), bytes, offset, length);
+			filePointer += length;
+		}
+
+		private void fillReadAheadBuffer(int minimumLength) throws IOException {
+			ByteBuffer buffer = ByteBuffer.wrap(readAheadBuffer);
+			readAheadStart = filePointer;
+			readAheadLength = 0;
+			while (buffer.position() < minimumLength) {
+				int read = fileChannel.read(buffer, filePointer + buffer.position());
+				if (read < 0) {
+					throw new EOFException("Unexpected end of bgen file at position " + (filePointer + buffer.position()));
+				}
+			}
+			readAheadLength = buffer.position();
+		}
+
+		/**
+		 * Fill the remaining bytes of the buffer starting from the file
+		 * pointer. The file pointer is moved to the first byte after the
+		 * bytes that are read.
+		 */
+		private void readFully(ByteBuffer buffer) throws IOException {
+			while (buffer.hasRemaining()) {
+				int read = fileChannel.read(buffer, filePointer);
+				if (read < 0) {
+					throw new EOFException("Unexpected end of bgen file at position " + filePointer);
+				}
+				filePointer += read;
+			}
+		}
+
+		/**
+		 * Method that decompresses data using the gzipInflater.
+		 *
+		 * @param compressedVariantDataBlock The input byte array to
+		 * decompress.
+		 * @param compressedLength The number of bytes to decompress.
+		 * @param outputVariantDataBlock The decompressed output byte array.
+		 * @param outputLength The expected number of decompressed bytes.
+		 */
+		private void decompressVariantBlockGzip(
+				byte[] compressedVariantDataBlock, int compressedLength,
+				byte[] outputVariantDataBlock, int outputLength) {
+
+			// Set the input for the gzip inflater.
+			gzipInflater.setInput(compressedVariantDataBlock, 0, compressedLength);
+
+			// Try to decompress the data.
+			try {
+				gzipInflater.inflate(outputVariantDataBlock, 0, outputLength);
+			} catch (DataFormatException e) {
+				throw new GenotypeDataException("Error decompressing bgen data", e);
+			}
+			gzipInflater.reset();
+		}
+
+		/**
+		 * Method that reads and decompresses zstd data. The compressed data is
+		 * read from the file into a direct buffer and decompressed with the
+		 * reusable zstd context of this thread.
+		 *
+		 * @param position The position of the compressed data in the file.
+		 * @param compressedLength The number of compressed bytes.
+		 * @param outputVariantDataBlock The decompressed output byte array.
+		 * @param outputLength The expected number of decompressed bytes.
+		 */
+		private void decompressVariantBlockZstd(
+				long position, int compressedLength,
+				byte[] outputVariantDataBlock, int outputLength) throws IOException {
+
+			if (zstdDecompressCtx == null) {
+				zstdDecompressCtx = new ZstdDecompressCtx();
+			}
+			if (zstdCompressedBuffer.capacity() < compressedLength) {
+				zstdCompressedBuffer = ByteBuffer.allocateDirect(compressedLength);
+			}
+			if (zstdDecompressedBuffer.capacity() < outputLength) {
+				zstdDecompressedBuffer = ByteBuffer.allocateDirect(outputLength);
+			}
+
+			zstdCompressedBuffer.clear();
+			zstdCompressedBuffer.limit(compressedLength);
+			seek(position);
+			readFully(zstdCompressedBuffer);
+
+			int decompressedLength;
+			try {
+				decompressedLength = zstdDecompressCtx.decompressDirectByteBuffer(
+						zstdDecompressedBuffer, 0, outputLength,
+						zstdCompressedBuffer, 0, compressedLength);
+			} catch (ZstdException e) {
+				throw new GenotypeDataException("Error decompressing bgen data", e);
+			}
+
+			zstdDecompressedBuffer.clear();
+			zstdDecompressedBuffer.get(outputVariantDataBlock, 0, decompressedLength);
+		}
+
+		private void close() {
+			gzipInflater.end();
+			if (zstdDecompressCtx != null) {
+				zstdDecompressCtx.close();
+			}
+		}
+	}
+
 	/**
 	 * Represents information from a genotype data block within a BGEN file
 	 * format.
@@ -0,0 +1,346 @@
+package org.molgenis.genotype.bgen;
+
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.list.array.TLongArrayList;
+import org.apache.log4j.Logger;
+import org.molgenis.genotype.GenotypeDataException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Compact position index of the variants in a bgenix file. Per chromosome the
+ * variant positions are stored as a sorted int array together with the file
+ * start positions of the variants in the BGEN file. Querying a position or a
+ * range is a binary search without the overhead of a SQL query.
+ * <p>
+ * The index is created from the bgenix file and saved next to it, later it is
+ * memory-mapped so it is shared between processes and opens instantly. If the
+ * index cannot be saved it is kept in memory. The index is recreated if the
+ * bgenix file has changed since the index was created or if the index file is
+ * incomplete or corrupt.
+ * <p>
+ * Queries do not change the state of the index, so the index can be used by
+ * multiple threads.
+ *
+ * @author Patrick Deelen
+ */
+public class BgenixPositionIndex {
+
+	private static final Logger LOGGER = Logger.getLogger(BgenixPositionIndex.class);
+	private static final String FILE_EXTENSION = ".pos";
+	private static final byte[] MAGIC = {'b', 'g', 'i', 'p', 'o', 's'};
+	private static final int VERSION = 1;
+	private static final long[] NO_VARIANTS = new long[0];
+
+	private final Map<String, ChromosomeIndex> chromosomes;
+
+	private BgenixPositionIndex(Map<String, ChromosomeIndex> chromosomes) {
+		this.chromosomes = chromosomes;
+	}
+
+	/**
+	 * Load the position index of a bgenix file. If no up to date index is
+	 * present next to the bgenix file it is created.
+	 *
+	 * @param bgenixFile the bgenix file
+	 * @param bgenixReader reader of the bgenix file
+	 * @return the position index
+	 * @throws IOException if the index just created cannot be read
+	 */
+	public static BgenixPositionIndex loadOrCreate(File bgenixFile, BgenixReader bgenixReader) throws IOException {
+
+		File indexFile = getIndexFile(bgenixFile);
+
+		if (indexFile.exists()) {
+			try {
+				BgenixPositionIndex index = load(indexFile, bgenixFile);
+				if (index != null) {
+					LOGGER.debug("Loaded bgenix position index from: " + indexFile.getAbsolutePath());
+					return index;
+				}
+				LOGGER.info("Bgenix position index is outdated, recreating: " + indexFile.getAbsolutePath());
+			} catch (IOException | GenotypeDataException ex) {
+				LOGGER.warn("Bgenix position index is incomplete or corrupt, recreating: " + indexFile.getAbsolutePath() + ". Error: " + ex);
+			}
+			if (!indexFile.delete()) {
+				LOGGER.debug("Unable to delete bgenix position index, it will be replaced: " + indexFile.getAbsolutePath());
+			}
+		}
+
+		Map<String, ChromosomeIndex> chromosomes = createFromBgenix(bgenixReader);
+
+		try {
+			save(indexFile, bgenixFile, chromosomes);
+		} catch (IOException ex) {
+			LOGGER.warn("Unable to save bgenix position index at: " + indexFile.getAbsolutePath() + ". Keeping index in memory. Error: " + ex.getMessage());
+			return new BgenixPositionIndex(chromosomes);
+		}
+
+		BgenixPositionIndex index = load(indexFile, bgenixFile);
+		if (index == null) {
+			throw new GenotypeDataException("Bgenix position index just created is outdated: " + indexFile.getAbsolutePath());
+		}
+		return index;
+
+	}
+
+	public static File getIndexFile(File bgenixFile) {
+		return new File(bgenixFile.getPath() + FILE_EXTENSION);
+	}
+
+	public Set<String> getChromosomes() {
+		return chromosomes.keySet();
+	}
+
+	/**
+	 * @param chr the chromosome
+	 * @return the file start positions of all variants on the chromosome
+	 */
+	public long[] getFileStartPositionsChromosome(String chr) {
+		ChromosomeIndex chromosomeIndex = chromosomes.get(chr);
+		if (chromosomeIndex == null) {
+			return NO_VARIANTS;
+		}
+		return chromosomeIndex.getFileStartPositions(0, chromosomeIndex.variantCount);
+	}
+
+	/**
+	 * @param chr the chromosome
+	 * @param position the position
+	 * @return the file start positions of all variants at the position
+	 */
+	public long[] getFileStartPositionsPosition(String chr, int position) {
+		return getFileStartPositionsRange(chr, position, position);
+	}
+
+	/**
+	 * @param chr the chromosome
+	 * @param from start of the range (inclusive)
+	 * @param to end of the range (inclusive)
+	 * @return the file start positions of the variants in the range, ordered
+	 * by position
+	 */
+	public long[] getFileStartPositionsRange(String chr, int from, int to) {
+		ChromosomeIndex chromosomeIndex = chromosomes.get(chr);
+		if (chromosomeIndex == null || from > to) {
+			return NO_VARIANTS;
+		}
+		int startIndex = chromosomeIndex.firstIndexAtOrAfter(from);
+		int endIndex = to == Integer.MAX_VALUE ? chromosomeIndex.variantCount : chromosomeIndex.firstIndexAtOrAfter(to + 1);
+		return chromosomeIndex.getFileStartPositions(startIndex, endIndex);
+	}
+
+	private static Map<String, ChromosomeIndex> createFromBgenix(BgenixReader bgenixReader) {
+
+		Map<String, ChromosomeIndex> chromosomes = new LinkedHashMap<>();
+
+		for (String chr : bgenixReader.getChromosomes()) {
+			TIntArrayList positions = new TIntArrayList();
+			TLongArrayList fileStartPositions = new TLongArrayList();
+			bgenixReader.getVariantPositions(chr, positions, fileStartPositions);
+			chromosomes.put(chr, new ChromosomeIndex(
+					IntBuffer.wrap(positions.toArray()),
+					LongBuffer.wrap(fileStartPositions.toArray())));
+		}
+
+		return chromosomes;
+
+	}
+
+	/**
+	 * File layout: header with magic, version, size and modification time of
+	 * the bgenix file and per chromosome the name, variant count and offset of
+	 * the data. The data of a chromosome are the positions followed by the file
+	 * start positions, aligned to 8 bytes.
+	 */
+	private static void save(File indexFile, File bgenixFile, Map<String, ChromosomeIndex> chromosomes) throws IOException {
+
+		// Determine header size to be able to write the offsets of the data in the header
+		int headerSize = createHeader(bgenixFile, chromosomes, new long[chromosomes.size()]).length;
+
+		long[] dataOffsets = new long[chromosomes.size()];
+		long dataOffset = align(headerSize);
+		int c = 0;
+		for (ChromosomeIndex chromosomeIndex : chromosomes.values()) {
+			dataOffsets[c++] = dataOffset;
+			dataOffset = align(dataOffset + chromosomeIndex.variantCount * 12L);
+		}
+
+		byte[] header = createHeader(bgenixFile, chromosomes, dataOffsets);
+
+		// Write to temporary file first so no incomplete index is ever used. The
+		// temporary file is unique so processes creating the index at the same
+		// time do not write to the same file.
+		File tmpIndexFile = File.createTempFile(indexFile.getName(), ".tmp", indexFile.getAbsoluteFile().getParentFile());
+		try (RandomAccessFile indexRaf = new RandomAccessFile(tmpIndexFile, "rw"); FileChannel channel = indexRaf.getChannel()) {
+			indexRaf.setLength(0);
+			writeFully(channel, ByteBuffer.wrap(header), 0);
+			c = 0;
+			for (ChromosomeIndex chromosomeIndex : chromosomes.values()) {
+				ByteBuffer data = ByteBuffer.allocate(chromosomeIndex.variantCount * 12);
+				for (int i = 0; i < chromosomeIndex.variantCount; ++i) {
+					data.putInt(chromosomeIndex.positions.get(i));
+				}
+				for (int i = 0; i < chromosomeIndex.variantCount; ++i) {
+					data.putLong(chromosomeIndex.fileStartPositions.get(i));
+				}
+				data.flip();
+				writeFully(channel, data, dataOffsets[c++]);
+			}
+			channel.force(false);
+		} catch (IOException ex) {
+			tmpIndexFile.delete();
+			throw ex;
+		}
+
+		try {
+			try {
+				Files.move(tmpIndexFile.toPath(), indexFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException ex) {
+				Files.move(tmpIndexFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+		} catch (IOException ex) {
+			tmpIndexFile.delete();
+			throw ex;
+		}
+
+	}
+
+	private static byte[] createHeader(File bgenixFile, Map<String, ChromosomeIndex> chromosomes, long[] dataOffsets) throws IOException {
+		ByteArrayOutputStream headerBytes = new ByteArrayOutputStream();
+		DataOutputStream header = new DataOutputStream(headerBytes);
+		header.write(MAGIC);
+		header.writeInt(VERSION);
+		header.writeLong(bgenixFile.length());
+		header.writeLong(bgenixFile.lastModified());
+		header.writeInt(chromosomes.size());
+		int c = 0;
+		for (Map.Entry<String, ChromosomeIndex> chromosome : chromosomes.entrySet()) {
+			header.writeUTF(chromosome.getKey());
+			header.writeInt(chromosome.getValue().variantCount);
+			header.writeLong(dataOffsets[c++]);
+		}
+		header.close();
+		return headerBytes.toByteArray();
+	}
+
+	/**
+	 * @return null if index is not for the current version of the bgenix file
+	 * @throws IOException if the index file is incomplete
+	 * @throws GenotypeDataException if the index file is corrupt
+	 */
+	private static BgenixPositionIndex load(File indexFile, File bgenixFile) throws IOException {
+
+		try (RandomAccessFile indexRaf = new RandomAccessFile(indexFile, "r"); FileChannel channel = indexRaf.getChannel()) {
+
+			DataInputStream header = new DataInputStream(Channels.newInputStream(channel));
+
+			byte[] magic = new byte[MAGIC.length];
+			header.readFully(magic);
+			if (!Arrays.equals(magic, MAGIC)) {
+				throw new GenotypeDataException("Not a valid bgenix position index: " + indexFile.getAbsolutePath());
+			}
+			if (header.readInt() != VERSION
+					|| header.readLong() != bgenixFile.length()
+					|| header.readLong() != bgenixFile.lastModified()) {
+				return null;
+			}
+
+			int chromosomeCount = header.readInt();
+			if (chromosomeCount < 0) {
+				throw new GenotypeDataException("Corrupt bgenix position index: " + indexFile.getAbsolutePath());
+			}
+			Map<String, ChromosomeIndex> chromosomes = new LinkedHashMap<>();
+			for (int c = 0; c < chromosomeCount; ++c) {
+				String chr = header.readUTF();
+				int variantCount = header.readInt();
+				long dataOffset = header.readLong();
+
+				if (variantCount < 0 || dataOffset < 0 || dataOffset + variantCount * 12L > channel.size()) {
+					throw new GenotypeDataException("Corrupt bgenix position index: " + indexFile.getAbsolutePath());
+				}
+
+				// The mapping stays valid after closing the channel
+				MappedByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, dataOffset, variantCount * 12L);
+				IntBuffer positions = data.asIntBuffer();
+				positions.limit(variantCount);
+				data.position(variantCount * 4);
+				LongBuffer fileStartPositions = data.slice().asLongBuffer();
+
+				chromosomes.put(chr, new ChromosomeIndex(positions, fileStartPositions));
+			}
+
+			return new BgenixPositionIndex(chromosomes);
+		}
+
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			position += channel.write(buffer, position);
+		}
+	}
+
+	private static long align(long offset) {
+		return (offset + 7) & ~7L;
+	}
+
+	private static class ChromosomeIndex {
+
+		private final IntBuffer positions;
+		private final LongBuffer fileStartPositions;
+		private final int variantCount;
+
+		public ChromosomeIndex(IntBuffer positions, LongBuffer fileStartPositions) {
+			this.positions = positions;
+			this.fileStartPositions = fileStartPositions;
+			this.variantCount = positions.limit();
+		}
+
+		/**
+		 * @return index of the first variant with a position of at least
+		 * the query position or variant count if there is no such variant
+		 */
+		private int firstIndexAtOrAfter(int position) {
+			int low = 0;
+			int high = variantCount;
+			while (low < high) {
+				int mid = (low + high) >>> 1;
+				if (positions.get(mid) < position) {
+					low = mid + 1;
+				} else {
+					high = mid;
+				}
+			}
+			return low;
+		}
+
+		private long[] getFileStartPositions(int startIndex, int endIndex) {
+			long[] result = new long[endIndex - startIndex];
+			for (int i = startIndex; i < endIndex; ++i) {
+				result[i - startIndex] = fileStartPositions.get(i);
+			}
+			return result;
+		}
+
+	}
+
+}
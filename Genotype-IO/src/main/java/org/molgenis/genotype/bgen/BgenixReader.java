@@ -10,6 +10,8 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.LinkedHashSet;
 
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.list.array.TLongArrayList;
 import org.molgenis.genotype.GenotypeDataException;
 
 /**
@@ -25,6 +27,7 @@ public class BgenixReader {
 	private final PreparedStatement queryChromosomes;
 	private final PreparedStatement queryAll;
 	private final PreparedStatement countAll;
+	private final PreparedStatement queryPositionsByChromosome;
 
 	public BgenixReader(File bgenixFile) {
 		this(createNewConnection(bgenixFile));
@@ -40,6 +43,7 @@ public class BgenixReader {
 			queryChromosomes = dbConnection.prepareStatement("SELECT DISTINCT chromosome FROM Variant");
 			queryAll = dbConnection.prepareStatement("SELECT * FROM Variant");
 			countAll = dbConnection.prepareStatement("SELECT count(*) FROM Variant");
+			queryPositionsByChromosome = dbConnection.prepareStatement("SELECT position, file_start_position FROM Variant WHERE chromosome = ? ORDER BY position, file_start_position");
 		} catch (SQLException ex) {
 			throw new GenotypeDataException("Unable to load bgenix file. Error: " + ex.getMessage(), ex);
 		}
@@ -95,6 +99,28 @@ public class BgenixReader {
 		}
 	}
 	
+	/**
+	 * Get the positions and the file start positions of all variants on a
+	 * chromosome, ordered by position and then file start position.
+	 *
+	 * @param chr the chromosome
+	 * @param positions list to add the positions to
+	 * @param fileStartPositions list to add the file start positions to
+	 */
+	public synchronized void getVariantPositions(String chr, TIntArrayList positions, TLongArrayList fileStartPositions) {
+		try {
+			queryPositionsByChromosome.setString(1, chr);
+			try (ResultSet result = queryPositionsByChromosome.executeQuery()) {
+				while (result.next()) {
+					positions.add(result.getInt(1));
+					fileStartPositions.add(result.getLong(2));
+				}
+			}
+		} catch (SQLException ex) {
+			throw new GenotypeDataException("Unable to query bgenix file. Error: " + ex.getMessage(), ex);
+		}
+	}
+
 	public synchronized BgenixVariantQueryResult getVariants() {
 		try {
 			return new BgenixVariantQueryResult(queryAll.executeQuery());
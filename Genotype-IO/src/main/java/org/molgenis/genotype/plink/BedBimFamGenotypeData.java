@@ -12,6 +12,9 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -61,6 +64,15 @@ public class BedBimFamGenotypeData extends AbstractRandomAccessGenotypeData impl
 	private static final int HETEROZYGOTE = 2;
 	private static final int MISSING = 1;
 	private static final Alleles BI_ALLELIC_MISSING = Alleles.createAlleles(Allele.ZERO, Allele.ZERO);
+	/**
+	 * Called dosage of the first allele for the 4 samples in a byte.
+	 * [byte * 4 + sample in byte]
+	 */
+	private static final byte[] CALLED_DOSAGE_LOOKUP = createCalledDosageLookup();
+	/**
+	 * Maximum size of the memory-mapped chunks of the BED file
+	 */
+	private static final long MAX_CHUNK_SIZE = Integer.MAX_VALUE;
 	private static final org.apache.log4j.Logger LOGGER = org.apache.log4j.Logger.getLogger(BedBimFamGenotypeWriter.class);
 	private static final Charset FILE_ENCODING = Charset.forName("UTF-8");
 	private final ArrayList<Sample> samples;
@@ -69,6 +81,14 @@ public class BedBimFamGenotypeData extends AbstractRandomAccessGenotypeData impl
 	private final GeneticVariantRange snps;
 	private final TObjectIntHashMap<GeneticVariant> snpIndexces;
 	private final RandomAccessFile bedFileReader;
+	private final FileChannel bedFileChannel;
+	/**
+	 * Memory-mapped chunks of the BED file, each chunk holds only complete
+	 * variants. Null if the BED file is not memory-mapped.
+	 */
+	private final MappedByteBuffer[] bedFileChunks;
+	private final int variantsPerChunk;
+	private final ThreadLocal<byte[]> variantBytesBuffers;
 	private final SampleVariantsProvider sampleVariantProvider;
 	private final int sampleVariantProviderUniqueId;
 	private final int cacheSize;
@@ -89,6 +109,20 @@ public class BedBimFamGenotypeData extends AbstractRandomAccessGenotypeData impl
 	}
 
 	public BedBimFamGenotypeData(File bedFile, File bimFile, File famFile, int cacheSize) throws IOException {
+		this(bedFile, bimFile, famFile, cacheSize, false);
+	}
+
+	/**
+	 * @param bedFile
+	 * @param bimFile
+	 * @param famFile
+	 * @param cacheSize
+	 * @param memoryMapBed if true the BED file is memory-mapped, in chunks of
+	 * at most 2GB. Otherwise the variants are read from the file when needed.
+	 * In both modes variants can be read concurrently.
+	 * @throws IOException
+	 */
+	public BedBimFamGenotypeData(File bedFile, File bimFile, File famFile, int cacheSize, boolean memoryMapBed) throws IOException {
 
 		if (bedFile == null) {
 			throw new IllegalArgumentException("BedFile is null");
@@ -164,6 +198,26 @@ public class BedBimFamGenotypeData extends AbstractRandomAccessGenotypeData impl
 			}
 		}
 
+		bedFileChannel = bedFileReader.getChannel();
+		final int bytesPerVariantInt = (int) bytesPerVariant;
+		variantBytesBuffers = ThreadLocal.withInitial(() -> new byte[bytesPerVariantInt]);
+
+		if (memoryMapBed && originalSnpCount > 0) {
+			variantsPerChunk = (int) Math.max(1, MAX_CHUNK_SIZE / bytesPerVariant);
+			int chunkCount = (originalSnpCount + variantsPerChunk - 1) / variantsPerChunk;
+			bedFileChunks = new MappedByteBuffer[chunkCount];
+			for (int chunk = 0; chunk < chunkCount; ++chunk) {
+				int chunkVariantCount = Math.min(variantsPerChunk, originalSnpCount - chunk * variantsPerChunk);
+				bedFileChunks[chunk] = bedFileChannel.map(FileChannel.MapMode.READ_ONLY,
+						((long) chunk * variantsPerChunk * bytesPerVariant) + 3,
+						(long) chunkVariantCount * bytesPerVariant);
+			}
+			LOGGER.debug("Memory-mapped BED file in " + chunkCount + " chunks: " + bedFile.getAbsolutePath());
+		} else {
+			variantsPerChunk = 0;
+			bedFileChunks = null;
+		}
+
 	}
 
 	@Override
@@ -214,25 +268,8 @@ public class BedBimFamGenotypeData extends AbstractRandomAccessGenotypeData impl
 	@Override
 	public List<Alleles> getSampleVariants(GeneticVariant variant) {
 
-		int index = snpIndexces.get(variant);
-		
-		if(index == -1){
-			throw new GenotypeDataException("Error reading variant from bed file. ID: " + variant.getPrimaryVariantId() + " chr: " + variant.getSequenceName() + " pos: " + variant.getStartPos() + " alleles" + variant.getVariantAlleles().toString());
-		}
-
-		long startByte = (index * bytesPerVariant) + 3;
-
-		long stopByte = startByte + bytesPerVariant;
-
-		byte[] variantBytes = new byte[(int) (stopByte - startByte)];
-		try {
-			bedFileReader.seek(startByte);
-			if (bedFileReader.read(variantBytes) != variantBytes.length) {
-				throw new GenotypeDataException("Error reading bed file");
-			}
-		} catch (IOException ex) {
-			throw new GenotypeDataException("Error reading bed file", ex);
-		}
+		byte[] variantBytes = new byte[(int) bytesPerVariant];
+		readVariantBytes(getSnpIndex(variant), variantBytes);
 
 		ArrayList<Alleles> alleles = new ArrayList<Alleles>(samples.size());
 
@@ -301,14 +338,184 @@ public class BedBimFamGenotypeData extends AbstractRandomAccessGenotypeData impl
 
 	@Override
 	public byte[] getSampleCalledDosage(GeneticVariant variant) {
-		return CalledDosageConvertor.convertCalledAllelesToCalledDosage(getSampleVariants(variant),
-				variant.getVariantAlleles(), variant.getRefAllele());
+		if (!isLookupDecodable(variant)) {
+			return CalledDosageConvertor.convertCalledAllelesToCalledDosage(getSampleVariants(variant),
+					variant.getVariantAlleles(), variant.getRefAllele());
+		}
+		byte[] calledDosages = new byte[samples.size()];
+		byte[] variantBytes = variantBytesBuffers.get();
+		readVariantBytes(getSnpIndex(variant), variantBytes);
+		checkPaddingBits(variantBytes, variant);
+		int sampleCount = samples.size();
+		for (int i = 0; i < sampleCount; ++i) {
+			calledDosages[i] = CALLED_DOSAGE_LOOKUP[((variantBytes[i >> 2] & 0xFF) << 2) | (i & 3)];
+		}
+		return calledDosages;
 	}
 
 	@Override
 	public float[] getSampleDosage(GeneticVariant variant) {
-		return CalledDosageConvertor.convertCalledAllelesToDosage(getSampleVariants(variant),
-				variant.getVariantAlleles(), variant.getRefAllele());
+		if (!isLookupDecodable(variant)) {
+			return CalledDosageConvertor.convertCalledAllelesToDosage(getSampleVariants(variant),
+					variant.getVariantAlleles(), variant.getRefAllele());
+		}
+		float[] dosages = new float[samples.size()];
+		byte[] variantBytes = variantBytesBuffers.get();
+		readVariantBytes(getSnpIndex(variant), variantBytes);
+		checkPaddingBits(variantBytes, variant);
+		decodeDosages(variantBytes, dosages);
+		return dosages;
+	}
+
+	/**
+	 * Get the dosages of all variants in a range. Dosages are the number of
+	 * first alleles of a variant in the BIM file, -1 for missing genotypes.
+	 *
+	 * @param seqName
+	 * @param rangeStart
+	 * @param rangeEnd
+	 * @return dosages[variant][sample] in the order of
+	 * {@link #getVariantsByRange(java.lang.String, int, int)}
+	 */
+	public float[][] getSampleDosagesRange(String seqName, int rangeStart, int rangeEnd) {
+		ArrayList<GeneticVariant> variants = new ArrayList<GeneticVariant>();
+		for (GeneticVariant variant : getVariantsByRange(seqName, rangeStart, rangeEnd)) {
+			variants.add(variant);
+		}
+		float[][] dosages = new float[variants.size()][samples.size()];
+		readSampleDosages(variants, dosages);
+		return dosages;
+	}
+
+	/**
+	 * Decode the dosages of multiple variants of this dataset in a block. The
+	 * block can be reused for the next variants so no new arrays are created.
+	 * Variants are read directly from the BED file, the cache is not used.
+	 *
+	 * @param variants variants of this dataset
+	 * @param dosages dosages[variant][sample] with at least as many rows as
+	 * variants and rows of at least the number of samples
+	 * @return the number of variants decoded
+	 */
+	public int readSampleDosages(Iterable<GeneticVariant> variants, float[][] dosages) {
+		byte[] variantBytes = variantBytesBuffers.get();
+		int v = 0;
+		for (GeneticVariant variant : variants) {
+			if (isLookupDecodable(variant)) {
+				readVariantBytes(getSnpIndex(variant), variantBytes);
+				checkPaddingBits(variantBytes, variant);
+				decodeDosages(variantBytes, dosages[v]);
+			} else {
+				float[] variantDosages = getSampleDosage(variant);
+				System.arraycopy(variantDosages, 0, dosages[v], 0, variantDosages.length);
+			}
+			++v;
+		}
+		return v;
+	}
+
+	/**
+	 * Decode the packed genotypes of a variant into dosages of the first
+	 * allele using the lookup table, 4 samples per byte.
+	 */
+	private void decodeDosages(byte[] variantBytes, float[] dosages) {
+		int sampleCount = samples.size();
+		int completeBytes = sampleCount >> 2;
+		int s = 0;
+		for (int b = 0; b < completeBytes; ++b) {
+			int lookupIndex = (variantBytes[b] & 0xFF) << 2;
+			dosages[s++] = CALLED_DOSAGE_LOOKUP[lookupIndex];
+			dosages[s++] = CALLED_DOSAGE_LOOKUP[lookupIndex + 1];
+			dosages[s++] = CALLED_DOSAGE_LOOKUP[lookupIndex + 2];
+			dosages[s++] = CALLED_DOSAGE_LOOKUP[lookupIndex + 3];
+		}
+		for (int i = 0; s < sampleCount; ++i) {
+			dosages[s++] = CALLED_DOSAGE_LOOKUP[((variantBytes[completeBytes] & 0xFF) << 2) | i];
+		}
+	}
+
+	/**
+	 * The lookup table can only be used for variants with two distinct
+	 * alleles where the dosage is based on the first allele. In other cases
+	 * the dosage must be determined from the called alleles.
+	 */
+	private static boolean isLookupDecodable(GeneticVariant variant) {
+		Alleles variantAlleles = variant.getVariantAlleles();
+		return variant.getRefAllele() == null
+				&& variantAlleles.getAlleleCount() == 2
+				&& variantAlleles.get(0) != Allele.ZERO
+				&& variantAlleles.get(1) != Allele.ZERO
+				&& variantAlleles.get(0) != variantAlleles.get(1);
+	}
+
+	private void checkPaddingBits(byte[] variantBytes, GeneticVariant variant) {
+		int usedBitsLastByte = (samples.size() & 3) * 2;
+		if (usedBitsLastByte > 0 && ((variantBytes[variantBytes.length - 1] & 0xFF) >>> usedBitsLastByte) != 0) {
+			throw new GenotypeDataException("Error reading BED file, found data in padding bits of variant: " + variant.getPrimaryVariantId());
+		}
+	}
+
+	private int getSnpIndex(GeneticVariant variant) {
+		int index = snpIndexces.get(variant);
+
+		if (index == -1) {
+			throw new GenotypeDataException("Error reading variant from bed file. ID: " + variant.getPrimaryVariantId() + " chr: " + variant.getSequenceName() + " pos: " + variant.getStartPos() + " alleles" + variant.getVariantAlleles().toString());
+		}
+
+		return index;
+	}
+
+	/**
+	 * Read the packed genotypes of a variant. Reads do not depend on a shared
+	 * file pointer so this can be called from multiple threads.
+	 *
+	 * @param snpIndex index of the variant in the BED file
+	 * @param variantBytes buffer of the bytes per variant
+	 */
+	private void readVariantBytes(int snpIndex, byte[] variantBytes) {
+
+		if (bedFileChunks != null) {
+			ByteBuffer chunk = bedFileChunks[snpIndex / variantsPerChunk].duplicate();
+			chunk.position((int) ((snpIndex % variantsPerChunk) * bytesPerVariant));
+			chunk.get(variantBytes, 0, (int) bytesPerVariant);
+			return;
+		}
+
+		long startByte = (snpIndex * bytesPerVariant) + 3;
+		ByteBuffer buffer = ByteBuffer.wrap(variantBytes, 0, (int) bytesPerVariant);
+		try {
+			while (buffer.hasRemaining()) {
+				if (bedFileChannel.read(buffer, startByte + buffer.position()) < 0) {
+					throw new GenotypeDataException("Error reading bed file");
+				}
+			}
+		} catch (IOException ex) {
+			throw new GenotypeDataException("Error reading bed file", ex);
+		}
+	}
+
+	private static byte[] createCalledDosageLookup() {
+		byte[] lookup = new byte[256 * 4];
+		for (int variantByte = 0; variantByte < 256; ++variantByte) {
+			for (int i = 0; i < 4; ++i) {
+				byte dosage;
+				switch ((variantByte >>> (i * 2)) & READER_MASK) {
+					case HOMOZYGOTE_FIRST:
+						dosage = 2;
+						break;
+					case HOMOZYGOTE_SECOND:
+						dosage = 0;
+						break;
+					case HETEROZYGOTE:
+						dosage = 1;
+						break;
+					default:
+						dosage = -1;
+				}
+				lookup[variantByte * 4 + i] = dosage;
+			}
+		}
+		return lookup;
 	}
 
 	private void readFamFile(File famFile) throws FileNotFoundException, IOException {
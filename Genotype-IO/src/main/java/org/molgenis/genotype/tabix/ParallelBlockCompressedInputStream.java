@@ -0,0 +1,434 @@
+package org.molgenis.genotype.tabix;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import net.sf.samtools.util.BlockCompressedInputStream;
+
+/**
+ * BGZF input stream that inflates the next blocks on a shared pool of worker
+ * threads while the current block is consumed. BGZF blocks are independent so
+ * they can be inflated in any order, the blocks are always returned in file
+ * order.
+ *
+ * The number of blocks that is read ahead starts at one after opening or
+ * seeking and doubles for every block that is consumed, up to the maximum. This
+ * way sequential scans use all workers while small tabix queries do not inflate
+ * blocks that are never read.
+ *
+ * Extends BlockCompressedInputStream so it can be used with the
+ * {@link TabixIndex}, all reading is done by this class. Like
+ * BlockCompressedInputStream it is not thread-safe.
+ *
+ * @author Patrick Deelen
+ *
+ */
+public class ParallelBlockCompressedInputStream extends BlockCompressedInputStream
+{
+	private static final int BLOCK_HEADER_LENGTH = 18;
+	private static final int BLOCK_LENGTH_OFFSET = 16;
+	private static final int BLOCK_FOOTER_LENGTH = 8;
+	private static final int DEFAULT_MAX_BLOCKS_READ_AHEAD = Math.max(2, Runtime.getRuntime().availableProcessors() * 2);
+	private static final byte[] NO_DATA = new byte[0];
+
+	private static final ExecutorService INFLATE_EXECUTOR = Executors.newFixedThreadPool(Math.max(1, Runtime
+			.getRuntime().availableProcessors() - 1), new ThreadFactory()
+	{
+		private final AtomicInteger threadCounter = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable runnable)
+		{
+			Thread thread = new Thread(runnable, "bgzf-inflate-" + threadCounter.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	private static final ThreadLocal<Inflater> INFLATERS = new ThreadLocal<Inflater>()
+	{
+		@Override
+		protected Inflater initialValue()
+		{
+			return new Inflater(true);
+		}
+	};
+
+	private final File file;
+	private final RandomAccessFile randomAccessFile;
+	private final FileChannel channel;
+	private final long fileLength;
+	private final int maxBlocksReadAhead;
+	private final ArrayDeque<Block> pendingBlocks = new ArrayDeque<Block>();
+	private final ByteBuffer blockHeader = ByteBuffer.allocate(BLOCK_HEADER_LENGTH);
+	private int blocksReadAhead = 1;
+	private long nextBlockAddress = 0;
+	private Block currentBlock = null;
+	private byte[] currentData = NO_DATA;
+	private int currentOffset = 0;
+	private ByteArrayOutputStream lineBuffer = null;
+
+	public ParallelBlockCompressedInputStream(File file) throws IOException
+	{
+		this(file, DEFAULT_MAX_BLOCKS_READ_AHEAD);
+	}
+
+	/**
+	 * @param file
+	 *            the BGZF file
+	 * @param maxBlocksReadAhead
+	 *            maximum number of blocks to inflate ahead of the block that is
+	 *            currently read
+	 * @throws IOException
+	 */
+	public ParallelBlockCompressedInputStream(File file, int maxBlocksReadAhead) throws IOException
+	{
+		super(new ByteArrayInputStream(NO_DATA));
+		if (maxBlocksReadAhead < 1) throw new IllegalArgumentException("Must read ahead at least one block");
+		this.file = file;
+		this.randomAccessFile = new RandomAccessFile(file, "r");
+		this.channel = randomAccessFile.getChannel();
+		this.fileLength = channel.size();
+		this.maxBlocksReadAhead = maxBlocksReadAhead;
+	}
+
+	@Override
+	public int available() throws IOException
+	{
+		while (currentOffset == currentData.length)
+		{
+			if (!loadNextBlock())
+			{
+				return 0;
+			}
+		}
+		return currentData.length - currentOffset;
+	}
+
+	@Override
+	public int read() throws IOException
+	{
+		return available() > 0 ? currentData[currentOffset++] & 0xFF : -1;
+	}
+
+	@Override
+	public int read(byte[] buffer, int offset, int length) throws IOException
+	{
+		int bytesRead = 0;
+		while (length > 0)
+		{
+			int available = available();
+			if (available == 0)
+			{
+				break;
+			}
+			int copyLength = Math.min(available, length);
+			System.arraycopy(currentData, currentOffset, buffer, offset, copyLength);
+			currentOffset += copyLength;
+			offset += copyLength;
+			length -= copyLength;
+			bytesRead += copyLength;
+		}
+		return bytesRead == 0 && length > 0 ? -1 : bytesRead;
+	}
+
+	/**
+	 * Reads a line terminated by \n, \r or \r\n, same as
+	 * BlockCompressedInputStream
+	 *
+	 * @return the line without line terminator or null at the end of the file
+	 * @throws IOException
+	 */
+	@Override
+	public String readLine() throws IOException
+	{
+		int available = available();
+		if (available == 0)
+		{
+			return null;
+		}
+		if (lineBuffer == null)
+		{
+			lineBuffer = new ByteArrayOutputStream(8192);
+		}
+		lineBuffer.reset();
+		boolean foundCr = false;
+		boolean done = false;
+		while (!done)
+		{
+			int linePos = currentOffset;
+			int lineBytes = 0;
+			while (available-- > 0)
+			{
+				byte c = currentData[linePos++];
+				if (c == '\n')
+				{
+					done = true;
+					break;
+				}
+				else if (foundCr)
+				{
+					--linePos;
+					done = true;
+					break;
+				}
+				else if (c == '\r')
+				{
+					foundCr = true;
+					continue;
+				}
+				++lineBytes;
+			}
+			lineBuffer.write(currentData, currentOffset, lineBytes);
+			currentOffset = linePos;
+			available = available();
+			if (available == 0)
+			{
+				done = true;
+			}
+		}
+		//One char per byte, not depending on the platform default charset
+		return lineBuffer.toString(StandardCharsets.ISO_8859_1.name());
+	}
+
+	/**
+	 * Seek to a virtual file pointer. Blocks that are already inflated ahead of
+	 * the current position are reused when seeking forward.
+	 */
+	@Override
+	public void seek(long pos) throws IOException
+	{
+		long blockAddress = BlockCompressedInputStream.getFileBlock(pos);
+		int blockOffset = (int) (pos & 0xFFFF);
+
+		if (currentBlock == null || currentBlock.address != blockAddress)
+		{
+			while (!pendingBlocks.isEmpty() && pendingBlocks.peekFirst().address < blockAddress)
+			{
+				pendingBlocks.pollFirst().data.cancel(false);
+			}
+			if (pendingBlocks.isEmpty() || pendingBlocks.peekFirst().address != blockAddress)
+			{
+				discardPendingBlocks();
+				nextBlockAddress = blockAddress;
+			}
+			blocksReadAhead = 1;
+			currentBlock = null;
+			currentData = NO_DATA;
+			if (!loadNextBlock() && blockOffset > 0)
+			{
+				throw new IOException("Invalid file pointer: " + pos + " in: " + file.getAbsolutePath());
+			}
+		}
+
+		if (blockOffset > currentData.length)
+		{
+			throw new IOException("Invalid file pointer: " + pos + " in: " + file.getAbsolutePath());
+		}
+		currentOffset = blockOffset;
+	}
+
+	@Override
+	public long getFilePointer()
+	{
+		if (currentBlock == null)
+		{
+			return 0;
+		}
+		if (currentOffset == currentData.length)
+		{
+			return (currentBlock.address + currentBlock.compressedLength) << 16;
+		}
+		return (currentBlock.address << 16) | currentOffset;
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		discardPendingBlocks();
+		currentData = NO_DATA;
+		currentOffset = 0;
+		channel.close();
+		randomAccessFile.close();
+		super.close();
+	}
+
+	/**
+	 * @return false if there are no more blocks
+	 */
+	private boolean loadNextBlock() throws IOException
+	{
+		submitBlocks();
+		Block block = pendingBlocks.pollFirst();
+		if (block == null)
+		{
+			return false;
+		}
+
+		try
+		{
+			currentData = block.data.get();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while inflating block at " + block.address + " in: "
+					+ file.getAbsolutePath(), e);
+		}
+		catch (ExecutionException e)
+		{
+			if (e.getCause() instanceof IOException)
+			{
+				throw (IOException) e.getCause();
+			}
+			throw new IOException("Error inflating block at " + block.address + " in: " + file.getAbsolutePath(),
+					e.getCause());
+		}
+		currentBlock = block;
+		currentOffset = 0;
+
+		blocksReadAhead = Math.min(blocksReadAhead * 2, maxBlocksReadAhead);
+		submitBlocks();
+		return true;
+	}
+
+	private void submitBlocks() throws IOException
+	{
+		while (pendingBlocks.size() < blocksReadAhead && nextBlockAddress < fileLength)
+		{
+			final long address = nextBlockAddress;
+			final byte[] compressedBlock = readCompressedBlock(address);
+			nextBlockAddress += compressedBlock.length;
+
+			pendingBlocks.addLast(new Block(address, compressedBlock.length, INFLATE_EXECUTOR
+					.submit(new Callable<byte[]>()
+					{
+						@Override
+						public byte[] call() throws IOException
+						{
+							return inflateBlock(compressedBlock, address);
+						}
+					})));
+		}
+	}
+
+	private byte[] readCompressedBlock(long address) throws IOException
+	{
+		blockHeader.clear();
+		readFully(blockHeader, address);
+		byte[] header = blockHeader.array();
+
+		if (header[0] != 31 || (header[1] & 0xFF) != 139 || header[2] != 8 || (header[3] & 4) == 0 || header[12] != 'B'
+				|| header[13] != 'C')
+		{
+			throw new IOException("Invalid BGZF block header at " + address + " in: " + file.getAbsolutePath());
+		}
+
+		int blockLength = ((header[BLOCK_LENGTH_OFFSET] & 0xFF) | ((header[BLOCK_LENGTH_OFFSET + 1] & 0xFF) << 8)) + 1;
+		if (blockLength < BLOCK_HEADER_LENGTH + BLOCK_FOOTER_LENGTH)
+		{
+			throw new IOException("Invalid BGZF block length at " + address + " in: " + file.getAbsolutePath());
+		}
+
+		byte[] compressedBlock = new byte[blockLength];
+		System.arraycopy(header, 0, compressedBlock, 0, BLOCK_HEADER_LENGTH);
+		readFully(ByteBuffer.wrap(compressedBlock, BLOCK_HEADER_LENGTH, blockLength - BLOCK_HEADER_LENGTH), address
+				+ BLOCK_HEADER_LENGTH);
+		return compressedBlock;
+	}
+
+	private void readFully(ByteBuffer buffer, long position) throws IOException
+	{
+		while (buffer.hasRemaining())
+		{
+			int read = channel.read(buffer, position);
+			if (read < 0)
+			{
+				throw new EOFException("Unexpected end of file in BGZF block at " + position + " in: "
+						+ file.getAbsolutePath());
+			}
+			position += read;
+		}
+	}
+
+	private static byte[] inflateBlock(byte[] compressedBlock, long address) throws IOException
+	{
+		int isizeOffset = compressedBlock.length - 4;
+		int uncompressedLength = (compressedBlock[isizeOffset] & 0xFF) | ((compressedBlock[isizeOffset + 1] & 0xFF) << 8)
+				| ((compressedBlock[isizeOffset + 2] & 0xFF) << 16) | ((compressedBlock[isizeOffset + 3] & 0xFF) << 24);
+		if (uncompressedLength == 0)
+		{
+			return NO_DATA;
+		}
+
+		byte[] data = new byte[uncompressedLength];
+		Inflater inflater = INFLATERS.get();
+		inflater.reset();
+		inflater.setInput(compressedBlock, BLOCK_HEADER_LENGTH, compressedBlock.length - BLOCK_HEADER_LENGTH
+				- BLOCK_FOOTER_LENGTH);
+		try
+		{
+			int inflated = 0;
+			while (inflated < uncompressedLength)
+			{
+				int n = inflater.inflate(data, inflated, uncompressedLength - inflated);
+				if (n == 0 && (inflater.finished() || inflater.needsInput()))
+				{
+					break;
+				}
+				inflated += n;
+			}
+			if (inflated != uncompressedLength)
+			{
+				throw new IOException("Inflated " + inflated + " bytes instead of " + uncompressedLength
+						+ " for BGZF block at " + address);
+			}
+		}
+		catch (DataFormatException e)
+		{
+			throw new IOException("Corrupt BGZF block at " + address, e);
+		}
+		return data;
+	}
+
+	private void discardPendingBlocks()
+	{
+		for (Block block : pendingBlocks)
+		{
+			block.data.cancel(false);
+		}
+		pendingBlocks.clear();
+	}
+
+	private static class Block
+	{
+		private final long address;
+		private final int compressedLength;
+		private final Future<byte[]> data;
+
+		public Block(long address, int compressedLength, Future<byte[]> data)
+		{
+			this.address = address;
+			this.compressedLength = compressedLength;
+			this.data = data;
+		}
+	}
+
+}
@@ -33,7 +33,7 @@ public class TabixQuery implements VariantQuery
 
 		try
 		{
-			inputStream = new BlockCompressedInputStream(bzipFile);
+			inputStream = new ParallelBlockCompressedInputStream(bzipFile);
 		}
 		catch (IOException e)
 		{
@@ -1,6 +1,7 @@
 package org.molgenis.genotype.util;
 
 import java.util.LinkedHashMap;
+import java.util.List;
 
 import org.molgenis.genotype.variant.GeneticVariant;
 
@@ -51,8 +52,6 @@ public class LdCalculator
 		// 2 genotypes
 		int[][] genotypes = new int[3][3];
 
-		int calledGenoypes = 0;
-
 		for (int ind = 0; ind < variant1Genotypes.length; ++ind)
 		{
 			byte genotypeVariant1 = variant1Genotypes[ind];
@@ -60,7 +59,98 @@ public class LdCalculator
 			if (genotypeVariant1 != -1 && genotypeVariant2 != -1)
 			{
 				genotypes[genotypeVariant1][genotypeVariant2]++;
-				++calledGenoypes;
+			}
+		}
+
+		return calculateLd(variant1, variant2, genotypes);
+
+	}
+
+	/**
+	 * LD calculator using genotypes packed with {@link PackedGenotypes}. Use
+	 * this when the same variants are used in many comparisons, the genotypes
+	 * of a variant only need to be packed once.
+	 * 
+	 * @param variant1
+	 *            bi-allelic genetic variant
+	 * @param variant1Genotypes
+	 *            packed genotypes of variant 1
+	 * @param variant2
+	 *            bi-allelic genetic variant
+	 * @param variant2Genotypes
+	 *            packed genotypes of variant 2
+	 * @return LD information
+	 * @throws LdCalculatorException
+	 */
+	public static Ld calculateLd(GeneticVariant variant1, PackedGenotypes variant1Genotypes, GeneticVariant variant2,
+			PackedGenotypes variant2Genotypes) throws LdCalculatorException
+	{
+		return calculateLd(variant1, variant2, variant1Genotypes.countGenotypeCombinations(variant2Genotypes));
+	}
+
+	/**
+	 * Calculates the LD between all variants of a block, for instance all
+	 * variants in a window. The genotypes of every variant are packed once.
+	 * 
+	 * @param variants
+	 *            bi-allelic genetic variants with the same samples
+	 * @return LD between variant i and j at [i][j]
+	 * @throws LdCalculatorException
+	 */
+	public static Ld[][] calculateLdMatrix(List<? extends GeneticVariant> variants) throws LdCalculatorException
+	{
+		int variantCount = variants.size();
+
+		PackedGenotypes[] packedGenotypes = new PackedGenotypes[variantCount];
+		for (int i = 0; i < variantCount; ++i)
+		{
+			packedGenotypes[i] = PackedGenotypes.pack(variants.get(i));
+		}
+
+		Ld[][] ldMatrix = new Ld[variantCount][variantCount];
+		for (int i = 0; i < variantCount; ++i)
+		{
+			for (int j = i; j < variantCount; ++j)
+			{
+				int[][] genotypes = packedGenotypes[i].countGenotypeCombinations(packedGenotypes[j]);
+				ldMatrix[i][j] = calculateLd(variants.get(i), variants.get(j), genotypes);
+				if (i != j)
+				{
+					ldMatrix[j][i] = calculateLd(variants.get(j), variants.get(i), transpose(genotypes));
+				}
+			}
+		}
+
+		return ldMatrix;
+	}
+
+	private static int[][] transpose(int[][] genotypes)
+	{
+		int[][] transposed = new int[3][3];
+		for (int x = 0; x < 3; x++)
+		{
+			for (int y = 0; y < 3; y++)
+			{
+				transposed[y][x] = genotypes[x][y];
+			}
+		}
+		return transposed;
+	}
+
+	/**
+	 * @param genotypes
+	 *            counts of all combinations between variant 1 genotypes and
+	 *            variant 2 genotypes
+	 */
+	private static Ld calculateLd(GeneticVariant variant1, GeneticVariant variant2, int[][] genotypes)
+	{
+
+		int calledGenoypes = 0;
+		for (int x = 0; x < 3; x++)
+		{
+			for (int y = 0; y < 3; y++)
+			{
+				calledGenoypes += genotypes[x][y];
 			}
 		}
 
@@ -0,0 +1,136 @@
+package org.molgenis.genotype.util;
+
+import org.molgenis.genotype.variant.GeneticVariant;
+
+/**
+ * Called genotypes of a bi-allelic variant packed in bit planes of 64 samples
+ * per word: one plane for dosage 1, one for dosage 2 and one for the called
+ * samples. The genotype combinations of two variants are counted with
+ * {@link Long#bitCount(long)} over the combined words instead of per sample.
+ */
+public class PackedGenotypes
+{
+
+	private final int sampleCount;
+	private final long[] dosageOne;
+	private final long[] dosageTwo;
+	private final long[] called;
+
+	/**
+	 * @param calledDosages
+	 *            called dosages 0, 1 or 2 per sample, -1 for missing
+	 */
+	public PackedGenotypes(byte[] calledDosages)
+	{
+		this.sampleCount = calledDosages.length;
+
+		int words = (sampleCount + 63) >>> 6;
+		dosageOne = new long[words];
+		dosageTwo = new long[words];
+		called = new long[words];
+
+		for (int s = 0; s < sampleCount; ++s)
+		{
+			long bit = 1L << s;
+			int word = s >>> 6;
+			switch (calledDosages[s])
+			{
+				case -1:
+					continue;
+				case 0:
+					break;
+				case 1:
+					dosageOne[word] |= bit;
+					break;
+				case 2:
+					dosageTwo[word] |= bit;
+					break;
+				default:
+					throw new IllegalArgumentException("Called dosage must be -1, 0, 1 or 2 not: " + calledDosages[s]);
+			}
+			called[word] |= bit;
+		}
+	}
+
+	/**
+	 * @param variant
+	 *            bi-allelic genetic variant
+	 * @return packed called dosages of the variant
+	 */
+	public static PackedGenotypes pack(GeneticVariant variant)
+	{
+		if (variant.getAlleleCount() != 2)
+		{
+			throw new UnsupportedOperationException("Packed genotypes only support biallelic variants");
+		}
+		return new PackedGenotypes(variant.getSampleCalledDosages());
+	}
+
+	public int getSampleCount()
+	{
+		return sampleCount;
+	}
+
+	/**
+	 * Count the combinations of the called dosages of this variant and the
+	 * other variant, skipping samples missing in one of the variants.
+	 *
+	 * @param other
+	 * @return counts with the dosage of this variant as first index and the
+	 *         dosage of the other variant as second index
+	 * @throws LdCalculatorException
+	 *             if the number of samples differs
+	 */
+	public int[][] countGenotypeCombinations(PackedGenotypes other) throws LdCalculatorException
+	{
+		if (sampleCount != other.sampleCount)
+		{
+			throw new LdCalculatorException("Error calculating LD: variants contain " + sampleCount + " and "
+					+ other.sampleCount + " samples. This should be identical");
+		}
+
+		// only the combinations of dosage 1 and 2 and the totals are counted,
+		// the combinations with dosage 0 follow from these
+		int calledBoth = 0;
+		int one = 0;
+		int two = 0;
+		int otherOne = 0;
+		int otherTwo = 0;
+		int oneOne = 0;
+		int oneTwo = 0;
+		int twoOne = 0;
+		int twoTwo = 0;
+
+		for (int w = 0; w < called.length; ++w)
+		{
+			long calledWord = called[w] & other.called[w];
+			long oneWord = dosageOne[w];
+			long twoWord = dosageTwo[w];
+			long otherOneWord = other.dosageOne[w];
+			long otherTwoWord = other.dosageTwo[w];
+
+			calledBoth += Long.bitCount(calledWord);
+			one += Long.bitCount(oneWord & calledWord);
+			two += Long.bitCount(twoWord & calledWord);
+			otherOne += Long.bitCount(otherOneWord & calledWord);
+			otherTwo += Long.bitCount(otherTwoWord & calledWord);
+			oneOne += Long.bitCount(oneWord & otherOneWord);
+			oneTwo += Long.bitCount(oneWord & otherTwoWord);
+			twoOne += Long.bitCount(twoWord & otherOneWord);
+			twoTwo += Long.bitCount(twoWord & otherTwoWord);
+		}
+
+		int[][] counts = new int[3][3];
+		counts[1][1] = oneOne;
+		counts[1][2] = oneTwo;
+		counts[2][1] = twoOne;
+		counts[2][2] = twoTwo;
+		counts[1][0] = one - oneOne - oneTwo;
+		counts[2][0] = two - twoOne - twoTwo;
+		counts[0][1] = otherOne - oneOne - twoOne;
+		counts[0][2] = otherTwo - oneTwo - twoTwo;
+		counts[0][0] = calledBoth - one - two - counts[0][1] - counts[0][2];
+		return counts;
+	}
+
+}
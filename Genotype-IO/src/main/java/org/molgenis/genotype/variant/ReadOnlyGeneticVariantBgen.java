@@ -220,6 +220,26 @@ public class ReadOnlyGeneticVariantBgen extends AbstractGeneticVariant {
         return sampleVariantsProvider.getSampleDosage(this);
     }
 
+    /**
+     * Decode the sample dosages into a reusable buffer. See
+     * {@link SampleVariantProviderBgen#readSampleDosages(ReadOnlyGeneticVariantBgen, float[])}
+     *
+     * @param dosages buffer of at least the number of samples
+     */
+    public void getSampleDosages(float[] dosages) {
+        sampleVariantsProvider.readSampleDosages(this, dosages);
+    }
+
+    /**
+     * Decode the sample probabilities into a reusable flat buffer. See
+     * {@link SampleVariantProviderBgen#readSampleProbabilities(ReadOnlyGeneticVariantBgen, double[])}
+     *
+     * @param probabilities buffer of at least 3 times the number of samples
+     */
+    public void getSampleGenotypeProbabilities(double[] probabilities) {
+        sampleVariantsProvider.readSampleProbabilities(this, probabilities);
+    }
+
     @Override
     public SampleVariantsProvider getSampleVariantsProvider() {
         return sampleVariantsProvider;
@@ -75,9 +75,11 @@ public class CachedSampleVariantProvider implements SampleVariantsProvider {
 	@Override
 
 	public boolean arePhasedProbabilitiesPresent(GeneticVariant variant) {
-		if (phasedProbCache.containsKey(variant))
+		// Single synchronized lookup, the cache can be used by multiple threads
+		Boolean cachedPhasing = phasedProbCache.get(variant);
+		if (cachedPhasing != null)
 		{
-			return phasedProbCache.get(variant);
+			return cachedPhasing;
 		}
 
 		boolean phasing = sampleVariantProvider.arePhasedProbabilitiesPresent(variant);
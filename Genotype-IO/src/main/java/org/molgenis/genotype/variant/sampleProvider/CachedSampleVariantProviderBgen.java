@@ -14,4 +14,16 @@ public class CachedSampleVariantProviderBgen extends CachedSampleVariantProvider
     public ReadOnlyGeneticVariantBgen extendReadOnlyGeneticVariantBgen(ReadOnlyGeneticVariantBgen variant) {
         return sampleVariantProvider.extendReadOnlyGeneticVariantBgen(variant);
     }
+
+    @Override
+    public void readSampleDosages(ReadOnlyGeneticVariantBgen variant, float[] dosages) {
+        // Go through the dosage cache so a variant is decoded at most once
+        float[] cachedDosages = getSampleDosage(variant);
+        System.arraycopy(cachedDosages, 0, dosages, 0, cachedDosages.length);
+    }
+
+    @Override
+    public void readSampleProbabilities(ReadOnlyGeneticVariantBgen variant, double[] probabilities) {
+        sampleVariantProvider.readSampleProbabilities(variant, probabilities);
+    }
 }
@@ -4,4 +4,33 @@ import org.molgenis.genotype.variant.ReadOnlyGeneticVariantBgen;
 
 public interface SampleVariantProviderBgen extends SampleVariantsProvider {
     ReadOnlyGeneticVariantBgen extendReadOnlyGeneticVariantBgen(ReadOnlyGeneticVariantBgen variant);
+
+    /**
+     * Decode the dosages of a variant directly into a caller supplied buffer.
+     * Dosages are in the range of 0 to 2, -1 denotes missing. Results are
+     * identical to {@link #getSampleDosage(org.molgenis.genotype.variant.GeneticVariant)}
+     * but no per sample arrays are created, so the buffer can be reused
+     * between variants.
+     *
+     * @param variant The variant to decode.
+     * @param dosages Buffer of at least the number of samples to write the
+     * dosages to.
+     */
+    void readSampleDosages(ReadOnlyGeneticVariantBgen variant, float[] dosages);
+
+    /**
+     * Decode the genotype probabilities of a biallelic variant directly into
+     * a caller supplied flat buffer.
+     *
+     * [sample * 3 + {AA,AB,BB}]
+     *
+     * Samples that are missing, not diploid or variants that are not biallelic
+     * get a probability of 0 for all three genotypes, following
+     * {@link #getSampleProbilities(org.molgenis.genotype.variant.GeneticVariant)}.
+     *
+     * @param variant The variant to decode.
+     * @param probabilities Buffer of at least 3 times the number of samples to
+     * write the probabilities to.
+     */
+    void readSampleProbabilities(ReadOnlyGeneticVariantBgen variant, double[] probabilities);
 }
@@ -18,6 +18,7 @@ import org.molgenis.genotype.annotation.Annotation;
 import org.molgenis.genotype.annotation.SampleAnnotation;
 import org.molgenis.genotype.annotation.VcfAnnotation;
 import org.molgenis.genotype.bgen.BgenGenotypeData;
+import org.molgenis.genotype.tabix.ParallelBlockCompressedInputStream;
 import org.molgenis.genotype.tabix.TabixFileNotFoundException;
 import org.molgenis.genotype.tabix.TabixIndex;
 import org.molgenis.genotype.tabix.TabixIndex.TabixIterator;
@@ -56,7 +57,17 @@ public class VcfGenotypeData extends AbstractRandomAccessGenotypeData implements
     private final VcfMeta vcfMeta;
     private transient Map<String, Annotation> cachedSampleAnnotationsMap;
     private transient GeneticVariant cachedGeneticVariant;
+    private transient String cachedLine;
+    /**
+     * Record with only the columns up to FORMAT, enough to create the variant
+     */
+    private transient VcfRecord cachedVcfRecordHeader;
+    /**
+     * Record including the samples, only created when needed
+     */
     private transient VcfRecord cachedVcfRecord;
+    private final transient VcfLineParser vcfLineParser = new VcfLineParser();
+    private transient String parsedLine;
     private static int totalRandomAccessRequest = 0;
     private static int currentlyOpenFileHandlers = 0;
     private static int closedFileHandlers = 0;
@@ -146,58 +157,66 @@ public class VcfGenotypeData extends AbstractRandomAccessGenotypeData implements
     public Iterator<GeneticVariant> iterator() {
         final BlockCompressedInputStream inputStream;
         try {
-            inputStream = new BlockCompressedInputStream(bzipVcfFile);
+            inputStream = new ParallelBlockCompressedInputStream(bzipVcfFile);
         } catch (IOException e) {
             throw new GenotypeDataException(e);
         }
 
-        final VcfReader vcfReader = new VcfReader(inputStream);
-        Iterator<GeneticVariant> iterator = new Iterator<GeneticVariant>() {
-            private final Iterator<VcfRecord> it = vcfReader.iterator();
+        return new Iterator<GeneticVariant>() {
+            private String line = readNextDataLine();
 
-            @Override
-            public boolean hasNext() {
-                boolean hasNext = it.hasNext();
-                if (!hasNext) {
-                    // close vcf reader
-                    try {
-                        vcfReader.close();
-                    } catch (IOException e) {
-                        throw new RuntimeException(e);
+            private String readNextDataLine() {
+                try {
+                    String nextLine;
+                    while ((nextLine = inputStream.readLine()) != null) {
+                        if (!nextLine.isEmpty() && nextLine.charAt(0) != '#') {
+                            return nextLine;
+                        }
                     }
+                    // close vcf file
+                    inputStream.close();
+                    return null;
+                } catch (IOException e) {
+                    throw new GenotypeDataException(e);
                 }
-                return hasNext;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return line != null;
             }
 
             @Override
             public GeneticVariant next() {
-                VcfRecord vcfRecord = it.next();
-                return toGeneticVariant(vcfRecord);
+                if (line == null) {
+                    throw new NoSuchElementException();
+                }
+                GeneticVariant variant = toGeneticVariant(line);
+                line = readNextDataLine();
+                return variant;
             }
 
             @Override
             public void remove() {
-                it.remove();
+                throw new UnsupportedOperationException();
             }
         };
-        iterator.hasNext();//needed to properly initiate
-        return iterator;
     }
 
     @Override
     public List<Alleles> getSampleVariants(final GeneticVariant variant) {
-        // get vcf record for variant
-        VcfRecord vcfRecord = getVcfRecord(variant);
-        int nrSamples = vcfRecord.getNrSamples();
+        VcfRecord vcfRecordHeader = getVcfRecordHeader(variant);
+        VcfLineParser vcfLine = getVcfLineParser(variant);
+        int nrSamples = vcfLine.getSampleCount();
         if (nrSamples == 0) {
             return Collections.emptyList();
         }
 
-        VcfGenotypeFormat genotypeFormat = genotypeFormatSupplier.getVcfGenotypeFormat(vcfRecord,
+        VcfGenotypeFormat genotypeFormat = genotypeFormatSupplier.getVcfGenotypeFormat(vcfRecordHeader,
                 genotypeCallFieldPrecedence);
 
         if (VcfGenotypeFormat.GT.equals(genotypeFormat)) {
-            return getCalledAlleles(variant, vcfRecord);
+            return getCalledAlleles(variant, vcfLine, getIndexOfGenotypeFormat(vcfRecordHeader, genotypeFormat));
 
         } else if (VcfGenotypeFormat.GP.equals(genotypeFormat)) {
 
@@ -221,14 +240,49 @@ public class VcfGenotypeData extends AbstractRandomAccessGenotypeData implements
 
     }
 
-    private List<Alleles> getCalledAlleles(GeneticVariant variant, VcfRecord vcfRecord) {
-        // convert vcf sample alleles to Alleles§
-        List<Alleles> alleles = new ArrayList<>(vcfRecord.getNrSamples());
+    /**
+     * Convert the GT field of all samples directly from the line. A missing
+     * or absent GT is a single missing allele, the same as the VCF record
+     * does.
+     */
+    private List<Alleles> getCalledAlleles(GeneticVariant variant, VcfLineParser vcfLine, int formatIndex) {
+        final int nrSamples = vcfLine.getSampleCount();
+        final List<Allele> variantAlleles = variant.getVariantAlleles().getAlleles();
+        final int nrAlleles = variantAlleles.size();
+        final Alleles missing = Alleles.createAlleles(Allele.ZERO);
+
+        // Diploid genotypes by allele index + 1, index 0 is a missing allele
+        final Alleles[] diploidAlleles = new Alleles[(nrAlleles + 1) * (nrAlleles + 1)];
+        int[] genotype = new int[2];
 
+        List<Alleles> alleles = new ArrayList<>(nrSamples);
         try {
-            for (VcfSample vcfSample : vcfRecord.getSamples()) {
-                List<Allele> vcfAlleles = vcfSample.getAlleles();
-                alleles.add(Alleles.createAlleles(vcfAlleles));
+            for (int i = 0; i < nrSamples; ++i) {
+                if (!vcfLine.selectField(i, formatIndex) || vcfLine.isFieldMissing()) {
+                    alleles.add(missing);
+                    continue;
+                }
+                int ploidy = vcfLine.readFieldGenotype(genotype);
+                if (ploidy == 2 && genotype[0] >= -1 && genotype[0] < nrAlleles && genotype[1] >= -1 && genotype[1] < nrAlleles) {
+                    int cacheIndex = (genotype[0] + 1) * (nrAlleles + 1) + genotype[1] + 1;
+                    if (diploidAlleles[cacheIndex] == null) {
+                        diploidAlleles[cacheIndex] = Alleles.createAlleles(
+                                getAllele(variant, vcfLine, variantAlleles, genotype[0], i),
+                                getAllele(variant, vcfLine, variantAlleles, genotype[1], i));
+                    }
+                    alleles.add(diploidAlleles[cacheIndex]);
+                } else {
+                    if (ploidy > genotype.length) {
+                        genotype = new int[ploidy];
+                        vcfLine.readFieldGenotype(genotype);
+                    }
+                    // Other ploidy or invalid allele index
+                    Allele[] sampleAlleles = new Allele[ploidy];
+                    for (int j = 0; j < ploidy; ++j) {
+                        sampleAlleles[j] = getAllele(variant, vcfLine, variantAlleles, genotype[j], i);
+                    }
+                    alleles.add(Alleles.createAlleles(sampleAlleles));
+                }
             }
         } catch (NumberFormatException ex) {
             throw new GenotypeDataException("Error parsing variant: " + variant.getPrimaryVariantId() + " at " + variant.getSequenceName() + ":" + variant.getStartPos(), ex);
@@ -236,6 +290,60 @@ public class VcfGenotypeData extends AbstractRandomAccessGenotypeData implements
         return alleles;
     }
 
+    private Allele getAllele(GeneticVariant variant, VcfLineParser vcfLine, List<Allele> variantAlleles, int alleleIndex, int sample) {
+        if (alleleIndex < 0) {
+            return Allele.ZERO;
+        } else if (alleleIndex >= variantAlleles.size()) {
+            throw new GenotypeDataException("Error parsing variant: " + variant.getPrimaryVariantId() + " at " + variant.getSequenceName() + ":" + variant.getStartPos() + " invalid genotype for sample [" + vcfMeta.getSampleName(sample) + "]: " + vcfLine.getFieldString());
+        } else {
+            return variantAlleles.get(alleleIndex);
+        }
+    }
+
+    /**
+     * Count the reference alleles in the GT field of all samples directly from
+     * the line, -1 if one of the alleles is missing.
+     */
+    private byte[] getCalledDosage(GeneticVariant variant, VcfLineParser vcfLine, int formatIndex) {
+        final int nrSamples = vcfLine.getSampleCount();
+        final List<Allele> variantAlleles = variant.getVariantAlleles().getAlleles();
+        final Allele dosageRef = variant.getRefAllele() == null ? variantAlleles.get(0) : variant.getRefAllele();
+        final int dosageRefIndex = variantAlleles.indexOf(dosageRef);
+        int[] genotype = new int[2];
+
+        byte[] dosages = new byte[nrSamples];
+        try {
+            for (int i = 0; i < nrSamples; ++i) {
+                if (!vcfLine.selectField(i, formatIndex) || vcfLine.isFieldMissing()) {
+                    dosages[i] = -1;
+                    continue;
+                }
+                int ploidy = vcfLine.readFieldGenotype(genotype);
+                if (ploidy > genotype.length) {
+                    genotype = new int[ploidy];
+                    vcfLine.readFieldGenotype(genotype);
+                }
+                byte dosage = 0;
+                for (int j = 0; j < ploidy; ++j) {
+                    int alleleIndex = genotype[j];
+                    if (alleleIndex >= variantAlleles.size()) {
+                        throw new GenotypeDataException("Error parsing variant: " + variant.getPrimaryVariantId() + " at " + variant.getSequenceName() + ":" + variant.getStartPos() + " invalid genotype for sample [" + vcfMeta.getSampleName(i) + "]: " + vcfLine.getFieldString());
+                    }
+                    if (alleleIndex < 0) {
+                        dosage = -1;
+                        break;
+                    } else if (alleleIndex == dosageRefIndex) {
+                        ++dosage;
+                    }
+                }
+                dosages[i] = dosage;
+            }
+        } catch (NumberFormatException ex) {
+            throw new GenotypeDataException("Error parsing variant: " + variant.getPrimaryVariantId() + " at " + variant.getSequenceName() + ":" + variant.getStartPos(), ex);
+        }
+        return dosages;
+    }
+
     @Override
     public Map<String, Annotation> getVariantAnnotationsMap() {
         if (cachedSampleAnnotationsMap == null) {
@@ -349,41 +457,48 @@ public class VcfGenotypeData extends AbstractRandomAccessGenotypeData implements
 
     @Override
     public byte[] getSampleCalledDosage(GeneticVariant variant) {
-        return CalledDosageConvertor.convertCalledAllelesToCalledDosage(getSampleVariants(variant),
-                variant.getVariantAlleles(), variant.getRefAllele());
+        VcfRecord vcfRecordHeader = getVcfRecordHeader(variant);
+        VcfGenotypeFormat genotypeFormat = genotypeFormatSupplier.getVcfGenotypeFormat(vcfRecordHeader,
+                genotypeCallFieldPrecedence);
+
+        if (VcfGenotypeFormat.GT.equals(genotypeFormat)) {
+            return getCalledDosage(variant, getVcfLineParser(variant), getIndexOfGenotypeFormat(vcfRecordHeader, genotypeFormat));
+        } else {
+            return CalledDosageConvertor.convertCalledAllelesToCalledDosage(getSampleVariants(variant),
+                    variant.getVariantAlleles(), variant.getRefAllele());
+        }
     }
 
     @Override
     public float[] getSampleDosage(GeneticVariant variant) {
-        VcfRecord vcfRecord = getVcfRecord(variant);
+        VcfRecord vcfRecordHeader = getVcfRecordHeader(variant);
+        VcfLineParser vcfLine = getVcfLineParser(variant);
 
-        final int nrSamples = vcfRecord.getNrSamples();
+        final int nrSamples = vcfLine.getSampleCount();
         if (nrSamples == 0) {
             return new float[0];
         }
 
         float[] dosages;
 
-        VcfGenotypeFormat genotypeFormat = genotypeFormatSupplier.getVcfGenotypeFormat(vcfRecord,
+        VcfGenotypeFormat genotypeFormat = genotypeFormatSupplier.getVcfGenotypeFormat(vcfRecordHeader,
                 genotypeDosageFieldPrecedence);
 
-        int idx = getIndexOfGenotypeFormat(vcfRecord, genotypeFormat);
+        int idx = getIndexOfGenotypeFormat(vcfRecordHeader, genotypeFormat);
 
         if (VcfGenotypeFormat.DS.equals(genotypeFormat)) {
-            // retrieve sample dosage from sample info
+            // retrieve sample dosage from sample info, directly from the line
             dosages = new float[nrSamples];
-            int i = 0;
-            for (VcfSample vcfSample : vcfRecord.getSamples()) {
-                String dosage = vcfSample.getData(idx);
-                if (dosage == null) {
+            for (int i = 0; i < nrSamples; ++i) {
+                if (!vcfLine.selectField(i, idx) || vcfLine.isFieldMissing()) {
                     //throw new GenotypeDataException("Missing DS format value for sample [" + vcfMeta.getSampleName(i) + "] at variant [" + variant.getPrimaryVariantId() + "]");
-                    dosages[i++] = -1;
+                    dosages[i] = -1;
                 } else {
                     try {
                         //Math abs to prevent -0 due to rounding
-                        dosages[i++] = Math.abs((Float.parseFloat(dosage) - 2) * -1);
+                        dosages[i] = Math.abs((vcfLine.getFieldFloat() - 2) * -1);
                     } catch (NumberFormatException e) {
-                        throw new GenotypeDataException("Error in sample dosage (DS) value for sample [" + vcfMeta.getSampleName(i) + "], found value: " + dosage);
+                        throw new GenotypeDataException("Error in sample dosage (DS) value for sample [" + vcfMeta.getSampleName(i) + "], found value: " + vcfLine.getFieldString());
                     }
                 }
 
@@ -394,8 +509,7 @@ public class VcfGenotypeData extends AbstractRandomAccessGenotypeData implements
         } else if (VcfGenotypeFormat.GT.equals(genotypeFormat)) {
 
             // calculate sample dosage from called alleles
-            dosages = CalledDosageConvertor.convertCalledAllelesToDosage(getSampleVariants(variant),
-                    variant.getVariantAlleles(), variant.getRefAllele());
+            dosages = CalledDosageConvertor.convertCalledDosageToDosage(getCalledDosage(variant, vcfLine, idx));
 
         } else {
             dosages = new float[nrSamples];
@@ -427,9 +541,10 @@ public class VcfGenotypeData extends AbstractRandomAccessGenotypeData implements
 
     @Override
     public float[][] getSampleProbilities(GeneticVariant variant) {
-        VcfRecord vcfRecord = getVcfRecord(variant);
+        VcfRecord vcfRecordHeader = getVcfRecordHeader(variant);
+        VcfLineParser vcfLine = getVcfLineParser(variant);
 
-        final int nrSamples = vcfRecord.getNrSamples();
+        final int nrSamples = vcfLine.getSampleCount();
         if (nrSamples == 0) {
             return new float[0][0];
         }
@@ -440,40 +555,15 @@ public class VcfGenotypeData extends AbstractRandomAccessGenotypeData implements
 
         // Select the preferred genotype field
         VcfGenotypeFormat genotypeFormat = genotypeFormatSupplier.getVcfGenotypeFormat(
-                vcfRecord, genotypeProbabilitiesFieldPrecedence);
+                vcfRecordHeader, genotypeProbabilitiesFieldPrecedence);
 
-        int idx = getIndexOfGenotypeFormat(vcfRecord, genotypeFormat);
+        int idx = getIndexOfGenotypeFormat(vcfRecordHeader, genotypeFormat);
 
         if (VcfGenotypeFormat.GP.equals(genotypeFormat)) {
-            // retrieve sample probabilities from sample info
-            probs = new float[nrSamples][3];
-            int i = 0;
-            for (VcfSample vcfSample : vcfRecord.getSamples()) {
-                String probabilitiesStr = vcfSample.getData(idx);
-                if (probabilitiesStr == null) {
-                    //throw new GenotypeDataException("Missing GP format value for sample [" + vcfMeta.getSampleName(i) + "]");
-                    probs[i] = new float[]{0, 0, 0};
-                } else {
-                    if (probabilitiesStr.matches(".*,+\\.,+.*")) {
-//                        System.out.println(probabilitiesStr);
-                        probabilitiesStr = probabilitiesStr.replaceAll("\\.", "0");
-//                        System.out.println(probabilitiesStr);
-                    }
-                    String[] probabilities = StringUtils.split(probabilitiesStr, ',');
-                    if (probabilities.length != 3 || numberOfAlleles != 2) {
-//                        throw new GenotypeDataException("Error in sample prob (GP) value for sample [" + vcfMeta.getSampleName(i) + "], found value: " + probabilitiesStr);
-                        probs[i] = new float[3];
-                    } else {
-                        for (int j = 0; j < 3; ++j) {
-                            try {
-                                probs[i][j] = Float.parseFloat(probabilities[j]);
-                            } catch (NumberFormatException e) {
-                                throw new GenotypeDataException("Error in sample prob (GP) value for sample [" + vcfMeta.getSampleName(i) + "], found value: " + probabilitiesStr);
-                            }
-                        }
-                    }
-                }
-                ++i;
+            // retrieve sample probabilities from sample info, directly from the line if possible
+            probs = readGenotypeProbabilities(vcfLine, idx, numberOfAlleles);
+            if (probs == null) {
+                probs = readGenotypeProbabilities(getVcfRecord(variant), idx, numberOfAlleles);
             }
 
         } else if (VcfGenotypeFormat.GT.equals(genotypeFormat)) {
@@ -492,6 +582,72 @@ public class VcfGenotypeData extends AbstractRandomAccessGenotypeData implements
         return probs;
     }
 
+    private float[][] readGenotypeProbabilities(VcfRecord vcfRecord, int idx, int numberOfAlleles) {
+        final int nrSamples = vcfRecord.getNrSamples();
+        float[][] probs = new float[nrSamples][3];
+        int i = 0;
+        for (VcfSample vcfSample : vcfRecord.getSamples()) {
+            String probabilitiesStr = vcfSample.getData(idx);
+            if (probabilitiesStr == null) {
+                //throw new GenotypeDataException("Missing GP format value for sample [" + vcfMeta.getSampleName(i) + "]");
+                probs[i] = new float[]{0, 0, 0};
+            } else {
+                if (probabilitiesStr.matches(".*,+\\.,+.*")) {
+//                        System.out.println(probabilitiesStr);
+                    probabilitiesStr = probabilitiesStr.replaceAll("\\.", "0");
+//                        System.out.println(probabilitiesStr);
+                }
+                String[] probabilities = StringUtils.split(probabilitiesStr, ',');
+                if (probabilities.length != 3 || numberOfAlleles != 2) {
+//                        throw new GenotypeDataException("Error in sample prob (GP) value for sample [" + vcfMeta.getSampleName(i) + "], found value: " + probabilitiesStr);
+                    probs[i] = new float[3];
+                } else {
+                    for (int j = 0; j < 3; ++j) {
+                        try {
+                            probs[i][j] = Float.parseFloat(probabilities[j]);
+                        } catch (NumberFormatException e) {
+                            throw new GenotypeDataException("Error in sample prob (GP) value for sample [" + vcfMeta.getSampleName(i) + "], found value: " + probabilitiesStr);
+                        }
+                    }
+                }
+            }
+            ++i;
+        }
+        return probs;
+    }
+
+    /**
+     * Read the GP values of all samples directly from the line.
+     *
+     * @return the probabilities or null if a value is missing, these are
+     * handled by parsing the complete record.
+     */
+    private float[][] readGenotypeProbabilities(VcfLineParser vcfLine, int formatIndex, int numberOfAlleles) {
+        final int nrSamples = vcfLine.getSampleCount();
+        float[][] probs = new float[nrSamples][3];
+        for (int i = 0; i < nrSamples; ++i) {
+            if (!vcfLine.selectField(i, formatIndex) || vcfLine.isFieldMissing() || numberOfAlleles != 2) {
+                continue;
+            }
+            int valueCount = vcfLine.getFieldValueCount();
+            for (int j = 0; j < valueCount; ++j) {
+                if (vcfLine.isFieldValueMissing(j)) {
+                    return null;
+                }
+            }
+            if (valueCount == 3) {
+                for (int j = 0; j < 3; ++j) {
+                    try {
+                        probs[i][j] = vcfLine.getFieldFloat(j);
+                    } catch (NumberFormatException e) {
+                        throw new GenotypeDataException("Error in sample prob (GP) value for sample [" + vcfMeta.getSampleName(i) + "], found value: " + vcfLine.getFieldString());
+                    }
+                }
+            }
+        }
+        return probs;
+    }
+
     @Override
     public double[][] getSampleProbabilitiesComplex(GeneticVariant variant) {
         VcfRecord vcfRecord = getVcfRecord(variant);
@@ -514,12 +670,12 @@ public class VcfGenotypeData extends AbstractRandomAccessGenotypeData implements
         if (VcfGenotypeFormat.GP.equals(genotypeFormat)) {
 
             probs = readGenotypeProbabilitiesComplex(idx, vcfRecord, numberOfAlleles,
-                    getCalledAlleles(variant, vcfRecord));
+                    getCalledAlleles(variant, getVcfLineParser(variant), getIndexOfGenotypeFormat(vcfRecord, VcfGenotypeFormat.GT)));
 
         } else if (VcfGenotypeFormat.GT.equals(genotypeFormat)) {
 
             probs = ProbabilitiesConvertor.convertCalledAllelesToComplexProbabilities(
-                    getCalledAlleles(variant, vcfRecord),
+                    getCalledAlleles(variant, getVcfLineParser(variant), idx),
                     variant.getVariantAlleles());
 
         } else if (VcfGenotypeFormat.DS.equals(genotypeFormat)) {
@@ -809,7 +965,7 @@ public class VcfGenotypeData extends AbstractRandomAccessGenotypeData implements
                     ++currentlyOpenFileHandlers;
 
                     return new Iterator<GeneticVariant>() {
-                        private final BlockCompressedInputStream stream = new BlockCompressedInputStream(bzipVcfFile);
+                        private final BlockCompressedInputStream stream = new ParallelBlockCompressedInputStream(bzipVcfFile);
                         private final TabixIterator it = tabixIndex.queryTabixIndex(seqName, rangeStart, rangeEnd, stream);
                         private String line = readFirst(it);
 
@@ -845,7 +1001,7 @@ public class VcfGenotypeData extends AbstractRandomAccessGenotypeData implements
 
                         @Override
                         public GeneticVariant next() {
-                            VcfRecord vcfRecord = new VcfRecord(vcfMeta, StringUtils.split(line, '\t'));
+                            GeneticVariant variant = toGeneticVariant(line);
                             try {
                                 line = it.next();
                                 if (line == null) {
@@ -856,7 +1012,7 @@ public class VcfGenotypeData extends AbstractRandomAccessGenotypeData implements
                             } catch (IOException e) {
                                 throw new GenotypeDataException(e);
                             }
-                            return toGeneticVariant(vcfRecord);
+                            return variant;
                         }
 
                         @Override
@@ -877,7 +1033,39 @@ public class VcfGenotypeData extends AbstractRandomAccessGenotypeData implements
         };
     }
 
+    /**
+     * @return the complete record of the variant, including the samples
+     */
     private VcfRecord getVcfRecord(GeneticVariant variant) {
+        loadVcfLine(variant);
+        if (cachedVcfRecord == null && cachedLine != null) {
+            cachedVcfRecord = new VcfRecord(vcfMeta, StringUtils.split(cachedLine, '\t'));
+        }
+        return cachedVcfRecord;
+    }
+
+    /**
+     * @return record of the variant with only the columns up to FORMAT
+     */
+    private VcfRecord getVcfRecordHeader(GeneticVariant variant) {
+        loadVcfLine(variant);
+        return cachedVcfRecordHeader;
+    }
+
+    /**
+     * @return parser of the line of the variant, to read samples without
+     * creating a complete record
+     */
+    private VcfLineParser getVcfLineParser(GeneticVariant variant) {
+        loadVcfLine(variant);
+        if (cachedLine != parsedLine) {
+            vcfLineParser.parse(cachedLine);
+            parsedLine = cachedLine;
+        }
+        return vcfLineParser;
+    }
+
+    private void loadVcfLine(GeneticVariant variant) {
         if (!variant.equals(cachedGeneticVariant)) {
             TabixIterator it;
             String line;
@@ -889,9 +1077,7 @@ public class VcfGenotypeData extends AbstractRandomAccessGenotypeData implements
                 stream = new BlockCompressedInputStream(bzipVcfFile);
                 it = tabixIndex.queryTabixIndex(variant.getSequenceName(), variant.getStartPos() - 1, variant.getStartPos(), stream);
                 while ((line = it.next()) != null) {
-                    VcfRecord vcfRecord = new VcfRecord(vcfMeta, StringUtils.split(line, '\t'));
-                    if (variant.equals(toGeneticVariant(vcfRecord))) {
-                        cachedVcfRecord = vcfRecord;
+                    if (variant.equals(toGeneticVariant(line))) {
                         cachedGeneticVariant = variant;
                         break;
                     }
@@ -911,7 +1097,33 @@ public class VcfGenotypeData extends AbstractRandomAccessGenotypeData implements
                 IOUtils.closeQuietly(stream);
             }
         }
-        return cachedVcfRecord;
+    }
+
+    /**
+     * Convert a VCF line to GeneticVariant. Only the columns up to FORMAT are
+     * split, the samples are parsed when needed.
+     *
+     * @param line
+     * @return
+     */
+    private GeneticVariant toGeneticVariant(String line) {
+        int headerEnd = -1;
+        for (int column = 0; column < 9; ++column) {
+            headerEnd = line.indexOf('\t', headerEnd + 1);
+            if (headerEnd < 0) {
+                break;
+            }
+        }
+        VcfRecord vcfRecordHeader = new VcfRecord(vcfMeta,
+                StringUtils.split(headerEnd < 0 ? line : line.substring(0, headerEnd), '\t'));
+
+        GeneticVariant geneticVariant = toGeneticVariant(vcfRecordHeader);
+
+        cachedLine = line;
+        cachedVcfRecordHeader = vcfRecordHeader;
+        cachedVcfRecord = null;
+        cachedGeneticVariant = geneticVariant;
+        return geneticVariant;
     }
 
     /**
@@ -945,11 +1157,7 @@ public class VcfGenotypeData extends AbstractRandomAccessGenotypeData implements
         }
 
         GeneticVariantMeta geneticVariantMeta = new VcfGeneticVariantMeta(vcfMeta, Arrays.asList(vcfRecord.getFormat()));
-        GeneticVariant geneticVariant = ReadOnlyGeneticVariant.createVariant(geneticVariantMeta, identifiers, pos, sequenceName, annotationMap, variantProvider, alleles, refAllele);
-
-        cachedVcfRecord = vcfRecord;
-        cachedGeneticVariant = geneticVariant;
-        return geneticVariant;
+        return ReadOnlyGeneticVariant.createVariant(geneticVariantMeta, identifiers, pos, sequenceName, annotationMap, variantProvider, alleles, refAllele);
     }
 
     /**
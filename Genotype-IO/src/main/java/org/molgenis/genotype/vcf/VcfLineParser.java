@@ -0,0 +1,489 @@
+package org.molgenis.genotype.vcf;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import org.molgenis.genotype.GenotypeDataException;
+
+/**
+ * Parser for VCF data lines that works directly on the bytes of a line. Only
+ * the positions of the columns are determined when a line is parsed, sample
+ * fields are decoded on request straight into primitive values without
+ * creating Strings per sample.
+ * <p>
+ * Usage: parse a line, find the index of a format field with
+ * {@link #getFormatIndex(java.lang.String)} and then select the field per
+ * sample with {@link #selectField(int, int)} and read its value(s).
+ * <p>
+ * The numeric parsers give exactly the same result as
+ * {@link Float#parseFloat(java.lang.String)} and
+ * {@link Double#parseDouble(java.lang.String)} including the
+ * {@link NumberFormatException} on invalid values.
+ * <p>
+ * A parser instance can be reused for the next line but is not thread-safe.
+ *
+ * @author Patrick Deelen
+ */
+public class VcfLineParser {
+
+	private static final Charset CHARSET = StandardCharsets.UTF_8;
+	private static final int NR_FIXED_COLUMNS = 9;
+	private static final int CHROM = 0;
+	private static final int POS = 1;
+	private static final int ID = 2;
+	private static final int REF = 3;
+	private static final int ALT = 4;
+	private static final int QUAL = 5;
+	private static final int FILTER = 6;
+	private static final int INFO = 7;
+	private static final int FORMAT = 8;
+	private static final double[] DOUBLE_POW10 = {
+		1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+		1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+	private static final float[] FLOAT_POW10 = {
+		1e0f, 1e1f, 1e2f, 1e3f, 1e4f, 1e5f, 1e6f, 1e7f, 1e8f, 1e9f, 1e10f};
+	/**
+	 * Maximum number of significant digits that is exactly represented as
+	 * double or float
+	 */
+	private static final int DOUBLE_MAX_DIGITS = 15;
+	private static final int FLOAT_MAX_DIGITS = 7;
+
+	private final boolean[] samplesToInclude;
+	private byte[] line;
+	private int lineEnd;
+	private int columnCount;
+	private final int[] columnStarts = new int[NR_FIXED_COLUMNS];
+	private final int[] columnEnds = new int[NR_FIXED_COLUMNS];
+	private int sampleCount;
+	private int[] sampleStarts = new int[0];
+	private int[] sampleEnds = new int[0];
+	private int fieldStart;
+	private int fieldEnd;
+
+	public VcfLineParser() {
+		this(null);
+	}
+
+	/**
+	 * @param samplesToInclude per sample column in the VCF if it must be
+	 * included. Samples not included are skipped and the remaining samples are
+	 * numbered consecutively, the same as
+	 * {@code Strings.subsplit(line, tab, 9, samplesToInclude)}. Null to
+	 * include all samples.
+	 */
+	public VcfLineParser(boolean[] samplesToInclude) {
+		this.samplesToInclude = samplesToInclude;
+	}
+
+	/**
+	 * Parse a VCF data line.
+	 *
+	 * @param line buffer containing the line, the buffer is used until the
+	 * next line is parsed and must not be changed in the meantime
+	 * @param offset start of the line in the buffer
+	 * @param length length of the line excluding the line end
+	 */
+	public void parse(byte[] line, int offset, int length) {
+
+		this.line = line;
+		this.lineEnd = offset + length;
+
+		columnCount = 0;
+		sampleCount = 0;
+		fieldStart = -1;
+		fieldEnd = -1;
+
+		int columnStart = offset;
+		int sampleColumn = 0;
+		for (int i = offset; i <= lineEnd; ++i) {
+			if (i == lineEnd || line[i] == '\t') {
+				if (columnCount < NR_FIXED_COLUMNS) {
+					columnStarts[columnCount] = columnStart;
+					columnEnds[columnCount] = i;
+				} else {
+					if (samplesToInclude == null || (sampleColumn < samplesToInclude.length && samplesToInclude[sampleColumn])) {
+						addSample(columnStart, i);
+					}
+					++sampleColumn;
+				}
+				++columnCount;
+				columnStart = i + 1;
+			}
+		}
+
+		if (columnCount < NR_FIXED_COLUMNS - 1) {
+			throw new GenotypeDataException("Error parsing VCF line, expected at least 8 columns but found " + columnCount + ": " + new String(line, offset, Math.min(length, 1000), CHARSET));
+		}
+
+	}
+
+	/**
+	 * Parse a VCF data line that is already read as String.
+	 *
+	 * @param line the line
+	 */
+	public void parse(String line) {
+		byte[] lineBytes = line.getBytes(CHARSET);
+		parse(lineBytes, 0, lineBytes.length);
+	}
+
+	private void addSample(int start, int end) {
+		if (sampleCount == sampleStarts.length) {
+			int newSize = Math.max(16, sampleCount * 2);
+			sampleStarts = Arrays.copyOf(sampleStarts, newSize);
+			sampleEnds = Arrays.copyOf(sampleEnds, newSize);
+		}
+		sampleStarts[sampleCount] = start;
+		sampleEnds[sampleCount] = end;
+		++sampleCount;
+	}
+
+	public String getChromosome() {
+		return getColumn(CHROM);
+	}
+
+	public int getPosition() {
+		return parseInt(columnStarts[POS], columnEnds[POS]);
+	}
+
+	public String getId() {
+		return getColumn(ID);
+	}
+
+	public String getRef() {
+		return getColumn(REF);
+	}
+
+	public String getAlt() {
+		return getColumn(ALT);
+	}
+
+	public String getQual() {
+		return getColumn(QUAL);
+	}
+
+	public String getFilter() {
+		return getColumn(FILTER);
+	}
+
+	public String getInfo() {
+		return getColumn(INFO);
+	}
+
+	/**
+	 * @return the format column or null if not present
+	 */
+	public String getFormat() {
+		return columnCount > FORMAT ? getColumn(FORMAT) : null;
+	}
+
+	private String getColumn(int column) {
+		return new String(line, columnStarts[column], columnEnds[column] - columnStarts[column], CHARSET);
+	}
+
+	/**
+	 * @param formatIdentifier for instance GT, DS or GP
+	 * @return index of the field in the format column or -1 if not present
+	 */
+	public int getFormatIndex(String formatIdentifier) {
+		if (columnCount <= FORMAT) {
+			return -1;
+		}
+		int index = 0;
+		int start = columnStarts[FORMAT];
+		int end = columnEnds[FORMAT];
+		for (int i = start; i <= end; ++i) {
+			if (i == end || line[i] == ':') {
+				if (equalsAscii(start, i, formatIdentifier)) {
+					return index;
+				}
+				++index;
+				start = i + 1;
+			}
+		}
+		return -1;
+	}
+
+	private boolean equalsAscii(int start, int end, String value) {
+		if (end - start != value.length()) {
+			return false;
+		}
+		for (int i = 0; i < value.length(); ++i) {
+			if (line[start + i] != value.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return number of (included) samples on the line
+	 */
+	public int getSampleCount() {
+		return sampleCount;
+	}
+
+	/**
+	 * Select a field of a sample to read.
+	 *
+	 * @param sample index of the (included) sample
+	 * @param formatIndex index of the field in the format column
+	 * @return false if the sample has no value for this field. This happens if
+	 * trailing fields are omitted.
+	 */
+	public boolean selectField(int sample, int formatIndex) {
+		if (formatIndex < 0) {
+			return false;
+		}
+		int start = sampleStarts[sample];
+		int end = sampleEnds[sample];
+		int index = 0;
+		for (int i = start; i <= end; ++i) {
+			if (i == end || line[i] == ':') {
+				if (index == formatIndex) {
+					fieldStart = start;
+					fieldEnd = i;
+					return true;
+				}
+				++index;
+				start = i + 1;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return true if the selected field is the missing value "."
+	 */
+	public boolean isFieldMissing() {
+		return fieldEnd - fieldStart == 1 && line[fieldStart] == '.';
+	}
+
+	/**
+	 * @return the selected field as String, intended for error messages
+	 */
+	public String getFieldString() {
+		return new String(line, fieldStart, fieldEnd - fieldStart, CHARSET);
+	}
+
+	/**
+	 * @return number of comma separated values in the selected field
+	 */
+	public int getFieldValueCount() {
+		int count = 1;
+		for (int i = fieldStart; i < fieldEnd; ++i) {
+			if (line[i] == ',') {
+				++count;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * @param valueIndex index of the comma separated value
+	 * @return true if the value is "." or empty
+	 */
+	public boolean isFieldValueMissing(int valueIndex) {
+		int start = getValueStart(valueIndex);
+		int end = getValueEnd(start);
+		return end == start || (end - start == 1 && line[start] == '.');
+	}
+
+	/**
+	 * @return the selected field as float
+	 * @throws NumberFormatException if the field is not a valid float
+	 */
+	public float getFieldFloat() {
+		return parseFloat(fieldStart, fieldEnd);
+	}
+
+	/**
+	 * @param valueIndex index of the comma separated value
+	 * @return the value as float
+	 * @throws NumberFormatException if the value is not a valid float
+	 */
+	public float getFieldFloat(int valueIndex) {
+		int start = getValueStart(valueIndex);
+		return parseFloat(start, getValueEnd(start));
+	}
+
+	/**
+	 * @return the selected field as double
+	 * @throws NumberFormatException if the field is not a valid double
+	 */
+	public double getFieldDouble() {
+		return parseDouble(fieldStart, fieldEnd);
+	}
+
+	/**
+	 * @param valueIndex index of the comma separated value
+	 * @return the value as double
+	 * @throws NumberFormatException if the value is not a valid double
+	 */
+	public double getFieldDouble(int valueIndex) {
+		int start = getValueStart(valueIndex);
+		return parseDouble(start, getValueEnd(start));
+	}
+
+	/**
+	 * @return true if the selected genotype field uses the phased separator
+	 */
+	public boolean isFieldGenotypePhased() {
+		for (int i = fieldStart; i < fieldEnd; ++i) {
+			if (line[i] == '|') {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Read the allele indices of the selected genotype (GT) field.
+	 *
+	 * @param alleles buffer for the allele indices, missing alleles are -1.
+	 * Alleles that do not fit in the buffer are only counted.
+	 * @return the ploidy
+	 * @throws NumberFormatException if an allele is not a number or missing
+	 */
+	public int readFieldGenotype(int[] alleles) {
+		int ploidy = 0;
+		int start = fieldStart;
+		for (int i = fieldStart; i <= fieldEnd; ++i) {
+			if (i == fieldEnd || line[i] == '/' || line[i] == '|') {
+				int allele = (i - start == 1 && line[start] == '.') ? -1 : parseInt(start, i);
+				if (ploidy < alleles.length) {
+					alleles[ploidy] = allele;
+				}
+				++ploidy;
+				start = i + 1;
+			}
+		}
+		return ploidy;
+	}
+
+	private int getValueStart(int valueIndex) {
+		int start = fieldStart;
+		for (int v = 0; v < valueIndex; ++v) {
+			while (start < fieldEnd && line[start] != ',') {
+				++start;
+			}
+			if (start == fieldEnd) {
+				throw new IndexOutOfBoundsException("Value " + valueIndex + " not present in: " + getFieldString());
+			}
+			++start;
+		}
+		return start;
+	}
+
+	private int getValueEnd(int valueStart) {
+		int end = valueStart;
+		while (end < fieldEnd && line[end] != ',') {
+			++end;
+		}
+		return end;
+	}
+
+	private int parseInt(int start, int end) {
+		if (start == end) {
+			throw new NumberFormatException("Empty value");
+		}
+		int i = start;
+		boolean negative = line[i] == '-';
+		if (negative) {
+			++i;
+		}
+		if (i == end || end - i > 9) {
+			return Integer.parseInt(new String(line, start, end - start, CHARSET));
+		}
+		int value = 0;
+		for (; i < end; ++i) {
+			int digit = line[i] - '0';
+			if (digit < 0 || digit > 9) {
+				return Integer.parseInt(new String(line, start, end - start, CHARSET));
+			}
+			value = value * 10 + digit;
+		}
+		return negative ? -value : value;
+	}
+
+	/**
+	 * Fast path for plain decimal numbers where the mantissa and the power of
+	 * ten are both exactly representable, then a single division is correctly
+	 * rounded. Everything else is delegated to the JDK.
+	 */
+	private double parseDouble(int start, int end) {
+		int i = start;
+		boolean negative = i < end && line[i] == '-';
+		if (negative) {
+			++i;
+		}
+		long mantissa = 0;
+		int digits = 0;
+		int fractionDigits = 0;
+		boolean fraction = false;
+		for (; i < end; ++i) {
+			byte b = line[i];
+			if (b >= '0' && b <= '9') {
+				if (mantissa != 0 || b != '0') {
+					++digits;
+				}
+				mantissa = mantissa * 10 + (b - '0');
+				if (fraction) {
+					++fractionDigits;
+				}
+			} else if (b == '.' && !fraction) {
+				fraction = true;
+			} else {
+				break;
+			}
+		}
+		int length = end - start - (negative ? 1 : 0) - (fraction ? 1 : 0);
+		if (i != end || length == 0 || digits > DOUBLE_MAX_DIGITS || fractionDigits >= DOUBLE_POW10.length) {
+			return Double.parseDouble(new String(line, start, end - start, CHARSET));
+		}
+		double value = mantissa / DOUBLE_POW10[fractionDigits];
+		return negative ? -value : value;
+	}
+
+	/**
+	 * See {@link #parseDouble(int, int)}
+	 */
+	private float parseFloat(int start, int end) {
+		int i = start;
+		boolean negative = i < end && line[i] == '-';
+		if (negative) {
+			++i;
+		}
+		int mantissa = 0;
+		int digits = 0;
+		int fractionDigits = 0;
+		boolean fraction = false;
+		for (; i < end; ++i) {
+			byte b = line[i];
+			if (b >= '0' && b <= '9') {
+				if (mantissa != 0 || b != '0') {
+					++digits;
+				}
+				if (digits > FLOAT_MAX_DIGITS) {
+					break;
+				}
+				mantissa = mantissa * 10 + (b - '0');
+				if (fraction) {
+					++fractionDigits;
+				}
+			} else if (b == '.' && !fraction) {
+				fraction = true;
+			} else {
+				break;
+			}
+		}
+		int length = end - start - (negative ? 1 : 0) - (fraction ? 1 : 0);
+		if (i != end || length == 0 || fractionDigits >= FLOAT_POW10.length) {
+			return Float.parseFloat(new String(line, start, end - start, CHARSET));
+		}
+		float value = mantissa / FLOAT_POW10[fractionDigits];
+		return negative ? -value : value;
+	}
+
+}
@@ -11,7 +11,9 @@ import org.molgenis.genotype.GenotypeDataException;
 import org.molgenis.genotype.ResourceTest;
 import org.molgenis.genotype.oxford.GenGenotypeData;
 import org.molgenis.genotype.oxford.HapsGenotypeData;
+import org.molgenis.genotype.util.ProbabilitiesConvertor;
 import org.molgenis.genotype.variant.GeneticVariant;
+import org.molgenis.genotype.variant.ReadOnlyGeneticVariantBgen;
 import org.testng.annotations.BeforeTest;
 import org.testng.annotations.Test;
 
@@ -440,5 +442,190 @@ public class BgenGenotypeDataTest extends ResourceTest {
 			assertProbabilityEquality(actualProbabilities, expectedProbabilities, 0);
 		}
 	}
-}
 
+	@Test
+	public void TestBgenFlatBufferDecoding() throws URISyntaxException, IOException {
+		List<File> bgenFiles = new ArrayList<>(exampleFiles);
+		bgenFiles.addAll(complexFiles);
+		bgenFiles.add(getTestResourceFile("/bgenExamples/haplotypes.bgen"));
+
+		for (File origBgenFile : bgenFiles) {
+			// Copy the input file to prevent conflicts with the bgenix files of the other tests
+			Path bgenFile = Paths.get(folder.toString(), "flatBuffer." + origBgenFile.getName());
+			Files.copy(origBgenFile.toPath(), bgenFile);
+
+			File sampleFile = origBgenFile.getName().equals("example.v11.bgen") ? exampleSampleFile : null;
+			if (origBgenFile.getName().startsWith("complex")) {
+				sampleFile = exampleComplexSampleFile;
+			}
+
+			// Without cache the flat buffers are decoded directly by the bgen reader
+			bgenGenotypeData = new BgenGenotypeData(bgenFile.toFile(), sampleFile, 0);
+			int sampleCount = bgenGenotypeData.getSamples().size();
+
+			// Buffers are reused for all variants
+			float[] dosages = new float[sampleCount];
+			double[] probabilities = new double[sampleCount * 3];
+
+			for (GeneticVariant variant : bgenGenotypeData) {
+				float[][] expectedProbabilities = variant.isBiallelic()
+						? ProbabilitiesConvertor.convertBiallelicComplexProbabilitiesToProbabilities(
+						variant.getSampleGenotypeProbabilitiesComplex())
+						: new float[sampleCount][3];
+				float[] expectedDosages = ProbabilitiesConvertor.convertProbabilitiesToDosage(
+						expectedProbabilities, 0.4f);
+
+				ReadOnlyGeneticVariantBgen bgenVariant = (ReadOnlyGeneticVariantBgen) variant;
+				bgenVariant.getSampleDosages(dosages);
+				bgenVariant.getSampleGenotypeProbabilities(probabilities);
+
+				assertEquals(dosages, expectedDosages, origBgenFile.getName() + " " + variant.getPrimaryVariantId());
+				assertEquals(variant.getSampleDosages(), expectedDosages);
+				for (int i = 0; i < sampleCount; i++) {
+					for (int j = 0; j < 3; j++) {
+						assertEquals((float) probabilities[i * 3 + j], expectedProbabilities[i][j],
+								String.format("%s %s prob %d in sample %d", origBgenFile.getName(), variant.getPrimaryVariantId(), j, i));
+					}
+				}
+				assertProbabilityEquality(variant.getSampleGenotypeProbilities(), expectedProbabilities, 0);
+			}
+		}
+	}
+
+	@Test
+	public void TestBgenConcurrentReading() throws URISyntaxException, IOException {
+		List<File> bgenFiles = Arrays.asList(
+				getTestResourceFile("/bgenExamples/example.16bits.bgen"),
+				getTestResourceFile("/bgenExamples/example.16bits.zstd.bgen"),
+				getTestResourceFile("/bgenExamples/example.v11.bgen"));
+
+		for (File origBgenFile : bgenFiles) {
+			// Copy the input file to prevent conflicts with the bgenix files of the other tests
+			Path bgenFile = Paths.get(folder.toString(), "concurrent." + origBgenFile.getName());
+			Files.copy(origBgenFile.toPath(), bgenFile);
+
+			bgenGenotypeData = new BgenGenotypeData(bgenFile.toFile(), exampleSampleFile, 0);
+
+			List<GeneticVariant> variants = new ArrayList<>();
+			List<float[]> expectedDosages = new ArrayList<>();
+			List<double[][]> expectedProbabilities = new ArrayList<>();
+			for (GeneticVariant variant : bgenGenotypeData) {
+				variants.add(variant);
+				expectedDosages.add(variant.getSampleDosages());
+				expectedProbabilities.add(variant.getSampleGenotypeProbabilitiesComplex());
+			}
+
+			// Read all variants many times from multiple threads in a random order
+			List<Integer> variantIndices = new ArrayList<>();
+			for (int i = 0; i < 50; i++) {
+				for (int j = 0; j < variants.size(); j++) {
+					variantIndices.add(j);
+				}
+			}
+			Collections.shuffle(variantIndices, new Random(1));
+
+			long mismatches = variantIndices.parallelStream().filter(variantIndex -> {
+				GeneticVariant variant = variants.get(variantIndex);
+				return !Arrays.equals(variant.getSampleDosages(), expectedDosages.get(variantIndex))
+						|| !Arrays.deepEquals(variant.getSampleGenotypeProbabilitiesComplex(), expectedProbabilities.get(variantIndex));
+			}).count();
+
+			assertEquals(mismatches, 0, origBgenFile.getName());
+			bgenGenotypeData.close();
+		}
+	}
+
+	@Test
+	public void TestBgenixPositionIndex() throws URISyntaxException, IOException {
+		List<File> bgenFiles = Arrays.asList(
+				getTestResourceFile("/bgenExamples/example.16bits.bgen"),
+				getTestResourceFile("/bgenExamples/complex.bgen"));
+
+		for (File origBgenFile : bgenFiles) {
+			// Copy the input file to prevent conflicts with the bgenix files of the other tests
+			Path bgenFile = Paths.get(folder.toString(), "positionIndex." + origBgenFile.getName());
+			Files.copy(origBgenFile.toPath(), bgenFile);
+			File bgenixFile = new File(bgenFile.toString() + ".bgi");
+
+			bgenGenotypeData = new BgenGenotypeData(bgenFile.toFile(), 0);
+			assertTrue(BgenixPositionIndex.getIndexFile(bgenixFile).exists());
+
+			// Reopening must use the saved index
+			BgenixReader bgenixReader = new BgenixReader(bgenixFile);
+			BgenixPositionIndex positionIndex = BgenixPositionIndex.loadOrCreate(bgenixFile, bgenixReader);
+			assertEquals(positionIndex.getChromosomes(), bgenixReader.getChromosomes());
+
+			for (String chr : bgenixReader.getChromosomes()) {
+
+				List<Integer> positions = new ArrayList<>();
+				for (GeneticVariant variant : bgenGenotypeData.getSequenceGeneticVariants(chr)) {
+					positions.add(variant.getStartPos());
+				}
+				assertEquals(positions.size(), getFileStartPositions(bgenixReader.getVariantsChromosome(chr)).length);
+
+				for (int position : positions) {
+					for (int offset = -1; offset <= 1; offset++) {
+						assertEquals(
+								sorted(positionIndex.getFileStartPositionsPosition(chr, position + offset)),
+								getFileStartPositions(bgenixReader.getVariantsPostion(chr, position + offset)));
+						assertEquals(
+								sorted(positionIndex.getFileStartPositionsRange(chr, position + offset, position + 5000)),
+								getFileStartPositions(bgenixReader.getVariantsRange(chr, position + offset, position + 5000)));
+					}
+				}
+
+				int variantsInRange = 0;
+				for (GeneticVariant variant : bgenGenotypeData.getVariantsByRange(chr, 0, Integer.MAX_VALUE)) {
+					assertEquals(variant.getSequenceName(), chr);
+					variantsInRange++;
+				}
+				assertEquals(variantsInRange, positions.size());
+			}
+
+			assertEquals(positionIndex.getFileStartPositionsRange("nonExisting", 0, Integer.MAX_VALUE).length, 0);
+
+			// Incomplete or corrupt index files are recreated
+			File indexFile = BgenixPositionIndex.getIndexFile(bgenixFile);
+			byte[] indexBytes = Files.readAllBytes(indexFile.toPath());
+			List<byte[]> corruptIndexes = Arrays.asList(
+					Arrays.copyOf(indexBytes, 3),
+					Arrays.copyOf(indexBytes, 30),
+					Arrays.copyOf(indexBytes, indexBytes.length - 8),
+					"not an index".getBytes());
+			for (byte[] corruptIndex : corruptIndexes) {
+				// New file, the existing one is still mapped by the index loaded above
+				Files.delete(indexFile.toPath());
+				Files.write(indexFile.toPath(), corruptIndex);
+				BgenixPositionIndex recreatedIndex = BgenixPositionIndex.loadOrCreate(bgenixFile, bgenixReader);
+				assertEquals(Files.readAllBytes(indexFile.toPath()).length, indexBytes.length);
+				for (String chr : bgenixReader.getChromosomes()) {
+					assertEquals(
+							sorted(recreatedIndex.getFileStartPositionsChromosome(chr)),
+							getFileStartPositions(bgenixReader.getVariantsChromosome(chr)));
+				}
+			}
+			File[] tmpFiles = new File(folder.toString()).listFiles((dir, name) -> name.endsWith(".tmp"));
+			assertEquals(tmpFiles.length, 0);
+
+			bgenGenotypeData.close();
+		}
+	}
+
+	private static long[] getFileStartPositions(BgenixVariantQueryResult variantQueryResult) {
+		List<Long> fileStartPositions = new ArrayList<>();
+		while (variantQueryResult.hasNext()) {
+			fileStartPositions.add(variantQueryResult.next().getFile_start_position());
+		}
+		long[] result = new long[fileStartPositions.size()];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = fileStartPositions.get(i);
+		}
+		return sorted(result);
+	}
+
+	private static long[] sorted(long[] values) {
+		long[] sortedValues = values.clone();
+		Arrays.sort(sortedValues);
+		return sortedValues;
+	}
+}
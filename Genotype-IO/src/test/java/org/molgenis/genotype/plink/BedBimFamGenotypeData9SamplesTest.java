@@ -6,6 +6,7 @@ import static org.testng.Assert.assertNull;
 import static org.testng.Assert.assertTrue;
 
 import java.io.IOException;
+import java.net.URISyntaxException;
 import java.util.Arrays;
 import java.util.List;
 
@@ -13,6 +14,7 @@ import org.molgenis.genotype.Alleles;
 import org.molgenis.genotype.ResourceTest;
 import org.molgenis.genotype.Sample;
 import org.molgenis.genotype.Sequence;
+import org.molgenis.genotype.util.CalledDosageConvertor;
 import org.molgenis.genotype.util.Utils;
 import org.molgenis.genotype.variant.GeneticVariant;
 import org.testng.annotations.BeforeClass;
@@ -149,4 +151,34 @@ public class BedBimFamGenotypeData9SamplesTest extends ResourceTest
 		assertNull(variant);
 	}
 
+	@Test
+	public void testDosagesLookupAndMemoryMapped() throws IOException, URISyntaxException
+	{
+		BedBimFamGenotypeData memoryMappedData = new BedBimFamGenotypeData(getTestBed9(), getTestBim9(), getTestFam9(), 0, true);
+
+		List<GeneticVariant> variants = Utils.iteratorToList(genotypeData.getSequenceGeneticVariants("22").iterator());
+		float[][] dosagesBlock = memoryMappedData.getSampleDosagesRange("22", 0, Integer.MAX_VALUE);
+		assertEquals(dosagesBlock.length, variants.size());
+
+		int v = 0;
+		for (GeneticVariant variant : variants)
+		{
+			float[] expectedDosages = CalledDosageConvertor.convertCalledAllelesToDosage(variant.getSampleVariants(),
+					variant.getVariantAlleles(), variant.getRefAllele());
+			byte[] expectedCalledDosages = CalledDosageConvertor.convertCalledAllelesToCalledDosage(variant.getSampleVariants(),
+					variant.getVariantAlleles(), variant.getRefAllele());
+
+			assertTrue(Arrays.equals(variant.getSampleDosages(), expectedDosages));
+			assertTrue(Arrays.equals(variant.getSampleCalledDosages(), expectedCalledDosages));
+			assertTrue(Arrays.equals(dosagesBlock[v], expectedDosages));
+
+			GeneticVariant memoryMappedVariant = memoryMappedData.getSnpVariantByPos(variant.getSequenceName(), variant.getStartPos());
+			assertEquals(memoryMappedVariant.getSampleVariants(), variant.getSampleVariants());
+			assertTrue(Arrays.equals(memoryMappedVariant.getSampleDosages(), expectedDosages));
+			++v;
+		}
+
+		memoryMappedData.close();
+	}
+
 }
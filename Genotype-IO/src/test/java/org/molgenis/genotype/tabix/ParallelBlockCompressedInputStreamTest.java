@@ -0,0 +1,116 @@
+package org.molgenis.genotype.tabix;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.sf.samtools.util.BlockCompressedInputStream;
+import net.sf.samtools.util.BlockCompressedOutputStream;
+
+import org.molgenis.genotype.ResourceTest;
+import org.molgenis.genotype.tabix.TabixIndex.TabixIterator;
+import org.testng.annotations.Test;
+
+public class ParallelBlockCompressedInputStreamTest extends ResourceTest
+{
+
+	@Test
+	public void readLines() throws IOException, URISyntaxException
+	{
+		File vcf = getTestVcfGz2();
+		for (int maxBlocksReadAhead : new int[]
+		{ 1, 2, 16 })
+		{
+			BlockCompressedInputStream expected = new BlockCompressedInputStream(vcf);
+			ParallelBlockCompressedInputStream actual = new ParallelBlockCompressedInputStream(vcf, maxBlocksReadAhead);
+
+			int lineCount = 0;
+			String expectedLine;
+			while ((expectedLine = expected.readLine()) != null)
+			{
+				assertEquals(actual.readLine(), expectedLine);
+				assertEquals(actual.getFilePointer(), expected.getFilePointer());
+				++lineCount;
+			}
+			assertNull(actual.readLine());
+			assertEquals(actual.read(), -1);
+			assertTrue(lineCount > 10);
+
+			expected.close();
+			actual.close();
+		}
+	}
+
+	/**
+	 * Bytes above 127 are decoded one char per byte, independent of the
+	 * platform charset
+	 */
+	@Test
+	public void readLinesNonAscii() throws IOException
+	{
+		File bgzip = File.createTempFile("nonAscii", ".txt.gz");
+		bgzip.deleteOnExit();
+		byte[] latin1 = "caf\u00e9\tM\u00fcller".getBytes(StandardCharsets.ISO_8859_1);
+		byte[] utf8 = "caf\u00e9\tM\u00fcller".getBytes(StandardCharsets.UTF_8);
+		BlockCompressedOutputStream out = new BlockCompressedOutputStream(bgzip);
+		out.write(latin1);
+		out.write('\n');
+		out.write(utf8);
+		out.write('\n');
+		out.close();
+
+		ParallelBlockCompressedInputStream actual = new ParallelBlockCompressedInputStream(bgzip);
+		assertEquals(actual.readLine(), "caf\u00e9\tM\u00fcller");
+		assertEquals(actual.readLine(), new String(utf8, StandardCharsets.ISO_8859_1));
+		assertNull(actual.readLine());
+		actual.close();
+	}
+
+	@Test
+	public void tabixQuery() throws IOException, URISyntaxException
+	{
+		TabixIndex index = new TabixIndex(getTestVcfGz2Tbi(), getTestVcfGz2(), null);
+
+		BlockCompressedInputStream expectedStream = new BlockCompressedInputStream(getTestVcfGz2());
+		ParallelBlockCompressedInputStream actualStream = new ParallelBlockCompressedInputStream(getTestVcfGz2());
+
+		// Reuse the parallel stream for multiple queries to test seeking
+		for (int[] range : new int[][]
+		{
+		{ 9825000, 9830000 },
+		{ 0, Integer.MAX_VALUE },
+		{ 9830000, 9835000 },
+		{ 9840534, 9840535 } })
+		{
+			List<String> expected = readQuery(index.queryTabixIndex("21", range[0], range[1], expectedStream));
+			List<String> actual = readQuery(index.queryTabixIndex("21", range[0], range[1], actualStream));
+			assertTrue(!expected.isEmpty());
+			assertEquals(actual, expected);
+		}
+
+		expectedStream.close();
+		actualStream.close();
+	}
+
+	private static List<String> readQuery(TabixIterator iterator) throws IOException
+	{
+		List<String> lines = new ArrayList<String>();
+		if (iterator != null)
+		{
+			String line;
+			while ((line = iterator.next()) != null)
+			{
+				lines.add(line);
+			}
+		}
+		return lines;
+	}
+
+}
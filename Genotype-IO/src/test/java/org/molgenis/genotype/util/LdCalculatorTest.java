@@ -259,6 +259,46 @@ public class LdCalculatorTest extends ResourceTest
 	}
 			
 
+	@Test
+	public void calculateLdMatrix() throws LdCalculatorException, Exception {
+		
+		BedBimFamGenotypeData genotypeData = new BedBimFamGenotypeData(getTestBed9(), getTestBim9(), getTestFam9(), 0);
+		
+		ArrayList<GeneticVariant> variants = new ArrayList<GeneticVariant>();
+		for (GeneticVariant variant : genotypeData) {
+			if (variant.isBiallelic()) {
+				variants.add(variant);
+			}
+			if (variants.size() == 10) {
+				break;
+			}
+		}
+		
+		Ld[][] ldMatrix = LdCalculator.calculateLdMatrix(variants);
+		
+		for (int i = 0; i < variants.size(); ++i) {
+			for (int j = 0; j < variants.size(); ++j) {
+				Ld expected = LdCalculator.calculateLd(variants.get(i), variants.get(j));
+				Ld ld = ldMatrix[i][j];
+				// monomorphic variants result in NaN
+				assertEquals(Double.compare(ld.getR2(), expected.getR2()), 0);
+				assertEquals(Double.compare(ld.getDPrime(), expected.getDPrime()), 0);
+				assertEquals(ld.getHaplotypesFreq(), expected.getHaplotypesFreq());
+			}
+		}
+		
+		GeneticVariant var1 = genotypeData.getSnpVariantByPos("22", 14432618);
+		GeneticVariant var2 = genotypeData.getSnpVariantByPos("22", 14433624);
+		
+		Ld ld = LdCalculator.calculateLd(var1, PackedGenotypes.pack(var1), var2, PackedGenotypes.pack(var2));
+		
+		assertEquals(ld.getR2(), 0.294, 0.001);
+		assertEquals(ld.getDPrime(), 1, 0.001);
+		
+		genotypeData.close();
+		
+	}
+
 	public void assertEqualsDoubleCollection(Collection<Double> observed, Collection<Double> expected, double delta)
 			throws AssertionError
 	{
@@ -0,0 +1,59 @@
+package org.molgenis.genotype.util;
+
+import static org.testng.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.testng.annotations.Test;
+
+public class PackedGenotypesTest
+{
+
+	@Test
+	public void countGenotypeCombinations() throws LdCalculatorException
+	{
+		// not a multiple of 64 samples
+		Random random = new Random(1);
+		int sampleCount = 1000;
+		byte[] dosages1 = new byte[sampleCount];
+		byte[] dosages2 = new byte[sampleCount];
+		for (int s = 0; s < sampleCount; ++s)
+		{
+			dosages1[s] = (byte) (random.nextInt(4) - 1);
+			dosages2[s] = (byte) (random.nextInt(4) - 1);
+		}
+
+		int[][] expected = new int[3][3];
+		for (int s = 0; s < sampleCount; ++s)
+		{
+			if (dosages1[s] != -1 && dosages2[s] != -1)
+			{
+				expected[dosages1[s]][dosages2[s]]++;
+			}
+		}
+
+		int[][] counts = new PackedGenotypes(dosages1).countGenotypeCombinations(new PackedGenotypes(dosages2));
+
+		for (int x = 0; x < 3; x++)
+		{
+			for (int y = 0; y < 3; y++)
+			{
+				assertEquals(counts[x][y], expected[x][y]);
+			}
+		}
+	}
+
+	@Test(expectedExceptions = LdCalculatorException.class)
+	public void countGenotypeCombinationsDifferentSamples() throws LdCalculatorException
+	{
+		new PackedGenotypes(new byte[65]).countGenotypeCombinations(new PackedGenotypes(new byte[64]));
+	}
+
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void invalidDosage()
+	{
+		new PackedGenotypes(new byte[]
+		{ 0, 3 });
+	}
+
+}
@@ -14,15 +14,20 @@ import org.molgenis.genotype.annotation.Annotation;
 import org.molgenis.genotype.annotation.VcfAnnotation;
 import org.molgenis.genotype.bgen.BgenGenotypeData;
 import org.molgenis.genotype.bgen.BgenGenotypeWriter;
+import org.molgenis.genotype.util.CalledDosageConvertor;
 import org.molgenis.genotype.util.Utils;
 import org.molgenis.genotype.variant.GeneticVariant;
 import org.molgenis.genotype.variantFilter.VariantIdIncludeFilter;
 import org.molgenis.genotype.vcf.VcfGenotypeField.VcfGenotypeFormatSupplier;
+import org.molgenis.vcf.VcfReader;
+import org.molgenis.vcf.VcfRecord;
+import org.molgenis.vcf.VcfSample;
 import org.testng.annotations.BeforeClass;
 import org.testng.annotations.BeforeTest;
 import org.testng.annotations.Test;
 
 import com.google.common.collect.Lists;
+import net.sf.samtools.util.BlockCompressedInputStream;
 
 import static org.testng.Assert.*;
 
@@ -246,6 +251,63 @@ public class VcfGenotypeDataTest extends ResourceTest
 	}
 
 
+	@Test
+	public void testGetSampleVariantsMissing() throws IOException, URISyntaxException
+	{
+		VcfGenotypeData missingGenotypeData = new VcfGenotypeData(getTestResourceFile("/missingGenotypes.vcf.gz"), getTestResourceFile("/missingGenotypes.vcf.gz.tbi"), 0.8);
+
+		GeneticVariant variant = missingGenotypeData.getVariantIdMap().get("rs1");
+		assertEquals(variant.getSampleVariants(), Arrays.asList(
+				Alleles.createAlleles(Allele.A, Allele.A),
+				Alleles.createAlleles(Allele.A, Allele.G),
+				Alleles.createAlleles(Allele.G, Allele.G),
+				Alleles.createAlleles(Allele.ZERO, Allele.ZERO),
+				Alleles.createAlleles(Allele.G, Allele.A),
+				Alleles.createAlleles(Allele.ZERO, Allele.G)));
+		assertEquals(variant.getSampleCalledDosages(), new byte[]{2, 1, 0, -1, 1, -1});
+		assertEquals(variant.getSampleDosages(), new float[]{2, 1, 0, -1, 1, -1});
+
+		variant = missingGenotypeData.getVariantIdMap().get("rs2");
+		assertEquals(variant.getSampleVariants().get(1), Alleles.createAlleles(Allele.ZERO));
+		assertEquals(variant.getSampleCalledDosages(), new byte[]{1, -1, 0, -1, -1, 2});
+
+		variant = missingGenotypeData.getVariantIdMap().get("rs4");
+		assertEquals(variant.getSampleVariants().get(3), Alleles.createAlleles(Allele.G, Allele.A, Allele.A));
+		assertEquals(variant.getSampleCalledDosages(), new byte[]{1, 0, -1, 1, 0, 2});
+
+		assertSampleVariantsEqualToVcfRecords(missingGenotypeData, getTestResourceFile("/missingGenotypes.vcf.gz"));
+		assertSampleVariantsEqualToVcfRecords(complexGenotypeData, complexVcfFile);
+		assertSampleVariantsEqualToVcfRecords(genotypeData, getTestVcfGz());
+	}
+
+	/**
+	 * The GT values that are read directly from the line must be the same as
+	 * those of the complete VCF record
+	 */
+	private void assertSampleVariantsEqualToVcfRecords(VcfGenotypeData vcfGenotypeData, File vcfFile) throws IOException
+	{
+		Iterator<GeneticVariant> variants = vcfGenotypeData.iterator();
+		try (VcfReader vcfReader = new VcfReader(new BlockCompressedInputStream(vcfFile)))
+		{
+			for (VcfRecord vcfRecord : vcfReader)
+			{
+				GeneticVariant variant = variants.next();
+				if (vcfRecord.getFormatIndex("GT") != 0)
+				{
+					continue;
+				}
+				List<Alleles> expectedAlleles = new ArrayList<>();
+				for (VcfSample vcfSample : vcfRecord.getSamples())
+				{
+					expectedAlleles.add(Alleles.createAlleles(vcfSample.getAlleles()));
+				}
+				assertEquals(variant.getSampleVariants(), expectedAlleles, variant.getPrimaryVariantId());
+				assertEquals(variant.getSampleCalledDosages(), CalledDosageConvertor.convertCalledAllelesToCalledDosage(expectedAlleles, variant.getVariantAlleles(), variant.getRefAllele()), variant.getPrimaryVariantId());
+			}
+		}
+		assertFalse(variants.hasNext());
+	}
+
 	@Test
 	public void complexVcfGenotypeDataTest() throws IOException {
 
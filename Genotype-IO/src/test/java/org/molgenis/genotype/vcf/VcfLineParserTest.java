@@ -0,0 +1,113 @@
+package org.molgenis.genotype.vcf;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import org.testng.annotations.Test;
+
+public class VcfLineParserTest
+{
+	private static final String LINE = "1\t565286\trs1578391\tC\tT\t.\tPASS\tAF=0.1\tGT:DS:GP\t0|1:0.95:0.1,0.85,0.05\t./.:.:.\t1/1:1.999:0,0.001,0.999\t0|0";
+
+	@Test
+	public void parseColumns()
+	{
+		VcfLineParser parser = new VcfLineParser();
+		parser.parse(LINE);
+
+		assertEquals(parser.getChromosome(), "1");
+		assertEquals(parser.getPosition(), 565286);
+		assertEquals(parser.getId(), "rs1578391");
+		assertEquals(parser.getRef(), "C");
+		assertEquals(parser.getAlt(), "T");
+		assertEquals(parser.getQual(), ".");
+		assertEquals(parser.getFilter(), "PASS");
+		assertEquals(parser.getInfo(), "AF=0.1");
+		assertEquals(parser.getFormat(), "GT:DS:GP");
+		assertEquals(parser.getSampleCount(), 4);
+		assertEquals(parser.getFormatIndex("GT"), 0);
+		assertEquals(parser.getFormatIndex("GP"), 2);
+		assertEquals(parser.getFormatIndex("DP"), -1);
+	}
+
+	@Test
+	public void parseFields()
+	{
+		VcfLineParser parser = new VcfLineParser();
+		parser.parse(LINE);
+
+		assertTrue(parser.selectField(0, 1));
+		assertEquals(parser.getFieldFloat(), 0.95f);
+		assertEquals(parser.getFieldDouble(), Double.parseDouble("0.95"));
+
+		assertTrue(parser.selectField(2, 2));
+		assertEquals(parser.getFieldValueCount(), 3);
+		assertEquals(parser.getFieldFloat(1), Float.parseFloat("0.001"));
+		assertEquals(parser.getFieldDouble(2), Double.parseDouble("0.999"));
+		assertEquals(parser.getFieldString(), "0,0.001,0.999");
+
+		assertTrue(parser.selectField(1, 1));
+		assertTrue(parser.isFieldMissing());
+
+		// Trailing fields may be omitted
+		assertFalse(parser.selectField(3, 1));
+	}
+
+	@Test
+	public void parseGenotypes()
+	{
+		VcfLineParser parser = new VcfLineParser();
+		parser.parse(LINE);
+		int[] alleles = new int[2];
+
+		assertTrue(parser.selectField(0, 0));
+		assertTrue(parser.isFieldGenotypePhased());
+		assertEquals(parser.readFieldGenotype(alleles), 2);
+		assertEquals(alleles[0], 0);
+		assertEquals(alleles[1], 1);
+
+		assertTrue(parser.selectField(1, 0));
+		assertFalse(parser.isFieldGenotypePhased());
+		assertEquals(parser.readFieldGenotype(alleles), 2);
+		assertEquals(alleles[0], -1);
+		assertEquals(alleles[1], -1);
+	}
+
+	@Test
+	public void parseIncludedSamples()
+	{
+		VcfLineParser parser = new VcfLineParser(new boolean[]{false, true, true, false});
+		parser.parse(LINE);
+		int[] alleles = new int[2];
+
+		assertEquals(parser.getSampleCount(), 2);
+		assertTrue(parser.selectField(1, 0));
+		assertEquals(parser.readFieldGenotype(alleles), 2);
+		assertEquals(alleles[0], 1);
+		assertEquals(alleles[1], 1);
+	}
+
+	@Test
+	public void parseNumbersExact()
+	{
+		VcfLineParser parser = new VcfLineParser();
+		String[] values = {"0.1", "-3.14159", "1e-5", "123456789.123456789", "0.333333333333333333333", "2", "NaN"};
+		for (String value : values)
+		{
+			parser.parse("1\t1\t.\tA\tG\t.\t.\t.\tDS\t" + value);
+			assertTrue(parser.selectField(0, 0));
+			assertEquals(parser.getFieldDouble(), Double.parseDouble(value), value);
+			assertEquals(parser.getFieldFloat(), Float.parseFloat(value), value);
+		}
+	}
+
+	@Test(expectedExceptions = NumberFormatException.class)
+	public void parseNumberInvalid()
+	{
+		VcfLineParser parser = new VcfLineParser();
+		parser.parse("1\t1\t.\tA\tG\t.\t.\t.\tDS\tabc");
+		parser.selectField(0, 0);
+		parser.getFieldFloat();
+	}
+}
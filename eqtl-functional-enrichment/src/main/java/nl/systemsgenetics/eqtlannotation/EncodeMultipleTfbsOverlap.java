@@ -16,6 +16,7 @@ import java.util.Map.Entry;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.apache.commons.lang3.StringUtils;
+import umcg.genetica.collections.intervaltree.IntervalIndex;
 import umcg.genetica.io.text.TextFile;
 import umcg.genetica.io.trityper.EQTL;
 import umcg.genetica.io.trityper.QTLTextFile;
@@ -88,12 +89,17 @@ public class EncodeMultipleTfbsOverlap {
             }
             
             outWriter.writeln(QTLTextFile.header+extraHeaderInfo.toString());
+            ArrayList<EQTL> qtlsToCheck = new ArrayList<>();
             for (EQTL e : qtls) {
 //                System.out.println(e);
                 if(e.getRsName().equals(snpToCheck) || snpToCheck.equals("")){
-                    outWriter.writeln(e.toString() + determineContacts(e, peakData, window));
+                    qtlsToCheck.add(e);
                 }
             }
+            String[] contacts = determineContacts(qtlsToCheck, indexPeaks(peakData, window));
+            for (int i = 0; i < qtlsToCheck.size(); ++i) {
+                outWriter.writeln(qtlsToCheck.get(i).toString() + contacts[i]);
+            }
             outWriter.close();
         } catch (IOException ex) {
             Logger.getLogger(EncodeMultipleTfbsOverlap.class.getName()).log(Level.SEVERE, null, ex);
@@ -162,41 +168,105 @@ public class EncodeMultipleTfbsOverlap {
         return data;
     }
 
-    private static String determineContacts(EQTL e, HashMap<String,HashMap<String, ArrayList<EncodeNarrowPeak>>> peakData, int window) {
-        StringBuilder returnableContacts = new StringBuilder();
-        
+    private static LinkedHashMap<String, IntervalIndex<EncodeNarrowPeak>> indexPeaks(HashMap<String,HashMap<String, ArrayList<EncodeNarrowPeak>>> peakData, int window) {
+        LinkedHashMap<String, IntervalIndex<EncodeNarrowPeak>> peakIndices = new LinkedHashMap<>();
         for(Entry<String,HashMap<String, ArrayList<EncodeNarrowPeak>>> tfData : peakData.entrySet()){
-            returnableContacts.append('\t');
-            ArrayList<String> name = new ArrayList<>();
-            ArrayList<String> location = new ArrayList<>();
-            if(tfData.getValue().containsKey("chr"+e.getProbeChr())){
-                ArrayList<EncodeNarrowPeak> relevantData = tfData.getValue().get("chr"+e.getProbeChr());
-                if(!relevantData.isEmpty()){
-                    for(EncodeNarrowPeak peak : relevantData){
-            //            System.out.println(peak.getChromStart()+" "+peak.getChromEnd()+" "+e.getProbeChrPos());
-                        if((peak.getChromEnd()+window)>= e.getProbeChrPos() && (peak.getChromStart()-window)<= (e.getProbeChrPos())){
-                            name.add(peak.getName());
-                            location.add(peak.getChrom()+"-"+peak.getChromStart()+"-"+peak.getChromEnd());
-                        } else if((peak.getChromEnd()+window)> e.getProbeChrPos() && (peak.getChromStart()-window)> e.getProbeChrPos()){
-                            break;
-                        }
-                    }
+            IntervalIndex<EncodeNarrowPeak> peakIndex = new IntervalIndex<>();
+            for(Entry<String, ArrayList<EncodeNarrowPeak>> chrData : tfData.getValue().entrySet()){
+                for(EncodeNarrowPeak peak : chrData.getValue()){
+                    //Extend the peak with the window, a probe within the window is a contact
+                    peakIndex.add(chrData.getKey(), peak.getChromStart()-window, peak.getChromEnd()+window, peak);
                 }
-                if(!name.isEmpty()){
-                    StringBuilder allNames = new StringBuilder(name.get(0));
-                    StringBuilder allLocations = new StringBuilder(location.get(0));
-                    for(int i=1; i<name.size(); i++){
-                        allNames.append(",").append(name.get(i));
-                        allLocations.append(",").append(location.get(i));
+            }
+            peakIndex.index();
+            peakIndices.put(tfData.getKey(), peakIndex);
+        }
+        return peakIndices;
+    }
+
+    /**
+     * Joins the probe positions of the QTLs per chromosome in one sweep against
+     * the peaks of each transcription factor.
+     *
+     * @return per QTL the overlap columns of all transcription factors
+     */
+    private static String[] determineContacts(ArrayList<EQTL> qtls, LinkedHashMap<String, IntervalIndex<EncodeNarrowPeak>> peakIndices) {
+        
+        HashMap<String, ArrayList<Integer>> qtlsPerChr = new HashMap<>();
+        for(int i=0; i<qtls.size(); ++i){
+            String chr = "chr"+qtls.get(i).getProbeChr();
+            if(!qtlsPerChr.containsKey(chr)){
+                qtlsPerChr.put(chr, new ArrayList<Integer>());
+            }
+            qtlsPerChr.get(chr).add(i);
+        }
+        
+        //Probe positions per chromosome sorted ascending, with the QTL index of each position
+        HashMap<String, int[]> chrPositions = new HashMap<>();
+        HashMap<String, int[]> chrQtls = new HashMap<>();
+        for(Entry<String, ArrayList<Integer>> chrData : qtlsPerChr.entrySet()){
+            ArrayList<Integer> chrQtlIds = chrData.getValue();
+            long[] order = new long[chrQtlIds.size()];
+            for(int j=0; j<order.length; ++j){
+                int qtlId = chrQtlIds.get(j);
+                order[j] = ((long) qtls.get(qtlId).getProbeChrPos() << 32) | qtlId;
+            }
+            Arrays.sort(order);
+            int[] positions = new int[order.length];
+            int[] qtlIds = new int[order.length];
+            for(int j=0; j<order.length; ++j){
+                positions[j] = (int) (order[j] >> 32);
+                qtlIds[j] = (int) order[j];
+            }
+            chrPositions.put(chrData.getKey(), positions);
+            chrQtls.put(chrData.getKey(), qtlIds);
+        }
+        
+        StringBuilder[] returnableContacts = new StringBuilder[qtls.size()];
+        for(int i=0; i<returnableContacts.length; ++i){
+            returnableContacts[i] = new StringBuilder();
+        }
+        
+        for(final IntervalIndex<EncodeNarrowPeak> peakIndex : peakIndices.values()){
+            final int[] nrOverlaps = new int[qtls.size()];
+            final StringBuilder[] names = new StringBuilder[qtls.size()];
+            final StringBuilder[] locations = new StringBuilder[qtls.size()];
+            
+            for(Entry<String, int[]> positions : chrPositions.entrySet()){
+                final int[] qtlIds = chrQtls.get(positions.getKey());
+                //Peaks of a position are reported ordered on start
+                peakIndex.joinSorted(positions.getKey(), positions.getValue(), new IntervalIndex.OverlapConsumer() {
+                    @Override
+                    public void overlap(int positionIndex, int intervalId) {
+                        int qtlId = qtlIds[positionIndex];
+                        EncodeNarrowPeak peak = peakIndex.getValue(intervalId);
+                        String location = peak.getChrom()+"-"+peak.getChromStart()+"-"+peak.getChromEnd();
+                        if(nrOverlaps[qtlId]==0){
+                            names[qtlId] = new StringBuilder(peak.getName());
+                            locations[qtlId] = new StringBuilder(location);
+                        } else {
+                            names[qtlId].append(",").append(peak.getName());
+                            locations[qtlId].append(",").append(location);
+                        }
+                        nrOverlaps[qtlId]++;
                     }
-                    returnableContacts.append("overlapping\t").append(name.size()).append('\t').append(allLocations.toString()).append('\t').append(allNames.toString());
+                });
+            }
+            
+            for(int i=0; i<returnableContacts.length; ++i){
+                returnableContacts[i].append('\t');
+                if(nrOverlaps[i]>0){
+                    returnableContacts[i].append("overlapping\t").append(nrOverlaps[i]).append('\t').append(locations[i].toString()).append('\t').append(names[i].toString());
                 } else {
-                    returnableContacts.append("\t\t\t");
+                    returnableContacts[i].append("\t\t\t");
                 }
-            } else {
-                returnableContacts.append("\t\t\t");
             }
         }
-        return returnableContacts.toString();
+        
+        String[] contacts = new String[qtls.size()];
+        for(int i=0; i<contacts.length; ++i){
+            contacts[i] = returnableContacts[i].toString();
+        }
+        return contacts;
     }
 }
@@ -23,6 +23,7 @@ import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -36,6 +37,8 @@ import org.apache.log4j.SimpleLayout;
 import org.molgenis.genotype.GenotypeDataException;
 import org.molgenis.genotype.RandomAccessGenotypeData;
 import org.molgenis.genotype.multipart.IncompatibleMultiPartGenotypeDataException;
+import org.molgenis.genotype.multipart.MultiPartGenotypeData;
+import org.molgenis.genotype.vcf.VcfGenotypeData;
 import umcg.genetica.collections.intervaltree.PerChrIntervalTree;
 import umcg.genetica.io.bedgraph.BedGraphEntry;
 import umcg.genetica.io.bedgraph.BedGraphFile;
@@ -180,7 +183,41 @@ public class Ase {
 			final List<File> inputFiles = configuration.getInputFiles();
 
 			System.out.println("Loading sample allele counts");
-			if (referenceGenotypes == null) {
+			if (referenceGenotypes == null && configuration.isPerChr()) {
+
+				//Loading one chromosome at a time allows removing ASE that do not meet minimum number of samples before the next chromosome is loaded
+
+				final Set<String> chrs;
+				try {
+					chrs = getSeqNames(inputFiles);
+				} catch (IOException ex) {
+					System.err.println("Error reading chromosomes from input data: " + ex.getMessage());
+					LOGGER.fatal("Error reading chromosomes from input data", ex);
+					System.exit(1);
+					return;
+				}
+
+				for (String chr : chrs) {
+
+					if (configuration.getChrFilter() != null && !configuration.getChrFilter().equals(chr)) {
+						continue;
+					}
+
+					System.out.println("Chr: " + chr);
+
+					loadAseData(inputFiles, aseResults, detectedSampleSet, configuration, null, refToStudySampleId, chr, false);
+
+					if (aseResults.chrIterator(chr) != null) {
+						for (Iterator<AseVariantAppendable> aseChrIterator = aseResults.chrIterator(chr); aseChrIterator.hasNext();) {
+							if (aseChrIterator.next().getSampleCount() < minimumNumberSamples) {
+								aseChrIterator.remove();
+							}
+						}
+					}
+
+				}
+
+			} else if (referenceGenotypes == null) {
 				loadAseData(inputFiles, aseResults, detectedSampleSet, configuration, null, refToStudySampleId, configuration.getChrFilter(), true);
 
 				Iterator<AseVariantAppendable> aseIterator = aseResults.iterator();
@@ -652,6 +689,35 @@ public class Ase {
 		return Collections.unmodifiableMap(sampleMap);
 	}
 
+	/**
+	 * 
+	 * @param inputFiles vcf.gz files or folders with per chr 1 vcf.gz file
+	 * @return the chromosomes in any of the input files
+	 * @throws IOException 
+	 */
+	private static Set<String> getSeqNames(List<File> inputFiles) throws IOException {
+
+		LinkedHashSet<String> seqNames = new LinkedHashSet<String>();
+
+		for (File inputFile : inputFiles) {
+			RandomAccessGenotypeData genotypeData;
+			if (inputFile.isDirectory()) {
+				try {
+					genotypeData = MultiPartGenotypeData.createFromVcfFolder(inputFile, 0, 0.8);
+				} catch (IncompatibleMultiPartGenotypeDataException ex) {
+					throw new IOException("Error reading folder with VCF files: " + inputFile.getAbsolutePath(), ex);
+				}
+			} else {
+				genotypeData = new VcfGenotypeData(inputFile, 0, 0.8);
+			}
+			seqNames.addAll(genotypeData.getSeqNames());
+			genotypeData.close();
+		}
+
+		return seqNames;
+
+	}
+
 	protected static class ThreadErrorHandler implements UncaughtExceptionHandler {
 
 		@Override
@@ -677,6 +743,16 @@ public class Ase {
 	private static void loadAseData(List<File> inputFiles, AseResults aseResults, Set<String> detectedSampleSet, AseConfiguration configuration, RandomAccessGenotypeData referenceGenotypes, Map<String, String> refToStudySampleId, String chr, int start, int stop, boolean showFileProgress) {
 
 		final AtomicInteger fileCounter = new AtomicInteger(0);
+
+		//Reference genotypes of this region are loaded once, the loader threads only read this index 
+		final ReferenceGenotypeIndex referenceIndex;
+		if (referenceGenotypes != null) {
+			referenceIndex = new ReferenceGenotypeIndex(referenceGenotypes, refToStudySampleId, chr, start, stop);
+			LOGGER.debug("Loaded " + referenceIndex.getSnpCount() + " reference SNPs");
+		} else {
+			referenceIndex = null;
+		}
+
 		int threadCount = configuration.getInputFiles().size() < configuration.getThreads() ? configuration.getInputFiles().size() : configuration.getThreads();
 		List<Thread> threads = new ArrayList<Thread>(threadCount);
 		final ThreadErrorHandler threadErrorHandler = new ThreadErrorHandler();
@@ -685,7 +761,7 @@ public class Ase {
 
 		for (int i = 0; i < threadCount; ++i) {
 
-			Thread worker = new Thread(new ReadCountsLoader(inputFileIterator, aseResults, detectedSampleSet, fileCounter, configuration, referenceGenotypes, refToStudySampleId, chr, start, stop));
+			Thread worker = new Thread(new ReadCountsLoader(inputFileIterator, aseResults, detectedSampleSet, fileCounter, configuration, referenceIndex, chr, start, stop));
 			worker.setUncaughtExceptionHandler(threadErrorHandler);
 			worker.start();
 			threads.add(worker);
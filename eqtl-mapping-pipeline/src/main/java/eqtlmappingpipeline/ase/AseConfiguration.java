@@ -50,6 +50,7 @@ public class AseConfiguration {
 	private final File sampleToRefSampleFile;
 	private final String chrFilter;
 	private final int chunkSize;
+	private final boolean perChr;
 	private final File mappabilityTrackFile;
 	private final double mappabilityMinimum;
 
@@ -171,6 +172,10 @@ public class AseConfiguration {
 		OptionBuilder.withLongOpt("chunkSize");
 		OPTIONS.addOption(OptionBuilder.create("cs"));
 
+		OptionBuilder.withDescription("Load the allele counts one chromosome at a time to limit memory usage. Always done when reference genotypes are used");
+		OptionBuilder.withLongOpt("perChr");
+		OPTIONS.addOption(OptionBuilder.create("pc"));
+
 		OptionBuilder.withArgName("path");
 		OptionBuilder.hasArg();
 		OptionBuilder.withDescription("Mappability track in BedGraph format.");
@@ -368,6 +373,8 @@ public class AseConfiguration {
 		} else {
 			chunkSize = Integer.MAX_VALUE;
 		}
+
+		perChr = commandLine.hasOption("pc");
 		
 		if(commandLine.hasOption("mt")){
 			if(!commandLine.hasOption("mm")){
@@ -467,6 +474,11 @@ public class AseConfiguration {
 			LOGGER.info("Chunk size: " + Ase.DEFAULT_NUMBER_FORMATTER.format(chunkSize));
 		}
 		
+		if(perChr){
+			System.out.println(" - Load allele counts per chromosome");
+			LOGGER.info("Load allele counts per chromosome");
+		}
+		
 		if(isMappabilityTrackSet()){
 			System.out.println(" - Mappability track: " + mappabilityTrackFile.getAbsolutePath());
 			LOGGER.info("Mappability track: " + mappabilityTrackFile.getAbsolutePath());
@@ -575,6 +587,10 @@ public class AseConfiguration {
 		return chunkSize;
 	}
 
+	public boolean isPerChr() {
+		return perChr;
+	}
+
 	public File getMappabilityTrackFile() {
 		return mappabilityTrackFile;
 	}
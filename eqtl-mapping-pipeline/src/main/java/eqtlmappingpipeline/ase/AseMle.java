@@ -2,12 +2,14 @@ package eqtlmappingpipeline.ase;
 
 import cern.colt.list.tint.IntArrayList;
 import cern.jet.stat.tdouble.Probability;
-import java.math.BigDecimal;
-import java.math.MathContext;
-import java.math.RoundingMode;
 import org.apache.log4j.Logger;
 
 /**
+ * Maximum likelihood of the binomial model for allele specific expression.
+ * The probability is reported at the resolution of the probability grid. The
+ * log likelihood only depends on the total counts per allele and is concave in
+ * the probability, so the best grid probability is one of the two grid
+ * probabilities around the closed form estimate.
  *
  * @author Patrick Deelen
  */
@@ -26,8 +28,7 @@ public class AseMle {
 	private static final int NTOP = 2000;
 	private static final double[] aa = new double[NTOP];
 	private static final Logger LOGGER = Logger.getLogger(AseMle.class);
-	private static final BigDecimal probabilityStep = new BigDecimal(0.001);
-	private static final MathContext mathContextProbability = new MathContext(3, RoundingMode.HALF_UP);//Must fit step percision
+	private static final int probabilityStepsPerUnit = 1000;
 	protected static final double[] probabilities;
 	protected static final double[] logProbabilities;
 	protected static final double[] log1minProbabilities;
@@ -43,23 +44,21 @@ public class AseMle {
 	}
 
 	static {
-		BigDecimal one = new BigDecimal(1);
 
-		int stepCount = ((int) (1 / probabilityStep.doubleValue())) - 1;
+		int stepCount = probabilityStepsPerUnit - 1;
 
 		probabilities = new double[stepCount];
 		logProbabilities = new double[stepCount];
 		log1minProbabilities = new double[stepCount];
 
-		int i = 0;
-		for (BigDecimal p = probabilityStep; p.compareTo(one) < 0; p = p.add(probabilityStep)) {
+		for (int i = 0; i < stepCount; ++i) {
 
-			double p2 = p.round(mathContextProbability).doubleValue();
-			probabilities[i] = p2;
-			logProbabilities[i] = Math.log(p2);
-			log1minProbabilities[i] = Math.log(1 - p2);
+			//Division is correctly rounded so this is the double closest to the decimal probability
+			double p = (i + 1) / (double) probabilityStepsPerUnit;
+			probabilities[i] = p;
+			logProbabilities[i] = Math.log(p);
+			log1minProbabilities[i] = Math.log(1 - p);
 
-			++i;
 		}
 
 	}
@@ -69,38 +68,37 @@ public class AseMle {
 		double provisionalMaxLogLikelihood = Double.NEGATIVE_INFINITY;
 		double provisionalMaxLogLikelihoodP = 0.5;
 
-
-		//First calculate binominal coefficients
-		double[] logBinominalCoefficients = new double[a1Counts.size()];
+		//Sufficient statistics: sum of binominal coefficients and total count per allele
+		double sumLogBinominalCoefficients = 0;
+		long sumA1Counts = 0;
+		long sumA2Counts = 0;
 		for (int i = 0; i < a1Counts.size(); ++i) {
 			int a1Count = a1Counts.getQuick(i);
-			int totalReads = a1Count + a2Counts.getQuick(i);
-			logBinominalCoefficients[i] = lnbico(totalReads, a1Count);
+			int a2Count = a2Counts.getQuick(i);
+			sumLogBinominalCoefficients += lnbico(a1Count + a2Count, a1Count);
+			sumA1Counts += a1Count;
+			sumA2Counts += a2Count;
 		}
 
-		double logLikelihoodNull = Double.NaN;
+		long totalCounts = sumA1Counts + sumA2Counts;
+		double closedFormP = totalCounts == 0 ? 0.5 : sumA1Counts / (double) totalCounts;
 
-		for (int i = 0; i < probabilities.length; ++i) {
+		//Test the grid probabilities around the closed form estimate, lowest first so the lowest probability wins a tie like a full grid search
+		int closestIndex = (int) Math.round(closedFormP * probabilityStepsPerUnit) - 1;
+		int firstIndex = Math.max(0, closestIndex - 1);
+		int lastIndex = Math.min(probabilities.length - 1, closestIndex + 1);
+		for (int i = firstIndex; i <= lastIndex; ++i) {
 
-			double sumLogLikelihood = 0;
-			for (int s = 0; s < a1Counts.size(); ++s) {
-				sumLogLikelihood += logBinominalCoefficients[s] + (double) a1Counts.getQuick(s) * logProbabilities[i] + (double) a2Counts.getQuick(s) * log1minProbabilities[i];
-			}
+			double sumLogLikelihood = logLikelihood(i, sumLogBinominalCoefficients, sumA1Counts, sumA2Counts);
 
 			if (sumLogLikelihood > provisionalMaxLogLikelihood) {
 				provisionalMaxLogLikelihood = sumLogLikelihood;
 				provisionalMaxLogLikelihoodP = probabilities[i];
 			}
-			
-			if(probabilities[i] == 0.5){
-				logLikelihoodNull = sumLogLikelihood;
-			}
 
 		}
-		
-		if(Double.isNaN(logLikelihoodNull)){
-			throw new RuntimeException("Something went wrong during ASE analysis. This should nog happen, please contact developers");
-		}
+
+		double logLikelihoodNull = logLikelihood(probabilityStepsPerUnit / 2 - 1, sumLogBinominalCoefficients, sumA1Counts, sumA2Counts);
 
 		//Make sure to use null model in case of tie
 		if (logLikelihoodNull >= provisionalMaxLogLikelihood) {
@@ -125,6 +123,10 @@ public class AseMle {
 
 	}
 
+	private static double logLikelihood(int probabilityIndex, double sumLogBinominalCoefficients, long sumA1Counts, long sumA2Counts) {
+		return sumLogBinominalCoefficients + sumA1Counts * logProbabilities[probabilityIndex] + sumA2Counts * log1minProbabilities[probabilityIndex];
+	}
+
 	public double getMaxLikelihood() {
 		return maxLogLikelihood;
 	}
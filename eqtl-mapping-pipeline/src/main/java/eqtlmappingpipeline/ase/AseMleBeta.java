@@ -2,12 +2,20 @@ package eqtlmappingpipeline.ase;
 
 import cern.colt.list.tint.IntArrayList;
 import cern.jet.stat.tdouble.Probability;
-import java.math.BigDecimal;
-import java.math.MathContext;
-import java.math.RoundingMode;
+import gnu.trove.map.hash.TIntIntHashMap;
 import org.apache.log4j.Logger;
 
 /**
+ * Maximum likelihood of the beta binomial model for allele specific
+ * expression. The probability and theta are reported at the resolution of the
+ * grid of probabilities and integer thetas from 1 to 1000. Instead of
+ * evaluating the complete grid the optimum is searched with Brent's method,
+ * profiling theta over the best probability per theta, after which the grid
+ * points around the optimum are compared.
+ * <p>
+ * The log likelihood is calculated from the distinct counts and the number of
+ * samples with each count, so the log gamma of a count is calculated once per
+ * evaluation even if multiple samples share that count.
  *
  * @author Patrick Deelen
  */
@@ -27,11 +35,13 @@ public class AseMleBeta {
 	private static final int NTOP = 2000;
 	private static final double[] aa = new double[NTOP];
 	private static final Logger LOGGER = Logger.getLogger(AseMleBeta.class);
-	private static final BigDecimal probabilityStep = new BigDecimal(0.001);
-	private static final MathContext mathContextProbability = new MathContext(3, RoundingMode.HALF_UP);//Must fit step percision
+	private static final int probabilityStepsPerUnit = 1000;
 	protected static final double[] probabilities;
 	protected static final double[] oneMinProbabilities;
 	private static final int maxThetaToTest = 1000;
+	private static final double probabilityTolerance = 1e-6;
+	private static final double logThetaTolerance = 1e-5;
+	private static final double GOLDEN_SECTION = 0.3819660112501051;
 
 	static {
 		a[0] = 1.;
@@ -44,52 +54,55 @@ public class AseMleBeta {
 	}
 
 	static {
-		BigDecimal one = new BigDecimal(1);
 
-		int stepCount = ((int) (1 / probabilityStep.doubleValue())) - 1;
+		int stepCount = probabilityStepsPerUnit - 1;
 
 		probabilities = new double[stepCount];
 		oneMinProbabilities = new double[stepCount];
 
-		int i = 0;
-		for (BigDecimal p = probabilityStep; p.compareTo(one) < 0; p = p.add(probabilityStep)) {
+		for (int i = 0; i < stepCount; ++i) {
 
-			double p2 = p.round(mathContextProbability).doubleValue();
-			probabilities[i] = p2;
-			oneMinProbabilities[i] = 1 - p2;
+			//Division is correctly rounded so this is the double closest to the decimal probability
+			double p = (i + 1) / (double) probabilityStepsPerUnit;
+			probabilities[i] = p;
+			oneMinProbabilities[i] = 1 - p;
 
-			++i;
 		}
 
 	}
 
 	public AseMleBeta(IntArrayList a1Counts, IntArrayList a2Counts) {
 
+		final SampleCounts sampleCounts = new SampleCounts(a1Counts, a2Counts);
+
+		//Optimum of the continuous likelihood, theta is searched on log scale
+		double optimumTheta = Math.exp(maximize(0, Math.log(maxThetaToTest), logThetaTolerance, new Function() {
+			@Override
+			public double value(double logTheta) {
+				double theta = Math.exp(logTheta);
+				return sampleCounts.logLikelihood(maximizeProbability(sampleCounts, theta), theta);
+			}
+		}));
+
+		//Compare the grid points around the optimum. Ties are resolved like a grid search: lowest probability first, then lowest theta
 		double provisionalMaxLogLikelihood = Double.NEGATIVE_INFINITY;
 		double provisionalMaxLogLikelihoodP = 0.5;
 		double provisionalMaxLogLikelihoodTheta = Double.NaN;
 
+		int lowerTheta = Math.max(1, Math.min(maxThetaToTest, (int) Math.floor(optimumTheta)));
+		int upperTheta = Math.max(1, Math.min(maxThetaToTest, (int) Math.ceil(optimumTheta)));
+		for (int theta = lowerTheta; theta <= upperTheta; ++theta) {
 
-		//First calculate binominal coefficients
-		double[] logBinominalCoefficients = new double[a1Counts.size()];
-		for (int i = 0; i < a1Counts.size(); ++i) {
-			int a1Count = a1Counts.getQuick(i);
-			int totalReads = a1Count + a2Counts.getQuick(i);
-			logBinominalCoefficients[i] = lnbico(totalReads, a1Count);
-		}
+			int closestIndex = (int) Math.round(maximizeProbability(sampleCounts, theta) * probabilityStepsPerUnit) - 1;
+			int firstIndex = Math.max(0, closestIndex - 1);
+			int lastIndex = Math.min(probabilities.length - 1, closestIndex + 1);
 
-		for (int i = 0; i < probabilities.length; ++i) {
+			for (int i = firstIndex; i <= lastIndex; ++i) {
 
-			for (int theta = 1; theta <= maxThetaToTest; ++theta) {
+				double sumLogLikelihood = sampleCounts.logLikelihood(probabilities[i], theta);
 
-				double sumLogLikelihood = 0;
-				for (int s = 0; s < a1Counts.size(); ++s) {
-					double alfa = theta * oneMinProbabilities[i];
-					double beta = theta * probabilities[i];
-					sumLogLikelihood += logBinominalCoefficients[s] + betaln(a2Counts.getQuick(s) + alfa, a1Counts.getQuick(s) + beta) - betaln(alfa, beta);
-				}
-
-				if (sumLogLikelihood > provisionalMaxLogLikelihood) {
+				if (sumLogLikelihood > provisionalMaxLogLikelihood
+						|| (sumLogLikelihood == provisionalMaxLogLikelihood && probabilities[i] < provisionalMaxLogLikelihoodP)) {
 					provisionalMaxLogLikelihood = sumLogLikelihood;
 					provisionalMaxLogLikelihoodP = probabilities[i];
 					provisionalMaxLogLikelihoodTheta = theta;
@@ -100,13 +113,7 @@ public class AseMleBeta {
 		}
 
 		double logLikelihoodNullTheta = provisionalMaxLogLikelihoodTheta;
-		double logLikelihoodNull = 0;
-
-		for (int s = 0; s < a1Counts.size(); ++s) {
-			double alfa = logLikelihoodNullTheta * 0.5;
-			double beta = logLikelihoodNullTheta * 0.5;
-			logLikelihoodNull += logBinominalCoefficients[s] + betaln(a2Counts.getQuick(s) + alfa, a1Counts.getQuick(s) + beta) - betaln(alfa, beta);
-		}
+		double logLikelihoodNull = sampleCounts.logLikelihood(0.5, logLikelihoodNullTheta);
 
 		if (Double.isInfinite(logLikelihoodNull)) {
 			throw new RuntimeException("Something went wrong during ASE analysis. This should nog happen, please contact developers");
@@ -146,6 +153,195 @@ public class AseMleBeta {
 
 	}
 
+	/**
+	 * Sufficient statistics of the samples: the distinct counts and the number
+	 * of samples with each count.
+	 */
+	private static class SampleCounts {
+
+		private final int sampleCount;
+		private final double sumLogBinominalCoefficients;
+		private final int[] distinctA1Counts;
+		private final int[] distinctA1CountSamples;
+		private final int[] distinctA2Counts;
+		private final int[] distinctA2CountSamples;
+		private final int[] distinctTotalCounts;
+		private final int[] distinctTotalCountSamples;
+
+		public SampleCounts(IntArrayList a1Counts, IntArrayList a2Counts) {
+
+			sampleCount = a1Counts.size();
+			double logBinominalCoefficients = 0;
+			TIntIntHashMap a1CountSamples = new TIntIntHashMap();
+			TIntIntHashMap a2CountSamples = new TIntIntHashMap();
+			TIntIntHashMap totalCountSamples = new TIntIntHashMap();
+			for (int i = 0; i < sampleCount; ++i) {
+				int a1Count = a1Counts.getQuick(i);
+				int a2Count = a2Counts.getQuick(i);
+				int totalReads = a1Count + a2Count;
+				logBinominalCoefficients += lnbico(totalReads, a1Count);
+				a1CountSamples.adjustOrPutValue(a1Count, 1, 1);
+				a2CountSamples.adjustOrPutValue(a2Count, 1, 1);
+				totalCountSamples.adjustOrPutValue(totalReads, 1, 1);
+			}
+			sumLogBinominalCoefficients = logBinominalCoefficients;
+			distinctA1Counts = a1CountSamples.keys();
+			distinctA1CountSamples = a1CountSamples.values();
+			distinctA2Counts = a2CountSamples.keys();
+			distinctA2CountSamples = a2CountSamples.values();
+			distinctTotalCounts = totalCountSamples.keys();
+			distinctTotalCountSamples = totalCountSamples.values();
+
+		}
+
+		/**
+		 *
+		 * @param p probability of a1
+		 * @param theta
+		 * @return log likelihood of all samples
+		 */
+		public double logLikelihood(double p, double theta) {
+
+			double alfa = theta * (1 - p);
+			double beta = theta * p;
+
+			//Sum over the samples of betaln(a2 + alfa, a1 + beta) - betaln(alfa, beta)
+			double sumLogLikelihood = sumLogBinominalCoefficients + sampleCount * (gammln(theta) - gammln(alfa) - gammln(beta));
+			for (int i = 0; i < distinctA1Counts.length; ++i) {
+				sumLogLikelihood += distinctA1CountSamples[i] * gammln(distinctA1Counts[i] + beta);
+			}
+			for (int i = 0; i < distinctA2Counts.length; ++i) {
+				sumLogLikelihood += distinctA2CountSamples[i] * gammln(distinctA2Counts[i] + alfa);
+			}
+			for (int i = 0; i < distinctTotalCounts.length; ++i) {
+				sumLogLikelihood -= distinctTotalCountSamples[i] * gammln(distinctTotalCounts[i] + theta);
+			}
+			return sumLogLikelihood;
+
+		}
+
+	}
+
+	private static double maximizeProbability(final SampleCounts sampleCounts, final double theta) {
+		return maximize(probabilities[0], probabilities[probabilities.length - 1], probabilityTolerance, new Function() {
+			@Override
+			public double value(double p) {
+				return sampleCounts.logLikelihood(p, theta);
+			}
+		});
+	}
+
+	private interface Function {
+
+		double value(double x);
+	}
+
+	/**
+	 * Brent's method to find the maximum of a unimodal function on an interval.
+	 * Based on numerical recipes.
+	 *
+	 * @param lower
+	 * @param upper
+	 * @param tolerance
+	 * @param function
+	 * @return x of maximum
+	 */
+	private static double maximize(double lower, double upper, double tolerance, Function function) {
+
+		double a = lower;
+		double b = upper;
+		double x = a + GOLDEN_SECTION * (b - a);
+		double w = x;
+		double v = x;
+		double fx = -function.value(x);
+		double fw = fx;
+		double fv = fx;
+		double d = 0;
+		double e = 0;
+
+		for (int iteration = 0; iteration < 100; ++iteration) {
+
+			double xm = 0.5 * (a + b);
+			double tol1 = tolerance * Math.abs(x) + 1e-10;
+			double tol2 = 2 * tol1;
+			if (Math.abs(x - xm) <= (tol2 - 0.5 * (b - a))) {
+				break;
+			}
+
+			boolean golden = true;
+			if (Math.abs(e) > tol1) {
+				//Try parabolic step
+				double r = (x - w) * (fx - fv);
+				double q = (x - v) * (fx - fw);
+				double p = (x - v) * q - (x - w) * r;
+				q = 2 * (q - r);
+				if (q > 0) {
+					p = -p;
+				}
+				q = Math.abs(q);
+				double eTemp = e;
+				e = d;
+				if (!(Math.abs(p) >= Math.abs(0.5 * q * eTemp) || p <= q * (a - x) || p >= q * (b - x))) {
+					d = p / q;
+					double u = x + d;
+					if (u - a < tol2 || b - u < tol2) {
+						d = xm - x >= 0 ? tol1 : -tol1;
+					}
+					golden = false;
+				}
+			}
+			if (golden) {
+				e = (x >= xm ? a - x : b - x);
+				d = GOLDEN_SECTION * e;
+			}
+
+			double u = Math.abs(d) >= tol1 ? x + d : x + (d >= 0 ? tol1 : -tol1);
+			double fu = -function.value(u);
+
+			if (fu <= fx) {
+				if (u >= x) {
+					a = x;
+				} else {
+					b = x;
+				}
+				v = w;
+				w = x;
+				x = u;
+				fv = fw;
+				fw = fx;
+				fx = fu;
+			} else {
+				if (u < x) {
+					a = u;
+				} else {
+					b = u;
+				}
+				if (fu <= fw || w == x) {
+					v = w;
+					w = u;
+					fv = fw;
+					fw = fu;
+				} else if (fu <= fv || v == x || v == w) {
+					v = u;
+					fv = fu;
+				}
+			}
+
+		}
+
+		//Brent's method does not evaluate the bounds, optimum can be at one of the bounds
+		double fLower = -function.value(lower);
+		if (fLower < fx) {
+			x = lower;
+			fx = fLower;
+		}
+		if (-function.value(upper) < fx) {
+			x = upper;
+		}
+		return x;
+
+	}
+
 	public double getMaxLikelihood() {
 		return maxLogLikelihood;
 	}
@@ -184,7 +380,7 @@ public class AseMleBeta {
 	}
 
 	//based on numerical recipies
-	private static double betaln(final double z, final double w) {
+	protected static double betaln(final double z, final double w) {
 		return gammln(z) + gammln(w) - gammln(z + w);
 	}
 
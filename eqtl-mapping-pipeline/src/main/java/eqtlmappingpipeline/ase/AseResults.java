@@ -4,56 +4,109 @@
  */
 package eqtlmappingpipeline.ase;
 
+import com.google.common.collect.Iterators;
 import gnu.trove.map.hash.TIntObjectHashMap;
-import java.util.HashMap;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import org.molgenis.genotype.Allele;
 import org.molgenis.genotype.variant.id.GeneticVariantId;
-import umcg.genetica.collections.ChrPosMap;
 
 /**
+ * Allele counts per variant. Results are sharded per chromosome and within a
+ * chromosome over a fixed number of stripes, each with its own lock, so
+ * loader threads adding counts for different variants rarely wait on each
+ * other.
  *
  * @author Patrick Deelen
  */
 public class AseResults implements Iterable<AseVariantAppendable> {
 
-	private final ChrPosMap<AseVariantAppendable> results; //Empty chr hashmaps will crash the iterator
-	private boolean encounteredBaseQuality = false;
+	private static final int STRIPES = 64; //Must be power of 2
+	private final ConcurrentMap<String, TIntObjectHashMap<AseVariantAppendable>[]> results;
+	private volatile boolean encounteredBaseQuality = false;
 
 	public AseResults() {
-		results = new ChrPosMap<AseVariantAppendable>();
+		results = new ConcurrentHashMap<String, TIntObjectHashMap<AseVariantAppendable>[]>();
 	}
 
-	public synchronized void addResult(String chr, int pos, GeneticVariantId id, Allele a1, Allele a2, int a1Count, int a2Count, String sampleId, double a1MeanBaseQuality, double a2MeanBaseQuality) {
+	public void addResult(String chr, int pos, GeneticVariantId id, Allele a1, Allele a2, int a1Count, int a2Count, String sampleId, double a1MeanBaseQuality, double a2MeanBaseQuality) {
 		
 		addToResults(chr, pos, id, a1, a2, a1Count, a2Count, sampleId, a1MeanBaseQuality, a2MeanBaseQuality);
-		encounteredBaseQuality = true;
+		if (!encounteredBaseQuality) {
+			encounteredBaseQuality = true;
+		}
 	}
 	
-	public synchronized void addResult(String chr, int pos, GeneticVariantId id, Allele a1, Allele a2, int a1Count, int a2Count, String sampleId) {
+	public void addResult(String chr, int pos, GeneticVariantId id, Allele a1, Allele a2, int a1Count, int a2Count, String sampleId) {
 
 		addToResults(chr, pos, id, a1, a2, a1Count, a2Count, sampleId, Double.NaN, Double.NaN);
 
 	}
 	
-	private synchronized void addToResults(String chr, int pos, GeneticVariantId id, Allele a1, Allele a2, int a1Count, int a2Count, String sampleId, double a1MeanBaseQuality, double a2MeanBaseQuality) {
+	private void addToResults(String chr, int pos, GeneticVariantId id, Allele a1, Allele a2, int a1Count, int a2Count, String sampleId, double a1MeanBaseQuality, double a2MeanBaseQuality) {
 
-		AseVariantAppendable aseVariant = results.get(chr, pos);
-		if (aseVariant == null) {
-			aseVariant = new AseVariantAppendable(chr, pos, id, a1, a2);
-			results.put(chr, pos, aseVariant);
+		TIntObjectHashMap<AseVariantAppendable> stripe = getChrStripes(chr)[stripe(pos)];
+		synchronized (stripe) {
+			AseVariantAppendable aseVariant = stripe.get(pos);
+			if (aseVariant == null) {
+				aseVariant = new AseVariantAppendable(chr, pos, id, a1, a2);
+				stripe.put(pos, aseVariant);
+			}
+			aseVariant.addCounts(a1Count, a2Count, sampleId, a1MeanBaseQuality, a2MeanBaseQuality);
 		}
-		aseVariant.addCounts(a1Count, a2Count, sampleId, a1MeanBaseQuality, a2MeanBaseQuality);
 		
 	}
+
+	@SuppressWarnings({"unchecked", "RedundantStringConstructorCall"})
+	private TIntObjectHashMap<AseVariantAppendable>[] getChrStripes(String chr) {
+		TIntObjectHashMap<AseVariantAppendable>[] chrStripes = results.get(chr);
+		if (chrStripes == null) {
+			chrStripes = new TIntObjectHashMap[STRIPES];
+			for (int i = 0; i < STRIPES; ++i) {
+				chrStripes[i] = new TIntObjectHashMap<AseVariantAppendable>();
+			}
+			TIntObjectHashMap<AseVariantAppendable>[] existing = results.putIfAbsent(new String(chr), chrStripes);
+			if (existing != null) {
+				chrStripes = existing;
+			}
+		}
+		return chrStripes;
+	}
+
+	private static int stripe(int pos) {
+		return (pos ^ (pos >>> 16)) & (STRIPES - 1);
+	}
 	
+	/**
+	 * Not safe to use while results are being added
+	 * 
+	 * @param chr
+	 * @return null if there are no results for this chr
+	 */
 	public Iterator<AseVariantAppendable> chrIterator(String chr){
-		return results.chrIterator(chr);
+		TIntObjectHashMap<AseVariantAppendable>[] chrStripes = results.get(chr);
+		if (chrStripes == null) {
+			return null;
+		}
+		ArrayList<Iterator<AseVariantAppendable>> stripeIterators = new ArrayList<Iterator<AseVariantAppendable>>(STRIPES);
+		for (TIntObjectHashMap<AseVariantAppendable> stripe : chrStripes) {
+			stripeIterators.add(stripe.valueCollection().iterator());
+		}
+		return Iterators.concat(stripeIterators.iterator());
 	}
 
+	/**
+	 * Not safe to use while results are being added
+	 */
 	@Override
 	public Iterator<AseVariantAppendable> iterator() {
-		return results.iterator();
+		ArrayList<Iterator<AseVariantAppendable>> chrIterators = new ArrayList<Iterator<AseVariantAppendable>>(results.size());
+		for (String chr : results.keySet()) {
+			chrIterators.add(chrIterator(chr));
+		}
+		return Iterators.concat(chrIterators.iterator());
 	}
 	
 	public boolean isEncounteredBaseQuality() {
@@ -61,7 +114,13 @@ public class AseResults implements Iterable<AseVariantAppendable> {
 	}
 	
 	public int getCount(){
-		return results.size();
+		int count = 0;
+		for (TIntObjectHashMap<AseVariantAppendable>[] chrStripes : results.values()) {
+			for (TIntObjectHashMap<AseVariantAppendable> stripe : chrStripes) {
+				count += stripe.size();
+			}
+		}
+		return count;
 	}
 	
-}
\ No newline at end of file
+}
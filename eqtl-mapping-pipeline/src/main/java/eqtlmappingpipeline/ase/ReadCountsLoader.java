@@ -1,19 +1,13 @@
 package eqtlmappingpipeline.ase;
 
-import gnu.trove.map.TObjectIntMap;
-import gnu.trove.map.hash.TObjectIntHashMap;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicInteger;
 import org.apache.log4j.Logger;
-import org.molgenis.genotype.Allele;
-import org.molgenis.genotype.Alleles;
 import org.molgenis.genotype.GenotypeDataException;
 import org.molgenis.genotype.RandomAccessGenotypeData;
 import org.molgenis.genotype.Sample;
@@ -36,8 +30,7 @@ public class ReadCountsLoader implements Runnable {
 	private final Set<String> detectedSampleSet;
 	private final AtomicInteger fileCounter;
 	private final AseConfiguration configuration;
-	private final RandomAccessGenotypeData genotypeReference;
-	Map<String, String> refToStudySampleId;
+	private final ReferenceGenotypeIndex genotypeReference;
 	private final String chr;
 	private final int start;
 	private final int stop;
@@ -48,17 +41,28 @@ public class ReadCountsLoader implements Runnable {
 	}
 
 	public ReadCountsLoader(Iterator<File> inputFileIterator, AseResults aseResults, Set<String> detectedSampleSet, AtomicInteger fileCounter, AseConfiguration configuration, RandomAccessGenotypeData genotypeReference) {
-		this(inputFileIterator, aseResults, detectedSampleSet, fileCounter, configuration, genotypeReference, null, null, 0, Integer.MAX_VALUE);
+		this(inputFileIterator, aseResults, detectedSampleSet, fileCounter, configuration, genotypeReference == null ? null : new ReferenceGenotypeIndex(genotypeReference, null, null, 0, Integer.MAX_VALUE), null, 0, Integer.MAX_VALUE);
 	}
 
-	public ReadCountsLoader(Iterator<File> inputFileIterator, AseResults aseResults, Set<String> detectedSampleSet, AtomicInteger fileCounter, AseConfiguration configuration, RandomAccessGenotypeData genotypeReference, Map<String, String> refToStudySampleId, String chr, int start, int stop) {
+	/**
+	 * 
+	 * @param inputFileIterator
+	 * @param aseResults
+	 * @param detectedSampleSet
+	 * @param fileCounter
+	 * @param configuration
+	 * @param genotypeReference reference genotypes of at least the region to load, can be null. Shared by the loader threads.
+	 * @param chr null to load all chromosomes
+	 * @param start
+	 * @param stop 
+	 */
+	public ReadCountsLoader(Iterator<File> inputFileIterator, AseResults aseResults, Set<String> detectedSampleSet, AtomicInteger fileCounter, AseConfiguration configuration, ReferenceGenotypeIndex genotypeReference, String chr, int start, int stop) {
 		this.inputFileIterator = inputFileIterator;
 		this.aseResults = aseResults;
 		this.detectedSampleSet = detectedSampleSet;
 		this.fileCounter = fileCounter;
 		this.configuration = configuration;
 		this.genotypeReference = genotypeReference;
-		this.refToStudySampleId = refToStudySampleId == null ? (Map<String, String>) Collections.EMPTY_MAP : refToStudySampleId;
 		this.chr = chr;
 		this.start = start;
 		this.stop = stop;
@@ -67,32 +71,6 @@ public class ReadCountsLoader implements Runnable {
 	@Override
 	public void run() {
 
-		TObjectIntMap<String> referenceSamples = null;
-		try {
-			if (genotypeReference != null) {
-				String[] referenceSampleNames = genotypeReference.getSampleNames();
-				referenceSamples = new TObjectIntHashMap<String>(referenceSampleNames.length, 0.2f, -1);
-
-				int i = 0;
-				for (String sample : referenceSampleNames) {
-
-					String translatedSampleId = refToStudySampleId.get(sample);
-					if(translatedSampleId != null){
-						referenceSamples.put(translatedSampleId, i);
-					} else {
-						referenceSamples.put(sample, i);
-					}
-
-					++i;
-				}
-
-			}
-		} catch (Exception ex) {
-			System.err.println("Error reading samples from reference data: " + ex.getMessage());
-			LOGGER.fatal("Error reading samples from reference data.", ex);
-			System.exit(1);
-		}
-
 		File inputFile = null;
 
 		try {
@@ -144,17 +122,18 @@ public class ReadCountsLoader implements Runnable {
 						
 						Iterator<String> sampleIdIterator = sampleIds.iterator();
 
-						List<Alleles> referenceVariantAlleles = null;
+						ReferenceGenotypeIndex.ReferenceSnp referenceVariant = null;
 
 						for (GenotypeRecord record : variant.getSampleGenotypeRecords()) {
 
 							String sampleId = sampleIdIterator.next();
 
 							try {
-								Alleles alleles;
 								if (genotypeReference == null) {
 									//Use this VCF to check if sample is hetrozygous for this variant
-									alleles = record.getSampleAlleles();
+									if (!ReferenceGenotypeIndex.isHeterozygousOrMissing(record.getSampleAlleles())) {
+										continue;
+									}
 
 //									if (alleles == null) {
 //										throw new AseException("When using VCF file with out GT field you must provide a dataset with genotypes");
@@ -162,39 +141,31 @@ public class ReadCountsLoader implements Runnable {
 
 								} else {
 									//Use reference VCF to check if sample is hetrozygous for this variant
-									if (referenceVariantAlleles == null) {
-
-										synchronized (genotypeReference) {
-
-											GeneticVariant referenceVariant = genotypeReference.getSnpVariantByPos(variant.getSequenceName(), variant.getStartPos());
-											if (referenceVariant == null) {
-												//LOGGER.debug("Variant not found in reference " + variant.getSequenceName() + ":" + variant.getStartPos());
-												continue variants;
-											}
+									if (referenceVariant == null) {
 
-											if (!referenceVariant.getVariantAlleles().sameAlleles(variant.getVariantAlleles())) {
-												continue variants;
-											}
-											
-											if(variantId == null || variantId == GeneticVariantId.BLANK_GENETIC_VARIANT_ID){
-												variantId = referenceVariant.getVariantId();
-											}
+										referenceVariant = genotypeReference.getSnp(variant.getSequenceName(), variant.getStartPos());
+										if (referenceVariant == null) {
+											//LOGGER.debug("Variant not found in reference " + variant.getSequenceName() + ":" + variant.getStartPos());
+											continue variants;
+										}
 
-											referenceVariantAlleles = referenceVariant.getSampleVariants();
+										if (!referenceVariant.getVariantAlleles().sameAlleles(variant.getVariantAlleles())) {
+											continue variants;
+										}
 
+										if(variantId == null || variantId == GeneticVariantId.BLANK_GENETIC_VARIANT_ID){
+											variantId = referenceVariant.getVariantId();
 										}
 
 									}
-									int sampleIndexRef = referenceSamples.get(sampleId);
+									int sampleIndexRef = genotypeReference.getSampleIndex(sampleId);
 									if (sampleIndexRef == -1) {
 										throw new GenotypeDataException("Sample " + sampleId + " not found in data with reference genotypes");
 									}
-									alleles = referenceVariantAlleles.get(sampleIndexRef);
-
-								}
+									if (!referenceVariant.isHeterozygousOrMissing(sampleIndexRef)) {
+										continue;
+									}
 
-								if (alleles != null && (alleles.getAlleleCount() != 2 || alleles.get(0) == alleles.get(1) || alleles.contains(Allele.ZERO))) {
-									continue;
 								}
 
 								List<Integer> counts = (List<Integer>) record.getGenotypeRecordData("AD");							
@@ -0,0 +1,230 @@
+package eqtlmappingpipeline.ase;
+
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.TObjectIntMap;
+import gnu.trove.map.hash.TObjectIntHashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import org.molgenis.genotype.Allele;
+import org.molgenis.genotype.Alleles;
+import org.molgenis.genotype.RandomAccessGenotypeData;
+import org.molgenis.genotype.variant.GeneticVariant;
+import org.molgenis.genotype.variant.id.GeneticVariantId;
+
+/**
+ * Reference SNPs of a region, indexed once before the read counts are loaded.
+ * Per SNP the position, alleles, ID and one byte per sample with the call of
+ * the sample are indexed. The index is not modified after construction so the
+ * loader threads can query it without locking the reference genotype data.
+ * <p>
+ * Without a region nothing is indexed and every query goes to the reference
+ * genotype data under a lock, as indexing all variants of a whole genome would
+ * cost too much memory.
+ */
+public class ReferenceGenotypeIndex {
+
+	private static final byte CALL_MISSING = 0;
+	private static final byte CALL_HETEROZYGOUS = 1;
+	private static final byte CALL_OTHER = 2;
+
+	private final RandomAccessGenotypeData genotypeReference;
+	private final TObjectIntMap<String> sampleIndex;
+	private final String chr;
+	private final int[] positions;
+	private final Alleles[] variantAlleles;
+	private final GeneticVariantId[] variantIds;
+	private final byte[][] sampleCalls;
+
+	/**
+	 * @param genotypeReference
+	 * @param refToStudySampleId optional mapping of reference sample IDs to
+	 * the sample IDs in the read count files, can be null
+	 * @param chr null to not index and query the reference genotype data
+	 * directly
+	 * @param start
+	 * @param stop
+	 */
+	public ReferenceGenotypeIndex(RandomAccessGenotypeData genotypeReference, Map<String, String> refToStudySampleId, String chr, int start, int stop) {
+
+		this.genotypeReference = genotypeReference;
+		this.chr = chr;
+
+		if (refToStudySampleId == null) {
+			refToStudySampleId = Collections.emptyMap();
+		}
+
+		String[] referenceSampleNames = genotypeReference.getSampleNames();
+		sampleIndex = new TObjectIntHashMap<String>(referenceSampleNames.length, 0.2f, -1);
+		int i = 0;
+		for (String sample : referenceSampleNames) {
+			String translatedSampleId = refToStudySampleId.get(sample);
+			if (translatedSampleId != null) {
+				sampleIndex.put(translatedSampleId, i);
+			} else {
+				sampleIndex.put(sample, i);
+			}
+			++i;
+		}
+
+		if (chr == null) {
+			positions = null;
+			variantAlleles = null;
+			variantIds = null;
+			sampleCalls = null;
+			return;
+		}
+
+		TIntArrayList regionPositions = new TIntArrayList();
+		ArrayList<Alleles> regionAlleles = new ArrayList<Alleles>();
+		ArrayList<GeneticVariantId> regionIds = new ArrayList<GeneticVariantId>();
+		ArrayList<byte[]> regionSampleCalls = new ArrayList<byte[]>();
+		for (GeneticVariant variant : genotypeReference.getVariantsByRange(chr, start, stop)) {
+			if (variant.isSnp()) {
+				regionPositions.add(variant.getStartPos());
+				regionAlleles.add(variant.getVariantAlleles());
+				regionIds.add(variant.getVariantId());
+				regionSampleCalls.add(getSampleCalls(variant));
+			}
+		}
+
+		//Sort on position, ties in order of the reference data
+		final int n = regionPositions.size();
+		long[] order = new long[n];
+		for (int j = 0; j < n; ++j) {
+			order[j] = ((long) regionPositions.get(j) << 32) | j;
+		}
+		Arrays.sort(order);
+
+		//Only one SNP possible per position, same as getSnpVariantByPos
+		TIntArrayList sortedPositions = new TIntArrayList(n);
+		ArrayList<Alleles> sortedAlleles = new ArrayList<Alleles>(n);
+		ArrayList<GeneticVariantId> sortedIds = new ArrayList<GeneticVariantId>(n);
+		ArrayList<byte[]> sortedSampleCalls = new ArrayList<byte[]>(n);
+		for (int j = 0; j < n; ++j) {
+			int index = (int) order[j];
+			int pos = regionPositions.get(index);
+			if (sortedPositions.isEmpty() || sortedPositions.get(sortedPositions.size() - 1) != pos) {
+				sortedPositions.add(pos);
+				sortedAlleles.add(regionAlleles.get(index));
+				sortedIds.add(regionIds.get(index));
+				sortedSampleCalls.add(regionSampleCalls.get(index));
+			}
+		}
+
+		positions = sortedPositions.toArray();
+		variantAlleles = sortedAlleles.toArray(new Alleles[sortedAlleles.size()]);
+		variantIds = sortedIds.toArray(new GeneticVariantId[sortedIds.size()]);
+		sampleCalls = sortedSampleCalls.toArray(new byte[sortedSampleCalls.size()][]);
+
+	}
+
+	/**
+	 * @param chr
+	 * @param pos
+	 * @return null if there is no SNP at this position
+	 */
+	public ReferenceSnp getSnp(String chr, int pos) {
+
+		if (this.chr == null) {
+			synchronized (genotypeReference) {
+				GeneticVariant referenceVariant = genotypeReference.getSnpVariantByPos(chr, pos);
+				if (referenceVariant == null) {
+					return null;
+				}
+				return new ReferenceSnp(referenceVariant.getVariantAlleles(), referenceVariant.getVariantId(), getSampleCalls(referenceVariant));
+			}
+		}
+
+		if (!this.chr.equals(chr)) {
+			return null;
+		}
+
+		int index = Arrays.binarySearch(positions, pos);
+		if (index < 0) {
+			return null;
+		}
+		return new ReferenceSnp(variantAlleles[index], variantIds[index], sampleCalls[index]);
+
+	}
+
+	/**
+	 * @param sampleId
+	 * @return -1 if sample is not in the reference
+	 */
+	public int getSampleIndex(String sampleId) {
+		return sampleIndex.get(sampleId);
+	}
+
+	/**
+	 * @return number of indexed SNPs, 0 if not indexed
+	 */
+	public int getSnpCount() {
+		return positions == null ? 0 : positions.length;
+	}
+
+	/**
+	 * Samples that are not heterozygous for two alleles can not show allele
+	 * specific expression. Samples without call are not excluded.
+	 *
+	 * @param alleles
+	 * @return
+	 */
+	public static boolean isHeterozygousOrMissing(Alleles alleles) {
+		return getSampleCall(alleles) != CALL_OTHER;
+	}
+
+	private static byte getSampleCall(Alleles alleles) {
+		if (alleles == null) {
+			return CALL_MISSING;
+		} else if (alleles.getAlleleCount() != 2 || alleles.get(0) == alleles.get(1) || alleles.contains(Allele.ZERO)) {
+			return CALL_OTHER;
+		} else {
+			return CALL_HETEROZYGOUS;
+		}
+	}
+
+	private static byte[] getSampleCalls(GeneticVariant variant) {
+		List<Alleles> sampleAlleles = variant.getSampleVariants();
+		byte[] calls = new byte[sampleAlleles.size()];
+		int i = 0;
+		for (Alleles alleles : sampleAlleles) {
+			calls[i++] = getSampleCall(alleles);
+		}
+		return calls;
+	}
+
+	public static class ReferenceSnp {
+
+		private final Alleles variantAlleles;
+		private final GeneticVariantId variantId;
+		private final byte[] sampleCalls;
+
+		private ReferenceSnp(Alleles variantAlleles, GeneticVariantId variantId, byte[] sampleCalls) {
+			this.variantAlleles = variantAlleles;
+			this.variantId = variantId;
+			this.sampleCalls = sampleCalls;
+		}
+
+		public Alleles getVariantAlleles() {
+			return variantAlleles;
+		}
+
+		public GeneticVariantId getVariantId() {
+			return variantId;
+		}
+
+		/**
+		 * @param sampleIndex index of the sample in the reference
+		 * @return false if the reference genotype of this sample excludes it
+		 * @see ReferenceGenotypeIndex#isHeterozygousOrMissing(Alleles)
+		 */
+		public boolean isHeterozygousOrMissing(int sampleIndex) {
+			return sampleCalls[sampleIndex] != CALL_OTHER;
+		}
+
+	}
+
+}
@@ -21,7 +21,9 @@ import umcg.genetica.math.stats.Correlation;
 import umcg.genetica.math.stats.Descriptives;
 import umcg.genetica.math.stats.ZScores;
 
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.concurrent.LinkedBlockingQueue;
 
 /**
@@ -60,6 +62,15 @@ class CalculationThread extends Thread {
 	private boolean metaAnalyseInteractionTerms = false;
 	private boolean metaAnalyseModelCorrelationYHat = false;
 	private static DRand randomEngine = new cern.jet.random.tdouble.engine.DRand();
+	private final int m_transBlockSize;
+
+	// maximum number of trans work packages that are correlated with the expression data in one pass
+	private static final int TRANS_BLOCK_SIZE = 256;
+	// maximum number of correlations of a block, per thread. With many probes and datasets the block is smaller
+	private static final int MAX_BLOCK_CORRELATIONS = 4 * 1024 * 1024;
+	// tile sizes of the block correlation, a tile of probes by samples of the expression data should fit in the L2 cache
+	private static final int PROBE_TILE_SIZE = 64;
+	private static final int SAMPLE_TILE_SIZE = 512;
 
 	CalculationThread(int i, LinkedBlockingQueue<WorkPackage> packageQueue, LinkedBlockingQueue<WorkPackage> resultQueue, TriTyperExpressionData[] expressiondata,
 					  DoubleMatrixDataset<String, String>[] covariates,
@@ -81,6 +92,12 @@ class CalculationThread extends Thread {
 		m_numDatasets = m_probeTranslation.rows();
 		m_expressionToGenotypeIds = expressionToGenotypeIds;
 
+		long correlationsPerPackage = 0;
+		for (TriTyperExpressionData dataset : expressiondata) {
+			correlationsPerPackage += dataset.getMatrix().length;
+		}
+		m_transBlockSize = getTransBlockSize(correlationsPerPackage);
+
 //        probeVariance = new double[m_numDatasets][0];
 //        probeMean = new double[m_numDatasets][0];
 //        probeName = new String[m_numDatasets][0];
@@ -117,10 +134,34 @@ class CalculationThread extends Thread {
 		while (!poison) {
 			try {
 				WorkPackage pack = m_workpackage_queue.take();
-				if (!pack.getPoison()) {
+				if (pack.getPoison()) {
+					poison = true;
+				} else if (cisOnly || determinefoldchange) {
 					analyze(pack);
 				} else {
-					poison = pack.getPoison();
+					// take the packages that are already waiting, so their SNPs can be tested together
+					ArrayList<WorkPackage> block = new ArrayList<WorkPackage>(m_transBlockSize);
+					block.add(pack);
+					m_workpackage_queue.drainTo(block, m_transBlockSize - 1);
+
+					ArrayList<WorkPackage> poisonPackages = new ArrayList<WorkPackage>();
+					Iterator<WorkPackage> it = block.iterator();
+					while (it.hasNext()) {
+						WorkPackage wp = it.next();
+						if (wp.getPoison()) {
+							poisonPackages.add(wp);
+							it.remove();
+						}
+					}
+					if (!poisonPackages.isEmpty()) {
+						// this thread needs only one, the others are meant for the other threads
+						poison = true;
+						for (int i = 1; i < poisonPackages.size(); i++) {
+							m_workpackage_queue.put(poisonPackages.get(i));
+						}
+					}
+
+					analyzeBlock(block);
 				}
 
 			} catch (InterruptedException ex) {
@@ -137,64 +178,124 @@ class CalculationThread extends Thread {
 		done = true;
 	}
 
-	private void analyze(WorkPackage wp) {
-		testsPerformed = 0;
-		currentWP = wp;
-		wp.setNumTested(0);
-//        RunTimer t1 = new RunTimer();
-		// load SNP genotypes
-		SNP[] snps = wp.getSnps();
-		int[] probes = wp.getProbes();
-		Result dsResults = null;
+	void analyze(WorkPackage wp) {
+		analyze(wp, new PreparedGenotypes(wp), null);
+	}
 
-		double[] snpvariances = new double[m_numDatasets];
-		double[][] snpmeancorrectedgenotypes = new double[m_numDatasets][0];
-		double[][] originalgenotypes = new double[m_numDatasets][0];
-		boolean[][] includeExpressionSample = new boolean[m_numDatasets][0];
+	/**
+	 * @param correlationsPerPackage number of probes summed over the datasets
+	 * @return number of trans work packages to correlate at once, so the correlations of a block stay below
+	 * {@link #MAX_BLOCK_CORRELATIONS}
+	 */
+	static int getTransBlockSize(long correlationsPerPackage) {
+		if (correlationsPerPackage <= 0) {
+			return TRANS_BLOCK_SIZE;
+		}
+		return (int) Math.max(1, Math.min(TRANS_BLOCK_SIZE, MAX_BLOCK_CORRELATIONS / correlationsPerPackage));
+	}
 
-		for (int d = 0; d < m_numDatasets; d++) {
-			SNP dSNP = snps[d];
+	/**
+	 * Analyzes a block of trans work packages. The correlations of the SNPs without missing genotypes are calculated
+	 * for the whole block at once, see {@link #correlateBlock(WorkPackage[], PreparedGenotypes[])}; the results are
+	 * still processed and queued per work package.
+	 */
+	void analyzeBlock(ArrayList<WorkPackage> block) {
+		if (block.isEmpty()) {
+			return;
+		}
+		WorkPackage[] packages = block.toArray(new WorkPackage[block.size()]);
+		PreparedGenotypes[] genotypes = new PreparedGenotypes[packages.length];
+		for (int b = 0; b < packages.length; b++) {
+			genotypes[b] = new PreparedGenotypes(packages[b]);
+		}
 
+		double[][][] correlations = correlateBlock(packages, genotypes);
 
-			if (dSNP != null) {
+		for (int b = 0; b < packages.length; b++) {
+			analyze(packages[b], genotypes[b], correlations[b]);
+			genotypes[b] = null;
+			correlations[b] = null;
+		}
+	}
 
-				double[] x = dSNP.selectGenotypes(m_expressionToGenotypeIds[d], false, true);
-				originalgenotypes[d] = dSNP.selectGenotypes(m_expressionToGenotypeIds[d], false, false);
+	/**
+	 * Mean centered genotypes of the SNP of a work package per dataset. SNPs without variance are removed from the
+	 * work package.
+	 */
+	private class PreparedGenotypes {
 
-				int xLen = x.length;
-				double meanX = JSci.maths.ArrayMath.mean(x);
+		final double[] snpvariances = new double[m_numDatasets];
+		final double[][] snpmeancorrectedgenotypes = new double[m_numDatasets][0];
+		final double[][] originalgenotypes = new double[m_numDatasets][0];
+		final boolean[][] includeExpressionSample = new boolean[m_numDatasets][0];
 
-				snpmeancorrectedgenotypes[d] = new double[xLen];
+		PreparedGenotypes(WorkPackage wp) {
+			SNP[] snps = wp.getSnps();
 
-				for (int i = 0; i < xLen; i++) {
-					snpmeancorrectedgenotypes[d][i] = x[i] - meanX;
-				}
+			for (int d = 0; d < m_numDatasets; d++) {
+				SNP dSNP = snps[d];
 
-				double varianceX = JSci.maths.ArrayMath.variance(x);
-				if (varianceX != 0) {
-					snpvariances[d] = varianceX;
 
-					int[] inds = m_expressionToGenotypeIds[d];
-					int sampleCount = m_expressionToGenotypeIds[d].length;
-					includeExpressionSample[d] = new boolean[sampleCount];
-					byte[] genotypes = dSNP.getGenotypes();
-					for (int s = 0; s < sampleCount; s++) {
-						int ind = inds[s];
-						double valX = genotypes[ind]; // loadedSNPGenotype[ind];
-						if (valX != -1) {
-							includeExpressionSample[d][s] = true;
-						} else {
-							includeExpressionSample[d][s] = false;
+				if (dSNP != null) {
+
+					double[] x = dSNP.selectGenotypes(m_expressionToGenotypeIds[d], false, true);
+					originalgenotypes[d] = dSNP.selectGenotypes(m_expressionToGenotypeIds[d], false, false);
+
+					int xLen = x.length;
+					double meanX = JSci.maths.ArrayMath.mean(x);
+
+					snpmeancorrectedgenotypes[d] = new double[xLen];
+
+					for (int i = 0; i < xLen; i++) {
+						snpmeancorrectedgenotypes[d][i] = x[i] - meanX;
+					}
+
+					double varianceX = JSci.maths.ArrayMath.variance(x);
+					if (varianceX != 0) {
+						snpvariances[d] = varianceX;
+
+						int[] inds = m_expressionToGenotypeIds[d];
+						int sampleCount = m_expressionToGenotypeIds[d].length;
+						includeExpressionSample[d] = new boolean[sampleCount];
+						byte[] genotypes = dSNP.getGenotypes();
+						for (int s = 0; s < sampleCount; s++) {
+							int ind = inds[s];
+							double valX = genotypes[ind]; // loadedSNPGenotype[ind];
+							if (valX != -1) {
+								includeExpressionSample[d][s] = true;
+							} else {
+								includeExpressionSample[d][s] = false;
+							}
 						}
+					} else {
+						dSNP.clearGenotypes();
+						dSNP = null;
+						wp.getFlipSNPAlleles()[d] = null;
+						snps[d] = null;
 					}
-				} else {
-					dSNP.clearGenotypes();
-					dSNP = null;
-					wp.getFlipSNPAlleles()[d] = null;
-					snps[d] = null;
 				}
 			}
 		}
+	}
+
+	/**
+	 * @param correlations correlation per dataset and probe of the dataset, as calculated by
+	 *                     {@link #correlateBlock(WorkPackage[], PreparedGenotypes[])}. Datasets without correlations,
+	 *                     or a null array, are tested per probe.
+	 */
+	private void analyze(WorkPackage wp, PreparedGenotypes genotypes, double[][] correlations) {
+		testsPerformed = 0;
+		currentWP = wp;
+		wp.setNumTested(0);
+//        RunTimer t1 = new RunTimer();
+		SNP[] snps = wp.getSnps();
+		int[] probes = wp.getProbes();
+		Result dsResults = null;
+
+		double[] snpvariances = genotypes.snpvariances;
+		double[][] snpmeancorrectedgenotypes = genotypes.snpmeancorrectedgenotypes;
+		double[][] originalgenotypes = genotypes.originalgenotypes;
+		boolean[][] includeExpressionSample = genotypes.includeExpressionSample;
 
 		if (cisOnly) {
 			dsResults = new Result(m_numDatasets, wp.getProbes().length, wp.getId());
@@ -255,7 +356,11 @@ class CalculationThread extends Thread {
 						if (probestoExclude == null || !probestoExclude.contains(pid)) {
 							Integer probeId = m_probeTranslation.get(d, pid);
 							if (probeId != -9) {
-								test(d, pid, probeId, snpmeancorrectedgenotypes[d], originalgenotypes[d], snpvariances[d], varY[probeId], meanY[probeId], includeExpressionSample[d], samplecount, rawData, null, dsResults, this.currentWP, this.metaAnalyseModelCorrelationYHat, this.metaAnalyseInteractionTerms, this.determinefoldchange);
+								if (correlations != null && correlations[d] != null && isMeanCentered(meanY[probeId])) {
+									setCorrelation(d, pid, correlations[d][probeId], samplecount, snpvariances[d], varY[probeId], dsResults);
+								} else {
+									test(d, pid, probeId, snpmeancorrectedgenotypes[d], originalgenotypes[d], snpvariances[d], varY[probeId], meanY[probeId], includeExpressionSample[d], samplecount, rawData, null, dsResults, this.currentWP, this.metaAnalyseModelCorrelationYHat, this.metaAnalyseInteractionTerms, this.determinefoldchange);
+								}
 							} else {
 								dsResults.correlations[d][pid] = Double.NaN;
 								dsResults.zscores[d][pid] = Double.NaN;
@@ -288,7 +393,11 @@ class CalculationThread extends Thread {
 					for (int pid = 0; pid < m_numProbes; pid++) {
 						Integer probeId = m_probeTranslation.get(d, pid);
 						if (probeId != -9) {
-							test(d, pid, probeId, snpmeancorrectedgenotypes[d], originalgenotypes[d], snpvariances[d], varY[probeId], meanY[probeId], includeExpressionSample[d], samplecount, rawData, null, dsResults, this.currentWP, this.metaAnalyseModelCorrelationYHat, this.metaAnalyseInteractionTerms, this.determinefoldchange);
+							if (correlations != null && correlations[d] != null && isMeanCentered(meanY[probeId])) {
+								setCorrelation(d, pid, correlations[d][probeId], samplecount, snpvariances[d], varY[probeId], dsResults);
+							} else {
+								test(d, pid, probeId, snpmeancorrectedgenotypes[d], originalgenotypes[d], snpvariances[d], varY[probeId], meanY[probeId], includeExpressionSample[d], samplecount, rawData, null, dsResults, this.currentWP, this.metaAnalyseModelCorrelationYHat, this.metaAnalyseInteractionTerms, this.determinefoldchange);
+							}
 						} else {
 							dsResults.correlations[d][pid] = Double.NaN;
 							dsResults.zscores[d][pid] = Double.NaN;
@@ -343,6 +452,118 @@ class CalculationThread extends Thread {
 	}
 
 
+	/**
+	 * Correlates the SNPs of a block of work packages with all probes at once. Per dataset, the mean centered
+	 * genotypes of the SNPs without missing genotypes are multiplied with the expression matrix in tiles of probes and
+	 * samples, so a tile of expression data is loaded into the cache once per block instead of once per SNP. SNPs with
+	 * missing genotypes need a per probe recalculation of the expression mean and variance and are left to
+	 * {@link #test}.
+	 *
+	 * @return correlations per work package, dataset and probe of the dataset; null for datasets that were not
+	 * correlated
+	 */
+	private double[][][] correlateBlock(WorkPackage[] packages, PreparedGenotypes[] genotypes) {
+		double[][][] correlations = new double[packages.length][m_numDatasets][];
+		for (int d = 0; d < m_numDatasets; d++) {
+			double[][] rawData = m_expressiondata[d].getMatrix();
+			double[] varY = m_expressiondata[d].getProbeVariance();
+			int samplecount = m_expressiondata[d].getIndividuals().length;
+
+			int[] selected = new int[packages.length];
+			int nrSelected = 0;
+			for (int b = 0; b < packages.length; b++) {
+				if (packages[b].getSnps()[d] != null && genotypes[b].snpmeancorrectedgenotypes[d].length == samplecount) {
+					selected[nrSelected++] = b;
+				}
+			}
+			if (nrSelected == 0 || samplecount < 2) {
+				continue;
+			}
+
+			// scale the genotypes, so the cross products only need to be divided by the expression standard deviation
+			double[][] x = new double[nrSelected][samplecount];
+			for (int k = 0; k < nrSelected; k++) {
+				PreparedGenotypes g = genotypes[selected[k]];
+				double scale = 1d / ((samplecount - 1) * Math.sqrt(g.snpvariances[d]));
+				double[] genotypesK = g.snpmeancorrectedgenotypes[d];
+				for (int s = 0; s < samplecount; s++) {
+					x[k][s] = genotypesK[s] * scale;
+				}
+			}
+
+			double[][] crossProducts = new double[nrSelected][rawData.length];
+			multiplyTransposed(x, rawData, samplecount, crossProducts);
+
+			for (int k = 0; k < nrSelected; k++) {
+				double[] c = crossProducts[k];
+				for (int probe = 0; probe < c.length; probe++) {
+					c[probe] /= Math.sqrt(varY[probe]);
+				}
+				correlations[selected[k]][d] = c;
+			}
+		}
+		return correlations;
+	}
+
+	/**
+	 * Adds x times the transpose of y to out, over the first sampleCount columns of x and y. The probes of y and the
+	 * samples are processed in tiles, so every tile of y is reused from the cache for all rows of x.
+	 */
+	static void multiplyTransposed(double[][] x, double[][] y, int sampleCount, double[][] out) {
+		for (int s0 = 0; s0 < sampleCount; s0 += SAMPLE_TILE_SIZE) {
+			int s1 = Math.min(sampleCount, s0 + SAMPLE_TILE_SIZE);
+			for (int p0 = 0; p0 < y.length; p0 += PROBE_TILE_SIZE) {
+				int p1 = Math.min(y.length, p0 + PROBE_TILE_SIZE);
+				for (int k = 0; k < x.length; k++) {
+					double[] xk = x[k];
+					double[] outK = out[k];
+					for (int p = p0; p < p1; p++) {
+						double[] yp = y[p];
+						// independent accumulators so the products can be pipelined
+						double sum0 = 0;
+						double sum1 = 0;
+						double sum2 = 0;
+						double sum3 = 0;
+						int s = s0;
+						for (; s + 3 < s1; s += 4) {
+							sum0 += xk[s] * yp[s];
+							sum1 += xk[s + 1] * yp[s + 1];
+							sum2 += xk[s + 2] * yp[s + 2];
+							sum3 += xk[s + 3] * yp[s + 3];
+						}
+						for (; s < s1; s++) {
+							sum0 += xk[s] * yp[s];
+						}
+						outK[p] += (sum0 + sum1) + (sum2 + sum3);
+					}
+				}
+			}
+		}
+	}
+
+	private static boolean isMeanCentered(double meanY) {
+		return meanY <= 0.000000001d && meanY >= -0.00000001d;
+	}
+
+	/**
+	 * Stores a correlation calculated by {@link #correlateBlock(WorkPackage[], PreparedGenotypes[])}, in the same way
+	 * as {@link #test} does for data without covariates.
+	 */
+	private static void setCorrelation(int d, int p, double correlation, int sampleCount, double varianceX, double varianceY, Result r) {
+		if (varianceY == 0) {
+			r.zscores[d][p] = Double.NaN;
+			r.correlations[d][p] = Double.NaN;
+		} else if (correlation >= -1 && correlation <= 1) {
+			r.zscores[d][p] = Correlation.convertCorrelationToZScore(sampleCount, correlation);
+			r.correlations[d][p] = correlation;
+		} else {
+			// Ususally if the genotype variance is very low
+			System.err.println("Error! correlation invalid: " + correlation + "; genotype variance = " + varianceX + "; expression variance = " + varianceY);
+			r.zscores[d][p] = Double.NaN;
+			r.correlations[d][p] = Double.NaN;
+		}
+	}
+
 	protected static void test(int d, int p, Integer probeId, double[] x, double[] originalGenotypes, double varianceX,
 							   double varianceY, double meanY, boolean[] includeExpressionSample, int sampleCount,
 							   double[][] rawData, double[][] covariateRawData, Result r, WorkPackage wp,
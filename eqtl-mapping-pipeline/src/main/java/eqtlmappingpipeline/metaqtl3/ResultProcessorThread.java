@@ -10,6 +10,7 @@ import eqtlmappingpipeline.metaqtl3.containers.Result;
 import eqtlmappingpipeline.metaqtl3.containers.Settings;
 import eqtlmappingpipeline.metaqtl3.containers.WorkPackage;
 import umcg.genetica.console.ProgressBar;
+import umcg.genetica.containers.BoundedResultHeap;
 import umcg.genetica.io.bin.BinaryFile;
 import umcg.genetica.io.text.TextFile;
 import umcg.genetica.io.trityper.QTLTextFile;
@@ -23,6 +24,7 @@ import java.io.BufferedWriter;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.text.DecimalFormat;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.concurrent.LinkedBlockingQueue;
 
@@ -65,11 +67,7 @@ public class ResultProcessorThread extends Thread {
     private final LinkedBlockingQueue<WorkPackage> m_queue;
     private final WorkPackage[] m_availableWorkPackages;
     private long nrTestsPerformed = 0;
-    private QTL[] finalEQTLs;
-    private double maxSavedPvalue = -Double.MAX_VALUE;
-    private int locationToStoreResult = 0;
-    private boolean bufferHasOverFlown = false;
-    private boolean sorted = false;
+    private final BoundedResultHeap<QTL> finalEQTLs;
     private int m_maxResults = 0;
     public double highestP = Double.MAX_VALUE;
     private int nrSNPsTested = 0;
@@ -109,22 +107,12 @@ public class ResultProcessorThread extends Thread {
         omitDatasetSummaryStats = settings.omitDatasetSummaryStats;
 
         usemd5 = settings.usemd5hash;
-        int tmpbuffersize = (m_maxResults / 10);
-
-        if (tmpbuffersize == 0) {
-            tmpbuffersize = 10;
-        } else if (tmpbuffersize > 250000) {
-            tmpbuffersize = 250000;
-        } else if (m_maxResults < 1000000) {
-            tmpbuffersize = 1000000;
-        }
 
 //        m_totalNumberOfProbes = probelist.length;
 //        m_pvaluePlotThreshold = settings.plotOutputPValueCutOff;
-//        tmpEQTLBuffer = new QTL[tmpbuffersize];
 //        m_result_counter = 0;   
 //        m_numdatasets = m_gg.length;
-        finalEQTLs = new QTL[(m_maxResults + tmpbuffersize)];
+        finalEQTLs = new BoundedResultHeap<QTL>(Math.max(1, m_maxResults));
         nrSNPsTested = 0;
     }
 
@@ -440,15 +428,6 @@ public class ResultProcessorThread extends Thread {
             }
 
             if (m_createTEXTFiles && !m_dumpEverythingToDisk) {
-                if (!sorted) {
-                    if (locationToStoreResult != 0) {
-
-                        Arrays.parallelSort(finalEQTLs, 0, locationToStoreResult);
-//                        SmoothSort.sort(finalEQTLs, 0, locationToStoreResult);
-//                        inplaceArrayQuickSort.sort(finalEQTLs, 0, locationToStoreResult);
-
-                    }
-                }
                 writeTextResults();
             }
 
@@ -683,45 +662,16 @@ public class ResultProcessorThread extends Thread {
                          double[] zscores, int[] numSamples, byte[] alleles, byte assessedAllele, double[] fc, double[] beta,
                          double[] betase, double finalbeta, double finalbetase) {
 
-        if (bufferHasOverFlown) {
-            if (pval <= maxSavedPvalue) {
-
-                sorted = false;
-
-                finalEQTLs[locationToStoreResult] = new QTL(pval, pid, sid, assessedAllele, zscore, alleles, zscores, numSamples, correlations, fc, beta, betase, finalbeta, finalbetase);
-                locationToStoreResult++;
-
-                if (locationToStoreResult == finalEQTLs.length) {
-
-                    Arrays.parallelSort(finalEQTLs);
-//                    SmoothSort.sort(finalEQTLs);
-//                    inplaceArrayQuickSort.sort(finalEQTLs);
-                    sorted = true;
-                    locationToStoreResult = m_maxResults;
-                    maxSavedPvalue = finalEQTLs[(m_maxResults - 1)].getPvalue();
-                }
-            }
-
-        } else {
-            if (pval > maxSavedPvalue) {
-                maxSavedPvalue = pval;
-            }
-
-            finalEQTLs[locationToStoreResult] = new QTL(pval, pid, sid, assessedAllele, zscore, alleles, zscores, numSamples, correlations, fc, beta, betase, finalbeta, finalbetase);
-            locationToStoreResult++;
-
-            if (locationToStoreResult == m_maxResults) {
-                bufferHasOverFlown = true;
-            }
+        // only create the QTL if it is among the most significant results sofar
+        if (finalEQTLs.isAccepted(pval, (float) zscore, sid, pid)) {
+            finalEQTLs.offer(pval, (float) zscore, sid, pid, new QTL(pval, pid, sid, assessedAllele, zscore, alleles, zscores, numSamples, correlations, fc, beta, betase, finalbeta, finalbetase));
         }
     }
 
     private void writeTextResults() throws IOException {
 
-        int nrOfEntriesToWrite = m_maxResults;
-        if (locationToStoreResult < m_maxResults) {
-            nrOfEntriesToWrite = locationToStoreResult;
-        }
+        ArrayList<QTL> sortedEQTLs = finalEQTLs.removeSorted();
+        int nrOfEntriesToWrite = sortedEQTLs.size();
 
         System.out.println("Writing " + nrOfEntriesToWrite + " results out of " + nrTestsPerformed + " tests performed. " + nrSNPsTested + " SNPs finally tested.");
 
@@ -729,13 +679,13 @@ public class ResultProcessorThread extends Thread {
             TextFile gz = new TextFile((m_outputdir + "PermutedEQTLsPermutationRound" + m_permutationround + ".txt.gz"), TextFile.W);
             gz.writeln("PValue\tSNP\tProbe\tGene\tAlleles\tAlleleAssessed\tZScore");
             for (int i = 0; i < nrOfEntriesToWrite; i++) {
-                gz.writeln(finalEQTLs[i].getPermutationDescription(m_availableWorkPackages, m_probeTranslation, m_gg, m_midpointprobedist));
+                gz.writeln(sortedEQTLs.get(i).getPermutationDescription(m_availableWorkPackages, m_probeTranslation, m_gg, m_midpointprobedist));
             }
             gz.close();
         } else {
             QTLTextFile et = new QTLTextFile((m_outputdir + "eQTLs.txt.gz"), QTLTextFile.W);
             for (int i = 0; i < nrOfEntriesToWrite; i++) {
-                et.writeln(finalEQTLs[i].getDescription(m_availableWorkPackages, m_probeTranslation, m_gg, m_midpointprobedist, omitDatasetSummaryStats));
+                et.writeln(sortedEQTLs.get(i).getDescription(m_availableWorkPackages, m_probeTranslation, m_gg, m_midpointprobedist, omitDatasetSummaryStats));
             }
             et.close();
         }
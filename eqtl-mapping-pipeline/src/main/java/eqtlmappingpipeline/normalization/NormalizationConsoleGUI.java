@@ -42,6 +42,7 @@ public class NormalizationConsoleGUI {
 		boolean storebinary = false;
 		int maxPcaToRemove = 100;
 		int stepSizePcaRemoval = 5;
+		int truncatedPca = 0;
 
 		for (int i = 0; i < args.length; i++) {
 			String arg = args[i];
@@ -115,6 +116,9 @@ public class NormalizationConsoleGUI {
 			if (arg.equals("--stepsizepcaremoval")) {
 				stepSizePcaRemoval = Integer.parseInt(val);
 			}
+			if (arg.equals("--truncatedpca")) {
+				truncatedPca = Integer.parseInt(val);
+			}
 			if (arg.equals("--forceReplacementOfMissingValuesSampleBased")) {
 				forceReplacementOfMissingValues = true;
 			}
@@ -179,6 +183,7 @@ public class NormalizationConsoleGUI {
 			if (storebinary) {
 				p.saveBinary = true;
 			}
+			p.nrPCsTruncatedPCA = truncatedPca;
 
 			if (prerank) {
 				p.rank(in, out);
@@ -237,6 +242,7 @@ public class NormalizationConsoleGUI {
 				+ "PCA parameters\n"
 				+ "--maxnrpcaremoved\tinteger\t\tMaximum number of PCs to remove\n"
 				+ "--stepsizepcaremoval\tinteger\t\tStep size for PC removal\n"
+				+ "--truncatedpca\tinteger\t\tOnly calculate this many PCs (at least --maxnrpcaremoved) using a randomized PCA, faster for many samples\n"
 				+ "\n"
 				+ "Selection\n"
 				+ "--probeInclude\tFile\tList of probes to keep in the file\n"
@@ -12,6 +12,7 @@ import umcg.genetica.containers.Triple;
 import umcg.genetica.io.Gpio;
 import umcg.genetica.io.text.TextFile;
 import umcg.genetica.math.PCAojAlgo;
+import umcg.genetica.math.RandomizedPCA;
 import umcg.genetica.math.matrix2.DoubleMatrixDataset;
 import umcg.genetica.math.matrix.MatrixHandling;
 import umcg.genetica.math.matrix.MatrixTools;
@@ -66,6 +67,11 @@ public class Normalizer {
 
     public boolean saveBinary;
     private boolean loadBinary;
+    /**
+     * Number of PCs to calculate with a randomized truncated PCA instead of a full eigenvalue decomposition of the
+     * sample correlation matrix. 0 to use the full decomposition.
+     */
+    public int nrPCsTruncatedPCA = 0;
 
 
     public void rank(String input, String output) throws IOException {
@@ -276,7 +282,15 @@ public class Normalizer {
         }
 
 
-        if (runPCA) {
+        if (runPCA && nrPCsTruncatedPCA > 0) {
+
+            int nrPCs = Math.min(dataset.columns(), Math.max(nrPCsTruncatedPCA, nrPCAsOverSamplesToRemove));
+            Pair<DoubleMatrixDataset<String, String>, DoubleMatrixDataset<String, String>> PCAResults = calculateTruncatedPCA(dataset, outputFileNamePrefix, nrPCs);
+            if (nrPCAsOverSamplesToRemove != 0 || nrIntermediatePCAsOverSamplesToRemoveToOutput != 0) {
+                correctDataForPCs(dataset, outputFileNamePrefix, Math.min(nrPCs, nrPCAsOverSamplesToRemove), nrIntermediatePCAsOverSamplesToRemoveToOutput, PCAResults.getLeft(), PCAResults.getRight());
+            }
+
+        } else if (runPCA) {
 
             int cores = Runtime.getRuntime().availableProcessors();
             ConcurrentCorrelation c = new ConcurrentCorrelation(cores);
@@ -936,10 +950,54 @@ public class Normalizer {
             throw new IllegalArgumentException("Number of PCs to calculate should be at least 1");
         }
 
+        double[] eigenValues = pcaObj.getRealEigenValues();
+        double[] explainedVariance = new double[nrOfPCsToCalculate];
+        double[][] eigenVectors = new double[nrOfPCsToCalculate][];
+        for (int pca = 0; pca < nrOfPCsToCalculate; pca++) {
+            explainedVariance[pca] = pcaObj.getEigenValueVar(pca);
+            eigenVectors[pca] = pcaObj.getEigenVector(pca);
+        }
+
+        return savePCA(dataset, expressionFile, nrOfPCsToCalculate, eigenValues, explainedVariance, eigenVectors);
+    }
+
+    /**
+     * Calculates only the first PCs over samples with a randomized truncated PCA, without calculating the sample
+     * correlation matrix. Writes the same files as {@link #calculatePCA}.
+     *
+     * @param dataset
+     * @param fileNamePrefix
+     * @param nrOfPCsToCalculate
+     * @return the principal components and the eigenvectors
+     * @throws Exception
+     */
+    public Pair<DoubleMatrixDataset<String, String>, DoubleMatrixDataset<String, String>> calculateTruncatedPCA(DoubleMatrixDataset<String, String> dataset,
+                                                                                                                String fileNamePrefix,
+                                                                                                                int nrOfPCsToCalculate) throws Exception {
+        System.out.println("Calculating PCA over file: " + fileNamePrefix);
+        System.out.println("- Performing randomized PCA of the first " + nrOfPCsToCalculate + " PCs over " + dataset.columns() + " samples");
+        RandomizedPCA pcaObj = new RandomizedPCA(dataset.getMatrix(), nrOfPCsToCalculate);
+
+        double[] explainedVariance = new double[nrOfPCsToCalculate];
+        double[][] eigenVectors = new double[nrOfPCsToCalculate][];
+        for (int pca = 0; pca < nrOfPCsToCalculate; pca++) {
+            explainedVariance[pca] = pcaObj.getEigenValueVar(pca);
+            eigenVectors[pca] = pcaObj.getEigenVector(pca);
+        }
+
+        return savePCA(dataset, fileNamePrefix, nrOfPCsToCalculate, pcaObj.getEigenValues(), explainedVariance, eigenVectors);
+    }
+
+    private Pair<DoubleMatrixDataset<String, String>, DoubleMatrixDataset<String, String>> savePCA(DoubleMatrixDataset<String, String> dataset,
+                                                                                                   String expressionFile,
+                                                                                                   int nrOfPCsToCalculate,
+                                                                                                   double[] eigenValues,
+                                                                                                   double[] explainedVariance,
+                                                                                                   double[][] eigenVectors) throws Exception {
+
         DoubleMatrixDataset<String, String> datasetEV = new DoubleMatrixDataset<String, String>(dataset.columns(), nrOfPCsToCalculate);
         datasetEV.setRowObjects(dataset.getColObjects());
         datasetEV.setColObjects(new ArrayList<>());
-        double[] eigenValues = pcaObj.getRealEigenValues();
         System.out.println("Eigenvalue results:");
 
         System.out.println("PCA\tPCANr\tEigenValue\tExplainedVariance\tTotalExplainedVariance");
@@ -951,9 +1009,9 @@ public class Normalizer {
 
         ArrayList<String> evcolnames = new ArrayList<>();
         for (int pca = 0; pca < nrOfPCsToCalculate; pca++) {
-            double expVarPCA = pcaObj.getEigenValueVar(pca);
+            double expVarPCA = explainedVariance[pca];
 
-            double[] pca1ExpEigenVector = pcaObj.getEigenVector(pca);
+            double[] pca1ExpEigenVector = eigenVectors[pca];
             for (int s = 0; s < dataset.columns(); s++) {
                 datasetEV.setElementQuick(s, pca, pca1ExpEigenVector[s]);
             }
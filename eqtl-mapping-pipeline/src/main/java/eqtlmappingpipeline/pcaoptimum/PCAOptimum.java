@@ -40,6 +40,9 @@ public class PCAOptimum extends MetaQTL3 {
 	protected String cissnps;
 	protected String transsnps;
 	private boolean performEigenVectorQTLMapping;
+	private boolean sweep = false;
+	private int sweepMaxNrPCs = 100;
+	private int sweepStepSize = 5;
 	
 	public void setCovariatesRemoved(boolean b) {
 		covariatesremoved = b;
@@ -54,6 +57,19 @@ public class PCAOptimum extends MetaQTL3 {
 		this.performEigenVectorQTLMapping = performEigenvectorQTLMapping;
 	}
 	
+	/**
+	 * Remove the PCs incrementally from the uncorrected expression data and only recalculate the z-scores of the
+	 * tested pairs per step, in stead of mapping the PC corrected files of the normalization one by one.
+	 *
+	 * @param maxNrPCs maximum number of PCs to remove
+	 * @param stepSize number of PCs to remove per step
+	 */
+	public void setSweep(int maxNrPCs, int stepSize) {
+		this.sweep = true;
+		this.sweepMaxNrPCs = maxNrPCs;
+		this.sweepStepSize = stepSize;
+	}
+	
 	@Override
 	public void initialize(String xmlSettingsFile, String texttoreplace, String texttoreplacewith,
 						   String ingt, String inexp, String inexpplatform, String inexpannot, String gte,
@@ -161,6 +177,13 @@ public class PCAOptimum extends MetaQTL3 {
 			}
 		}
 		
+		if (sweep) {
+			int nrThreads = (m_threads != null && m_threads > 0) ? m_threads : Runtime.getRuntime().availableProcessors();
+			PCAOptimumSweep s = new PCAOptimumSweep(m_settings, nrThreads);
+			s.sweep(out, cis ? cisSnpsToTest : null, trans ? transSnpsToTest : null, m_settings.tsProbesConfine, sweepMaxNrPCs, sweepStepSize);
+			return;
+		}
+		
 		ArrayList<String> origExpDs = new ArrayList<>();
 		ArrayList<Integer> pcs = null;
 		boolean alldshavesamepcs = true;
@@ -44,6 +44,9 @@ public class PCAOptimumConsoleGUI {
         boolean covariatesremoved = false;
         boolean runonlypcqtlnormalization = false;
         Integer runOnlyNumPCsRemoved = null;
+        boolean sweep = false;
+        int maxPcaToRemove = 100;
+        int stepSizePcaRemoval = 5;
 
         Integer nrEQTLsToOutput = null;
 
@@ -88,6 +91,22 @@ public class PCAOptimumConsoleGUI {
                 cissnps = val;
             } else if (arg.equals("--onlynormalize")) {
                 runonlypcqtlnormalization = true;
+            } else if (arg.equals("--sweep")) {
+                sweep = true;
+            } else if (arg.equals("--maxnrpcaremoved")) {
+                try {
+                    maxPcaToRemove = Integer.parseInt(val);
+                } catch (NumberFormatException e) {
+                    System.err.println("Error --maxnrpcaremoved should be an integer");
+                    System.exit(-1);
+                }
+            } else if (arg.equals("--stepsizepcaremoval")) {
+                try {
+                    stepSizePcaRemoval = Integer.parseInt(val);
+                } catch (NumberFormatException e) {
+                    System.err.println("Error --stepsizepcaremoval should be an integer");
+                    System.exit(-1);
+                }
             } else if (arg.equals("--maponpc")) {
                 try {
                     runOnlyNumPCsRemoved = Integer.parseInt(val);
@@ -231,6 +250,9 @@ public class PCAOptimumConsoleGUI {
                     p.setSNPSets(cissnps, transsnps);
                     p.setPerformpcqtlNormalization(performEigenvectorQTLMapping);
                     p.setCovariatesRemoved(covariatesremoved);
+                    if (sweep) {
+                        p.setSweep(maxPcaToRemove, stepSizePcaRemoval);
+                    }
                     p.initialize(settingsfile, settingstexttoreplace, settingstexttoreplacewith,  in, inexp, inexpplatform, inexpannot, gte, out, cis, trans, perm, true, false, snpfile, threads, nrEQTLsToOutput, null, null, true, true, null, null, null);
                 }
             }
@@ -255,6 +277,10 @@ public class PCAOptimumConsoleGUI {
                 + "--inventorize-pcqtl\tdir\t\tSummarize the PC optimum results for a certain outputdirectory\n"
                 + "--cissnps\t\tstring\t\tList of SNPs to test in cis\n"
                 + "--transsnps\t\tstring\t\tList of SNPs to test in trans\n"
+                + "--sweep\t\t\t\t\tRemove PCs incrementally from --inexp and only recalculate the z-scores per step, in stead of mapping each PC corrected file\n"
+                + "\nSpecific options for --sweep:\n"
+                + "--maxnrpcaremoved\tinteger\t\tMaximum number of PCs to remove (default 100)\n"
+                + "--stepsizepcaremoval\tinteger\t\tNumber of PCs to remove per step (default 5)\n"
                 + "\nSpecific options for --pcqtl:\n"
                 + "--covariatesremoved\t\t\tIndicate whether covariates were removed\n"
                 + "--onlynormalize\t\t\t\tOnly perform the pcqtl mapping and subsequent normalization\n"
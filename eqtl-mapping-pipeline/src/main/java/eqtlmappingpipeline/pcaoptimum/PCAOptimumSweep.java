@@ -0,0 +1,705 @@
+package eqtlmappingpipeline.pcaoptimum;
+
+import eqtlmappingpipeline.metaqtl3.containers.Settings;
+import gnu.trove.map.hash.TObjectIntHashMap;
+import gnu.trove.set.hash.THashSet;
+import umcg.genetica.console.ConsoleGUIElems;
+import umcg.genetica.io.Gpio;
+import umcg.genetica.io.text.TextFile;
+import umcg.genetica.io.trityper.SNP;
+import umcg.genetica.io.trityper.SNPLoader;
+import umcg.genetica.io.trityper.TriTyperExpressionData;
+import umcg.genetica.io.trityper.TriTyperGeneticalGenomicsDataset;
+import umcg.genetica.io.trityper.TriTyperGeneticalGenomicsDatasetSettings;
+import umcg.genetica.io.trityper.util.BaseAnnot;
+import umcg.genetica.math.matrix2.DoubleMatrixDataset;
+import umcg.genetica.math.stats.Correlation;
+import umcg.genetica.math.stats.Descriptives;
+import umcg.genetica.util.RankArray;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Sweep over the number of PCs removed from the expression data without repeating the eQTL mapping for every step.
+ * The genotypes of the cis and trans SNPs are loaded once. The expression data corrected for the PCs of the next step
+ * is derived from the data of the previous step by subtracting the scores of the extra PCs times their eigenvectors,
+ * the same correction the normalization applies when it writes the PC corrected files. Per step only the z-scores of
+ * the tested SNP-probe pairs are recalculated.
+ * <p>
+ * Significance per step is determined with the Benjamini-Hochberg FDR over the tested pairs, in stead of the
+ * permutation based FDR of the full mapping.
+ */
+class PCAOptimumSweep {
+
+	private static final double FDR_THRESHOLD = 0.05;
+
+	private final Settings settings;
+	private final int threads;
+
+	private TriTyperGeneticalGenomicsDataset[] datasets;
+	// per dataset: probe scores and eigenvectors of the PCs, in the probe and sample order of the expression data
+	private double[][][] pcScores;
+	private double[][][] eigenVectors;
+	private int[] nrPCsRemoved;
+
+	// probes over all datasets
+	private String[] probes;
+	private byte[] probeChr;
+	private int[] probeMidpoint;
+	private int[][] probeToDatasetProbe;
+
+	/**
+	 * @param settings settings of the datasets, the expression data should not yet be corrected for PCs
+	 * @param threads  number of threads to calculate the z-scores with
+	 */
+	PCAOptimumSweep(Settings settings, int threads) {
+		this.settings = settings;
+		this.threads = threads;
+	}
+
+	/**
+	 * @param out       output directory
+	 * @param cisSnps   SNPs to test in cis, null to skip the cis analysis
+	 * @param transSnps SNPs to test in trans, null to skip the trans analysis
+	 * @param probesToTest probes to test, null to test all probes
+	 * @param max       maximum number of PCs to remove
+	 * @param stepSize  number of PCs removed per step
+	 */
+	void sweep(String out, Set<String> cisSnps, Set<String> transSnps, THashSet<String> probesToTest, int max, int stepSize) throws IOException, Exception {
+
+		if (stepSize < 1) {
+			throw new IllegalArgumentException("Step size should be at least 1");
+		}
+
+		for (TriTyperGeneticalGenomicsDatasetSettings ds : settings.datasetSettings) {
+			ds.cisAnalysis = cisSnps != null;
+			ds.transAnalysis = transSnps != null;
+			if (probesToTest != null) {
+				ds.tsProbesConfine = probesToTest;
+			}
+		}
+
+		loadDatasets(max);
+		createProbeList(probesToTest);
+
+		HashSet<String> snpsToLoad = new HashSet<String>();
+		if (cisSnps != null) {
+			snpsToLoad.addAll(cisSnps);
+		}
+		if (transSnps != null) {
+			snpsToLoad.addAll(transSnps);
+		}
+		LinkedHashMap<String, SweepSNP> snps = loadSNPs(snpsToLoad);
+
+		int maxNrSamples = 0;
+		for (TriTyperGeneticalGenomicsDataset ds : datasets) {
+			maxNrSamples += ds.getExpressionData().getIndividuals().length;
+		}
+		Correlation.correlationToZScore(maxNrSamples);
+		Descriptives.initializeZScoreToPValue();
+
+		ArrayList<Analysis> analyses = new ArrayList<Analysis>();
+		if (cisSnps != null) {
+			analyses.add(new Analysis("Cis", out, selectSNPs(snps, cisSnps), true));
+		}
+		if (transSnps != null) {
+			analyses.add(new Analysis("Trans", out, selectSNPs(snps, transSnps), false));
+		}
+
+		for (int pcs = 0; pcs <= max; pcs += stepSize) {
+			System.out.println("Removing " + pcs + " PCs");
+			double[][][] testValues = new double[datasets.length][][];
+			double[][] testNorms = new double[datasets.length][];
+			for (int d = 0; d < datasets.length; d++) {
+				removePCs(d, pcs);
+				testValues[d] = prepareTestValues(d);
+				testNorms[d] = new double[testValues[d].length];
+				for (int p = 0; p < testValues[d].length; p++) {
+					testNorms[d][p] = norm(testValues[d][p]);
+				}
+			}
+			for (Analysis analysis : analyses) {
+				analysis.test(pcs, testValues, testNorms);
+			}
+		}
+
+		for (Analysis analysis : analyses) {
+			analysis.close();
+		}
+	}
+
+	private void loadDatasets(int max) throws IOException, Exception {
+		int numDatasets = settings.datasetSettings.size();
+		datasets = new TriTyperGeneticalGenomicsDataset[numDatasets];
+		pcScores = new double[numDatasets][][];
+		eigenVectors = new double[numDatasets][][];
+		nrPCsRemoved = new int[numDatasets];
+
+		for (int d = 0; d < numDatasets; d++) {
+			TriTyperGeneticalGenomicsDatasetSettings dsSettings = settings.datasetSettings.get(d);
+			System.out.println("- Loading dataset: " + dsSettings.name + "");
+			System.out.println(ConsoleGUIElems.LINE);
+			datasets[d] = new TriTyperGeneticalGenomicsDataset(dsSettings);
+			TriTyperExpressionData expressionData = datasets[d].getExpressionData();
+
+			// the normalization names the PC files after the expression file without extension
+			String expressionFile = dsSettings.expressionLocation;
+			String minimalFilename = new File(expressionFile).getName();
+			if (minimalFilename.endsWith(".txt")) {
+				minimalFilename = minimalFilename.substring(0, minimalFilename.length() - 4);
+			} else if (minimalFilename.endsWith(".txt.gz")) {
+				minimalFilename = minimalFilename.substring(0, minimalFilename.length() - 7);
+			}
+			String prefix = Gpio.getParentDir(expressionFile) + Gpio.getFileSeparator() + minimalFilename;
+
+			DoubleMatrixDataset<String, String> pcs = loadPCAFile(prefix + ".PCAOverSamplesPrincipalComponents");
+			DoubleMatrixDataset<String, String> evs = loadPCAFile(prefix + ".PCAOverSamplesEigenvectors");
+			if (pcs.columns() < max || evs.columns() < max) {
+				throw new IllegalArgumentException("Only " + Math.min(pcs.columns(), evs.columns()) + " PCs available for dataset " + dsSettings.name + ", while " + max + " PCs should be removed");
+			}
+
+			String[] dsProbes = expressionData.getProbes();
+			pcScores[d] = new double[dsProbes.length][max];
+			for (int p = 0; p < dsProbes.length; p++) {
+				Integer row = pcs.getHashRows().get(dsProbes[p]);
+				if (row == null) {
+					throw new IllegalArgumentException("Probe " + dsProbes[p] + " of dataset " + dsSettings.name + " not found in principal components file");
+				}
+				for (int pc = 0; pc < max; pc++) {
+					pcScores[d][p][pc] = pcs.getElementQuick(row, pc);
+				}
+			}
+
+			String[] dsSamples = expressionData.getIndividuals();
+			eigenVectors[d] = new double[max][dsSamples.length];
+			for (int s = 0; s < dsSamples.length; s++) {
+				Integer row = evs.getHashRows().get(dsSamples[s]);
+				if (row == null) {
+					throw new IllegalArgumentException("Sample " + dsSamples[s] + " of dataset " + dsSettings.name + " not found in eigenvector file");
+				}
+				for (int pc = 0; pc < max; pc++) {
+					eigenVectors[d][pc][s] = evs.getElementQuick(row, pc);
+				}
+			}
+			System.out.println(ConsoleGUIElems.LINE);
+			System.out.println("");
+		}
+	}
+
+	private static DoubleMatrixDataset<String, String> loadPCAFile(String prefix) throws IOException, Exception {
+		if (Gpio.exists(prefix + ".txt.gz")) {
+			return DoubleMatrixDataset.loadDoubleData(prefix + ".txt.gz");
+		} else if (Gpio.exists(prefix + ".dat")) {
+			return DoubleMatrixDataset.loadDoubleData(prefix + ".dat");
+		} else {
+			throw new IOException("Could not find " + prefix + ".txt.gz. Please first run the normalization procedure with PCA.");
+		}
+	}
+
+	private void createProbeList(THashSet<String> probesToTest) {
+		TObjectIntHashMap<String> probeToId = new TObjectIntHashMap<String>(10, 0.5f, -9);
+		ArrayList<String> probeList = new ArrayList<String>();
+		ArrayList<Byte> chrList = new ArrayList<Byte>();
+		ArrayList<Integer> midpointList = new ArrayList<Integer>();
+		for (TriTyperGeneticalGenomicsDataset ds : datasets) {
+			TriTyperExpressionData expressionData = ds.getExpressionData();
+			String[] dsProbes = expressionData.getProbes();
+			for (int p = 0; p < dsProbes.length; p++) {
+				if (probesToTest != null && !probesToTest.contains(dsProbes[p])) {
+					continue;
+				}
+				if (probeToId.get(dsProbes[p]) == -9) {
+					probeToId.put(dsProbes[p], probeList.size());
+					probeList.add(dsProbes[p]);
+					chrList.add(expressionData.getChr()[p]);
+					midpointList.add((int) Math.floor((double) (expressionData.getChrStop()[p] + expressionData.getChrStart()[p]) / 2));
+				}
+			}
+		}
+
+		probes = probeList.toArray(new String[0]);
+		probeChr = new byte[probes.length];
+		probeMidpoint = new int[probes.length];
+		for (int p = 0; p < probes.length; p++) {
+			probeChr[p] = chrList.get(p);
+			probeMidpoint[p] = midpointList.get(p);
+		}
+
+		probeToDatasetProbe = new int[datasets.length][probes.length];
+		for (int d = 0; d < datasets.length; d++) {
+			Arrays.fill(probeToDatasetProbe[d], -1);
+			String[] dsProbes = datasets[d].getExpressionData().getProbes();
+			for (int p = 0; p < dsProbes.length; p++) {
+				int id = probeToId.get(dsProbes[p]);
+				if (id != -9) {
+					probeToDatasetProbe[d][id] = p;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Loads the genotypes of the SNPs that pass QC in at least one dataset, mean centered per dataset and in the
+	 * allelic direction of the first dataset that has the SNP.
+	 */
+	private LinkedHashMap<String, SweepSNP> loadSNPs(Set<String> snpsToLoad) throws IOException {
+		LinkedHashMap<String, SweepSNP> snps = new LinkedHashMap<String, SweepSNP>();
+		for (int d = 0; d < datasets.length; d++) {
+			TriTyperGeneticalGenomicsDataset ds = datasets[d];
+			System.out.println("Loading genotypes of dataset: " + ds.getSettings().name);
+			SNPLoader loader = ds.getGenotypeData().createSNPLoader(1);
+			int[] expressionToGenotypeIds = ds.getExpressionToGenotypeIdArray();
+			TObjectIntHashMap<String> snpToId = ds.getGenotypeData().getSnpToSNPId();
+
+			for (String snpName : snpsToLoad) {
+				int snpId = snpToId.get(snpName);
+				if (snpId == -9) {
+					continue;
+				}
+				SNP snp = ds.getGenotypeData().getSNPObject(snpId);
+				loader.loadGenotypes(snp);
+				if (!snp.passesQC() || snp.getCR() < settings.snpQCCallRateThreshold
+						|| snp.getMAF() < settings.snpQCMAFThreshold
+						|| snp.getHWEP() < settings.snpQCHWEThreshold
+						|| snp.getAlleleItr() > 2) {
+					snp.clearGenotypes();
+					continue;
+				}
+				if (loader.hasDosageInformation()) {
+					loader.loadDosage(snp);
+				}
+
+				String[] alleles = getAlleles(snp);
+				SweepSNP sweepSNP = snps.get(snpName);
+				boolean flip = false;
+				if (sweepSNP == null) {
+					sweepSNP = new SweepSNP(snpName, snp.getChr(), snp.getChrPos(), alleles, datasets.length);
+				} else {
+					Boolean flipAlleles = determineFlip(sweepSNP.alleles, alleles);
+					if (flipAlleles == null) {
+						System.err.println("SNP alleles are not identical between datasets for SNP: " + snpName + "\t" + ds.getSettings().name);
+						snp.clearGenotypes();
+						continue;
+					}
+					flip = flipAlleles;
+				}
+
+				if (sweepSNP.setGenotypes(d, snp, expressionToGenotypeIds, flip)) {
+					snps.put(snpName, sweepSNP);
+				}
+				snp.clearGenotypes();
+			}
+			loader.close();
+		}
+		System.out.println("Loaded genotypes of " + snps.size() + " SNPs");
+		return snps;
+	}
+
+	private static String[] getAlleles(SNP snp) {
+		if (snp.hasAlleleEncoding()) {
+			return new String[]{snp.getAlleleEncoding()[0], snp.getAlleleEncoding()[1]};
+		} else {
+			return new String[]{BaseAnnot.toString(snp.getAlleles()[0]), BaseAnnot.toString(snp.getAlleles()[1])};
+		}
+	}
+
+	/**
+	 * @return null if the alleles are not identical or complementary
+	 */
+	private static Boolean determineFlip(String[] reference, String[] alleles) {
+		for (int complement = 0; complement < 2; complement++) {
+			if (reference[0].equals(alleles[0]) && reference[1].equals(alleles[1])) {
+				return false;
+			} else if (reference[0].equals(alleles[1]) && reference[1].equals(alleles[0])) {
+				return true;
+			}
+			alleles = new String[]{BaseAnnot.getComplement(alleles[0]), BaseAnnot.getComplement(alleles[1])};
+		}
+		return null;
+	}
+
+	private static SweepSNP[] selectSNPs(LinkedHashMap<String, SweepSNP> snps, Set<String> snpNames) {
+		ArrayList<SweepSNP> selected = new ArrayList<SweepSNP>();
+		for (SweepSNP snp : snps.values()) {
+			if (snpNames.contains(snp.name)) {
+				selected.add(snp);
+			}
+		}
+		return selected.toArray(new SweepSNP[0]);
+	}
+
+	/**
+	 * Updates the expression data of a dataset to the data corrected for the given number of PCs.
+	 */
+	private void removePCs(int d, int pcs) {
+		removePCs(datasets[d].getExpressionData().getMatrix(), pcScores[d], eigenVectors[d], nrPCsRemoved[d], pcs);
+		nrPCsRemoved[d] = pcs;
+	}
+
+	/**
+	 * Subtracts the PCs from up to but not including to from the expression data, which should already be corrected
+	 * for the PCs before from.
+	 *
+	 * @param expression probes by samples
+	 * @param scores     probes by PCs
+	 * @param vectors    PCs by samples
+	 */
+	static void removePCs(final double[][] expression, final double[][] scores, final double[][] vectors, final int from, final int to) {
+		IntStream.range(0, expression.length).parallel().forEach(p -> {
+			double[] row = expression[p];
+			for (int pc = from; pc < to; pc++) {
+				double score = scores[p][pc];
+				double[] vector = vectors[pc];
+				for (int s = 0; s < row.length; s++) {
+					row[s] -= score * vector[s];
+				}
+			}
+		});
+	}
+
+	/**
+	 * Benjamini-Hochberg p-value threshold. Only p-values up to the FDR can be significant, so only those are kept
+	 * and sorted. Their ranks are the same as in all tested p-values.
+	 *
+	 * @param zScores    NaN for pairs that are not tested
+	 * @param candidates buffer for the candidate p-values, can be null
+	 * @param fdr
+	 * @return the threshold, -1 if no pair is significant
+	 */
+	static BHThreshold benjaminiHochbergThreshold(float[] zScores, double[] candidates, double fdr) {
+		if (candidates == null) {
+			candidates = new double[1024];
+		}
+		int nrTested = 0;
+		int nrCandidates = 0;
+		for (float z : zScores) {
+			if (Float.isNaN(z)) {
+				continue;
+			}
+			nrTested++;
+			double p = Descriptives.convertZscoreToPvalue(z);
+			if (p <= fdr) {
+				if (nrCandidates == candidates.length) {
+					candidates = Arrays.copyOf(candidates, (int) Math.min(Integer.MAX_VALUE - 8, 2L * candidates.length));
+				}
+				candidates[nrCandidates++] = p;
+			}
+		}
+		Arrays.sort(candidates, 0, nrCandidates);
+		double threshold = -1;
+		for (int k = nrCandidates - 1; k >= 0; k--) {
+			if (candidates[k] <= fdr * (k + 1) / nrTested) {
+				threshold = candidates[k];
+				break;
+			}
+		}
+		return new BHThreshold(threshold, nrTested, candidates);
+	}
+
+	/**
+	 * Result of the Benjamini-Hochberg procedure, with the candidate buffer to reuse for the next step.
+	 */
+	static class BHThreshold {
+
+		final double pValueThreshold;
+		final int nrTested;
+		final double[] buffer;
+
+		BHThreshold(double pValueThreshold, int nrTested, double[] buffer) {
+			this.pValueThreshold = pValueThreshold;
+			this.nrTested = nrTested;
+			this.buffer = buffer;
+		}
+	}
+
+	/**
+	 * @return the corrected expression data of a dataset, ranked for a non parametric analysis and mean centered
+	 */
+	private double[][] prepareTestValues(int d) {
+		final double[][] expression = datasets[d].getExpressionData().getMatrix();
+		final double[][] testValues = new double[expression.length][];
+		final boolean rank = !settings.performParametricAnalysis;
+		IntStream.range(0, expression.length).parallel().forEach(p -> {
+			double[] values = rank ? new RankArray().rank(expression[p], settings.equalRankForTies) : expression[p].clone();
+			double mean = 0;
+			for (double v : values) {
+				mean += v;
+			}
+			mean /= values.length;
+			for (int s = 0; s < values.length; s++) {
+				values[s] -= mean;
+			}
+			testValues[p] = values;
+		});
+		return testValues;
+	}
+
+	private static double norm(double[] x) {
+		double sum = 0;
+		for (double v : x) {
+			sum += v * v;
+		}
+		return Math.sqrt(sum);
+	}
+
+	/**
+	 * Mean centered genotypes of a SNP per dataset.
+	 */
+	private static class SweepSNP {
+
+		private final String name;
+		private final byte chr;
+		private final int pos;
+		private final String[] alleles;
+		private final double[][] genotypes;
+		private final double[] norms;
+		// expression samples with a genotype, null if all samples have a genotype
+		private final int[][] includedSamples;
+
+		SweepSNP(String name, byte chr, int pos, String[] alleles, int nrDatasets) {
+			this.name = name;
+			this.chr = chr;
+			this.pos = pos;
+			this.alleles = alleles;
+			this.genotypes = new double[nrDatasets][];
+			this.norms = new double[nrDatasets];
+			this.includedSamples = new int[nrDatasets][];
+		}
+
+		/**
+		 * @return false if the SNP has no variance in this dataset
+		 */
+		boolean setGenotypes(int d, SNP snp, int[] expressionToGenotypeIds, boolean flip) {
+			byte[] snpGenotypes = snp.getGenotypes();
+			double[] dosages = snp.getDosageValues();
+
+			int[] included = new int[expressionToGenotypeIds.length];
+			int nrIncluded = 0;
+			for (int s = 0; s < expressionToGenotypeIds.length; s++) {
+				int id = expressionToGenotypeIds[s];
+				if (id != -1 && snpGenotypes[id] != -1) {
+					included[nrIncluded++] = s;
+				}
+			}
+
+			double[] x = new double[nrIncluded];
+			double mean = 0;
+			for (int i = 0; i < nrIncluded; i++) {
+				int id = expressionToGenotypeIds[included[i]];
+				x[i] = dosages != null ? dosages[id] : snpGenotypes[id];
+				if (flip) {
+					x[i] = 2 - x[i];
+				}
+				mean += x[i];
+			}
+			mean /= nrIncluded;
+			for (int i = 0; i < nrIncluded; i++) {
+				x[i] -= mean;
+			}
+			double norm = norm(x);
+			if (nrIncluded < 3 || norm == 0) {
+				return false;
+			}
+
+			genotypes[d] = x;
+			norms[d] = norm;
+			includedSamples[d] = nrIncluded == expressionToGenotypeIds.length ? null : Arrays.copyOf(included, nrIncluded);
+			return true;
+		}
+
+		/**
+		 * @return the z-score of the correlation between the genotypes and the expression values, NaN if the probe
+		 * has no variance
+		 */
+		double zScore(int d, double[] y, double yNorm) {
+			double[] x = genotypes[d];
+			double r;
+			int[] included = includedSamples[d];
+			if (included == null) {
+				double sum = 0;
+				for (int s = 0; s < x.length; s++) {
+					sum += x[s] * y[s];
+				}
+				r = sum / (norms[d] * yNorm);
+			} else {
+				// the expression mean and variance change when samples are left out
+				double sumY = 0;
+				double sumYY = 0;
+				double sumXY = 0;
+				for (int i = 0; i < included.length; i++) {
+					double v = y[included[i]];
+					sumY += v;
+					sumYY += v * v;
+					sumXY += x[i] * v;
+				}
+				double sumSquares = sumYY - sumY * sumY / included.length;
+				// genotypes are mean centered, so the expression mean does not change the cross product
+				r = sumXY / (norms[d] * Math.sqrt(sumSquares));
+			}
+			if (Double.isNaN(r) || Double.isInfinite(r)) {
+				return Double.NaN;
+			}
+			r = Math.max(-1, Math.min(1, r));
+			return Correlation.convertCorrelationToZScore(x.length, r);
+		}
+	}
+
+	/**
+	 * Pairs of a cis or trans analysis, the results of the steps and the output files.
+	 */
+	private class Analysis {
+
+		private final String name;
+		private final String outputDir;
+		private final SweepSNP[] snps;
+		private final int[][] snpProbes;
+		private final int[] offsets;
+		private final int nrPairs;
+		// reused for every step
+		private final float[] zScores;
+		private final int[] nrSamples;
+		private double[] candidatePValues;
+		// direction of the pairs significant without PCs removed, 0 for pairs that are not significant
+		private byte[] significantWithoutPCs;
+		private final TextFile summary;
+
+		Analysis(String name, String out, SweepSNP[] snps, boolean cis) throws IOException {
+			this.name = name;
+			this.outputDir = out + name + "-PCASweep" + Gpio.getFileSeparator();
+			if (!Gpio.exists(outputDir)) {
+				Gpio.createDir(outputDir);
+			}
+			this.snps = snps;
+
+			// cis window as used by the full cis and trans mapping
+			int maxDistance = cis ? 250000 : 5000000;
+			snpProbes = new int[snps.length][];
+			offsets = new int[snps.length];
+			long pairs = 0;
+			for (int i = 0; i < snps.length; i++) {
+				SweepSNP snp = snps[i];
+				int[] selected = new int[probes.length];
+				int nrSelected = 0;
+				for (int p = 0; p < probes.length; p++) {
+					boolean inWindow = probeChr[p] == snp.chr && Math.abs(probeMidpoint[p] - snp.pos) < maxDistance;
+					if (inWindow == cis) {
+						selected[nrSelected++] = p;
+					}
+				}
+				snpProbes[i] = Arrays.copyOf(selected, nrSelected);
+				offsets[i] = (int) pairs;
+				pairs += nrSelected;
+				if (pairs > Integer.MAX_VALUE - 8) {
+					throw new IllegalArgumentException("More than " + (Integer.MAX_VALUE - 8) + " " + name.toLowerCase() + " SNP-probe pairs to test, please test fewer SNPs or probes per run");
+				}
+			}
+			nrPairs = (int) pairs;
+			zScores = new float[nrPairs];
+			nrSamples = new int[nrPairs];
+			System.out.println(name + " analysis: " + snps.length + " SNPs, " + nrPairs + " SNP-probe pairs");
+
+			summary = new TextFile(outputDir + "Summary.txt", TextFile.W);
+			summary.writeln("PCs\tTestedPairs\tSignificantPairs\tSignificantProbes\tShared\tDifferentAllelicDirection");
+		}
+
+		void test(int pcs, double[][][] testValues, double[][] testNorms) throws IOException {
+			Runnable task = () -> IntStream.range(0, snps.length).parallel().forEach(i -> {
+				SweepSNP snp = snps[i];
+				int[] pairProbes = snpProbes[i];
+				for (int j = 0; j < pairProbes.length; j++) {
+					int probe = pairProbes[j];
+					double zSum = 0;
+					int totalSamples = 0;
+					for (int d = 0; d < datasets.length; d++) {
+						int dsProbe = probeToDatasetProbe[d][probe];
+						if (snp.genotypes[d] != null && dsProbe != -1) {
+							double z = snp.zScore(d, testValues[d][dsProbe], testNorms[d][dsProbe]);
+							if (!Double.isNaN(z)) {
+								int n = snp.genotypes[d].length;
+								zSum += z * Math.sqrt(n);
+								totalSamples += n;
+							}
+						}
+					}
+					zScores[offsets[i] + j] = totalSamples > 0 ? (float) (zSum / Math.sqrt(totalSamples)) : Float.NaN;
+					nrSamples[offsets[i] + j] = totalSamples;
+				}
+			});
+			ForkJoinPool pool = new ForkJoinPool(threads);
+			try {
+				pool.submit(task).get();
+			} catch (InterruptedException | ExecutionException e) {
+				throw new IOException(e);
+			} finally {
+				pool.shutdown();
+			}
+
+			// Benjamini-Hochberg threshold over all tested pairs
+			BHThreshold bh = benjaminiHochbergThreshold(zScores, candidatePValues, FDR_THRESHOLD);
+			candidatePValues = bh.buffer;
+			double pValueThreshold = bh.pValueThreshold;
+			int nrTested = bh.nrTested;
+
+			boolean first = significantWithoutPCs == null;
+			if (first) {
+				significantWithoutPCs = new byte[nrPairs];
+			}
+
+			TextFile out = new TextFile(outputDir + pcs + "PCAsRemoved.txt.gz", TextFile.W);
+			out.writeln("SNPName\tSNPChr\tSNPChrPos\tProbeName\tProbeChr\tProbeCenterChrPos\tNrSamples\tZScore\tPValue");
+			HashSet<Integer> significantProbes = new HashSet<Integer>();
+			int nrSignificant = 0;
+			int nrShared = 0;
+			int nrOpposite = 0;
+			for (int i = 0; i < snps.length; i++) {
+				SweepSNP snp = snps[i];
+				int[] pairProbes = snpProbes[i];
+				for (int j = 0; j < pairProbes.length; j++) {
+					int k = offsets[i] + j;
+					float z = zScores[k];
+					if (Float.isNaN(z)) {
+						continue;
+					}
+					double p = Descriptives.convertZscoreToPvalue(z);
+					if (p > pValueThreshold) {
+						continue;
+					}
+					int probe = pairProbes[j];
+					nrSignificant++;
+					significantProbes.add(probe);
+					byte direction = (byte) (z >= 0 ? 1 : -1);
+					if (first) {
+						significantWithoutPCs[k] = direction;
+					} else if (significantWithoutPCs[k] != 0) {
+						nrShared++;
+						if (significantWithoutPCs[k] != direction) {
+							nrOpposite++;
+						}
+					}
+					out.writeln(snp.name + "\t" + snp.chr + "\t" + snp.pos + "\t" + probes[probe] + "\t" + probeChr[probe] + "\t" + probeMidpoint[probe] + "\t" + nrSamples[k] + "\t" + z + "\t" + p);
+				}
+			}
+			out.close();
+
+			if (first) {
+				nrShared = nrSignificant;
+			}
+			String line = pcs + "\t" + nrTested + "\t" + nrSignificant + "\t" + significantProbes.size() + "\t" + nrShared + "\t" + nrOpposite;
+			System.out.println(name + "\t" + line);
+			summary.writeln(line);
+		}
+
+		void close() throws IOException {
+			summary.close();
+		}
+	}
+}
@@ -6,6 +6,7 @@ package eqtlmappingpipeline.qcpca;
 
 import eqtlmappingpipeline.graphics.ScatterPlot;
 import umcg.genetica.math.PCA;
+import umcg.genetica.math.RandomizedPCA;
 
 import java.io.IOException;
 import java.util.ArrayList;
@@ -258,38 +259,13 @@ public class QCPCA {
                 }
             }
 
-            System.out.print("- Calculating correlations between all " + nrSamples + " samples: ");
-            double[][] correlationMatrix = new double[nrSamples][nrSamples];
-            double probeCountMinusOne = nrProbes - 1;
-
-            ProgressBar pv2 = new ProgressBar(nrSamples * nrSamples);
-            for (int f = 0; f < nrSamples; f++) {
-                for (int g = f; g < nrSamples; g++) {
-
-                    double covarianceInterim = 0;
-                    for (int p = 0; p < nrProbes; p++) {
-                        covarianceInterim += dataset.getElementQuick(p,f)* dataset.getElementQuick(p,g);
-                    }
-                    double covariance = covarianceInterim / probeCountMinusOne;
-                    correlationMatrix[f][g] = covariance;
-                    correlationMatrix[g][f] = covariance;
-                    pv2.iterate();
-                    pv2.iterate();
-                }
-            }
-            pv2.close();
-            System.out.println("100%");
-
-            System.out.println("Performing eigenvalue decomposition");
-            Jama.EigenvalueDecomposition eigExp = PCA.eigenValueDecomposition(correlationmatrix);
-            System.out.println("Getting eigenvalues");
-            double[] eigenValuesExp = PCA.getRealEigenvalues(eigExp);
-            System.out.println("Getting eigenvariance");
-            double expVarPC1 = PCA.getEigenValueVar(eigenValuesExp, 1);
-            System.out.println("Getting eigenvector");
-            double[] PC1ExpEigenVector = PCA.getEigenVector(eigExp, eigenValuesExp, 1);
-            System.out.println("Getting eigenvector");
-            double[] PC2ExpEigenVector = PCA.getEigenVector(eigExp, eigenValuesExp, 2);
+            // only the first PCs are used below, a truncated PCA avoids the sample by sample correlation matrix
+            int nrExpressionPCs = Math.min(nrSamples, 100);
+            System.out.println("Performing randomized PCA of the first " + nrExpressionPCs + " PCs over " + nrSamples + " samples");
+            RandomizedPCA pcaExp = new RandomizedPCA(dataset.getMatrix(), nrExpressionPCs);
+            double expVarPC1 = pcaExp.getEigenValueVar(1);
+            double[] PC1ExpEigenVector = pcaExp.getEigenVector(1);
+            double[] PC2ExpEigenVector = pcaExp.getEigenVector(2);
 
             double[][] correlationmatrix2 = new double[numsamples][numsamples];
             pb = new ProgressBar(numsamples * numsamples);
@@ -297,7 +273,7 @@ public class QCPCA {
 
             for (int i = 1; i < 11; i++) {
                 ScatterPlot scat = new ScatterPlot();
-                scat.draw(PCA.getEigenVector(eigExp, eigenValuesExp, i), PCA.getEigenVector(eigExp, eigenValuesExp, i + 1), "PC" + i, "PC" + (i + 1), "Expression Eigenvalues", outputdirectory + "Exp-");
+                scat.draw(pcaExp.getEigenVector(i), pcaExp.getEigenVector(i + 1), "PC" + i, "PC" + (i + 1), "Expression Eigenvalues", outputdirectory + "Exp-");
             }
 
             if (numsamples > 100) {
@@ -311,7 +287,7 @@ public class QCPCA {
             for (int pc = 1; pc <= numsamples - 1; pc++) {
                 double[] genEig = PCA.getEigenVector(eig, eigenValues, pc);
                 for (int pc2 = pc; pc2 <= numsamples - 1; pc2++) {
-                    double[] expEig = PCA.getEigenVector(eigExp, eigenValuesExp, pc2);
+                    double[] expEig = pcaExp.getEigenVector(pc2);
                     double corr = JSci.maths.ArrayMath.correlation(genEig, expEig);
                     correlationmatrix2[pc][pc2] = corr;
                     correlationmatrix2[pc2][pc] = corr;
@@ -18,6 +18,57 @@ public class AseMleBetaTest {
 	public AseMleBetaTest() {
 	}
 
+
+	@Test
+	public void testGridOptimum() {
+
+		int[][] counts = {
+			{16, 34, 25, 25, 11, 39, 30, 20, 2, 48},
+			{130, 870, 170, 830},
+			{3, 2, 0, 8, 12, 1, 5, 5, 7, 0},
+			{200, 10, 180, 25, 150, 60, 220, 0}
+		};
+
+		for (int[] sampleCounts : counts) {
+
+			final IntArrayList a1Counts = new IntArrayList();
+			final IntArrayList a2Counts = new IntArrayList();
+			for (int s = 0; s < sampleCounts.length; s += 2) {
+				a1Counts.add(sampleCounts[s]);
+				a2Counts.add(sampleCounts[s + 1]);
+			}
+
+			//Search the complete grid
+			double maxLogLikelihood = Double.NEGATIVE_INFINITY;
+			double maxLogLikelihoodP = Double.NaN;
+			double maxLogLikelihoodTheta = Double.NaN;
+			for (int i = 0; i < AseMleBeta.probabilities.length; ++i) {
+				for (int theta = 1; theta <= 1000; ++theta) {
+					double alfa = theta * AseMleBeta.oneMinProbabilities[i];
+					double beta = theta * AseMleBeta.probabilities[i];
+					double sumLogLikelihood = 0;
+					for (int s = 0; s < a1Counts.size(); ++s) {
+						sumLogLikelihood += AseMleBeta.lnbico(a1Counts.getQuick(s) + a2Counts.getQuick(s), a1Counts.getQuick(s)) + AseMleBeta.betaln(a2Counts.getQuick(s) + alfa, a1Counts.getQuick(s) + beta) - AseMleBeta.betaln(alfa, beta);
+					}
+					if (sumLogLikelihood > maxLogLikelihood) {
+						maxLogLikelihood = sumLogLikelihood;
+						maxLogLikelihoodP = AseMleBeta.probabilities[i];
+						maxLogLikelihoodTheta = theta;
+					}
+				}
+			}
+
+			AseMleBeta mleBeta = new AseMleBeta(a1Counts, a2Counts);
+
+			assertEquals(mleBeta.getMaxLogLikelihoodTheta(), maxLogLikelihoodTheta, 0.00001);
+			if (mleBeta.getRatioD() > 0) {
+				assertEquals(mleBeta.getMaxLikelihoodP(), maxLogLikelihoodP, 0.00001);
+			}
+			assertEquals(mleBeta.getMaxLikelihood(), maxLogLikelihood, 0.00001);
+
+		}
+
+	}
 	
 	public void test() {
 
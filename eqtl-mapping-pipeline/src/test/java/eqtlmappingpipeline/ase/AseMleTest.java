@@ -53,6 +53,55 @@ public class AseMleTest {
 
 	}
 
+	@Test
+	public void testGridOptimum() {
+
+		Random random = new Random(2);
+
+		for (int t = 0; t < 20; ++t) {
+
+			final IntArrayList a1Counts = new IntArrayList();
+			final IntArrayList a2Counts = new IntArrayList();
+
+			double p = random.nextDouble();
+			int nrSamples = 1 + random.nextInt(50);
+			for (int s = 0; s < nrSamples; s++) {
+				int nrReads = random.nextInt(200);
+				int reads1 = 0;
+				for (int r = 0; r < nrReads; r++) {
+					if (random.nextDouble() < p) {
+						reads1++;
+					}
+				}
+				a1Counts.add(reads1);
+				a2Counts.add(nrReads - reads1);
+			}
+
+			//Search the complete grid
+			double maxLogLikelihood = Double.NEGATIVE_INFINITY;
+			double maxLogLikelihoodP = Double.NaN;
+			for (int i = 0; i < AseMle.probabilities.length; ++i) {
+				double sumLogLikelihood = 0;
+				for (int s = 0; s < nrSamples; ++s) {
+					sumLogLikelihood += AseMle.lnbico(a1Counts.getQuick(s) + a2Counts.getQuick(s), a1Counts.getQuick(s)) + a1Counts.getQuick(s) * AseMle.logProbabilities[i] + a2Counts.getQuick(s) * AseMle.log1minProbabilities[i];
+				}
+				if (sumLogLikelihood > maxLogLikelihood) {
+					maxLogLikelihood = sumLogLikelihood;
+					maxLogLikelihoodP = AseMle.probabilities[i];
+				}
+			}
+
+			AseMle mle = new AseMle(a1Counts, a2Counts);
+
+			if (mle.getRatioD() > 0) {
+				assertEquals(mle.getMaxLikelihoodP(), maxLogLikelihoodP, 0.00001);
+			}
+			assertEquals(mle.getMaxLikelihood(), maxLogLikelihood, 0.00001);
+
+		}
+
+	}
+
 	@Test
 	public void testLnBico() {
 
@@ -0,0 +1,111 @@
+package eqtlmappingpipeline.ase;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import org.molgenis.genotype.Allele;
+import org.molgenis.genotype.variant.id.GeneticVariantId;
+import static org.testng.Assert.*;
+import org.testng.annotations.Test;
+
+public class AseResultsTest {
+
+	private static final int THREADS = 8;
+	private static final int SAMPLES_PER_THREAD = 25;
+	private static final int VARIANTS = 500;
+
+	@Test
+	public void testConcurrentMerging() throws InterruptedException {
+
+		final AseResults aseResults = new AseResults();
+
+		//Positions 64 apart end up in the same stripe
+		final int[] positions = new int[VARIANTS];
+		for (int v = 0; v < VARIANTS; ++v) {
+			positions[v] = v % 2 == 0 ? 1000 + v * 64 : 70000 + v * 7919;
+		}
+
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int t = 0; t < THREADS; ++t) {
+			final int thread = t;
+			threads.add(new Thread(new Runnable() {
+				@Override
+				public void run() {
+					for (int s = 0; s < SAMPLES_PER_THREAD; ++s) {
+						String sample = "sample" + thread + "_" + s;
+						for (int v = 0; v < VARIANTS; ++v) {
+							String chr = v % 3 == 0 ? "2" : "1";
+							aseResults.addResult(chr, positions[v], GeneticVariantId.createVariantId("rs" + v), Allele.A, Allele.C, v, s, sample);
+						}
+					}
+				}
+			}));
+		}
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		assertEquals(aseResults.getCount(), VARIANTS);
+
+		HashMap<String, AseVariantAppendable> found = new HashMap<String, AseVariantAppendable>();
+		for (AseVariantAppendable aseVariant : aseResults) {
+			assertNull(found.put(aseVariant.getChr() + ":" + aseVariant.getPos(), aseVariant));
+		}
+		assertEquals(found.size(), VARIANTS);
+
+		for (int v = 0; v < VARIANTS; ++v) {
+			String chr = v % 3 == 0 ? "2" : "1";
+			AseVariantAppendable aseVariant = found.get(chr + ":" + positions[v]);
+			assertNotNull(aseVariant);
+			assertEquals(aseVariant.getId().getPrimairyId(), "rs" + v);
+			assertEquals(aseVariant.getSampleCount(), THREADS * SAMPLES_PER_THREAD);
+			int a1Sum = 0;
+			int a2Sum = 0;
+			for (int i = 0; i < aseVariant.getSampleCount(); ++i) {
+				a1Sum += aseVariant.getA1Counts().getQuick(i);
+				a2Sum += aseVariant.getA2Counts().getQuick(i);
+			}
+			assertEquals(a1Sum, v * THREADS * SAMPLES_PER_THREAD);
+			assertEquals(a2Sum, THREADS * (SAMPLES_PER_THREAD * (SAMPLES_PER_THREAD - 1) / 2));
+		}
+
+	}
+
+	@Test
+	public void testChrIterator() {
+
+		AseResults aseResults = new AseResults();
+		assertNull(aseResults.chrIterator("1"));
+
+		for (int pos = 1; pos <= 200; ++pos) {
+			aseResults.addResult("1", pos * 64, GeneticVariantId.createVariantId("rs" + pos), Allele.A, Allele.C, 1, 2, "sample1");
+			if (pos % 2 == 0) {
+				aseResults.addResult("1", pos * 64, GeneticVariantId.createVariantId("rs" + pos), Allele.A, Allele.C, 1, 2, "sample2");
+			}
+		}
+		aseResults.addResult("X", 5, GeneticVariantId.createVariantId("rsX"), Allele.G, Allele.T, 3, 4, "sample1");
+		assertEquals(aseResults.getCount(), 201);
+
+		int count = 0;
+		for (Iterator<AseVariantAppendable> it = aseResults.chrIterator("1"); it.hasNext();) {
+			AseVariantAppendable aseVariant = it.next();
+			assertEquals(aseVariant.getChr(), "1");
+			if (aseVariant.getSampleCount() < 2) {
+				it.remove();
+			}
+			++count;
+		}
+		assertEquals(count, 200);
+		assertEquals(aseResults.getCount(), 101);
+
+		for (Iterator<AseVariantAppendable> it = aseResults.chrIterator("1"); it.hasNext();) {
+			assertEquals(it.next().getPos() % 128, 0);
+		}
+
+	}
+
+}
@@ -0,0 +1,127 @@
+package eqtlmappingpipeline.ase;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import org.molgenis.genotype.Alleles;
+import org.molgenis.genotype.RandomAccessGenotypeData;
+import org.molgenis.genotype.variant.GeneticVariant;
+import org.molgenis.genotype.vcf.VcfGenotypeData;
+import static org.testng.Assert.*;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+public class ReferenceGenotypeIndexTest {
+
+	private RandomAccessGenotypeData genotypeData;
+
+	@BeforeClass
+	public void setUpClass() throws Exception {
+		File vcf = new File(this.getClass().getResource("/GeuvadisTestData/Geuvadis_chr1.vcf.gz").toURI());
+		genotypeData = new VcfGenotypeData(vcf, 100, 0.8);
+	}
+
+	@AfterClass
+	public void tearDownClass() throws Exception {
+		genotypeData.close();
+	}
+
+	@Test
+	public void testChrIndex() {
+
+		ReferenceGenotypeIndex index = new ReferenceGenotypeIndex(genotypeData, null, "1", 0, Integer.MAX_VALUE);
+		assertEquals(index.getSnpCount(), 1482);
+
+		int checked = 0;
+		int heterozygous = 0;
+		int calls = 0;
+		for (GeneticVariant variant : genotypeData) {
+			ReferenceGenotypeIndex.ReferenceSnp snp = index.getSnp("1", variant.getStartPos());
+			assertNotNull(snp);
+			assertEquals(snp.getVariantAlleles(), variant.getVariantAlleles());
+			assertEquals(snp.getVariantId(), variant.getVariantId());
+			heterozygous += assertSampleCalls(snp, variant);
+			calls += variant.getSampleVariants().size();
+			++checked;
+		}
+		assertEquals(checked, 1482);
+		assertTrue(heterozygous > 0 && heterozygous < calls);
+
+		assertNull(index.getSnp("1", 79773));
+		assertNull(index.getSnp("2", 79772));
+
+	}
+
+	@Test
+	public void testRegionIndex() {
+
+		ReferenceGenotypeIndex index = new ReferenceGenotypeIndex(genotypeData, null, "1", 80000, 140000);
+		assertEquals(index.getSnpCount(), 2);
+		assertNull(index.getSnp("1", 79772));
+		assertEquals(index.getSnp("1", 82676).getVariantId().getPrimairyId(), "snp_1_82676");
+		assertEquals(index.getSnp("1", 135032).getVariantAlleles(), Alleles.createBasedOnString("G", "A"));
+		assertNull(index.getSnp("1", 172595));
+
+	}
+
+	@Test
+	public void testNotIndexed() {
+
+		ReferenceGenotypeIndex index = new ReferenceGenotypeIndex(genotypeData, null, null, 0, Integer.MAX_VALUE);
+		assertEquals(index.getSnpCount(), 0);
+
+		GeneticVariant variant = genotypeData.getSnpVariantByPos("1", 172595);
+		ReferenceGenotypeIndex.ReferenceSnp snp = index.getSnp("1", 172595);
+		assertEquals(snp.getVariantId(), variant.getVariantId());
+		assertSampleCalls(snp, variant);
+		assertNull(index.getSnp("1", 79773));
+
+	}
+
+	@Test
+	public void testSampleIndex() {
+
+		String[] samples = genotypeData.getSampleNames();
+		HashMap<String, String> refToStudy = new HashMap<String, String>();
+		refToStudy.put(samples[1], "study1");
+
+		ReferenceGenotypeIndex index = new ReferenceGenotypeIndex(genotypeData, refToStudy, "1", 0, Integer.MAX_VALUE);
+		assertEquals(index.getSampleIndex(samples[0]), 0);
+		assertEquals(index.getSampleIndex("study1"), 1);
+		assertEquals(index.getSampleIndex(samples[1]), -1);
+		assertEquals(index.getSampleIndex("notASample"), -1);
+
+		GeneticVariant variant = genotypeData.getSnpVariantByPos("1", 79772);
+		assertSampleCalls(index.getSnp("1", 79772), variant);
+		assertEquals(index.getSnp("1", 79772).isHeterozygousOrMissing(index.getSampleIndex("study1")), ReferenceGenotypeIndex.isHeterozygousOrMissing(variant.getSampleVariants().get(1)));
+
+	}
+
+	@Test
+	public void testIsHeterozygousOrMissing() {
+
+		assertTrue(ReferenceGenotypeIndex.isHeterozygousOrMissing(Alleles.createBasedOnString("A", "G")));
+		assertTrue(ReferenceGenotypeIndex.isHeterozygousOrMissing(null));
+		assertFalse(ReferenceGenotypeIndex.isHeterozygousOrMissing(Alleles.createBasedOnString("A", "A")));
+		assertFalse(ReferenceGenotypeIndex.isHeterozygousOrMissing(Alleles.createBasedOnString("A", "0")));
+		assertFalse(ReferenceGenotypeIndex.isHeterozygousOrMissing(Alleles.createBasedOnString("0", "0")));
+		assertFalse(ReferenceGenotypeIndex.isHeterozygousOrMissing(Alleles.createBasedOnString(Arrays.asList("A", "C", "G"))));
+
+	}
+
+	private static int assertSampleCalls(ReferenceGenotypeIndex.ReferenceSnp snp, GeneticVariant variant) {
+		List<Alleles> sampleAlleles = variant.getSampleVariants();
+		int heterozygous = 0;
+		for (int i = 0; i < sampleAlleles.size(); ++i) {
+			boolean expected = ReferenceGenotypeIndex.isHeterozygousOrMissing(sampleAlleles.get(i));
+			assertEquals(snp.isHeterozygousOrMissing(i), expected, variant.getPrimaryVariantId() + " sample " + i);
+			if (expected) {
+				++heterozygous;
+			}
+		}
+		return heterozygous;
+	}
+
+}
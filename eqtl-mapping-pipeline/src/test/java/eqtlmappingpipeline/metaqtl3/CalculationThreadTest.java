@@ -4,7 +4,22 @@
  */
 package eqtlmappingpipeline.metaqtl3;
 
+import cern.colt.matrix.tint.IntMatrix2D;
+import cern.colt.matrix.tint.impl.DenseIntMatrix2D;
+import eqtlmappingpipeline.metaqtl3.containers.Result;
+import eqtlmappingpipeline.metaqtl3.containers.Settings;
+import eqtlmappingpipeline.metaqtl3.containers.WorkPackage;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.LinkedBlockingQueue;
 import org.testng.annotations.Test;
+import umcg.genetica.io.trityper.SNP;
+import umcg.genetica.io.trityper.TriTyperExpressionData;
+import umcg.genetica.math.stats.Correlation;
+import umcg.genetica.math.stats.Descriptives;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
 
 /**
  *
@@ -41,4 +56,200 @@ public class CalculationThreadTest {
 //		// TODO review the generated test code and remove the default call to fail.
 //		fail("The test case is a prototype.");
 	}
-}
\ No newline at end of file
+
+	@Test
+	public void testMultiplyTransposed() {
+		// sizes that are not a multiple of the tile sizes
+		Random random = new Random(42);
+		double[][] x = new double[3][1031];
+		double[][] y = new double[131][1031];
+		for (double[] row : x) {
+			for (int i = 0; i < row.length; i++) {
+				row[i] = random.nextGaussian();
+			}
+		}
+		for (double[] row : y) {
+			for (int i = 0; i < row.length; i++) {
+				row[i] = random.nextGaussian();
+			}
+		}
+
+		double[][] out = new double[3][131];
+		CalculationThread.multiplyTransposed(x, y, 1031, out);
+
+		for (int k = 0; k < x.length; k++) {
+			for (int p = 0; p < y.length; p++) {
+				double expected = 0;
+				for (int s = 0; s < 1031; s++) {
+					expected += x[k][s] * y[p][s];
+				}
+				assertEquals(out[k][p], expected, 1e-9);
+			}
+		}
+	}
+
+	@Test
+	public void testGetTransBlockSize() {
+		assertEquals(CalculationThread.getTransBlockSize(0), 256);
+		assertEquals(CalculationThread.getTransBlockSize(1000), 256);
+		// 20k probes in 10 datasets
+		assertEquals(CalculationThread.getTransBlockSize(200000), 20);
+		assertEquals(CalculationThread.getTransBlockSize(100000000), 1);
+	}
+
+	/**
+	 * The correlations of a block of trans SNPs should be the same as when every SNP is tested per probe
+	 */
+	@Test
+	public void testAnalyzeBlock() {
+		Random random = new Random(42);
+		int[] sampleCounts = {50, 35};
+		int[] probeCounts = {40, 30};
+		TriTyperExpressionData[] expressionData = new TriTyperExpressionData[2];
+		int[][] expressionToGenotypeIds = new int[2][];
+		for (int d = 0; d < 2; d++) {
+			expressionData[d] = createExpressionData(random, probeCounts[d], sampleCounts[d]);
+			expressionToGenotypeIds[d] = new int[sampleCounts[d]];
+			for (int s = 0; s < sampleCounts[d]; s++) {
+				expressionToGenotypeIds[d][s] = s;
+			}
+		}
+
+		// 45 meta probes, partly present in both datasets
+		IntMatrix2D probeTranslation = new DenseIntMatrix2D(2, 45);
+		for (int p = 0; p < 45; p++) {
+			probeTranslation.set(0, p, p < 40 ? p : -9);
+			probeTranslation.set(1, p, p >= 15 ? p - 15 : -9);
+		}
+
+		// lookup tables, as initialized by MetaQTL3
+		Correlation.correlationToZScore(50);
+		Descriptives.lookupSqrt(85);
+		Descriptives.initializeZScoreToPValue();
+
+		Settings settings = new Settings();
+		settings.cisAnalysis = false;
+		settings.transAnalysis = true;
+
+		LinkedBlockingQueue<WorkPackage> resultQueue = new LinkedBlockingQueue<WorkPackage>();
+		CalculationThread thread = new CalculationThread(0, new LinkedBlockingQueue<WorkPackage>(), resultQueue, expressionData, null, probeTranslation, expressionToGenotypeIds, settings, null, false, false, false);
+
+		ArrayList<WorkPackage> block = createWorkPackages(new Random(7), sampleCounts);
+		ArrayList<WorkPackage> single = createWorkPackages(new Random(7), sampleCounts);
+
+		thread.analyzeBlock(block);
+		for (WorkPackage wp : single) {
+			thread.analyze(wp);
+		}
+		assertEquals(resultQueue.size(), 2 * block.size());
+
+		for (int i = 0; i < block.size(); i++) {
+			Result expected = single.get(i).results;
+			Result actual = block.get(i).results;
+			for (int d = 0; d < 2; d++) {
+				assertEquals(actual.numSamples[d], expected.numSamples[d]);
+				for (int p = 0; p < 45; p++) {
+					assertClose(actual.correlations[d][p], expected.correlations[d][p], "correlation package " + i + " dataset " + d + " probe " + p);
+					assertClose(actual.zscores[d][p], expected.zscores[d][p], "z-score package " + i + " dataset " + d + " probe " + p);
+				}
+			}
+			for (int p = 0; p < 45; p++) {
+				assertClose(actual.finalZScore[p], expected.finalZScore[p], "meta z-score package " + i + " probe " + p);
+				assertClose(actual.pvalues[p], expected.pvalues[p], "p-value package " + i + " probe " + p);
+			}
+		}
+	}
+
+	private static void assertClose(double actual, double expected, String message) {
+		if (Double.isNaN(expected)) {
+			assertTrue(Double.isNaN(actual), message + " is " + actual + " instead of NaN");
+		} else {
+			assertEquals(actual, expected, 1e-9, message);
+		}
+	}
+
+	/**
+	 * Mean centered expression data, as used for trans analyses
+	 */
+	private static TriTyperExpressionData createExpressionData(Random random, int probeCount, int sampleCount) {
+		final double[][] matrix = new double[probeCount][sampleCount];
+		final double[] mean = new double[probeCount];
+		final double[] variance = new double[probeCount];
+		final String[] individuals = new String[sampleCount];
+		for (int s = 0; s < sampleCount; s++) {
+			individuals[s] = "S" + s;
+		}
+		for (int p = 0; p < probeCount; p++) {
+			double sum = 0;
+			for (int s = 0; s < sampleCount; s++) {
+				matrix[p][s] = random.nextGaussian() * (p + 1);
+				sum += matrix[p][s];
+			}
+			for (int s = 0; s < sampleCount; s++) {
+				matrix[p][s] -= sum / sampleCount;
+			}
+			variance[p] = Descriptives.variance(matrix[p], 0);
+		}
+		return new TriTyperExpressionData() {
+			@Override
+			public double[][] getMatrix() {
+				return matrix;
+			}
+
+			@Override
+			public double[] getProbeMean() {
+				return mean;
+			}
+
+			@Override
+			public double[] getProbeVariance() {
+				return variance;
+			}
+
+			@Override
+			public String[] getIndividuals() {
+				return individuals;
+			}
+		};
+	}
+
+	/**
+	 * Work packages with SNPs with and without missing genotypes and a SNP that is missing in a dataset
+	 */
+	private static ArrayList<WorkPackage> createWorkPackages(Random random, int[] sampleCounts) {
+		ArrayList<WorkPackage> packages = new ArrayList<WorkPackage>();
+		for (int i = 0; i < 12; i++) {
+			SNP[] snps = new SNP[sampleCounts.length];
+			for (int d = 0; d < sampleCounts.length; d++) {
+				if (i != 5 || d != 1) {
+					snps[d] = createSnp(random, sampleCounts[d], i % 4 == 3);
+				}
+			}
+			WorkPackage wp = new WorkPackage();
+			wp.setId(i);
+			wp.setSnps(snps);
+			wp.setFlipSNPAlleles(new Boolean[]{false, i % 2 == 0});
+			packages.add(wp);
+		}
+		return packages;
+	}
+
+	private static SNP createSnp(Random random, int sampleCount, boolean missingGenotypes) {
+		byte[] allele1 = new byte[sampleCount];
+		byte[] allele2 = new byte[sampleCount];
+		Boolean[] included = new Boolean[sampleCount];
+		Boolean[] female = new Boolean[sampleCount];
+		for (int s = 0; s < sampleCount; s++) {
+			included[s] = true;
+			if (missingGenotypes && s % 7 == 2) {
+				continue;
+			}
+			int genotype = random.nextInt(3);
+			allele1[s] = genotype == 2 ? (byte) 'G' : (byte) 'A';
+			allele2[s] = genotype == 0 ? (byte) 'A' : (byte) 'G';
+		}
+		SNP snp = new SNP();
+		snp.setAlleles(allele1, allele2, included, female);
+		return snp;
+	}
+}
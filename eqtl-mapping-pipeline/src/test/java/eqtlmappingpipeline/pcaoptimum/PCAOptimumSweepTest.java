@@ -0,0 +1,130 @@
+package eqtlmappingpipeline.pcaoptimum;
+
+import eqtlmappingpipeline.normalization.Normalizer;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import org.testng.annotations.Test;
+import umcg.genetica.math.matrix2.DoubleMatrixDataset;
+import umcg.genetica.math.stats.Descriptives;
+
+import static org.testng.Assert.assertEquals;
+
+public class PCAOptimumSweepTest {
+
+	public PCAOptimumSweepTest() {
+	}
+
+	/**
+	 * Removing the PCs in steps should give the same data as the normalizer removing them in one go
+	 */
+	@Test
+	public void testRemovePCs() throws Exception {
+		Random random = new Random(1);
+		int nrProbes = 20;
+		int nrSamples = 15;
+		int nrPCs = 7;
+
+		ArrayList<String> probeNames = new ArrayList<String>();
+		ArrayList<String> sampleNames = new ArrayList<String>();
+		ArrayList<String> pcNames = new ArrayList<String>();
+		for (int p = 0; p < nrProbes; p++) {
+			probeNames.add("Probe" + p);
+		}
+		for (int s = 0; s < nrSamples; s++) {
+			sampleNames.add("Sample" + s);
+		}
+		for (int pc = 0; pc < nrPCs; pc++) {
+			pcNames.add("Comp" + (pc + 1));
+		}
+
+		double[][] expression = new double[nrProbes][nrSamples];
+		double[][] scores = new double[nrProbes][nrPCs];
+		double[][] vectors = new double[nrPCs][nrSamples];
+		DoubleMatrixDataset<String, String> dataset = new DoubleMatrixDataset<String, String>(probeNames, sampleNames);
+		DoubleMatrixDataset<String, String> pcs = new DoubleMatrixDataset<String, String>(probeNames, pcNames);
+		DoubleMatrixDataset<String, String> evs = new DoubleMatrixDataset<String, String>(sampleNames, pcNames);
+		for (int p = 0; p < nrProbes; p++) {
+			for (int s = 0; s < nrSamples; s++) {
+				expression[p][s] = random.nextGaussian();
+				dataset.setElementQuick(p, s, expression[p][s]);
+			}
+			for (int pc = 0; pc < nrPCs; pc++) {
+				scores[p][pc] = random.nextGaussian();
+				pcs.setElementQuick(p, pc, scores[p][pc]);
+			}
+		}
+		for (int pc = 0; pc < nrPCs; pc++) {
+			for (int s = 0; s < nrSamples; s++) {
+				vectors[pc][s] = random.nextGaussian();
+				evs.setElementQuick(s, pc, vectors[pc][s]);
+			}
+		}
+
+		File tmpDir = Files.createTempDirectory("PCAOptimumSweepTest").toFile();
+		tmpDir.deleteOnExit();
+		Normalizer normalizer = new Normalizer();
+		normalizer.correctDataForPCs(dataset, tmpDir.getAbsolutePath() + File.separator + "expression", nrPCs, 0, pcs, evs);
+		for (File f : tmpDir.listFiles()) {
+			f.deleteOnExit();
+		}
+
+		PCAOptimumSweep.removePCs(expression, scores, vectors, 0, 3);
+		PCAOptimumSweep.removePCs(expression, scores, vectors, 3, 3);
+		PCAOptimumSweep.removePCs(expression, scores, vectors, 3, nrPCs);
+
+		for (int p = 0; p < nrProbes; p++) {
+			for (int s = 0; s < nrSamples; s++) {
+				assertEquals(expression[p][s], dataset.getElementQuick(p, s), 1e-10);
+			}
+		}
+	}
+
+	@Test
+	public void testBenjaminiHochbergThreshold() {
+		Descriptives.initializeZScoreToPValue();
+		Random random = new Random(2);
+
+		for (int signal : new int[]{0, 10, 300, 3000}) {
+			float[] zScores = new float[5000];
+			for (int i = 0; i < zScores.length; i++) {
+				zScores[i] = (float) random.nextGaussian();
+				if (i < signal) {
+					zScores[i] += 4;
+				}
+			}
+			// not tested pairs
+			zScores[zScores.length - 1] = Float.NaN;
+			zScores[zScores.length - 2] = Float.NaN;
+
+			// small buffer so it has to grow
+			PCAOptimumSweep.BHThreshold bh = PCAOptimumSweep.benjaminiHochbergThreshold(zScores, new double[1], 0.05);
+
+			double[] pValues = new double[zScores.length];
+			int nrTested = 0;
+			for (float z : zScores) {
+				if (!Float.isNaN(z)) {
+					pValues[nrTested++] = Descriptives.convertZscoreToPvalue(z);
+				}
+			}
+			pValues = Arrays.copyOf(pValues, nrTested);
+			Arrays.sort(pValues);
+			double expected = -1;
+			for (int k = nrTested - 1; k >= 0; k--) {
+				if (pValues[k] <= 0.05 * (k + 1) / nrTested) {
+					expected = pValues[k];
+					break;
+				}
+			}
+
+			assertEquals(bh.nrTested, zScores.length - 2);
+			assertEquals(bh.pValueThreshold, expected, 0d, "Signal " + signal);
+			if (signal >= 300) {
+				assertEquals(expected > 0, true);
+			}
+		}
+	}
+
+}
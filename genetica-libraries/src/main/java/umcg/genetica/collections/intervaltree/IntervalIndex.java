@@ -0,0 +1,392 @@
+package umcg.genetica.collections.intervaltree;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Index of genomic intervals per chromosome, stored as primitive start and
+ * end arrays instead of an object per interval. Intervals are closed, so
+ * [start, end] overlaps [end, end].
+ * <p>
+ * Per chromosome the intervals are sorted on start and indexed as an implicit
+ * augmented interval tree (the layout of cgranges by Heng Li): the sorted
+ * array is the in-order traversal of a balanced binary tree and each node also
+ * stores the maximum end of its subtree. A query costs O(log n + k). Many
+ * positions are best joined using {@link #joinSorted(java.lang.String, int[], umcg.genetica.collections.intervaltree.IntervalIndex.OverlapConsumer)},
+ * a single linear sweep over the sorted positions and intervals.
+ * <p>
+ * The id of an interval is the order in which it was added. First add all
+ * intervals, then call {@link #index()}. After indexing the queries can be
+ * used by multiple threads.
+ *
+ * @param <V> value stored with every interval
+ */
+public class IntervalIndex<V> {
+
+	private static final int[] EMPTY = new int[0];
+
+	private final HashMap<String, ChrIntervals> chrIntervals = new HashMap<>();
+	private final ArrayList<V> values = new ArrayList<>();
+	private boolean indexed = true;
+
+	/**
+	 * Callback of the batch joins
+	 */
+	public interface OverlapConsumer {
+
+		/**
+		 * @param positionIndex index of the position in the queried array
+		 * @param intervalId
+		 */
+		void overlap(int positionIndex, int intervalId);
+
+	}
+
+	/**
+	 *
+	 * @param chr
+	 * @param start
+	 * @param end inclusive
+	 * @param value can be null
+	 * @return id of the interval
+	 */
+	public int add(String chr, int start, int end, V value) {
+
+		if (end < start) {
+			throw new IllegalArgumentException("Interval end before start: " + chr + ":" + start + "-" + end);
+		}
+
+		ChrIntervals intervals = chrIntervals.get(chr);
+		if (intervals == null) {
+			intervals = new ChrIntervals();
+			chrIntervals.put(chr, intervals);
+		}
+
+		final int id = values.size();
+		values.add(value);
+		intervals.add(start, end, id);
+		indexed = false;
+		return id;
+
+	}
+
+	/**
+	 * Sorts and indexes the intervals. Must be called after adding intervals
+	 * and before querying.
+	 */
+	public void index() {
+		for (ChrIntervals intervals : chrIntervals.values()) {
+			intervals.index();
+		}
+		indexed = true;
+	}
+
+	public int size() {
+		return values.size();
+	}
+
+	public V getValue(int intervalId) {
+		return values.get(intervalId);
+	}
+
+	public Set<String> getChromosomes() {
+		return Collections.unmodifiableSet(chrIntervals.keySet());
+	}
+
+	/**
+	 * @param chr
+	 * @param position
+	 * @return ids of the intervals containing the position ordered on start
+	 */
+	public int[] getOverlapping(String chr, int position) {
+		return getOverlapping(chr, position, position);
+	}
+
+	/**
+	 * @param chr
+	 * @param start
+	 * @param end inclusive
+	 * @return ids of the intervals overlapping the query ordered on start
+	 */
+	public int[] getOverlapping(String chr, int start, int end) {
+		ChrIntervals intervals = getChrIntervals(chr);
+		return intervals == null ? EMPTY : intervals.query(start, end, false);
+	}
+
+	/**
+	 * @param chr
+	 * @param position
+	 * @return values of the intervals containing the position ordered on start
+	 */
+	public List<V> getOverlappingValues(String chr, int position) {
+		int[] ids = getOverlapping(chr, position);
+		ArrayList<V> overlapping = new ArrayList<>(ids.length);
+		for (int id : ids) {
+			overlapping.add(values.get(id));
+		}
+		return overlapping;
+	}
+
+	public boolean isOverlapping(String chr, int position) {
+		ChrIntervals intervals = getChrIntervals(chr);
+		return intervals != null && intervals.query(position, position, true).length > 0;
+	}
+
+	/**
+	 * Reports all overlaps between the positions and the intervals of a
+	 * chromosome in one linear sweep. Per position the intervals are reported
+	 * ordered on start.
+	 *
+	 * @param chr
+	 * @param sortedPositions must be sorted ascending
+	 * @param consumer
+	 */
+	public void joinSorted(String chr, int[] sortedPositions, OverlapConsumer consumer) {
+		ChrIntervals intervals = getChrIntervals(chr);
+		if (intervals != null) {
+			intervals.sweep(sortedPositions, consumer, null);
+		} else {
+			checkSorted(sortedPositions);
+		}
+	}
+
+	/**
+	 * Same sweep as {@link #joinSorted(java.lang.String, int[], umcg.genetica.collections.intervaltree.IntervalIndex.OverlapConsumer)}
+	 * but only counts the overlapping intervals
+	 *
+	 * @param chr
+	 * @param sortedPositions must be sorted ascending
+	 * @return number of intervals containing each position
+	 */
+	public int[] countOverlaps(String chr, int[] sortedPositions) {
+		int[] counts = new int[sortedPositions.length];
+		ChrIntervals intervals = getChrIntervals(chr);
+		if (intervals != null) {
+			intervals.sweep(sortedPositions, null, counts);
+		} else {
+			checkSorted(sortedPositions);
+		}
+		return counts;
+	}
+
+	private ChrIntervals getChrIntervals(String chr) {
+		if (!indexed) {
+			throw new IllegalStateException("Interval index must be indexed after adding intervals");
+		}
+		return chrIntervals.get(chr);
+	}
+
+	private static void checkSorted(int[] sortedPositions) {
+		for (int p = 1; p < sortedPositions.length; ++p) {
+			if (sortedPositions[p] < sortedPositions[p - 1]) {
+				throw new IllegalArgumentException("Positions must be sorted ascending");
+			}
+		}
+	}
+
+	private static class ChrIntervals {
+
+		private int[] starts = new int[16];
+		private int[] ends = new int[16];
+		private int[] ids = new int[16];
+		private int[] maxEnds;
+		private int n = 0;
+		private int rootLevel = -1;
+
+		private void add(int start, int end, int id) {
+			if (n == starts.length) {
+				int newLength = n * 2;
+				starts = Arrays.copyOf(starts, newLength);
+				ends = Arrays.copyOf(ends, newLength);
+				ids = Arrays.copyOf(ids, newLength);
+			}
+			starts[n] = start;
+			ends[n] = end;
+			ids[n] = id;
+			++n;
+		}
+
+		private void index() {
+
+			//Sort on start, ties in order of adding
+			long[] order = new long[n];
+			for (int i = 0; i < n; ++i) {
+				order[i] = ((long) starts[i] << 32) | i;
+			}
+			Arrays.sort(order);
+
+			int[] sortedStarts = new int[n];
+			int[] sortedEnds = new int[n];
+			int[] sortedIds = new int[n];
+			for (int i = 0; i < n; ++i) {
+				int j = (int) order[i];
+				sortedStarts[i] = starts[j];
+				sortedEnds[i] = ends[j];
+				sortedIds[i] = ids[j];
+			}
+			starts = sortedStarts;
+			ends = sortedEnds;
+			ids = sortedIds;
+			maxEnds = new int[n];
+
+			if (n == 0) {
+				rootLevel = -1;
+				return;
+			}
+
+			//Leaves are at the even indices
+			int lastI = 0;
+			int last = 0;
+			for (int i = 0; i < n; i += 2) {
+				lastI = i;
+				last = maxEnds[i] = ends[i];
+			}
+
+			int k;
+			for (k = 1; 1L << k <= n; ++k) {
+				final int x = 1 << (k - 1);
+				final long i0 = (x << 1) - 1;
+				final long step = (long) x << 2;
+				for (long il = i0; il < n; il += step) {
+					final int i = (int) il;
+					final int leftEnd = maxEnds[i - x];
+					final int rightEnd = (long) i + x < n ? maxEnds[i + x] : last;
+					maxEnds[i] = Math.max(ends[i], Math.max(leftEnd, rightEnd));
+				}
+				//Max end of the right most subtree, which can be incomplete
+				lastI = (lastI >> k & 1) == 1 ? lastI - x : lastI + x;
+				if (lastI < n && maxEnds[lastI] > last) {
+					last = maxEnds[lastI];
+				}
+			}
+			rootLevel = k - 1;
+
+		}
+
+		private int[] query(final int start, final int end, final boolean stopAtFirst) {
+
+			if (rootLevel < 0) {
+				return EMPTY;
+			}
+
+			int[] hits = new int[8];
+			int hitCount = 0;
+
+			//Stack of nodes to visit, at most 2 per level
+			final long[] stackNode = new long[128];
+			final int[] stackLevel = new int[128];
+			final boolean[] stackLeftDone = new boolean[128];
+			int stackSize = 0;
+
+			stackNode[stackSize] = (1L << rootLevel) - 1;
+			stackLevel[stackSize] = rootLevel;
+			stackLeftDone[stackSize] = false;
+			++stackSize;
+
+			while (stackSize > 0) {
+
+				--stackSize;
+				final long node = stackNode[stackSize];
+				final int level = stackLevel[stackSize];
+				final boolean leftDone = stackLeftDone[stackSize];
+
+				if (level <= 3) {
+					//Small subtree, linear scan
+					final long i0 = node >> level << level;
+					final long i1 = Math.min(n, i0 + (1L << (level + 1)) - 1);
+					for (int i = (int) i0; i < i1 && starts[i] <= end; ++i) {
+						if (ends[i] >= start) {
+							if (hitCount == hits.length) {
+								hits = Arrays.copyOf(hits, hitCount * 2);
+							}
+							hits[hitCount++] = ids[i];
+						}
+					}
+				} else if (!leftDone) {
+					final long leftChild = node - (1L << (level - 1));
+					stackLeftDone[stackSize] = true;
+					++stackSize;
+					//Left child can be out of range if the tree is incomplete
+					if (leftChild >= n || maxEnds[(int) leftChild] >= start) {
+						stackNode[stackSize] = leftChild;
+						stackLevel[stackSize] = level - 1;
+						stackLeftDone[stackSize] = false;
+						++stackSize;
+					}
+				} else if (node < n && starts[(int) node] <= end) {
+					if (ends[(int) node] >= start) {
+						if (hitCount == hits.length) {
+							hits = Arrays.copyOf(hits, hitCount * 2);
+						}
+						hits[hitCount++] = ids[(int) node];
+					}
+					stackNode[stackSize] = node + (1L << (level - 1));
+					stackLevel[stackSize] = level - 1;
+					stackLeftDone[stackSize] = false;
+					++stackSize;
+				}
+
+				if (stopAtFirst && hitCount > 0) {
+					break;
+				}
+
+			}
+
+			return Arrays.copyOf(hits, hitCount);
+
+		}
+
+		/**
+		 * Intervals are activated when a position passes their start and
+		 * dropped once a position passes their end.
+		 */
+		private void sweep(final int[] sortedPositions, final OverlapConsumer consumer, final int[] counts) {
+
+			int[] active = new int[16];
+			int activeCount = 0;
+			int next = 0;
+			int previousPosition = Integer.MIN_VALUE;
+
+			for (int p = 0; p < sortedPositions.length; ++p) {
+
+				final int position = sortedPositions[p];
+				if (position < previousPosition) {
+					throw new IllegalArgumentException("Positions must be sorted ascending");
+				}
+				previousPosition = position;
+
+				while (next < n && starts[next] <= position) {
+					if (activeCount == active.length) {
+						active = Arrays.copyOf(active, activeCount * 2);
+					}
+					active[activeCount++] = next++;
+				}
+
+				int kept = 0;
+				for (int a = 0; a < activeCount; ++a) {
+					if (ends[active[a]] >= position) {
+						active[kept++] = active[a];
+					}
+				}
+				activeCount = kept;
+
+				if (counts != null) {
+					counts[p] = activeCount;
+				}
+				if (consumer != null) {
+					for (int a = 0; a < activeCount; ++a) {
+						consumer.overlap(p, ids[active[a]]);
+					}
+				}
+
+			}
+
+		}
+
+	}
+
+}
@@ -0,0 +1,211 @@
+package umcg.genetica.containers;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Keeps the N most significant QTL results. The results are ordered on
+ * p-value, then on absolute z-score (largest first), then on SNP and probe id
+ * (largest first), NaN p-values are least significant. The keys are stored in
+ * primitive arrays ordered as a max-heap, so the least significant result is
+ * the root and adding a result costs O(log N) once the heap is full. The
+ * results are only sorted once, when they are retrieved.
+ * <p>
+ * A payload object can be stored with every result, use
+ * {@link #isAccepted(double, float, int, int)} to only create it for results
+ * that will be kept. Not thread safe.
+ *
+ * @param <T> payload type
+ */
+public class BoundedResultHeap<T> {
+
+	private final int capacity;
+	private final double[] pValues;
+	private final float[] absZScores;
+	private final int[] snps;
+	private final int[] probes;
+	private final Object[] payloads;
+	private int size;
+
+	/**
+	 * @param capacity maximum number of results to keep
+	 */
+	public BoundedResultHeap(int capacity) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("Capacity should be at least 1, not " + capacity);
+		}
+		this.capacity = capacity;
+		this.pValues = new double[capacity];
+		this.absZScores = new float[capacity];
+		this.snps = new int[capacity];
+		this.probes = new int[capacity];
+		this.payloads = new Object[capacity];
+		this.size = 0;
+	}
+
+	/**
+	 * @param pValue
+	 * @param zScore
+	 * @param snp
+	 * @param probe
+	 * @return true if {@link #offer(double, float, int, int, java.lang.Object)}
+	 * would keep this result
+	 */
+	public boolean isAccepted(double pValue, float zScore, int snp, int probe) {
+		return size < capacity || compare(pValue, Math.abs(zScore), snp, probe, 0) < 0;
+	}
+
+	/**
+	 * Adds a result if there is room or if it is more significant than the
+	 * least significant result, which is then removed.
+	 *
+	 * @param pValue
+	 * @param zScore
+	 * @param snp
+	 * @param probe
+	 * @param payload can be null
+	 * @return true if the result is kept
+	 */
+	public boolean offer(double pValue, float zScore, int snp, int probe, T payload) {
+
+		float absZScore = Math.abs(zScore);
+
+		if (size < capacity) {
+			set(size, pValue, absZScore, snp, probe, payload);
+			siftUp(size);
+			++size;
+			return true;
+		} else if (compare(pValue, absZScore, snp, probe, 0) < 0) {
+			set(0, pValue, absZScore, snp, probe, payload);
+			siftDown(0, size);
+			return true;
+		} else {
+			return false;
+		}
+
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * @return p-value of the least significant result or NaN if the heap is
+	 * empty
+	 */
+	public double getMaxPValue() {
+		return size == 0 ? Double.NaN : pValues[0];
+	}
+
+	/**
+	 * Sorts the results from most to least significant and empties the heap.
+	 *
+	 * @return the payloads of the results in sorted order
+	 */
+	@SuppressWarnings("unchecked")
+	public ArrayList<T> removeSorted() {
+
+		// heap sort, the least significant results are moved to the end
+		for (int end = size - 1; end > 0; --end) {
+			swap(0, end);
+			siftDown(0, end);
+		}
+
+		ArrayList<T> sorted = new ArrayList<T>(size);
+		for (int i = 0; i < size; ++i) {
+			sorted.add((T) payloads[i]);
+		}
+
+		clear();
+		return sorted;
+
+	}
+
+	public void clear() {
+		Arrays.fill(payloads, 0, size, null);
+		size = 0;
+	}
+
+	private void set(int i, double pValue, float absZScore, int snp, int probe, T payload) {
+		pValues[i] = pValue;
+		absZScores[i] = absZScore;
+		snps[i] = snp;
+		probes[i] = probe;
+		payloads[i] = payload;
+	}
+
+	/**
+	 * @return positive if the result is less significant than the result at
+	 * index i, negative if it is more significant
+	 */
+	private int compare(double pValue, float absZScore, int snp, int probe, int i) {
+		int c = Double.compare(pValue, pValues[i]);
+		if (c != 0) {
+			return c;
+		}
+		c = Float.compare(absZScores[i], absZScore);
+		if (c != 0) {
+			return c;
+		}
+		c = Integer.compare(snps[i], snp);
+		if (c != 0) {
+			return c;
+		}
+		return Integer.compare(probes[i], probe);
+	}
+
+	private int compare(int i, int j) {
+		return compare(pValues[i], absZScores[i], snps[i], probes[i], j);
+	}
+
+	private void siftUp(int i) {
+		while (i > 0) {
+			int parent = (i - 1) >>> 1;
+			if (compare(i, parent) <= 0) {
+				break;
+			}
+			swap(i, parent);
+			i = parent;
+		}
+	}
+
+	private void siftDown(int i, int end) {
+		while (true) {
+			int child = 2 * i + 1;
+			if (child >= end) {
+				break;
+			}
+			if (child + 1 < end && compare(child + 1, child) > 0) {
+				++child;
+			}
+			if (compare(child, i) <= 0) {
+				break;
+			}
+			swap(i, child);
+			i = child;
+		}
+	}
+
+	private void swap(int i, int j) {
+		double p = pValues[i];
+		pValues[i] = pValues[j];
+		pValues[j] = p;
+		float z = absZScores[i];
+		absZScores[i] = absZScores[j];
+		absZScores[j] = z;
+		int s = snps[i];
+		snps[i] = snps[j];
+		snps[j] = s;
+		int pr = probes[i];
+		probes[i] = probes[j];
+		probes[j] = pr;
+		Object o = payloads[i];
+		payloads[i] = payloads[j];
+		payloads[j] = o;
+	}
+
+}
@@ -0,0 +1,293 @@
+package umcg.genetica.math;
+
+import Jama.EigenvalueDecomposition;
+import Jama.Matrix;
+import cern.colt.matrix.tdouble.DoubleMatrix2D;
+
+import java.util.Random;
+import java.util.stream.IntStream;
+
+/**
+ * Truncated PCA over the columns (samples) of a matrix using randomized subspace iteration (Halko, Martinsson and
+ * Tropp 2011). Calculates the first eigenvalues and eigenvectors of the sample by sample correlation matrix without
+ * calculating the correlation matrix itself: the columns are centered and scaled on the fly while the matrix is
+ * multiplied with a small block of vectors. Time is linear in the number of rows and columns, memory is linear in the
+ * number of columns. The matrix is not modified.
+ * <p>
+ * Products with the matrix are calculated in blocks of rows or columns on all available processors. Eigenvectors have
+ * an arbitrary sign, like those of a full eigendecomposition.
+ */
+public class RandomizedPCA {
+
+	private static final int BLOCK_SIZE = 128;
+	public static final int DEFAULT_OVERSAMPLING = 10;
+	public static final int DEFAULT_POWER_ITERATIONS = 4;
+
+	private final double[] eigenValues;
+	private final double[][] eigenVectors;
+	private final int nrColumnsWithVariance;
+
+	public RandomizedPCA(DoubleMatrix2D data, int nrOfComponents) {
+		this(data, nrOfComponents, DEFAULT_OVERSAMPLING, DEFAULT_POWER_ITERATIONS, 1);
+	}
+
+	/**
+	 * @param data            rows are variables (probes), columns are samples
+	 * @param nrOfComponents  number of eigenvectors to calculate
+	 * @param oversampling    number of extra vectors in the subspace, improves the accuracy of the last components
+	 * @param powerIterations number of subspace iterations, improves the accuracy if the eigenvalues decay slowly
+	 * @param seed            seed for the random start of the subspace
+	 */
+	public RandomizedPCA(DoubleMatrix2D data, int nrOfComponents, int oversampling, int powerIterations, long seed) {
+
+		final int nrRows = data.rows();
+		final int nrColumns = data.columns();
+
+		if (nrOfComponents < 1 || nrOfComponents > nrColumns || nrOfComponents > nrRows) {
+			throw new IllegalArgumentException("Number of components should be between 1 and " + Math.min(nrRows, nrColumns) + ", not " + nrOfComponents);
+		}
+
+		final int subspaceSize = Math.min(Math.min(nrRows, nrColumns), nrOfComponents + oversampling);
+
+		// scale the centered columns to unit length, so the cross product is the correlation matrix
+		final double[] means = new double[nrColumns];
+		final double[] scales = new double[nrColumns];
+		forEachBlock(nrColumns, (start, end) -> {
+			for (int c = start; c < end; c++) {
+				double sum = 0;
+				for (int r = 0; r < nrRows; r++) {
+					sum += data.getQuick(r, c);
+				}
+				double mean = sum / nrRows;
+				double sumOfSquares = 0;
+				for (int r = 0; r < nrRows; r++) {
+					double v = data.getQuick(r, c) - mean;
+					sumOfSquares += v * v;
+				}
+				means[c] = mean;
+				// columns without variance are left out of the analysis
+				scales[c] = sumOfSquares > 0 ? 1 / Math.sqrt(sumOfSquares) : 0;
+			}
+		});
+		int columnsWithVariance = 0;
+		for (double scale : scales) {
+			if (scale > 0) {
+				columnsWithVariance++;
+			}
+		}
+		this.nrColumnsWithVariance = columnsWithVariance;
+
+		// all tall and wide matrices below are stored per vector: [vector][row] or [vector][column]
+		Random random = new Random(seed);
+		double[][] omega = new double[subspaceSize][nrColumns];
+		for (double[] vector : omega) {
+			for (int c = 0; c < nrColumns; c++) {
+				vector[c] = random.nextGaussian();
+			}
+		}
+
+		double[][] q = multiply(data, omega, means, scales);
+		orthonormalize(q);
+		for (int i = 0; i < powerIterations; i++) {
+			double[][] w = multiplyTransposed(data, q, means, scales);
+			orthonormalize(w);
+			q = multiply(data, w, means, scales);
+			orthonormalize(q);
+		}
+
+		// small matrix B = Q'Z, the eigenvectors of BB' give the left singular vectors of B
+		double[][] bTransposed = multiplyTransposed(data, q, means, scales);
+		double[][] bbt = new double[subspaceSize][subspaceSize];
+		for (int i = 0; i < subspaceSize; i++) {
+			for (int j = i; j < subspaceSize; j++) {
+				double sum = 0;
+				for (int c = 0; c < nrColumns; c++) {
+					sum += bTransposed[i][c] * bTransposed[j][c];
+				}
+				bbt[i][j] = sum;
+				bbt[j][i] = sum;
+			}
+		}
+
+		EigenvalueDecomposition eig = new Matrix(bbt).eig();
+		double[] smallEigenValues = eig.getRealEigenvalues();
+		double[][] smallEigenVectors = eig.getV().getArray();
+
+		// Jama returns the eigenvalues of a symmetric matrix in ascending order
+		eigenValues = new double[nrOfComponents];
+		eigenVectors = new double[nrOfComponents][nrColumns];
+		for (int pc = 0; pc < nrOfComponents; pc++) {
+			int index = subspaceSize - 1 - pc;
+			double eigenValue = Math.max(0, smallEigenValues[index]);
+			eigenValues[pc] = eigenValue;
+			if (eigenValue == 0) {
+				continue;
+			}
+			double singularValue = Math.sqrt(eigenValue);
+			double[] eigenVector = eigenVectors[pc];
+			for (int i = 0; i < subspaceSize; i++) {
+				double u = smallEigenVectors[i][index] / singularValue;
+				double[] b = bTransposed[i];
+				for (int c = 0; c < nrColumns; c++) {
+					eigenVector[c] += b[c] * u;
+				}
+			}
+		}
+
+	}
+
+	/**
+	 * @return eigenvalues of the correlation matrix in descending order
+	 */
+	public double[] getEigenValues() {
+		return eigenValues;
+	}
+
+	/**
+	 * @param pc zero based component
+	 * @return eigenvector with a coefficient per column
+	 */
+	public double[] getEigenVector(int pc) {
+		return eigenVectors[pc];
+	}
+
+	/**
+	 * @param pc zero based component
+	 * @return the eigenvalue divided by the sum of all eigenvalues of the correlation matrix, which is the number of
+	 * columns with variance
+	 */
+	public double getEigenValueVar(int pc) {
+		return eigenValues[pc] / nrColumnsWithVariance;
+	}
+
+	/**
+	 * @return Z * vectors' with Z the centered and scaled data
+	 */
+	private static double[][] multiply(DoubleMatrix2D data, double[][] vectors, double[] means, double[] scales) {
+
+		final int nrRows = data.rows();
+		final int nrColumns = data.columns();
+		final int nrVectors = vectors.length;
+
+		// Z v = X (s * v) - mean' (s * v)
+		final double[][] scaledVectors = new double[nrVectors][nrColumns];
+		final double[] offsets = new double[nrVectors];
+		for (int v = 0; v < nrVectors; v++) {
+			double offset = 0;
+			for (int c = 0; c < nrColumns; c++) {
+				double scaled = vectors[v][c] * scales[c];
+				scaledVectors[v][c] = scaled;
+				offset += means[c] * scaled;
+			}
+			offsets[v] = offset;
+		}
+
+		final double[][] result = new double[nrVectors][nrRows];
+		forEachBlock(nrRows, (start, end) -> {
+			double[] row = new double[nrColumns];
+			for (int r = start; r < end; r++) {
+				for (int c = 0; c < nrColumns; c++) {
+					row[c] = data.getQuick(r, c);
+				}
+				for (int v = 0; v < nrVectors; v++) {
+					double[] scaledVector = scaledVectors[v];
+					double sum = 0;
+					for (int c = 0; c < nrColumns; c++) {
+						sum += row[c] * scaledVector[c];
+					}
+					result[v][r] = sum - offsets[v];
+				}
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * @return Z' * vectors' with Z the centered and scaled data
+	 */
+	private static double[][] multiplyTransposed(DoubleMatrix2D data, double[][] vectors, double[] means, double[] scales) {
+
+		final int nrRows = data.rows();
+		final int nrColumns = data.columns();
+		final int nrVectors = vectors.length;
+
+		// Z' v = s * (X' v - mean * sum(v))
+		final double[] sums = new double[nrVectors];
+		for (int v = 0; v < nrVectors; v++) {
+			double sum = 0;
+			for (int r = 0; r < nrRows; r++) {
+				sum += vectors[v][r];
+			}
+			sums[v] = sum;
+		}
+
+		final double[][] result = new double[nrVectors][nrColumns];
+		forEachBlock(nrColumns, (start, end) -> {
+			int blockSize = end - start;
+			double[] values = new double[nrVectors];
+			double[][] blockResult = new double[blockSize][nrVectors];
+			for (int r = 0; r < nrRows; r++) {
+				for (int v = 0; v < nrVectors; v++) {
+					values[v] = vectors[v][r];
+				}
+				for (int c = start; c < end; c++) {
+					double x = data.getQuick(r, c);
+					double[] columnResult = blockResult[c - start];
+					for (int v = 0; v < nrVectors; v++) {
+						columnResult[v] += x * values[v];
+					}
+				}
+			}
+			for (int c = start; c < end; c++) {
+				for (int v = 0; v < nrVectors; v++) {
+					result[v][c] = scales[c] * (blockResult[c - start][v] - means[c] * sums[v]);
+				}
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * Modified Gram-Schmidt, applied twice for numerical stability. Vectors that are linearly dependent on the
+	 * previous vectors are set to 0.
+	 */
+	private static void orthonormalize(double[][] vectors) {
+		for (int pass = 0; pass < 2; pass++) {
+			for (int i = 0; i < vectors.length; i++) {
+				double[] vector = vectors[i];
+				for (int j = 0; j < i; j++) {
+					double[] previous = vectors[j];
+					double dot = 0;
+					for (int k = 0; k < vector.length; k++) {
+						dot += vector[k] * previous[k];
+					}
+					for (int k = 0; k < vector.length; k++) {
+						vector[k] -= dot * previous[k];
+					}
+				}
+				double norm = 0;
+				for (double v : vector) {
+					norm += v * v;
+				}
+				norm = Math.sqrt(norm);
+				double inverseNorm = norm > 1e-12 ? 1 / norm : 0;
+				for (int k = 0; k < vector.length; k++) {
+					vector[k] *= inverseNorm;
+				}
+			}
+		}
+	}
+
+	private interface BlockTask {
+		void run(int start, int end);
+	}
+
+	private static void forEachBlock(int size, BlockTask task) {
+		int nrBlocks = (size + BLOCK_SIZE - 1) / BLOCK_SIZE;
+		IntStream.range(0, nrBlocks).parallel().forEach(block -> {
+			int start = block * BLOCK_SIZE;
+			task.run(start, Math.min(size, start + BLOCK_SIZE));
+		});
+	}
+
+}
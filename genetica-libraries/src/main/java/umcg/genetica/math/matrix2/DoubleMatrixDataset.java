@@ -780,6 +780,48 @@ public class DoubleMatrixDataset<R extends Comparable, C extends Comparable> {
 		return dataset;
 	}
 
+	/**
+	 * Opens a binary matrix without loading the data. The matrix is memory mapped, see
+	 * {@link MemoryMappedDoubleMatrix2D}, so values are read from the file, or the page cache, when accessed. Use this
+	 * for large matrices of which only a few rows or columns are needed, views with
+	 * {@link #viewColSelection(java.util.Collection)} or {@link #viewRowSelection(java.util.Collection)} do not copy
+	 * the data. The returned dataset is read-only.
+	 *
+	 * @param fileName
+	 * @return
+	 * @throws FileNotFoundException
+	 * @throws IOException
+	 */
+	public static DoubleMatrixDataset<String, String> loadDoubleBinaryDataMemoryMapped(String fileName) throws FileNotFoundException, IOException {
+
+		final File fileBinary;
+		if (fileName.endsWith(".dat")) {
+			fileBinary = new File(fileName);
+		} else {
+			fileBinary = new File(fileName + ".dat");
+		}
+
+		int nrRows;
+		int nrCols;
+		try (DataInputStream in = new DataInputStream(new FileInputStream(fileBinary))) {
+			nrRows = in.readInt();
+			nrCols = in.readInt();
+		}
+
+		LinkedHashMap<String, Integer> rowMap = loadIdentifiers(fileName + ".rows.txt");
+		LinkedHashMap<String, Integer> colMap = loadIdentifiers(fileName + ".cols.txt");
+
+		if (nrRows != rowMap.size()) {
+			throw new RuntimeException("Matrix at: " + fileName + " does not have expected number of rows");
+		}
+
+		if (nrCols != colMap.size()) {
+			throw new RuntimeException("Matrix at: " + fileName + " does not have expected number of cols");
+		}
+
+		return new DoubleMatrixDataset<String, String>(new MemoryMappedDoubleMatrix2D(fileBinary, nrRows, nrCols), rowMap, colMap);
+	}
+
 	public void saveBinary(String path) throws IOException {
 
 		final File matrixFile = new File(path + ".dat");
@@ -0,0 +1,120 @@
+package umcg.genetica.math.matrix2;
+
+import cern.colt.matrix.tdouble.DoubleMatrix1D;
+import cern.colt.matrix.tdouble.DoubleMatrix2D;
+import cern.colt.matrix.tdouble.impl.DenseDoubleMatrix1D;
+import cern.colt.matrix.tdouble.impl.DenseDoubleMatrix2D;
+import cern.colt.matrix.tdouble.impl.DenseLargeDoubleMatrix2D;
+import cern.colt.matrix.tdouble.impl.WrapperDoubleMatrix2D;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Read-only matrix backed by memory mappings of a binary matrix file as written by
+ * {@link DoubleMatrixDataset#saveBinary(String)}. Nothing is read when the matrix is created, pages of the file are
+ * loaded by the operating system when they are accessed and are shared with other processes mapping the same file.
+ * <p>
+ * A single mapping is limited to 2GB, so larger files are mapped in multiple parts of whole rows. Selections and other
+ * views are views on the mapped data and are not copied. Setting values throws an
+ * {@link UnsupportedOperationException}.
+ */
+public class MemoryMappedDoubleMatrix2D extends WrapperDoubleMatrix2D {
+
+	private static final long serialVersionUID = 1L;
+	private static final int HEADER_SIZE = 8;
+
+	private final DoubleBuffer[] buffers;
+	private final int rowsPerBuffer;
+	private final int rowLength;
+
+	/**
+	 * @param file    binary matrix file including the header with the number of rows and columns
+	 * @param rows
+	 * @param columns
+	 * @throws IOException if the file is smaller than the expected size
+	 */
+	public MemoryMappedDoubleMatrix2D(File file, int rows, int columns) throws IOException {
+		super(null);
+		try {
+			setUp(rows, columns);
+		} catch (IllegalArgumentException exc) { // like DenseLargeDoubleMatrix2D this can hold rows*columns>Integer.MAX_VALUE cells
+			if (!"matrix too large".equals(exc.getMessage())) {
+				throw exc;
+			}
+		}
+		this.rowLength = columns;
+
+		long rowBytes = columns * 8L;
+		if (rowBytes > Integer.MAX_VALUE) {
+			throw new IOException("Rows of matrix at: " + file.getAbsolutePath() + " are too large to map");
+		}
+		rowsPerBuffer = rowBytes == 0 ? Math.max(rows, 1) : (int) Math.max(1, Math.min(rows, Integer.MAX_VALUE / rowBytes));
+		int nrBuffers = (int) ((rows + (long) rowsPerBuffer - 1) / rowsPerBuffer);
+		buffers = new DoubleBuffer[nrBuffers];
+
+		try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+			 FileChannel channel = randomAccessFile.getChannel()) {
+
+			long expectedSize = HEADER_SIZE + rows * rowBytes;
+			if (channel.size() < expectedSize) {
+				throw new IOException("Matrix at: " + file.getAbsolutePath() + " is " + channel.size() + " bytes, expected " + expectedSize + " bytes for " + rows + " rows and " + columns + " cols");
+			}
+
+			// the mappings stay valid after the channel is closed
+			for (int b = 0; b < nrBuffers; b++) {
+				long firstRow = b * (long) rowsPerBuffer;
+				long nrRows = Math.min(rowsPerBuffer, rows - firstRow);
+				buffers[b] = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE + firstRow * rowBytes, nrRows * rowBytes).asDoubleBuffer();
+			}
+		}
+	}
+
+	@Override
+	public double getQuick(int row, int column) {
+		return buffers[row / rowsPerBuffer].get((row % rowsPerBuffer) * rowLength + column);
+	}
+
+	/**
+	 * Copies a row of the matrix with one bulk read from the mapping.
+	 *
+	 * @param row
+	 * @param destination array of at least the number of columns
+	 */
+	public void copyRow(int row, double[] destination) {
+		DoubleBuffer buffer = buffers[row / rowsPerBuffer].duplicate();
+		buffer.position((row % rowsPerBuffer) * rowLength);
+		buffer.get(destination, 0, rowLength);
+	}
+
+	@Override
+	public void setQuick(int row, int column, double value) {
+		throw new UnsupportedOperationException("Memory mapped matrix is read-only");
+	}
+
+	/**
+	 * @return null, the values are not stored in an array
+	 */
+	@Override
+	public Object elements() {
+		return null;
+	}
+
+	@Override
+	public DoubleMatrix2D like(int rows, int columns) {
+		if ((rows * (long) columns) < (Integer.MAX_VALUE - 2)) {
+			return new DenseDoubleMatrix2D(rows, columns);
+		} else {
+			return new DenseLargeDoubleMatrix2D(rows, columns);
+		}
+	}
+
+	@Override
+	public DoubleMatrix1D like1D(int size) {
+		return new DenseDoubleMatrix1D(size);
+	}
+
+}
@@ -0,0 +1,127 @@
+package umcg.genetica.collections.intervaltree;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import static org.testng.Assert.*;
+import org.testng.annotations.Test;
+
+public class IntervalIndexTest {
+
+	public IntervalIndexTest() {
+	}
+
+	@Test
+	public void testGetOverlapping() {
+
+		IntervalIndex<String> index = new IntervalIndex<>();
+		index.add("1", 0, 10, "0-10a");
+		index.add("1", 5, 10, "5-10");
+		index.add("1", 10, 11, "10-11");
+		index.add("1", 10, 10, "10-10");
+		index.add("1", 0, 20, "0-20");
+		index.add("1", 5, 10, "5-10b");
+		index.add("2", 5, 10, "chr2");
+		index.index();
+
+		assertEquals(index.size(), 7);
+		assertEquals(index.getOverlappingValues("1", 5), Arrays.asList("0-10a", "0-20", "5-10", "5-10b"));
+		assertEquals(index.getOverlappingValues("1", 11), Arrays.asList("0-20", "10-11"));
+		assertEquals(index.getOverlappingValues("1", 21), new ArrayList<String>());
+		assertEquals(index.getOverlappingValues("3", 5), new ArrayList<String>());
+		assertEquals(index.getOverlapping("1", 11, 30), new int[]{4, 2});
+		assertTrue(index.isOverlapping("2", 10));
+		assertFalse(index.isOverlapping("2", 11));
+
+	}
+
+	@Test(expectedExceptions = IllegalStateException.class)
+	public void testNotIndexed() {
+		IntervalIndex<String> index = new IntervalIndex<>();
+		index.add("1", 0, 10, "a");
+		index.getOverlapping("1", 5);
+	}
+
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void testUnsortedPositions() {
+		IntervalIndex<String> index = new IntervalIndex<>();
+		index.add("1", 0, 10, "a");
+		index.index();
+		index.countOverlaps("1", new int[]{5, 4});
+	}
+
+	@Test
+	public void testRandomAgainstBruteForce() {
+
+		Random random = new Random(1);
+
+		for (int size : new int[]{0, 1, 2, 3, 15, 16, 17, 100, 1000, 5000}) {
+
+			int[] starts = new int[size];
+			int[] ends = new int[size];
+			IntervalIndex<Integer> index = new IntervalIndex<>();
+			for (int i = 0; i < size; ++i) {
+				starts[i] = random.nextInt(100000);
+				//Mostly small intervals with some very large ones
+				ends[i] = starts[i] + (random.nextInt(20) == 0 ? random.nextInt(50000) : random.nextInt(200));
+				assertEquals(index.add("1", starts[i], ends[i], i), i);
+			}
+			index.index();
+
+			for (int q = 0; q < 500; ++q) {
+				int queryStart = random.nextInt(110000) - 5000;
+				int queryEnd = queryStart + random.nextInt(q % 2 == 0 ? 1 : 1000);
+				int[] found = index.getOverlapping("1", queryStart, queryEnd);
+				Arrays.sort(found);
+				assertEquals(found, bruteForce(starts, ends, queryStart, queryEnd), "Size " + size + " query " + queryStart + "-" + queryEnd);
+			}
+
+			int[] positions = new int[2000];
+			for (int p = 0; p < positions.length; ++p) {
+				positions[p] = random.nextInt(110000) - 5000;
+			}
+			Arrays.sort(positions);
+
+			int[] counts = index.countOverlaps("1", positions);
+			final List<List<Integer>> joined = new ArrayList<>();
+			for (int p = 0; p < positions.length; ++p) {
+				joined.add(new ArrayList<Integer>());
+			}
+			index.joinSorted("1", positions, new IntervalIndex.OverlapConsumer() {
+				@Override
+				public void overlap(int positionIndex, int intervalId) {
+					joined.get(positionIndex).add(intervalId);
+				}
+			});
+
+			for (int p = 0; p < positions.length; ++p) {
+				int[] pointQuery = index.getOverlapping("1", positions[p]);
+				int[] expected = bruteForce(starts, ends, positions[p], positions[p]);
+				assertEquals(counts[p], expected.length);
+				int[] join = new int[joined.get(p).size()];
+				for (int i = 0; i < join.length; ++i) {
+					join[i] = joined.get(p).get(i);
+				}
+				//Both report in order of start
+				assertEquals(join, pointQuery);
+				Arrays.sort(join);
+				assertEquals(join, expected);
+			}
+
+		}
+
+	}
+
+	private static int[] bruteForce(int[] starts, int[] ends, int queryStart, int queryEnd) {
+		int count = 0;
+		int[] found = new int[starts.length];
+		for (int i = 0; i < starts.length; ++i) {
+			if (starts[i] <= queryEnd && ends[i] >= queryStart) {
+				found[count++] = i;
+			}
+		}
+		return Arrays.copyOf(found, count);
+	}
+
+}
@@ -0,0 +1,72 @@
+package umcg.genetica.containers;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+import static org.testng.Assert.*;
+import org.testng.annotations.Test;
+
+public class BoundedResultHeapNGTest {
+
+	public BoundedResultHeapNGTest() {
+	}
+
+	@Test
+	public void testKeepsMostSignificant() {
+
+		int nrResults = 10000;
+		int capacity = 100;
+
+		Random random = new Random(1);
+		ArrayList<Integer> ids = new ArrayList<>(nrResults);
+		double[] pValues = new double[nrResults];
+		for (int i = 0; i < nrResults; i++) {
+			// some ties to test the ordering on z-score and id
+			pValues[i] = random.nextInt(500) / 1000d;
+			ids.add(i);
+		}
+
+		BoundedResultHeap<Integer> heap = new BoundedResultHeap<>(capacity);
+		for (int i = 0; i < nrResults; i++) {
+			float z = i % 7;
+			boolean accepted = heap.isAccepted(pValues[i], z, i, i % 13);
+			assertEquals(heap.offer(pValues[i], z, i, i % 13, i), accepted);
+		}
+		assertEquals(heap.size(), capacity);
+
+		Collections.sort(ids, (a, b) -> {
+			int c = Double.compare(pValues[a], pValues[b]);
+			if (c != 0) {
+				return c;
+			}
+			c = Float.compare(b % 7, a % 7);
+			if (c != 0) {
+				return c;
+			}
+			return Integer.compare(b, a);
+		});
+
+		assertEquals(heap.getMaxPValue(), pValues[ids.get(capacity - 1)]);
+
+		ArrayList<Integer> sorted = heap.removeSorted();
+		assertEquals(sorted, ids.subList(0, capacity));
+		assertEquals(heap.size(), 0);
+
+	}
+
+	@Test
+	public void testNotFull() {
+
+		BoundedResultHeap<String> heap = new BoundedResultHeap<>(10);
+		heap.offer(0.5, 1, 0, 0, "a");
+		heap.offer(Double.NaN, 1, 1, 0, "b");
+		heap.offer(0.1, 1, 2, 0, "c");
+		heap.offer(0.1, -3, 3, 0, "d");
+
+		assertTrue(heap.isAccepted(1, 0, 4, 0));
+		assertEquals(heap.removeSorted(), Arrays.asList("d", "c", "a", "b"));
+
+	}
+
+}
@@ -0,0 +1,96 @@
+package umcg.genetica.math;
+
+import Jama.EigenvalueDecomposition;
+import Jama.Matrix;
+import cern.colt.matrix.tdouble.impl.DenseDoubleMatrix2D;
+import java.util.Random;
+import static org.testng.Assert.*;
+import org.testng.annotations.Test;
+
+public class RandomizedPCANGTest {
+
+	public RandomizedPCANGTest() {
+	}
+
+	/**
+	 * Compare with full eigenvalue decomposition of the correlation matrix
+	 */
+	@Test
+	public void testRandomizedPCA() {
+
+		int nrRows = 300;
+		int nrColumns = 60;
+		int nrFactors = 5;
+		int nrComponents = 5;
+
+		// rows are a mix of a few factors plus noise, columns differ in mean and scale
+		Random random = new Random(1);
+		double[][] factors = new double[nrFactors][nrColumns];
+		for (double[] factor : factors) {
+			for (int c = 0; c < nrColumns; c++) {
+				factor[c] = random.nextGaussian();
+			}
+		}
+		DenseDoubleMatrix2D data = new DenseDoubleMatrix2D(nrRows, nrColumns);
+		double[] loadings = new double[nrFactors];
+		for (int r = 0; r < nrRows; r++) {
+			for (int f = 0; f < nrFactors; f++) {
+				loadings[f] = (nrFactors - f) * random.nextGaussian();
+			}
+			for (int c = 0; c < nrColumns; c++) {
+				double v = random.nextGaussian();
+				for (int f = 0; f < nrFactors; f++) {
+					v += loadings[f] * factors[f][c];
+				}
+				data.setQuick(r, c, 10 + c + (1 + c % 3) * v);
+			}
+		}
+
+		double[][] centered = new double[nrColumns][nrRows];
+		for (int c = 0; c < nrColumns; c++) {
+			double mean = 0;
+			for (int r = 0; r < nrRows; r++) {
+				mean += data.getQuick(r, c);
+			}
+			mean /= nrRows;
+			double norm = 0;
+			for (int r = 0; r < nrRows; r++) {
+				centered[c][r] = data.getQuick(r, c) - mean;
+				norm += centered[c][r] * centered[c][r];
+			}
+			norm = Math.sqrt(norm);
+			for (int r = 0; r < nrRows; r++) {
+				centered[c][r] /= norm;
+			}
+		}
+		double[][] correlationMatrix = new double[nrColumns][nrColumns];
+		for (int i = 0; i < nrColumns; i++) {
+			for (int j = 0; j < nrColumns; j++) {
+				for (int r = 0; r < nrRows; r++) {
+					correlationMatrix[i][j] += centered[i][r] * centered[j][r];
+				}
+			}
+		}
+		EigenvalueDecomposition eig = new Matrix(correlationMatrix).eig();
+
+		RandomizedPCA pca = new RandomizedPCA(data, nrComponents);
+
+		for (int pc = 0; pc < nrComponents; pc++) {
+
+			assertEquals(pca.getEigenValues()[pc], eig.getRealEigenvalues()[nrColumns - 1 - pc], 0.0001);
+			assertEquals(pca.getEigenValueVar(pc), PCA.getEigenValueVar(eig.getRealEigenvalues(), pc), 0.0001);
+
+			// eigenvectors are identical up to the sign
+			double[] expectedEigenVector = PCA.getEigenVector(eig, pc);
+			double[] eigenVector = pca.getEigenVector(pc);
+			double dot = 0;
+			for (int c = 0; c < nrColumns; c++) {
+				dot += expectedEigenVector[c] * eigenVector[c];
+			}
+			assertEquals(Math.abs(dot), 1, 0.0001);
+
+		}
+
+	}
+
+}
@@ -329,6 +329,69 @@ public class DoubleMatrixDatasetTest {
 
     }
 
+    @Test
+    public void testLoadBinaryMatrixMemoryMapped() throws IOException, Exception {
+        System.out.println("testLoadBinaryMatrixMemoryMapped");
+        ArrayList<String> rows = new ArrayList<>();
+        ArrayList<String> cols = new ArrayList<>();
+
+        rows.add("row1");
+        rows.add("row2");
+        rows.add("row3");
+
+        cols.add("col1");
+        cols.add("col2");
+        cols.add("col3");
+        cols.add("col4");
+
+        DoubleMatrixDataset dataset = new DoubleMatrixDataset(rows, cols);
+
+        dataset.setElementQuick(0, 0, 1);
+        dataset.setElementQuick(0, 3, 4);
+        dataset.setElementQuick(1, 2, 5.55);
+        dataset.setElementQuick(2, 1, -12.2);
+
+        dataset.saveBinary(tmpOutputFolder.getAbsolutePath() + ".testBinMapped");
+
+        DoubleMatrixDataset<String, String> dataset2 = DoubleMatrixDataset.loadDoubleBinaryDataMemoryMapped(tmpOutputFolder.getAbsolutePath() + ".testBinMapped");
+
+        assertEquals(dataset2.rows(), 3);
+        assertEquals(dataset2.columns(), 4);
+        assertEquals(dataset2.getRowObjects().get(2), "row3");
+        assertEquals(dataset2.getColObjects().get(3), "col4");
+
+        for (int r = 0; r < 3; r++) {
+            for (int c = 0; c < 4; c++) {
+                assertEquals(dataset2.getElementQuick(r, c), dataset.getElementQuick(r, c));
+            }
+        }
+
+        double[] row = new double[4];
+        ((MemoryMappedDoubleMatrix2D) dataset2.getMatrix()).copyRow(2, row);
+        assertEquals(row[0], 0d);
+        assertEquals(row[1], -12.2d);
+        assertEquals(row[3], 0d);
+
+        DoubleMatrixDataset<String, String> dataset3 = dataset2.viewColSelection("col3", "col2");
+
+        assertEquals(dataset3.rows(), 3);
+        assertEquals(dataset3.columns(), 2);
+        assertEquals(dataset3.getElementQuick(1, 0), 5.55d);
+        assertEquals(dataset3.getElementQuick(2, 1), -12.2d);
+
+        DoubleMatrixDataset<String, String> dataset4 = dataset2.viewRowSelection(new String[]{"row3", "row2"});
+
+        assertEquals(dataset4.getElementQuick(0, 1), -12.2d);
+        assertEquals(dataset4.getElementQuick(1, 2), 5.55d);
+
+        try {
+            dataset2.setElementQuick(0, 0, 2);
+            fail("Memory mapped matrix should be read-only");
+        } catch (UnsupportedOperationException ex) {
+        }
+
+    }
+
     @Test
     public void testSaveLoadTextMatrix() throws IOException, Exception {
         System.out.println("testSaveLoadTextMatrix");
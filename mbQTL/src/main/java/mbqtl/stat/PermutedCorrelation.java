@@ -0,0 +1,156 @@
+package mbqtl.stat;
+
+import mbqtl.Util;
+
+import java.util.Arrays;
+
+/**
+ * Correlates a variant with all permutations of the expression of a gene at once. The expression is permuted with
+ * the same seeds as {@link Util#shuffleArray(double[], long)}, so the permutations are identical to shuffling the
+ * expression per variant. The permuted expression is stored once per gene in one contiguous array; samples with a
+ * missing genotype are removed from the sums of each permutation with correction terms instead of pruning the data.
+ * <p>
+ * Only supports expression without missing values, see {@link #isSupported(double[])}. Correlations are Pearson
+ * correlations over the samples with a genotype, which equals the correlation of the pruned and center-scaled data.
+ */
+public class PermutedCorrelation {
+
+    /**
+     * Variances below this fraction of the sum of squares are only rounding errors, for instance constant expression
+     * that is not exactly representable.
+     */
+    private static final double RELATIVE_VARIANCE_TOLERANCE = 1e-12;
+
+    private final int nrSamples;
+    private final int nrPermutations;
+    private final double[] permutedExpression; // [permutation * nrSamples + sample], centered on the overall mean
+    private final double[] permutationSum;
+    private final double[] permutationSumOfSquares;
+
+    public PermutedCorrelation(double[] expression, long[] seeds) {
+        if (!isSupported(expression)) {
+            throw new IllegalArgumentException("Expression contains missing values");
+        }
+        this.nrSamples = expression.length;
+        this.nrPermutations = seeds.length;
+        this.permutedExpression = new double[nrSamples * nrPermutations];
+        this.permutationSum = new double[nrPermutations];
+        this.permutationSumOfSquares = new double[nrPermutations];
+
+        // centering does not change the correlation but limits the loss of precision in the sums
+        double mean = 0;
+        for (double e : expression) {
+            mean += e;
+        }
+        mean /= nrSamples;
+
+        double[] permutation = new double[nrSamples];
+        for (int p = 0; p < nrPermutations; p++) {
+            System.arraycopy(expression, 0, permutation, 0, nrSamples);
+            Util.shuffleArray(permutation, seeds[p]);
+            int offset = p * nrSamples;
+            double sum = 0;
+            double sumOfSquares = 0;
+            for (int i = 0; i < nrSamples; i++) {
+                double e = permutation[i] - mean;
+                permutedExpression[offset + i] = e;
+                sum += e;
+                sumOfSquares += e * e;
+            }
+            permutationSum[p] = sum;
+            permutationSumOfSquares[p] = sumOfSquares;
+        }
+    }
+
+    public static boolean isSupported(double[] expression) {
+        for (double e : expression) {
+            if (Double.isNaN(e)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param genotypes   genotypes of the samples, -1 for missing
+     * @param dosages     dosages of the samples
+     * @param correlations output, correlation per permutation. NaN if there is no variance, relative to
+     *                     {@link #RELATIVE_VARIANCE_TOLERANCE}.
+     * @return the number of samples with a genotype
+     */
+    public int correlate(double[] genotypes, double[] dosages, double[] correlations) {
+
+        // center the dosages, missing samples get 0 so they do not contribute to the cross products
+        int nrObservations = 0;
+        double meanDosage = 0;
+        for (int i = 0; i < nrSamples; i++) {
+            if (genotypes[i] != -1) {
+                meanDosage += dosages[i];
+                nrObservations++;
+            }
+        }
+        meanDosage /= nrObservations;
+
+        double[] x = new double[nrSamples];
+        int[] missing = new int[nrSamples - nrObservations];
+        int nrMissing = 0;
+        double sumOfSquaresX = 0;
+        double sumOfSquaresDosage = 0;
+        for (int i = 0; i < nrSamples; i++) {
+            if (genotypes[i] != -1) {
+                double xi = dosages[i] - meanDosage;
+                x[i] = xi;
+                sumOfSquaresX += xi * xi;
+                sumOfSquaresDosage += dosages[i] * dosages[i];
+            } else {
+                missing[nrMissing++] = i;
+            }
+        }
+
+        if (nrObservations < 2 || sumOfSquaresX <= RELATIVE_VARIANCE_TOLERANCE * sumOfSquaresDosage) {
+            Arrays.fill(correlations, 0, nrPermutations, Double.NaN);
+            return nrObservations;
+        }
+
+        for (int p = 0; p < nrPermutations; p++) {
+            int offset = p * nrSamples;
+
+            // independent accumulators so the products can be pipelined
+            double xy0 = 0;
+            double xy1 = 0;
+            double xy2 = 0;
+            double xy3 = 0;
+            int i = 0;
+            for (; i + 3 < nrSamples; i += 4) {
+                xy0 += x[i] * permutedExpression[offset + i];
+                xy1 += x[i + 1] * permutedExpression[offset + i + 1];
+                xy2 += x[i + 2] * permutedExpression[offset + i + 2];
+                xy3 += x[i + 3] * permutedExpression[offset + i + 3];
+            }
+            for (; i < nrSamples; i++) {
+                xy0 += x[i] * permutedExpression[offset + i];
+            }
+            double sumXY = (xy0 + xy1) + (xy2 + xy3);
+
+            // remove the samples with a missing genotype from the expression sums
+            double sumY = permutationSum[p];
+            double sumOfSquaresY = permutationSumOfSquares[p];
+            for (int m = 0; m < nrMissing; m++) {
+                double e = permutedExpression[offset + missing[m]];
+                sumY -= e;
+                sumOfSquaresY -= e * e;
+            }
+            double varianceY = sumOfSquaresY - sumY * sumY / nrObservations;
+
+            // x is centered, so the sum of x times the mean of y is 0. The tolerance is relative to the sum of
+            // squares of all samples, the rounding errors of removing the missing samples are relative to that sum.
+            correlations[p] = varianceY <= RELATIVE_VARIANCE_TOLERANCE * permutationSumOfSquares[p] ? Double.NaN : sumXY / Math.sqrt(sumOfSquaresX * varianceY);
+        }
+
+        return nrObservations;
+    }
+
+    public int getNrPermutations() {
+        return nrPermutations;
+    }
+}
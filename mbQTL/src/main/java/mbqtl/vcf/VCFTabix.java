@@ -2,11 +2,15 @@ package mbqtl.vcf;
 
 
 import org.broad.tribble.readers.TabixReader;
+import org.molgenis.genotype.vcf.VcfLineParser;
+import org.molgenis.genotype.tabix.ParallelBlockCompressedInputStream;
+import org.molgenis.genotype.tabix.TabixIndex;
 import umcg.genetica.features.Feature;
 import umcg.genetica.io.Gpio;
 import umcg.genetica.io.text.TextFile;
 import umcg.genetica.text.Strings;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashSet;
@@ -20,19 +24,28 @@ public class VCFTabix {
 
     private final String tabixfile;
     private final TabixReader treader;
+    // variant iterators read from a stream that inflates blocks in parallel
+    private final TabixIndex tabixIndex;
+    private final ParallelBlockCompressedInputStream variantStream;
 
     public VCFTabix() {
         this.tabixfile = null;
         this.treader = null;
+        this.tabixIndex = null;
+        this.variantStream = null;
     }
 
     public VCFTabix(String filename) throws IOException {
         this.tabixfile = filename;
         if (Gpio.exists(tabixfile + ".tbi")) {
             treader = new TabixReader(tabixfile);
+            tabixIndex = new TabixIndex(new File(tabixfile + ".tbi"), new File(tabixfile), null);
+            variantStream = new ParallelBlockCompressedInputStream(new File(tabixfile));
         } else {
             System.out.println("Could not find tabix index: " + tabixfile + ".tbi");
             treader = null;
+            tabixIndex = null;
+            variantStream = null;
         }
 
     }
@@ -89,26 +102,49 @@ public class VCFTabix {
         }
     }
 
+    private TabixIndex.TabixIterator queryVariants(Feature region) throws IOException {
+        int start = region.getStart();
+        if (start < 1) {
+            start = 1;
+        }
+        int stop = region.getStop();
+
+        // same coordinates as the TabixReader query string: 1-based and inclusive
+        String chr = String.valueOf(region.getChromosome().getNumber());
+        TabixIndex.TabixIterator window = tabixIndex.queryTabixIndex(chr, start - 1, stop, variantStream);
+        if (window == null) {
+            window = tabixIndex.queryTabixIndex("chr" + chr, start - 1, stop, variantStream);
+        }
+        return window;
+    }
+
     public void close() {
         treader.close();
+        try {
+            variantStream.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
     }
 
     class VCFVariantIterator implements Iterator<VCFVariant> {
 
         private final boolean[] samplefilter;
+        // reused for all lines of this iterator
+        private final VcfLineParser lineParser;
         private Set<String> variantIdFilter;
-        TabixReader.Iterator it;
+        TabixIndex.TabixIterator it;
         boolean hasnext = true;
 
-        public VCFVariantIterator(TabixReader.Iterator it, boolean[] samplefilter) {
+        public VCFVariantIterator(TabixIndex.TabixIterator it, boolean[] samplefilter) {
             this.it = it;
             this.samplefilter = samplefilter;
+            this.lineParser = new VcfLineParser(samplefilter);
         }
 
-        public VCFVariantIterator(TabixReader.Iterator it, boolean[] samplefilter, Set<String> variantIdFilter) {
-            this.it = it;
+        public VCFVariantIterator(TabixIndex.TabixIterator it, boolean[] samplefilter, Set<String> variantIdFilter) {
+            this(it, samplefilter);
             this.variantIdFilter = variantIdFilter;
-            this.samplefilter = samplefilter;
         }
 
         @Override
@@ -130,12 +166,12 @@ public class VCFTabix {
                 } else {
                     if (variantIdFilter != null) {
                         if (variantIdFilter.contains(new VCFVariant(next, VCFVariant.PARSE.HEADER, samplefilter).getId())) {
-                            return new VCFVariant(next, VCFVariant.PARSE.ALL, samplefilter);
+                            return new VCFVariant(next, VCFVariant.PARSE.ALL, samplefilter, lineParser);
                         } else {
                             return null;
                         }
                     } else {
-                        return new VCFVariant(next, VCFVariant.PARSE.ALL, samplefilter);
+                        return new VCFVariant(next, VCFVariant.PARSE.ALL, samplefilter, lineParser);
                     }
                 }
             } catch (IOException e) {
@@ -147,21 +183,25 @@ public class VCFTabix {
     }
 
     public Iterator<VCFVariant> getVariants(Feature f, boolean[] samplefilter, Set<String> variantIdFilter) throws IOException {
-        TabixReader.Iterator iterator = query(f);
+        TabixIndex.TabixIterator iterator = queryVariants(f);
         return new VCFVariantIterator(iterator, samplefilter, variantIdFilter);
     }
 
     public Iterator<VCFVariant> getVariants(Feature f, boolean[] samplefilter) throws IOException {
-        TabixReader.Iterator iterator = query(f);
+        TabixIndex.TabixIterator iterator = queryVariants(f);
         return new VCFVariantIterator(iterator, samplefilter);
     }
 
     public ArrayList<VCFVariant> getAllVariants(Feature f, boolean[] samplefilter) throws IOException {
-        TabixReader.Iterator iterator = query(f);
-        String next = iterator.next();
+        TabixIndex.TabixIterator iterator = queryVariants(f);
         ArrayList<VCFVariant> output = new ArrayList<>();
+        if (iterator == null) {
+            return output;
+        }
+        VcfLineParser lineParser = new VcfLineParser(samplefilter);
+        String next = iterator.next();
         while (next != null) {
-            output.add(new VCFVariant(next, VCFVariant.PARSE.ALL, samplefilter));
+            output.add(new VCFVariant(next, VCFVariant.PARSE.ALL, samplefilter, lineParser));
             next = iterator.next();
         }
         return output;
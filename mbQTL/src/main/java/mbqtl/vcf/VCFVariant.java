@@ -7,6 +7,7 @@ import cern.colt.matrix.tdouble.impl.DenseDoubleMatrix2D;
 
 import mbqtl.matrix.ShortMatrix2D;
 import mbqtl.vcf.filter.genotypefilters.VCFGenotypeFilter;
+import org.molgenis.genotype.vcf.VcfLineParser;
 import umcg.genetica.enums.Chromosome;
 import umcg.genetica.enums.DiseaseStatus;
 import umcg.genetica.enums.Gender;
@@ -155,6 +156,17 @@ public class VCFVariant {
 		parse(ln, p);
 	}
 
+	/**
+	 * Same as {@link #VCFVariant(String, PARSE, boolean[])}, but the genotypes are parsed by lineParser so a reader
+	 * can reuse one parser for all its lines. lineParser must be created with the same samplesToInclude and may only
+	 * be used by one thread at a time.
+	 */
+	public VCFVariant(String ln, PARSE p, boolean[] samplesToInclude, VcfLineParser lineParser) {
+		constructor = 10;
+		this.samplesToInclude = samplesToInclude;
+		parse(ln, p, lineParser);
+	}
+
 	public VCFVariant(String ln, PARSE p, SampleAnnotation sampleAnnotation) {
 		constructor = 8;
 		this.sampleAnnotation = sampleAnnotation;
@@ -219,6 +231,10 @@ public class VCFVariant {
 	}
 
 	public void parse(String ln, PARSE p) {
+		parse(ln, p, null);
+	}
+
+	private void parse(String ln, PARSE p, VcfLineParser lineParser) {
 
 		// GT:AB:AD:DP:GQ:PL
 		int gtCol = -1; // genotype
@@ -324,6 +340,10 @@ public class VCFVariant {
 		}
 
 		if (p.equals(PARSE.ALL) || p.equals(PARSE.GENOTYPES)) {
+			// byte level parsing of the common GT/DS/GP columns, falls back to the String based parsing below for other columns or unexpected values
+			if (ln != null && adCol == -1 && gqCol == -1 && dpCol == -1 && ppCol == -1 && parseGenotypesFast(ln, p, gtCol, dsCol, gpCol, lineParser)) {
+				ln = null;
+			}
 			if (ln != null) {
 
 //				String[] tokenArr = Strings.split(ln, 0, Strings.tab);
@@ -627,6 +647,112 @@ public class VCFVariant {
 	}
 
 
+	/**
+	 * Parses the GT, DS and GP columns of all (included) samples without splitting the line into Strings.
+	 *
+	 * @param lineParser parser to reuse, null to create a new one
+	 * @return false if the line contains values that should be handled by the String based parsing. In that case the
+	 * genotype data of this variant is left untouched.
+	 */
+	private boolean parseGenotypesFast(String ln, PARSE p, int gtCol, int dsCol, int gpCol, VcfLineParser lineParser) {
+
+		VcfLineParser parser = lineParser != null ? lineParser : new VcfLineParser(samplesToInclude);
+		DoubleMatrix2D genotypeAlleles = null;
+		DoubleMatrix2D dosages = null;
+		DoubleMatrix2D genotypeProbabilies = null;
+		PHASE phase = this.phase;
+
+		try {
+			parser.parse(ln);
+			int nrSamples = parser.getSampleCount();
+			if (nrSamples == 0) {
+				// allow VCFs without any actual genotypes
+				return true;
+			}
+
+			genotypeAlleles = DoubleFactory2D.dense.make(nrSamples, 2, -1);
+			int nrDosages = alleles.length - 1;
+			int nrPossibleGenotypes = (alleles.length * (alleles.length + 1)) / 2;
+			int[] gt = new int[2];
+
+			for (int sample = 0; sample < nrSamples; sample++) {
+
+				if (parser.selectField(sample, gtCol)) {
+					phase = parser.isFieldGenotypePhased() ? PHASE.PHASED : PHASE.UNPHASED;
+					int ploidy = parser.readFieldGenotype(gt);
+					if (gt[0] != -1) {
+						if (ploidy < 2 || gt[0] > Byte.MAX_VALUE || gt[1] > Byte.MAX_VALUE) {
+							return false;
+						}
+						if (gt[1] != -1) {
+							genotypeAlleles.setQuick(sample, 0, gt[0]);
+							genotypeAlleles.setQuick(sample, 1, gt[1]);
+						}
+					}
+				}
+
+				if (p.equals(PARSE.ALL) && parser.selectField(sample, dsCol)) {
+					if (dosages == null) {
+						dosages = new DenseDoubleMatrix2D(nrSamples, nrDosages);
+					}
+					int nrValues = parser.getFieldValueCount();
+					if (nrValues > nrDosages) {
+						return false;
+					}
+					for (int q = 0; q < nrValues; q++) {
+						try {
+							dosages.setQuick(sample, q, parser.getFieldDouble(q));
+						} catch (NumberFormatException e) {
+							dosages.setQuick(sample, q, Double.NaN);
+						}
+					}
+				}
+
+				if (p.equals(PARSE.ALL) && parser.selectField(sample, gpCol)) {
+					if (genotypeProbabilies == null) {
+						genotypeProbabilies = new DenseDoubleMatrix2D(nrSamples, nrPossibleGenotypes);
+					}
+					int nrValues = parser.getFieldValueCount();
+					if (nrValues > nrPossibleGenotypes) {
+						return false;
+					}
+					if (parser.isFieldValueMissing(0)) {
+						for (int a = 0; a < nrPossibleGenotypes; a++) {
+							genotypeProbabilies.setQuick(sample, a, -1);
+						}
+					} else {
+						try {
+							for (int g = 0; g < nrValues; g++) {
+								genotypeProbabilies.setQuick(sample, g, parser.getFieldDouble(g));
+							}
+						} catch (NumberFormatException e) {
+
+						}
+					}
+				}
+			}
+		} catch (RuntimeException e) {
+			return false;
+		}
+
+		this.genotypeAlleles = genotypeAlleles;
+		this.dosages = dosages;
+		this.genotypeProbabilies = genotypeProbabilies;
+		this.phase = phase;
+
+		if (genotypeProbabilies != null && dosages == null) {
+			this.dosages = calculateDosageFromProbabilities(genotypeProbabilies);
+		}
+
+		if (filters != null) {
+			for (VCFGenotypeFilter filter : filters) {
+				filter.filter(this);
+			}
+		}
+		recalculateMAFAndCallRate();
+		return true;
+	}
+
 	private void parseInfoString(String infoStr) {
 		String[] infoElems = Strings.semicolon.split(infoStr);
 
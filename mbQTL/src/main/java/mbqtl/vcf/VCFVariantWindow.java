@@ -0,0 +1,310 @@
+package mbqtl.vcf;
+
+import umcg.genetica.enums.Chromosome;
+import umcg.genetica.features.Feature;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sliding window over the variants of a tabix indexed VCF, for analyses that query overlapping regions in genomic
+ * order, such as the cis-windows of genes sorted by position. Every variant is read and parsed once; variants ending
+ * before the start of the requested region are evicted, so the window never holds much more than the variants of the
+ * largest region. Requesting a region that starts before the previous one restarts the window.
+ * <p>
+ * A region is requested in two steps. {@link #request(Feature, Set)} only moves the window and is cheap, so callers
+ * can synchronize on the window to request regions in order. The part of the region that was not yet in the window
+ * is then read by {@link Request#getVariants()} outside the lock, in parallel with the reads of other requests.
+ * <p>
+ * Same as a tabix query, a region contains the variants overlapping it, including deletions starting before the
+ * region. The returned variants are shared between callers and should not be modified.
+ * <p>
+ * The genotypes and dosages of a variant are decoded once, when the variant is read. With a variant ID filter, other
+ * variants are skipped after parsing their header.
+ */
+public class VCFVariantWindow {
+
+	private final String vcfFile;
+	private final boolean[] samplefilter;
+	private final Set<String> variantIdFilter;
+	// readers that are not in use, a reader is only used by one thread at a time
+	private final ArrayDeque<VCFTabix> readers = new ArrayDeque<>();
+	private final ArrayList<VCFTabix> allReaders = new ArrayList<>();
+	private final ArrayDeque<Segment> segments = new ArrayDeque<>();
+	private Chromosome chromosome = null;
+	private int windowStart = -1;
+	private int windowStop = -1;
+	private final AtomicLong nrVariantsParsed = new AtomicLong();
+
+	public VCFVariantWindow(String vcfFile, boolean[] samplefilter) throws IOException {
+		this(vcfFile, samplefilter, null);
+	}
+
+	/**
+	 * @param variantIdFilter variants to read, null to read all variants. Requests can limit the variants further.
+	 */
+	public VCFVariantWindow(String vcfFile, boolean[] samplefilter, Set<String> variantIdFilter) throws IOException {
+		this.vcfFile = vcfFile;
+		this.samplefilter = samplefilter;
+		this.variantIdFilter = variantIdFilter;
+		VCFTabix tabix = new VCFTabix(vcfFile);
+		readers.add(tabix);
+		allReaders.add(tabix);
+	}
+
+	/**
+	 * Moves the window to a region. The variants of the region are read by {@link Request#getVariants()}, which
+	 * must be called, as other requests can wait for the variants this request reads.
+	 */
+	public synchronized Request request(Feature region, Set<String> variantIdFilter) {
+		int start = region.getStart();
+		if (start < 1) {
+			start = 1;
+		}
+		int stop = region.getStop();
+
+		boolean restart = region.getChromosome() != chromosome || start < windowStart || start > windowStop;
+		if (restart) {
+			// no overlap with the current window
+			segments.clear();
+			chromosome = region.getChromosome();
+			windowStop = start - 1;
+		} else {
+			// segments that are still being read are kept, they are evicted by a later request
+			while (!segments.isEmpty() && segments.peekFirst().isEvictable(start)) {
+				segments.pollFirst();
+			}
+		}
+		windowStart = start;
+
+		Segment toLoad = null;
+		if (stop > windowStop) {
+			// the first segment of a window also holds the variants starting before it
+			toLoad = new Segment(chromosome, windowStop + 1, stop, restart);
+			segments.add(toLoad);
+			windowStop = stop;
+		}
+		return new Request(new ArrayList<>(segments), toLoad, start, stop, variantIdFilter);
+	}
+
+	private void load(Segment segment) throws IOException {
+		VCFTabix tabix = borrowReader();
+		try {
+			ArrayList<WindowVariant> loaded = new ArrayList<>();
+			int maxEnd = 0;
+			Feature region = new Feature(segment.chromosome, segment.start, segment.stop);
+			Iterator<VCFVariant> iterator = variantIdFilter == null ? tabix.getVariants(region, samplefilter) : tabix.getVariants(region, samplefilter, variantIdFilter);
+			while (iterator.hasNext()) {
+				VCFVariant variant = iterator.next();
+				// tabix also returns variants starting before the region that overlap it, after the first segment
+				// these are already in the window
+				if (variant != null && (segment.includeOverlapping || variant.getPos() >= segment.start)) {
+					loaded.add(new WindowVariant(variant));
+					maxEnd = Math.max(maxEnd, getEnd(variant));
+				}
+			}
+			nrVariantsParsed.addAndGet(loaded.size());
+			segment.loaded(loaded, maxEnd);
+		} catch (IOException | RuntimeException e) {
+			segment.failed(e);
+			throw e;
+		} finally {
+			returnReader(tabix);
+		}
+	}
+
+	private VCFTabix borrowReader() throws IOException {
+		synchronized (readers) {
+			VCFTabix tabix = readers.pollFirst();
+			if (tabix != null) {
+				return tabix;
+			}
+		}
+		VCFTabix tabix = new VCFTabix(vcfFile);
+		synchronized (readers) {
+			allReaders.add(tabix);
+		}
+		return tabix;
+	}
+
+	private void returnReader(VCFTabix tabix) {
+		synchronized (readers) {
+			readers.addFirst(tabix);
+		}
+	}
+
+	private static int getEnd(VCFVariant variant) {
+		String[] alleles = variant.getAlleles();
+		if (alleles == null || alleles[0] == null || alleles[0].isEmpty()) {
+			return variant.getPos();
+		}
+		return variant.getPos() + alleles[0].length() - 1;
+	}
+
+	public long getNrVariantsParsed() {
+		return nrVariantsParsed.get();
+	}
+
+	public void close() {
+		synchronized (this) {
+			segments.clear();
+		}
+		synchronized (readers) {
+			for (VCFTabix tabix : allReaders) {
+				tabix.close();
+			}
+			allReaders.clear();
+			readers.clear();
+		}
+	}
+
+	/**
+	 * Variants of a region that is requested from the window.
+	 */
+	public class Request {
+
+		private final ArrayList<Segment> requestSegments;
+		private final Segment toLoad;
+		private final int start;
+		private final int stop;
+		private final Set<String> variantIdFilter;
+
+		private Request(ArrayList<Segment> requestSegments, Segment toLoad, int start, int stop, Set<String> variantIdFilter) {
+			this.requestSegments = requestSegments;
+			this.toLoad = toLoad;
+			this.start = start;
+			this.stop = stop;
+			this.variantIdFilter = variantIdFilter;
+		}
+
+		/**
+		 * Reads the part of the region that was new to the window and waits for the parts read by earlier
+		 * requests.
+		 */
+		public ArrayList<WindowVariant> getVariants() throws IOException {
+			if (toLoad != null) {
+				load(toLoad);
+			}
+
+			ArrayList<WindowVariant> output = new ArrayList<>();
+			for (Segment segment : requestSegments) {
+				for (WindowVariant windowVariant : segment.await()) {
+					VCFVariant variant = windowVariant.variant;
+					if (variant.getPos() > stop) {
+						break;
+					}
+					if ((variant.getPos() >= start || getEnd(variant) >= start)
+							&& (variantIdFilter == null || variantIdFilter.contains(variant.getId()))) {
+						output.add(windowVariant);
+					}
+				}
+			}
+			return output;
+		}
+	}
+
+	/**
+	 * Variant of the window with its genotypes and dosages. The arrays are shared between callers and should not be
+	 * modified.
+	 */
+	public static class WindowVariant {
+
+		private final VCFVariant variant;
+		private final double[] genotypes;
+		private final double[] dosages;
+
+		private WindowVariant(VCFVariant variant) {
+			this.variant = variant;
+			byte[] genotypesAsByteVector = variant.getGenotypesAsByteVector();
+			if (genotypesAsByteVector == null) {
+				// not biallelic
+				genotypes = null;
+			} else {
+				genotypes = new double[genotypesAsByteVector.length];
+				for (int i = 0; i < genotypes.length; i++) {
+					genotypes[i] = genotypesAsByteVector[i];
+				}
+			}
+			double[][] dosage = variant.getDosage();
+			dosages = new double[dosage.length];
+			for (int i = 0; i < dosages.length; i++) {
+				dosages[i] = dosage[i][0];
+			}
+		}
+
+		public VCFVariant getVariant() {
+			return variant;
+		}
+
+		/**
+		 * @return genotype per sample, -1 if missing, null if the variant is not biallelic
+		 */
+		public double[] getGenotypes() {
+			return genotypes;
+		}
+
+		/**
+		 * @return dosage of the first alternative allele per sample
+		 */
+		public double[] getDosages() {
+			return dosages;
+		}
+	}
+
+	/**
+	 * Variants read by one request, in order of position.
+	 */
+	private static class Segment {
+
+		private final Chromosome chromosome;
+		private final int start;
+		private final int stop;
+		private final boolean includeOverlapping;
+		// null until read
+		private volatile ArrayList<WindowVariant> variants = null;
+		private volatile int maxEnd = 0;
+		private volatile Exception exception = null;
+
+		Segment(Chromosome chromosome, int start, int stop, boolean includeOverlapping) {
+			this.chromosome = chromosome;
+			this.start = start;
+			this.stop = stop;
+			this.includeOverlapping = includeOverlapping;
+		}
+
+		boolean isEvictable(int windowStart) {
+			return (variants != null && maxEnd < windowStart) || exception != null;
+		}
+
+		synchronized void loaded(ArrayList<WindowVariant> variants, int maxEnd) {
+			this.maxEnd = maxEnd;
+			this.variants = variants;
+			notifyAll();
+		}
+
+		synchronized void failed(Exception e) {
+			this.exception = e;
+			notifyAll();
+		}
+
+		synchronized ArrayList<WindowVariant> await() throws IOException {
+			while (variants == null && exception == null) {
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException("Interrupted while waiting for variants " + chromosome + ":" + start + "-" + stop);
+				}
+			}
+			if (exception != null) {
+				throw new IOException("Could not read variants " + chromosome + ":" + start + "-" + stop, exception);
+			}
+			return variants;
+		}
+	}
+}
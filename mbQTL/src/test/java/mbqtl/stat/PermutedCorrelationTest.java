@@ -0,0 +1,148 @@
+package mbqtl.stat;
+
+import mbqtl.Util;
+import org.testng.annotations.Test;
+import umcg.genetica.math.stats.Correlation;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.testng.Assert.*;
+
+public class PermutedCorrelationTest {
+
+    private static final int NR_SAMPLES = 53;
+    private static final int NR_PERMUTATIONS = 20;
+
+    @Test
+    public void testCorrelate() {
+        Random random = new Random(11);
+        long[] seeds = createSeeds(random);
+        double[] expression = new double[NR_SAMPLES];
+        for (int i = 0; i < NR_SAMPLES; i++) {
+            expression[i] = random.nextGaussian() * 3 + 10;
+        }
+        PermutedCorrelation permutedCorrelation = new PermutedCorrelation(expression, seeds);
+        assertEquals(permutedCorrelation.getNrPermutations(), NR_PERMUTATIONS);
+
+        for (double missingRate : new double[]{0, 0.1, 0.5}) {
+            double[] genotypes = new double[NR_SAMPLES];
+            double[] dosages = new double[NR_SAMPLES];
+            createGenotypes(random, missingRate, genotypes, dosages);
+
+            double[] correlations = new double[NR_PERMUTATIONS];
+            int nrObservations = permutedCorrelation.correlate(genotypes, dosages, correlations);
+
+            for (int p = 0; p < NR_PERMUTATIONS; p++) {
+                double[] pruned = pruneAndCenterScale(genotypes, dosages, expression, seeds[p]);
+                assertEquals(nrObservations, pruned.length / 2);
+                double expected = Correlation.correlate(Arrays.copyOf(pruned, nrObservations), Arrays.copyOfRange(pruned, nrObservations, pruned.length));
+                assertEquals(correlations[p], expected, 1e-10, "missing rate " + missingRate + " permutation " + p);
+            }
+        }
+    }
+
+    @Test
+    public void testCorrelateNoVariance() {
+        Random random = new Random(12);
+        long[] seeds = createSeeds(random);
+
+        double[] genotypes = new double[NR_SAMPLES];
+        double[] dosages = new double[NR_SAMPLES];
+        createGenotypes(random, 0.2, genotypes, dosages);
+        double[] correlations = new double[NR_PERMUTATIONS];
+
+        // 0.1 is not exactly representable, the sums of squares are only rounding errors
+        double[] expression = new double[NR_SAMPLES];
+        Arrays.fill(expression, 0.1);
+        new PermutedCorrelation(expression, seeds).correlate(genotypes, dosages, correlations);
+        assertAllNaN(correlations);
+
+        Arrays.fill(expression, 0);
+        new PermutedCorrelation(expression, seeds).correlate(genotypes, dosages, correlations);
+        assertAllNaN(correlations);
+
+        for (int i = 0; i < NR_SAMPLES; i++) {
+            expression[i] = random.nextGaussian();
+        }
+        PermutedCorrelation permutedCorrelation = new PermutedCorrelation(expression, seeds);
+
+        double[] constantDosages = new double[NR_SAMPLES];
+        Arrays.fill(constantDosages, 0.1);
+        permutedCorrelation.correlate(genotypes, constantDosages, correlations);
+        assertAllNaN(correlations);
+
+        // a single observation
+        double[] singleGenotype = new double[NR_SAMPLES];
+        Arrays.fill(singleGenotype, -1);
+        singleGenotype[3] = 1;
+        assertEquals(permutedCorrelation.correlate(singleGenotype, dosages, correlations), 1);
+        assertAllNaN(correlations);
+    }
+
+    @Test
+    public void testIsSupported() {
+        assertTrue(PermutedCorrelation.isSupported(new double[]{1, 2, 3}));
+        assertFalse(PermutedCorrelation.isSupported(new double[]{1, Double.NaN, 3}));
+    }
+
+    private static long[] createSeeds(Random random) {
+        long[] seeds = new long[NR_PERMUTATIONS];
+        for (int p = 0; p < NR_PERMUTATIONS; p++) {
+            seeds[p] = random.nextLong();
+        }
+        return seeds;
+    }
+
+    private static void createGenotypes(Random random, double missingRate, double[] genotypes, double[] dosages) {
+        for (int i = 0; i < NR_SAMPLES; i++) {
+            if (random.nextDouble() < missingRate) {
+                genotypes[i] = -1;
+                dosages[i] = -1;
+            } else {
+                genotypes[i] = random.nextInt(3);
+                dosages[i] = Math.min(2, Math.max(0, genotypes[i] + random.nextGaussian() * 0.1));
+            }
+        }
+    }
+
+    /**
+     * The per permutation path of MbQTL2ParallelCis: shuffle the expression, remove the samples with a missing
+     * genotype and center-scale the dosages and expression.
+     *
+     * @return the dosages followed by the expression
+     */
+    private static double[] pruneAndCenterScale(double[] genotypes, double[] dosages, double[] expression, long seed) {
+        double[] expressionCopy = expression.clone();
+        Util.shuffleArray(expressionCopy, seed);
+
+        int nrObservations = 0;
+        for (double genotype : genotypes) {
+            if (genotype != -1) {
+                nrObservations++;
+            }
+        }
+        double[] dosagesPruned = new double[nrObservations];
+        double[] expressionPruned = new double[nrObservations];
+        int ctr = 0;
+        for (int i = 0; i < genotypes.length; i++) {
+            if (genotypes[i] != -1) {
+                dosagesPruned[ctr] = dosages[i];
+                expressionPruned[ctr] = expressionCopy[i];
+                ctr++;
+            }
+        }
+
+        double[] pruned = new double[nrObservations * 2];
+        System.arraycopy(Util.centerScale(dosagesPruned), 0, pruned, 0, nrObservations);
+        System.arraycopy(Util.centerScale(expressionPruned), 0, pruned, nrObservations, nrObservations);
+        return pruned;
+    }
+
+    private static void assertAllNaN(double[] correlations) {
+        for (double correlation : correlations) {
+            assertTrue(Double.isNaN(correlation), "Expected NaN but was: " + correlation);
+        }
+    }
+
+}